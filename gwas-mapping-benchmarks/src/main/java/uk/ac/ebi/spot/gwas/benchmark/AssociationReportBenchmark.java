@@ -0,0 +1,61 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.ebi.spot.gwas.association.Association;
+import uk.ac.ebi.spot.gwas.common.service.AssociationReportService;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Error classification of one association, with the pipeline errors an association usually collects.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class AssociationReportBenchmark {
+
+    private static final String[] ERRORS = {
+            "Variation does not map to the genome",
+            "Reported gene GENE1 is on a different chromosome (chr 7)",
+            "Can't find a location in Ensembl for the reported gene GENE2",
+            "rs12345 not found for homo_sapiens",
+            "No valid lookup found for symbol GENE3",
+            "Variant maps to more than 1 location"};
+
+    @Param({"0", "3"})
+    public int errorCount;
+
+    private AssociationReportService associationReportService;
+    private Association[] associations;
+    private List<Collection<String>> errors;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        associationReportService = MappingServices.associationReportService();
+        Random random = new Random(42);
+        associations = new Association[1024];
+        errors = new ArrayList<>();
+        for (int i = 0; i < associations.length; i++) {
+            associations[i] = new Association();
+            associations[i].setId((long) i);
+            List<String> associationErrors = new ArrayList<>();
+            for (int e = 0; e < errorCount; e++) {
+                associationErrors.add(ERRORS[random.nextInt(ERRORS.length)]);
+            }
+            errors.add(associationErrors);
+        }
+    }
+
+    @Benchmark
+    public void processAssociationErrors(Blackhole blackhole) {
+        int index = next++ & (associations.length - 1);
+        associationReportService.processAssociationErrors(associations[index], errors.get(index));
+        blackhole.consume(associations[index]);
+    }
+}
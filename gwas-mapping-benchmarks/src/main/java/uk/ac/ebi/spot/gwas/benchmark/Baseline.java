@@ -0,0 +1,107 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Throughput and allocated bytes per operation of every benchmark from a reference run. Throughput
+ * depends on the machine and is only flagged past a wide margin, allocation per operation barely moves
+ * between machines and runs.
+ */
+class Baseline {
+
+    private static final String ALLOCATION = "·gc.alloc.rate.norm";
+
+    private final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private final Path file;
+    private final double throughputTolerance = Double.parseDouble(System.getProperty("baseline.throughput_tolerance", "0.15"));
+    private final double allocationTolerance = Double.parseDouble(System.getProperty("baseline.allocation_tolerance", "0.05"));
+
+    Baseline(Path file) {
+        this.file = file;
+    }
+
+    void write(Collection<RunResult> results) throws IOException {
+        Map<String, Score> scores = new TreeMap<>();
+        if (Files.exists(file)) {
+            // Runs of a subset of the benchmarks keep the others
+            scores.putAll(this.read());
+        }
+        for (RunResult result : results) {
+            scores.put(key(result.getParams()), score(result));
+        }
+        mapper.writeValue(file.toFile(), scores);
+        System.out.printf("Baseline %s updated with %s benchmarks%n", file, results.size());
+    }
+
+    /**
+     * False when a benchmark is slower or allocates more than the tolerances allow.
+     */
+    boolean check(Collection<RunResult> results) throws IOException {
+        if (!Files.exists(file)) {
+            System.out.printf("No baseline at %s, run with -Dbaseline.update=true to create it%n", file);
+            return true;
+        }
+        Map<String, Score> baseline = this.read();
+        List<String> regressions = new ArrayList<>();
+        System.out.printf("%n%-95s %14s %14s %12s %12s%n", "Benchmark", "ops/s", "baseline", "B/op", "baseline");
+        for (RunResult result : results) {
+            String key = key(result.getParams());
+            Score current = score(result);
+            Score reference = baseline.get(key);
+            if (reference == null) {
+                System.out.printf("%-95s %14.1f %14s %12.1f %12s%n", key, current.opsPerSecond, "-", current.bytesPerOp, "-");
+                continue;
+            }
+            System.out.printf("%-95s %14.1f %14.1f %12.1f %12.1f%n", key, current.opsPerSecond, reference.opsPerSecond,
+                              current.bytesPerOp, reference.bytesPerOp);
+            if (current.opsPerSecond < reference.opsPerSecond * (1 - throughputTolerance)) {
+                regressions.add(String.format("%s throughput %.1f ops/s, baseline %.1f", key, current.opsPerSecond, reference.opsPerSecond));
+            }
+            // A few bytes of slack for benchmarks which hardly allocate
+            if (current.bytesPerOp > reference.bytesPerOp * (1 + allocationTolerance) + 16) {
+                regressions.add(String.format("%s allocates %.1f B/op, baseline %.1f", key, current.bytesPerOp, reference.bytesPerOp));
+            }
+        }
+        regressions.forEach(regression -> System.out.println("REGRESSION " + regression));
+        return regressions.isEmpty();
+    }
+
+    private Map<String, Score> read() throws IOException {
+        return mapper.readValue(file.toFile(), mapper.getTypeFactory().constructMapType(TreeMap.class, String.class, Score.class));
+    }
+
+    private static Score score(RunResult result) {
+        Score score = new Score();
+        score.opsPerSecond = round(result.getPrimaryResult().getScore());
+        Result<?> allocation = result.getSecondaryResults().get(ALLOCATION);
+        score.bytesPerOp = allocation == null ? 0 : round(allocation.getScore());
+        return score;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    private static String key(BenchmarkParams params) {
+        StringBuilder key = new StringBuilder(params.getBenchmark());
+        for (String name : params.getParamsKeys()) {
+            key.append(':').append(name).append('=').append(params.getParam(name));
+        }
+        return key.toString();
+    }
+
+    static class Score {
+
+        public double opsPerSecond;
+        public double bytesPerOp;
+    }
+}
@@ -0,0 +1,45 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Paths;
+import java.util.Collection;
+
+/**
+ * Runs the benchmarks with the allocation profiler and checks them against the baseline, exiting with 1
+ * on a regression. JMH options are passed through, e.g. a benchmark regex or -f/-wi/-i.
+ * <p>
+ * java -jar target/benchmarks.jar [jmh options]
+ * -Dbaseline=baseline.json           baseline to compare with
+ * -Dbaseline.update=true             write the results as the new baseline instead
+ * -Dgwas.fixtures=cacheDir           recorded Ensembl responses instead of generated ones
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("jmh.result", "jmh-result.json"));
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+        }
+        Collection<RunResult> results = new Runner(options.build()).run();
+
+        Baseline baseline = new Baseline(Paths.get(System.getProperty("baseline", "baseline.json")));
+        if (Boolean.getBoolean("baseline.update")) {
+            baseline.write(results);
+            return;
+        }
+        if (!baseline.check(results)) {
+            System.exit(1);
+        }
+    }
+}
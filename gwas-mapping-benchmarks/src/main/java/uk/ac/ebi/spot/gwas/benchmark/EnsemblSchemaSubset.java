@@ -0,0 +1,243 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.*;
+
+/**
+ * The Ensembl core, otherfeatures and variation tables read by EnsemblDatabaseService, with only the
+ * columns it reads, in an in-memory H2 in MySQL mode and filled from the {@link SyntheticGenome}: every
+ * band and gene, and the variations of the rsIDs given. The database provider then answers what the
+ * stand-in answers over REST.
+ */
+final class EnsemblSchemaSubset {
+
+    static final String URL = "jdbc:h2:mem:ensembl;MODE=MySQL;DB_CLOSE_DELAY=-1";
+    static final String CORE = "homo_sapiens_core";
+    static final String OTHERFEATURES = "homo_sapiens_otherfeatures";
+    static final String VARIATION = "homo_sapiens_variation";
+
+    private static final int ALT_HAPLOTYPE_ID = 100;
+    private static final String[] ATTRIB_TYPES = {"toplevel", "karyotype_rank", "non_ref", "circular_seq"};
+    private static final String[] EVIDENCE = {"Frequency", "1000Genomes", "ESP", "ExAC", "TOPMed", "gnomAD"};
+
+    private static final String[] GENOME_TABLES = {
+            "coord_system (coord_system_id INT PRIMARY KEY, name VARCHAR(40), version VARCHAR(255))",
+            "seq_region (seq_region_id INT PRIMARY KEY, name VARCHAR(255), coord_system_id INT, length INT)",
+            "attrib_type (attrib_type_id SMALLINT PRIMARY KEY, code VARCHAR(20))",
+            "seq_region_attrib (seq_region_id INT, attrib_type_id SMALLINT)",
+            "assembly_exception (assembly_exception_id INT PRIMARY KEY, seq_region_id INT, exc_type VARCHAR(11))",
+            "karyotype (karyotype_id INT PRIMARY KEY, seq_region_id INT, seq_region_start INT, seq_region_end INT, " +
+                    "band VARCHAR(40), stain VARCHAR(40))",
+            "analysis (analysis_id SMALLINT PRIMARY KEY, logic_name VARCHAR(128))",
+            "meta_coord (table_name VARCHAR(40), coord_system_id INT, max_length INT)",
+            "xref (xref_id INT PRIMARY KEY, display_label VARCHAR(512))",
+            "object_xref (object_xref_id INT PRIMARY KEY, ensembl_id INT, ensembl_object_type VARCHAR(20), xref_id INT)",
+            "external_synonym (xref_id INT, synonym VARCHAR(100))",
+            "gene (gene_id INT PRIMARY KEY, biotype VARCHAR(40), analysis_id SMALLINT, seq_region_id INT, seq_region_start INT, " +
+                    "seq_region_end INT, seq_region_strand TINYINT, display_xref_id INT, source VARCHAR(40), description VARCHAR(1024), " +
+                    "is_current TINYINT, stable_id VARCHAR(128), version SMALLINT)"};
+
+    private static final String[] VARIATION_TABLES = {
+            "coord_system (coord_system_id INT PRIMARY KEY, name VARCHAR(40), version VARCHAR(255))",
+            "seq_region (seq_region_id INT PRIMARY KEY, name VARCHAR(255), coord_system_id INT)",
+            "source (source_id INT PRIMARY KEY, name VARCHAR(24), description VARCHAR(400))",
+            "attrib (attrib_id INT PRIMARY KEY, value VARCHAR(255))",
+            "variation (variation_id INT PRIMARY KEY, source_id INT, name VARCHAR(255), class_attrib_id INT, minor_allele VARCHAR(50), " +
+                    "minor_allele_freq REAL, evidence_attribs VARCHAR(255))",
+            "variation_feature (variation_feature_id INT PRIMARY KEY, variation_id INT, seq_region_id INT, seq_region_start INT, " +
+                    "seq_region_end INT, seq_region_strand TINYINT, allele_string VARCHAR(50000), ancestral_allele VARCHAR(50), " +
+                    "consequence_types VARCHAR(1024))",
+            "variation_synonym (variation_synonym_id INT PRIMARY KEY, variation_id INT, name VARCHAR(255))",
+            "failed_variation (failed_variation_id INT PRIMARY KEY, variation_id INT, failed_description_id INT)",
+            "failed_description (failed_description_id INT PRIMARY KEY, description VARCHAR(1024))"};
+
+    private EnsemblSchemaSubset() {
+    }
+
+    /**
+     * ensembl.datasource settings of the application for the subset.
+     */
+    static Map<String, Object> properties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("ensembl.datasource.url", URL);
+        properties.put("ensembl.datasource.driver-class", "org.h2.Driver");
+        properties.put("ensembl.datasource.username", "sa");
+        properties.put("ensembl.datasource.password", "");
+        properties.put("ensembl.datasource.core", CORE);
+        properties.put("ensembl.datasource.otherfeatures", OTHERFEATURES);
+        properties.put("ensembl.datasource.variation", VARIATION);
+        return properties;
+    }
+
+    static void load(Collection<String> rsIds) throws SQLException {
+        SyntheticGenome genome = SyntheticGenome.get();
+        long start = System.currentTimeMillis();
+        try (Connection connection = DriverManager.getConnection(URL, "sa", "")) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                for (String schema : Arrays.asList(CORE, OTHERFEATURES, VARIATION)) {
+                    statement.execute(String.format("DROP SCHEMA IF EXISTS %s CASCADE", schema));
+                    statement.execute(String.format("CREATE SCHEMA %s", schema));
+                }
+                for (String schema : Arrays.asList(CORE, OTHERFEATURES)) {
+                    for (String table : GENOME_TABLES) {
+                        statement.execute(String.format("CREATE TABLE %s.%s", schema, table));
+                    }
+                    statement.execute(String.format("CREATE INDEX %1$s_gene_region ON %1$s.gene (seq_region_id, seq_region_start)", schema));
+                    statement.execute(String.format("CREATE INDEX %1$s_xref_label ON %1$s.xref (display_label)", schema));
+                }
+                for (String table : VARIATION_TABLES) {
+                    statement.execute(String.format("CREATE TABLE %s.%s", VARIATION, table));
+                }
+                statement.execute(String.format("CREATE INDEX variation_name ON %s.variation (name)", VARIATION));
+                statement.execute(String.format("CREATE INDEX variation_feature_variation ON %s.variation_feature (variation_id)", VARIATION));
+                statement.execute(String.format("CREATE INDEX variation_synonym_name ON %s.variation_synonym (name)", VARIATION));
+            }
+            int genes = loadGenome(connection, genome, CORE, SyntheticGenome.ENSEMBL_SOURCE);
+            genes += loadGenome(connection, genome, OTHERFEATURES, SyntheticGenome.NCBI_SOURCE);
+            int variations = loadVariations(connection, genome, rsIds);
+            connection.commit();
+            System.out.printf("Loaded %s genes and %s variations into %s in %s ms%n", genes, variations, URL,
+                              System.currentTimeMillis() - start);
+        }
+    }
+
+    private static int loadGenome(Connection connection, SyntheticGenome genome, String schema, String source) throws SQLException {
+        List<String> chromosomes = SyntheticGenome.chromosomes();
+        insert(connection, schema, "coord_system", Collections.singletonList(new Object[]{1, "chromosome", SyntheticGenome.ASSEMBLY}));
+        for (int i = 0; i < ATTRIB_TYPES.length; i++) {
+            insert(connection, schema, "attrib_type", Collections.singletonList(new Object[]{i + 1, ATTRIB_TYPES[i]}));
+        }
+        List<Object[]> seqRegions = new ArrayList<>();
+        List<Object[]> seqRegionAttribs = new ArrayList<>();
+        for (int i = 0; i < chromosomes.size(); i++) {
+            seqRegions.add(new Object[]{i + 1, chromosomes.get(i), 1, genome.length(chromosomes.get(i))});
+            seqRegionAttribs.add(new Object[]{i + 1, 1});
+            seqRegionAttribs.add(new Object[]{i + 1, 2});
+        }
+        seqRegions.add(new Object[]{ALT_HAPLOTYPE_ID, SyntheticGenome.ALT_HAPLOTYPE, 1, SyntheticGenome.ALT_HAPLOTYPE_LENGTH});
+        seqRegionAttribs.add(new Object[]{ALT_HAPLOTYPE_ID, 1});
+        seqRegionAttribs.add(new Object[]{ALT_HAPLOTYPE_ID, 3});
+        insert(connection, schema, "seq_region", seqRegions);
+        insert(connection, schema, "seq_region_attrib", seqRegionAttribs);
+        insert(connection, schema, "assembly_exception", Collections.singletonList(new Object[]{1, ALT_HAPLOTYPE_ID, "HAP"}));
+
+        List<Object[]> bands = new ArrayList<>();
+        Map<String, Integer> analyses = new LinkedHashMap<>();
+        List<Object[]> xrefs = new ArrayList<>();
+        List<Object[]> objectXrefs = new ArrayList<>();
+        List<Object[]> genes = new ArrayList<>();
+        for (int i = 0; i < chromosomes.size(); i++) {
+            String chromosome = chromosomes.get(i);
+            int length = genome.length(chromosome);
+            for (Map<String, Object> band : genome.overlapBands(chromosome, 1, length)) {
+                bands.add(new Object[]{bands.size() + 1, i + 1, band.get("start"), band.get("end"), band.get("id"), band.get("stain")});
+            }
+            for (Map<String, Object> gene : genome.overlapGenes(chromosome, 1, length, source)) {
+                int id = genes.size() + 1;
+                int analysisId = analyses.computeIfAbsent((String) gene.get("logic_name"), name -> analyses.size() + 1);
+                xrefs.add(new Object[]{id, gene.get("external_name")});
+                objectXrefs.add(new Object[]{id, id, "Gene", id});
+                genes.add(new Object[]{id, gene.get("biotype"), analysisId, i + 1, gene.get("start"), gene.get("end"), gene.get("strand"), id,
+                        gene.get("source"), gene.get("description"), 1, gene.get("id"), gene.get("version")});
+            }
+        }
+        int maxLength = genes.stream().mapToInt(gene -> (Integer) gene[5] - (Integer) gene[4] + 1).max().orElse(0);
+        insert(connection, schema, "meta_coord", Collections.singletonList(new Object[]{"gene", 1, maxLength}));
+        List<Object[]> analysisRows = new ArrayList<>();
+        analyses.forEach((logicName, id) -> analysisRows.add(new Object[]{id, logicName}));
+        insert(connection, schema, "karyotype", bands);
+        insert(connection, schema, "analysis", analysisRows);
+        insert(connection, schema, "xref", xrefs);
+        insert(connection, schema, "object_xref", objectXrefs);
+        insert(connection, schema, "gene", genes);
+        return genes.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int loadVariations(Connection connection, SyntheticGenome genome, Collection<String> rsIds) throws SQLException {
+        List<String> chromosomes = SyntheticGenome.chromosomes();
+        Map<String, Integer> seqRegionIds = new HashMap<>();
+        List<Object[]> seqRegions = new ArrayList<>();
+        for (int i = 0; i < chromosomes.size(); i++) {
+            seqRegionIds.put(chromosomes.get(i), i + 1);
+            seqRegions.add(new Object[]{i + 1, chromosomes.get(i), 1});
+        }
+        seqRegionIds.put(SyntheticGenome.ALT_HAPLOTYPE, ALT_HAPLOTYPE_ID);
+        seqRegions.add(new Object[]{ALT_HAPLOTYPE_ID, SyntheticGenome.ALT_HAPLOTYPE, 1});
+        insert(connection, VARIATION, "coord_system", Collections.singletonList(new Object[]{1, "chromosome", SyntheticGenome.ASSEMBLY}));
+        insert(connection, VARIATION, "seq_region", seqRegions);
+
+        // SNP class first, then the evidence attribs in the order the REST API lists them
+        List<Object[]> attribs = new ArrayList<>();
+        attribs.add(new Object[]{1, "SNP"});
+        StringJoiner evidence = new StringJoiner(",");
+        for (int i = 0; i < EVIDENCE.length; i++) {
+            attribs.add(new Object[]{i + 2, EVIDENCE[i]});
+            evidence.add(String.valueOf(i + 2));
+        }
+        insert(connection, VARIATION, "attrib", attribs);
+
+        Map<String, Integer> sources = new LinkedHashMap<>();
+        List<Object[]> variations = new ArrayList<>();
+        List<Object[]> features = new ArrayList<>();
+        List<Object[]> synonyms = new ArrayList<>();
+        for (String rsId : new LinkedHashSet<>(rsIds)) {
+            Map<String, Object> variation = genome.variation(rsId);
+            if (variation == null) {
+                continue;
+            }
+            int id = variations.size() + 1;
+            int sourceId = sources.computeIfAbsent((String) variation.get("source"), description -> sources.size() + 1);
+            variations.add(new Object[]{id, sourceId, variation.get("name"), 1, variation.get("minor_allele"),
+                    ((Number) variation.get("MAF")).floatValue(), evidence.toString()});
+            for (Map<String, Object> mapping : (List<Map<String, Object>>) variation.get("mappings")) {
+                features.add(new Object[]{features.size() + 1, id, seqRegionIds.get((String) mapping.get("seq_region_name")), mapping.get("start"),
+                        mapping.get("end"), mapping.get("strand"), mapping.get("allele_string"), mapping.get("ancestral_allele"),
+                        variation.get("most_severe_consequence")});
+            }
+            for (String synonym : (List<String>) variation.get("synonyms")) {
+                synonyms.add(new Object[]{synonyms.size() + 1, id, synonym});
+            }
+        }
+        List<Object[]> sourceRows = new ArrayList<>();
+        sources.forEach((description, id) -> sourceRows.add(new Object[]{id, "dbSNP", description}));
+        insert(connection, VARIATION, "source", sourceRows);
+        insert(connection, VARIATION, "variation", variations);
+        insert(connection, VARIATION, "variation_feature", features);
+        insert(connection, VARIATION, "variation_synonym", synonyms);
+        return variations.size();
+    }
+
+    private static void insert(Connection connection, String schema, String table, List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        StringJoiner placeholders = new StringJoiner(", ", "(", ")");
+        for (int i = 0; i < rows.get(0).length; i++) {
+            placeholders.add("?");
+        }
+        try (PreparedStatement statement = connection.prepareStatement(String.format("INSERT INTO %s.%s VALUES %s", schema, table, placeholders))) {
+            int count = 0;
+            for (Object[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    if (row[i] == null) {
+                        statement.setNull(i + 1, Types.NULL);
+                    } else {
+                        statement.setObject(i + 1, row[i]);
+                    }
+                }
+                statement.addBatch();
+                if (++count % 1000 == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import uk.ac.ebi.spot.gwas.common.constant.DataType;
+import uk.ac.ebi.spot.gwas.common.constant.Uri;
+import uk.ac.ebi.spot.gwas.common.util.CacheUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers the Ensembl REST endpoints the mapping calls, on localhost, from the {@link SyntheticGenome}
+ * or from the responses recorded in a cache directory. Latency, rate limiting (429 with a fractional
+ * Retry-After, as Ensembl sends it) and 503s can be injected so the client's pacing and retries are
+ * exercised the way they are against the real service.
+ */
+public final class EnsemblStandIn implements AutoCloseable {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final String VARIATION = "/" + Uri.VARIATION;
+    private static final String SYMBOL = "/" + Uri.REPORTED_GENES;
+    private static final String OVERLAP = "/" + Uri.OVERLAP_BAND_REGION;
+    private static final String ASSEMBLY = "/" + Uri.INFO_ASSEMBLY;
+
+    // Latencies kept per endpoint for the percentiles
+    private static final int LATENCY_SAMPLES = 16384;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Responses responses;
+    private final Faults faults;
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private EnsemblStandIn(Responses responses, Faults faults, int threads) throws IOException {
+        this.responses = responses;
+        this.faults = faults;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 512);
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "EnsemblStandIn-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts a stand-in on an ephemeral port of localhost.
+     */
+    public static EnsemblStandIn start(Responses responses, Faults faults, int threads) throws IOException {
+        EnsemblStandIn standIn = new EnsemblStandIn(responses, faults, threads);
+        standIn.server.start();
+        return standIn;
+    }
+
+    /**
+     * Value for ensembl.server.
+     */
+    public String getServer() {
+        return String.format("http://localhost:%s", server.getAddress().getPort());
+    }
+
+    public Map<String, Endpoint> getEndpoints() {
+        return new TreeMap<>(endpoints);
+    }
+
+    public void reset() {
+        endpoints.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        String path = exchange.getRequestURI().getPath();
+        Endpoint endpoint = endpoints.computeIfAbsent(endpointName(exchange.getRequestMethod(), path, exchange.getRequestURI().getQuery()),
+                                                      name -> new Endpoint());
+        int status;
+        try {
+            faults.delay();
+            if (faults.rateLimited()) {
+                exchange.getResponseHeaders().set("Retry-After", faults.retryAfter);
+                exchange.getResponseHeaders().set("X-RateLimit-Remaining", "0");
+                status = this.send(exchange, 429, Collections.singletonMap("error", "You have exceeded the limit of 15 requests per second; please reduce your concurrent connections"));
+            } else if (faults.unavailable()) {
+                status = this.send(exchange, 503, Collections.singletonMap("error", "Service Unavailable"));
+            } else {
+                status = this.answer(exchange, path);
+            }
+        } catch (RuntimeException e) {
+            status = this.send(exchange, 500, Collections.singletonMap("error", String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+        endpoint.record(status, System.nanoTime() - start);
+    }
+
+    private int answer(HttpExchange exchange, String path) throws IOException {
+        boolean post = "POST".equals(exchange.getRequestMethod());
+        Map<String, String> query = query(exchange.getRequestURI().getQuery());
+        if (path.startsWith(VARIATION)) {
+            if (post) {
+                Map<String, Object> found = new LinkedHashMap<>();
+                for (JsonNode id : body(exchange).path("ids")) {
+                    Object variation = responses.variation(id.asText());
+                    if (variation != null) {
+                        found.put(id.asText(), variation);
+                    }
+                }
+                return this.send(exchange, 200, found);
+            }
+            String rsId = last(path);
+            return this.sendOrError(exchange, responses.variation(rsId), String.format("%s not found for homo_sapiens", rsId));
+        }
+        if (path.startsWith(SYMBOL)) {
+            if (post) {
+                Map<String, Object> found = new LinkedHashMap<>();
+                for (JsonNode symbol : body(exchange).path("symbols")) {
+                    Object gene = responses.symbol(symbol.asText());
+                    if (gene != null) {
+                        found.put(symbol.asText(), gene);
+                    }
+                }
+                return this.send(exchange, 200, found);
+            }
+            String symbol = last(path);
+            return this.sendOrError(exchange, responses.symbol(symbol), String.format("No valid lookup found for symbol %s", symbol));
+        }
+        if (path.startsWith(OVERLAP)) {
+            String location = last(path);
+            if ("band".equals(query.get("feature"))) {
+                return this.send(exchange, 200, responses.bands(location));
+            }
+            String source = query.containsKey("logic_name") ? SyntheticGenome.NCBI_SOURCE : SyntheticGenome.ENSEMBL_SOURCE;
+            return this.send(exchange, 200, responses.genes(location, source));
+        }
+        if (path.startsWith(ASSEMBLY)) {
+            String chromosome = last(path);
+            return this.sendOrError(exchange, responses.assembly(chromosome, "1".equals(query.get("bands"))),
+                                    String.format("Cannot find a SeqRegion for type 'toplevel' and name '%s'", chromosome));
+        }
+        return this.send(exchange, 404, Collections.singletonMap("error", "page not found"));
+    }
+
+    private int sendOrError(HttpExchange exchange, Object body, String error) throws IOException {
+        return body == null ? this.send(exchange, 400, Collections.singletonMap("error", error)) : this.send(exchange, 200, body);
+    }
+
+    private int send(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] json = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+        return status;
+    }
+
+    private static JsonNode body(HttpExchange exchange) throws IOException {
+        return mapper.readTree(exchange.getRequestBody());
+    }
+
+    private static String last(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static Map<String, String> query(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query != null) {
+            for (String param : query.split("[&;]")) {
+                int separator = param.indexOf('=');
+                if (separator > 0) {
+                    params.put(param.substring(0, separator), param.substring(separator + 1));
+                }
+            }
+        }
+        return params;
+    }
+
+    private static String endpointName(String method, String path, String query) {
+        if (path.startsWith(VARIATION)) {
+            return method + " variation";
+        } else if (path.startsWith(SYMBOL)) {
+            return method + " lookup/symbol";
+        } else if (path.startsWith(OVERLAP)) {
+            return query != null && query.contains("feature=band") ? "GET overlap band" : "GET overlap gene";
+        } else if (path.startsWith(ASSEMBLY)) {
+            return "GET info/assembly";
+        }
+        return method + " other";
+    }
+
+    /**
+     * Requests served by one endpoint, with their status and latency.
+     */
+    public static final class Endpoint {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder rateLimited = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final AtomicLong timed = new AtomicLong();
+        private final long[] latencies = new long[LATENCY_SAMPLES];
+
+        void record(int status, long nanos) {
+            requests.increment();
+            if (status == 429) {
+                rateLimited.increment();
+            } else if (status >= 500) {
+                failed.increment();
+            }
+            latencies[(int) (timed.getAndIncrement() % LATENCY_SAMPLES)] = nanos;
+        }
+
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        public long getRateLimited() {
+            return rateLimited.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public double percentileMillis(double rank) {
+            long[] sorted = Arrays.copyOf(latencies, (int) Math.min(timed.get(), LATENCY_SAMPLES));
+            if (sorted.length == 0) {
+                return 0;
+            }
+            Arrays.sort(sorted);
+            return sorted[Math.max(0, Math.min(sorted.length - 1, (int) Math.ceil(rank * sorted.length) - 1))] / 1e6;
+        }
+    }
+
+    /**
+     * Latency and errors added to every request, picked at random.
+     */
+    public static final class Faults {
+
+        private final long latencyMs;
+        private final long jitterMs;
+        private final double rateLimitedRatio;
+        private final double unavailableRatio;
+        private final String retryAfter;
+
+        public Faults(long latencyMs, long jitterMs, double rateLimitedRatio, double unavailableRatio, double retryAfterSeconds) {
+            this.latencyMs = latencyMs;
+            this.jitterMs = jitterMs;
+            this.rateLimitedRatio = rateLimitedRatio;
+            this.unavailableRatio = unavailableRatio;
+            this.retryAfter = String.valueOf(retryAfterSeconds);
+        }
+
+        /**
+         * Faults from -Dstandin.latency_ms, jitter_ms, rate_limited, unavailable and retry_after.
+         */
+        public static Faults fromSystemProperties() {
+            return new Faults(Long.getLong("standin.latency_ms", 0), Long.getLong("standin.jitter_ms", 0),
+                              Double.parseDouble(System.getProperty("standin.rate_limited", "0")),
+                              Double.parseDouble(System.getProperty("standin.unavailable", "0")),
+                              Double.parseDouble(System.getProperty("standin.retry_after", "0.25")));
+        }
+
+        void delay() {
+            long delay = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+            if (delay > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        boolean rateLimited() {
+            return rateLimitedRatio > 0 && ThreadLocalRandom.current().nextDouble() < rateLimitedRatio;
+        }
+
+        boolean unavailable() {
+            return unavailableRatio > 0 && ThreadLocalRandom.current().nextDouble() < unavailableRatio;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("latency %s+%sms, 429 %s, 503 %s, Retry-After %ss",
+                                 latencyMs, jitterMs, rateLimitedRatio, unavailableRatio, retryAfter);
+        }
+    }
+
+    /**
+     * What the endpoints answer, null when Ensembl would answer 400.
+     */
+    public interface Responses {
+
+        Object variation(String rsId);
+
+        Object symbol(String symbol);
+
+        Object bands(String location);
+
+        Object genes(String location, String source);
+
+        Object assembly(String chromosome, boolean withBands);
+
+        static Responses synthetic() {
+            SyntheticGenome genome = SyntheticGenome.get();
+            return new Responses() {
+                @Override
+                public Object variation(String rsId) {
+                    return genome.variation(rsId);
+                }
+
+                @Override
+                public Object symbol(String symbol) {
+                    return genome.symbol(symbol);
+                }
+
+                @Override
+                public Object bands(String location) {
+                    int[] window = window(location);
+                    return genome.overlapBands(chromosome(location), window[0], window[1]);
+                }
+
+                @Override
+                public Object genes(String location, String source) {
+                    int[] window = window(location);
+                    return genome.overlapGenes(chromosome(location), window[0], window[1], source);
+                }
+
+                @Override
+                public Object assembly(String chromosome, boolean withBands) {
+                    return genome.assembly(chromosome, withBands);
+                }
+            };
+        }
+
+        /**
+         * Responses recorded by "-m cache-ensembl-data", windows which were not recorded have no genes.
+         */
+        static Responses recorded(String dir) {
+            String cacheDir = dir.endsWith("/") ? dir : dir + "/";
+            Map<String, ?> variations = CacheUtil.variation(DataType.VARIATION, cacheDir);
+            Map<String, ?> symbols = CacheUtil.exists(DataType.REPORTED_GENES, cacheDir)
+                    ? CacheUtil.reportedGenes(DataType.REPORTED_GENES, cacheDir) : Collections.emptyMap();
+            Map<String, ?> bands = CacheUtil.cytoGeneticBand(DataType.CYTOGENETIC_BAND, cacheDir);
+            Map<String, ?> assemblies = CacheUtil.assemblyInfo(DataType.ASSEMBLY_INFO, cacheDir);
+            Map<String, ?> ensemblGenes = CacheUtil.union(CacheUtil.overlappingGenes(DataType.ENSEMBL_OVERLAP_GENES, cacheDir),
+                                                          CacheUtil.overlappingGenes(DataType.ENSEMBL_UPSTREAM_GENES, cacheDir),
+                                                          CacheUtil.overlappingGenes(DataType.ENSEMBL_DOWNSTREAM_GENES, cacheDir));
+            Map<String, ?> ncbiGenes = CacheUtil.union(CacheUtil.overlappingGenes(DataType.NCBI_OVERLAP_GENES, cacheDir),
+                                                       CacheUtil.overlappingGenes(DataType.NCBI_UPSTREAM_GENES, cacheDir),
+                                                       CacheUtil.overlappingGenes(DataType.NCBI_DOWNSTREAM_GENES, cacheDir));
+            return new Responses() {
+                @Override
+                public Object variation(String rsId) {
+                    return variations.get(rsId);
+                }
+
+                @Override
+                public Object symbol(String symbol) {
+                    return symbols.get(symbol);
+                }
+
+                @Override
+                public Object bands(String location) {
+                    Object found = bands.get(location);
+                    return found == null ? Collections.emptyList() : found;
+                }
+
+                @Override
+                public Object genes(String location, String source) {
+                    Object found = (SyntheticGenome.NCBI_SOURCE.equals(source) ? ncbiGenes : ensemblGenes).get(location);
+                    return found == null ? Collections.emptyList() : found;
+                }
+
+                @Override
+                public Object assembly(String chromosome, boolean withBands) {
+                    return assemblies.get(chromosome);
+                }
+            };
+        }
+
+        static String chromosome(String location) {
+            return location.substring(0, location.indexOf(':'));
+        }
+
+        static int[] window(String location) {
+            String[] range = location.substring(location.indexOf(':') + 1).split("-");
+            return new int[]{Integer.parseInt(range[0]), Integer.parseInt(range[1])};
+        }
+    }
+}
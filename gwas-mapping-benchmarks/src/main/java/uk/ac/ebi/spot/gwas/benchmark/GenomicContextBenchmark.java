@@ -0,0 +1,55 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.ebi.spot.gwas.common.model.Location;
+import uk.ac.ebi.spot.gwas.genomic_context.GenomicContextService;
+import uk.ac.ebi.spot.gwas.mapping.dto.EnsemblMappingResult;
+import uk.ac.ebi.spot.gwas.mapping.dto.Mapping;
+import uk.ac.ebi.spot.gwas.mapping.dto.MappingDto;
+import uk.ac.ebi.spot.gwas.overlap_gene.OverlapGene;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Genomic contexts of the 100kb upstream window of one location, the NCBI source parses every gene id.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class GenomicContextBenchmark {
+
+    @Param({"Ensembl", "NCBI"})
+    public String source;
+
+    private GenomicContextService genomicContextService;
+    private Location[] locations;
+    private List<OverlapGene>[] genes;
+    private int next;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        MappingFixtures fixtures = MappingFixtures.get();
+        genomicContextService = MappingServices.genomicContextService();
+        List<Mapping> mappings = fixtures.getChromosomeMappings();
+        locations = new Location[mappings.size()];
+        genes = new List[mappings.size()];
+        for (int i = 0; i < mappings.size(); i++) {
+            Mapping mapping = mappings.get(i);
+            locations[i] = new Location(mapping.getSeqRegionName(), mapping.getStart(), null);
+            genes[i] = fixtures.getUpstreamGenes(mapping, source);
+        }
+    }
+
+    @Benchmark
+    public MappingDto addUpstream() {
+        int index = next++ % locations.length;
+        EnsemblMappingResult mappingResult = new EnsemblMappingResult();
+        mappingResult.setRsId("rs" + index);
+        return genomicContextService.add(genes[index], locations[index], source, "upstream", mappingResult);
+    }
+}
@@ -0,0 +1,85 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.model.relational.Namespace;
+import org.hibernate.boot.model.relational.Sequence;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.jdbc.connections.spi.JdbcConnectionAccess;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Table;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Creates the tables of the entities in the harness database. Hibernate's own schema creation gives up
+ * on this model, PUBLICATION_AUTHORS is mapped both as an entity and as join tables, so tables mapped
+ * more than once are created once with the columns of every mapping. Foreign keys are left out, the
+ * views of the catalog schema are plain tables.
+ */
+class HarnessSchema implements Integrator {
+
+    @Override
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+        Dialect dialect = sessionFactory.getJdbcServices().getDialect();
+        List<String> statements = new ArrayList<>();
+        Map<String, Set<String>> created = new HashMap<>();
+        for (Namespace namespace : metadata.getDatabase().getNamespaces()) {
+            for (Sequence sequence : namespace.getSequences()) {
+                statements.addAll(Arrays.asList(dialect.getSequenceExporter().getSqlCreateStrings(sequence, metadata)));
+            }
+            for (Table table : namespace.getTables()) {
+                if (!table.isPhysicalTable()) {
+                    continue;
+                }
+                String name = table.getName().toUpperCase(Locale.ROOT);
+                Set<String> columns = created.get(name);
+                if (columns == null) {
+                    statements.addAll(Arrays.asList(dialect.getTableExporter().getSqlCreateStrings(table, metadata)));
+                    created.put(name, columns(table));
+                    continue;
+                }
+                for (Iterator<Column> iterator = table.getColumnIterator(); iterator.hasNext(); ) {
+                    Column column = iterator.next();
+                    if (columns.add(column.getName().toUpperCase(Locale.ROOT))) {
+                        statements.add(String.format("alter table %s add column %s %s", table.getName(), column.getQuotedName(dialect),
+                                                     column.getSqlType(dialect, metadata)));
+                    }
+                }
+            }
+        }
+
+        JdbcConnectionAccess access = sessionFactory.getServiceRegistry().getService(JdbcServices.class).getBootstrapJdbcConnectionAccess();
+        try {
+            Connection connection = access.obtainConnection();
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : statements) {
+                    statement.execute(sql);
+                }
+            } finally {
+                access.releaseConnection(connection);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not create the harness schema: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+        // In-memory database, dropped with the JVM
+    }
+
+    private static Set<String> columns(Table table) {
+        Set<String> columns = new HashSet<>();
+        for (Iterator<Column> iterator = table.getColumnIterator(); iterator.hasNext(); ) {
+            columns.add(iterator.next().getName().toUpperCase(Locale.ROOT));
+        }
+        return columns;
+    }
+}
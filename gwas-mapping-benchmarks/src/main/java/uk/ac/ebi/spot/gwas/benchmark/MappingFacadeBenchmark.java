@@ -0,0 +1,61 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.ebi.spot.gwas.common.constant.OperationMode;
+import uk.ac.ebi.spot.gwas.common.model.Location;
+import uk.ac.ebi.spot.gwas.mapping.MappingFacade;
+import uk.ac.ebi.spot.gwas.mapping.dto.EnsemblMappingResult;
+import uk.ac.ebi.spot.gwas.mapping.dto.Mapping;
+import uk.ac.ebi.spot.gwas.mapping.dto.MappingDto;
+import uk.ac.ebi.spot.gwas.variation.Variant;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of one variant and the overlapping genes of one location, each invocation on the next fixture.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class MappingFacadeBenchmark {
+
+    @Param({"Ensembl", "NCBI"})
+    public String source;
+
+    private MappingFacade facade;
+    private Variant[] variants;
+    private Location[] locations;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        MappingFixtures fixtures = MappingFixtures.get();
+        facade = MappingServices.mappingFacade(fixtures);
+        variants = fixtures.getVariants().toArray(new Variant[0]);
+        List<Location> mapped = new ArrayList<>();
+        for (Mapping mapping : fixtures.getChromosomeMappings()) {
+            mapped.add(new Location(mapping.getSeqRegionName(), mapping.getStart(), null));
+        }
+        locations = mapped.toArray(new Location[0]);
+    }
+
+    @Benchmark
+    public Collection<Location> getMappings() {
+        Variant variant = variants[next++ % variants.length];
+        return facade.getMappings(variant, OperationMode.MAP_ALL_SNPS_INDB);
+    }
+
+    @Benchmark
+    public MappingDto getOverlapGenes() {
+        Location location = locations[next++ % locations.length];
+        EnsemblMappingResult mappingResult = new EnsemblMappingResult();
+        mappingResult.setRsId("rs" + next);
+        return facade.getOverlapGenes(location, source, mappingResult, OperationMode.MAP_ALL_SNPS_INDB);
+    }
+}
@@ -0,0 +1,179 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
+import uk.ac.ebi.spot.gwas.common.constant.DataType;
+import uk.ac.ebi.spot.gwas.common.util.CacheUtil;
+import uk.ac.ebi.spot.gwas.ensembl_data.EnsemblData;
+import uk.ac.ebi.spot.gwas.mapping.dto.Mapping;
+import uk.ac.ebi.spot.gwas.overlap_gene.OverlapGene;
+import uk.ac.ebi.spot.gwas.overlap_region.OverlapRegion;
+import uk.ac.ebi.spot.gwas.variation.Variant;
+
+import java.util.*;
+
+/**
+ * Ensembl payloads the benchmarks run over. By default a few thousand rsIDs with their variation, gene
+ * and band responses are taken from the {@link SyntheticGenome} and parsed with the service models,
+ * so every run sees the same data. With -Dgwas.fixtures=<dir> the responses recorded by
+ * "-m cache-ensembl-data" in that cache directory are used instead.
+ */
+public final class MappingFixtures {
+
+    public static final String ENSEMBL_SOURCE = SyntheticGenome.ENSEMBL_SOURCE;
+    public static final String NCBI_SOURCE = SyntheticGenome.NCBI_SOURCE;
+    public static final int GENOMIC_DISTANCE = 100000;
+
+    private static final long SEED = 20210617L;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static MappingFixtures instance;
+
+    private final List<Variant> variants = new ArrayList<>();
+    private final Map<String, AssemblyInfo> assemblyInfo = new HashMap<>();
+    private final Map<String, List<OverlapRegion>> bands = new HashMap<>();
+    private final Map<String, List<OverlapGene>> ensemblGenes = new HashMap<>();
+    private final Map<String, List<OverlapGene>> ncbiGenes = new HashMap<>();
+
+    private MappingFixtures() {
+    }
+
+    /**
+     * Fixtures of the current JVM, loaded once per benchmark fork.
+     */
+    public static synchronized MappingFixtures get() {
+        if (instance == null) {
+            int size = Integer.getInteger("gwas.fixtures.size", 3000);
+            String dir = System.getProperty("gwas.fixtures");
+            instance = dir == null ? generate(size) : recorded(dir, size);
+        }
+        return instance;
+    }
+
+    public List<Variant> getVariants() {
+        return variants;
+    }
+
+    public EnsemblData getEnsemblData() {
+        return EnsemblData.builder()
+                .variations(new HashMap<>())
+                .reportedGenes(new HashMap<>())
+                .assemblyInfo(assemblyInfo)
+                .cytoGeneticBand(bands)
+                .ensemblOverlapGene(ensemblGenes)
+                .ncbiOverlapGene(ncbiGenes)
+                .build();
+    }
+
+    public Map<String, AssemblyInfo> getAssemblyInfo() {
+        return assemblyInfo;
+    }
+
+    /**
+     * Genes of the window upstream of the variant, as the genomic context sees them.
+     */
+    public List<OverlapGene> getUpstreamGenes(Mapping mapping, String source) {
+        int position = mapping.getStart();
+        String location = String.format("%s:%s-%s", mapping.getSeqRegionName(), Math.max(1, position - GENOMIC_DISTANCE), position);
+        List<OverlapGene> genes = (NCBI_SOURCE.equals(source) ? ncbiGenes : ensemblGenes).get(location);
+        return genes == null ? Collections.emptyList() : genes;
+    }
+
+    /**
+     * Chromosome mappings of every variant, the locations the facade maps.
+     */
+    public List<Mapping> getChromosomeMappings() {
+        List<Mapping> mappings = new ArrayList<>();
+        for (Variant variant : variants) {
+            for (Mapping mapping : variant.getMappings()) {
+                if ("chromosome".equals(mapping.getCoordSystem()) && assemblyInfo.containsKey(mapping.getSeqRegionName())) {
+                    mappings.add(mapping);
+                }
+            }
+        }
+        return mappings;
+    }
+
+    private static MappingFixtures generate(int size) {
+        MappingFixtures fixtures = new MappingFixtures();
+        SyntheticGenome genome = SyntheticGenome.get();
+        Random random = new Random(SEED);
+
+        for (String chromosome : SyntheticGenome.chromosomes()) {
+            fixtures.assemblyInfo.put(chromosome, parse(toJson(genome.assembly(chromosome, true)), new TypeReference<AssemblyInfo>() {}));
+        }
+
+        while (fixtures.variants.size() < size) {
+            Map<String, Object> variation = genome.variation("rs" + (1000 + random.nextInt(150000000)));
+            if (variation == null) {
+                continue;
+            }
+            fixtures.variants.add(parse(toJson(variation), new TypeReference<Variant>() {}));
+
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> mappings = (List<Map<String, Object>>) variation.get("mappings");
+            for (Map<String, Object> mapping : mappings) {
+                String seqRegion = (String) mapping.get("seq_region_name");
+                int start = (Integer) mapping.get("start");
+                if (!fixtures.assemblyInfo.containsKey(seqRegion)) {
+                    continue;
+                }
+                String point = String.format("%s:%s-%s", seqRegion, start, start);
+                fixtures.bands.put(point, parse(toJson(genome.overlapBands(seqRegion, start, start)), new TypeReference<List<OverlapRegion>>() {}));
+                int up = Math.max(1, start - GENOMIC_DISTANCE);
+                int down = Math.min(start + GENOMIC_DISTANCE, genome.length(seqRegion));
+                for (int[] window : new int[][]{{start, start}, {up, start}, {start, down}}) {
+                    String location = String.format("%s:%s-%s", seqRegion, window[0], window[1]);
+                    fixtures.ensemblGenes.put(location, overlapping(genome, seqRegion, window, ENSEMBL_SOURCE));
+                    fixtures.ncbiGenes.put(location, overlapping(genome, seqRegion, window, NCBI_SOURCE));
+                }
+            }
+        }
+        return fixtures;
+    }
+
+    private static MappingFixtures recorded(String dir, int size) {
+        String cacheDir = dir.endsWith("/") ? dir : dir + "/";
+        MappingFixtures fixtures = new MappingFixtures();
+        for (Variant variant : CacheUtil.variation(DataType.VARIATION, cacheDir).values()) {
+            if (variant.getError() == null && variant.getMappings() != null && !variant.getMappings().isEmpty()) {
+                fixtures.variants.add(variant);
+                if (fixtures.variants.size() == size) {
+                    break;
+                }
+            }
+        }
+        fixtures.assemblyInfo.putAll(CacheUtil.assemblyInfo(DataType.ASSEMBLY_INFO, cacheDir));
+        fixtures.bands.putAll(CacheUtil.cytoGeneticBand(DataType.CYTOGENETIC_BAND, cacheDir));
+        fixtures.ensemblGenes.putAll(CacheUtil.union(CacheUtil.overlappingGenes(DataType.ENSEMBL_OVERLAP_GENES, cacheDir),
+                                                     CacheUtil.overlappingGenes(DataType.ENSEMBL_UPSTREAM_GENES, cacheDir),
+                                                     CacheUtil.overlappingGenes(DataType.ENSEMBL_DOWNSTREAM_GENES, cacheDir)));
+        fixtures.ncbiGenes.putAll(CacheUtil.union(CacheUtil.overlappingGenes(DataType.NCBI_OVERLAP_GENES, cacheDir),
+                                                  CacheUtil.overlappingGenes(DataType.NCBI_UPSTREAM_GENES, cacheDir),
+                                                  CacheUtil.overlappingGenes(DataType.NCBI_DOWNSTREAM_GENES, cacheDir)));
+        return fixtures;
+    }
+
+    private static List<OverlapGene> overlapping(SyntheticGenome genome, String chromosome, int[] window, String source) {
+        return parse(toJson(genome.overlapGenes(chromosome, window[0], window[1], source)), new TypeReference<List<OverlapGene>>() {});
+    }
+
+    private static String toJson(Object value) {
+        try {
+            return mapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <T> T parse(String json, TypeReference<T> type) {
+        try {
+            return mapper.readValue(json, type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
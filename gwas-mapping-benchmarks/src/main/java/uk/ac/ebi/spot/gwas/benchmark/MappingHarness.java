@@ -0,0 +1,260 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.ebi.spot.gwas.MappingApplication;
+import uk.ac.ebi.spot.gwas.association.Association;
+import uk.ac.ebi.spot.gwas.cli.EnsemblRunnner;
+import uk.ac.ebi.spot.gwas.common.model.Gene;
+import uk.ac.ebi.spot.gwas.common.model.Locus;
+import uk.ac.ebi.spot.gwas.common.model.RiskAllele;
+import uk.ac.ebi.spot.gwas.common.model.SingleNucleotidePolymorphism;
+import uk.ac.ebi.spot.gwas.mapping.AssociationMappingPipeline;
+import uk.ac.ebi.spot.gwas.mapping.dto.StageTimings;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Maps a seeded catalog end to end: the application runs against an in-memory H2 in Oracle mode and an
+ * {@link EnsemblStandIn} instead of Oracle and Ensembl, and the EnsemblRunnner modes are timed one after
+ * the other. Reports associations and Ensembl requests per second, and the p99 of every pipeline stage
+ * and endpoint, so a change to the pacing, retries or pipeline can be measured without the real services.
+ * <p>
+ * java -cp target/benchmarks.jar uk.ac.ebi.spot.gwas.benchmark.MappingHarness
+ * -Dharness.associations=2000          associations seeded
+ * -Dharness.modes=map-asscn-ids,map-all-snp,map-some-snp   modes run, each over every association
+ * -Dgwas.fixtures=cacheDir             recorded Ensembl responses instead of the synthetic genome
+ * -Dharness.provider=database          Ensembl read from an EnsemblSchemaSubset instead of the stand-in
+ * -Dstandin.latency_ms, jitter_ms, rate_limited, unavailable, retry_after   faults of the stand-in
+ * -Dmapping.* / -Dspring.*             any application setting, e.g. -Dmapping.requestPerSecond=15
+ */
+public class MappingHarness {
+
+    private static final long SEED = 20210617L;
+
+    private final ConfigurableApplicationContext context;
+    private final EnsemblStandIn standIn;
+    private final List<Long> associationIds = new ArrayList<>();
+    private final Set<String> rsIds = new LinkedHashSet<>();
+
+    private MappingHarness(ConfigurableApplicationContext context, EnsemblStandIn standIn) {
+        this.context = context;
+        this.standIn = standIn;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int associations = Integer.getInteger("harness.associations", 2000);
+        List<String> modes = Arrays.asList(System.getProperty("harness.modes", "map-asscn-ids,map-all-snp,map-some-snp").split(","));
+        String fixtures = System.getProperty("gwas.fixtures");
+        boolean fromDatabase = "database".equalsIgnoreCase(System.getProperty("harness.provider", "rest"));
+        EnsemblStandIn.Faults faults = EnsemblStandIn.Faults.fromSystemProperties();
+
+        try (EnsemblStandIn standIn = EnsemblStandIn.start(fixtures == null ? EnsemblStandIn.Responses.synthetic()
+                                                                            : EnsemblStandIn.Responses.recorded(fixtures),
+                                                           faults, Integer.getInteger("standin.threads", 64))) {
+            System.out.printf("Ensembl stand-in on %s, %s%n", standIn.getServer(), faults);
+            ConfigurableApplicationContext context = boot(standIn.getServer(), Files.createTempDirectory("gwas-mapping-harness"), fromDatabase);
+            try {
+                MappingHarness harness = new MappingHarness(context, standIn);
+                harness.seed(associations);
+                if (fromDatabase) {
+                    // Read on the first request, after the boot
+                    EnsemblSchemaSubset.load(harness.rsIds);
+                }
+                for (String mode : modes) {
+                    harness.run(mode.trim());
+                }
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext boot(String server, Path cache, boolean fromDatabase) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("spring.datasource.url", "jdbc:h2:mem:gwas;MODE=Oracle;DB_CLOSE_DELAY=-1");
+        properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.password", "");
+        // Created by HarnessSchema
+        properties.put("spring.jpa.hibernate.ddl-auto", "none");
+        properties.put("ensembl.server", server);
+        properties.put("mapping.cache", cache.toString());
+        // Allocates ids with an Oracle hierarchical query
+        properties.put("mapping.bulk_write.enabled", "false");
+        properties.put("mapping.payload_store.enabled", "false");
+        properties.put("mapping.lookup.local_store", "false");
+        properties.put("mapping.requestPerSecond", "1000");
+        properties.put("mapping.pipeline.report_interval_seconds", "3600");
+        // Every timed run maps from the first association, never resumes an earlier one
+        properties.put("mapping.journal.enabled", "false");
+        if (fromDatabase) {
+            properties.putAll(EnsemblSchemaSubset.properties());
+            properties.put("mapping.ensembl_provider", "database");
+        }
+        // The services warn per gene, keep the report readable
+        properties.put("logging.level.uk.ac.ebi.spot.gwas", "ERROR");
+
+        // Below the system properties, so any of these can be overridden with -D
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addAfter(StandardEnvironment.SYSTEM_PROPERTIES_PROPERTY_SOURCE_NAME,
+                                                  new MapPropertySource("harness", properties));
+        return new SpringApplicationBuilder(MappingApplication.class)
+                .web(WebApplicationType.NONE)
+                .environment(environment)
+                .profiles(System.getProperty("spring.profiles.active", "local"))
+                .initializers(context -> context.getBeanFactory().registerSingleton("harnessSchema", (HibernatePropertiesCustomizer) hibernate ->
+                        hibernate.put("hibernate.integrator_provider", (IntegratorProvider) () -> Collections.singletonList(new HarnessSchema()))))
+                .run("-m", "server-mode");
+    }
+
+    /**
+     * Associations with one or two loci, each with a risk allele and mostly a gene reported next to it.
+     * One rsID in five is shared with another association, as in the catalog.
+     */
+    private void seed(int size) {
+        SyntheticGenome genome = SyntheticGenome.get();
+        Random random = new Random(SEED);
+        long start = System.currentTimeMillis();
+        this.inTransaction(entityManager -> {
+            Map<String, SingleNucleotidePolymorphism> snps = new HashMap<>();
+            Map<String, Gene> genes = new HashMap<>();
+            int rsIdRange = Math.max(1, size * 4 / 5);
+            for (int i = 0; i < size; i++) {
+                Association association = new Association();
+                List<Locus> loci = new ArrayList<>();
+                Set<SingleNucleotidePolymorphism> associationSnps = new HashSet<>();
+                int lociCount = random.nextInt(10) == 0 ? 2 : 1;
+                for (int l = 0; l < lociCount; l++) {
+                    String rsId = "rs" + (1000 + random.nextInt(rsIdRange) * 7919);
+                    rsIds.add(rsId);
+                    SingleNucleotidePolymorphism snp = snps.computeIfAbsent(rsId, id -> {
+                        SingleNucleotidePolymorphism created = new SingleNucleotidePolymorphism();
+                        created.setRsId(id);
+                        created.setAssociations(new ArrayList<>());
+                        entityManager.persist(created);
+                        return created;
+                    });
+                    RiskAllele riskAllele = new RiskAllele();
+                    riskAllele.setRiskAlleleName(rsId + "-" + "ACGT".charAt(random.nextInt(4)));
+                    riskAllele.setSnp(snp);
+                    entityManager.persist(riskAllele);
+
+                    Locus locus = new Locus();
+                    locus.setHaplotypeSnpCount(1);
+                    locus.setDescription("Single variant");
+                    locus.setStrongestRiskAlleles(new ArrayList<>(Collections.singletonList(riskAllele)));
+                    String reported = reportedGene(genome, rsId, random);
+                    if (reported != null) {
+                        locus.setAuthorReportedGenes(new ArrayList<>(Collections.singletonList(genes.computeIfAbsent(reported, name -> {
+                            Gene gene = new Gene(name);
+                            entityManager.persist(gene);
+                            return gene;
+                        }))));
+                    }
+                    entityManager.persist(locus);
+                    loci.add(locus);
+                    associationSnps.add(snp);
+                }
+                association.setLoci(loci);
+                entityManager.persist(association);
+                associationSnps.forEach(snp -> snp.getAssociations().add(association));
+                associationIds.add(association.getId());
+            }
+        });
+        System.out.printf("Seeded %s associations in %s ms%n", size, System.currentTimeMillis() - start);
+    }
+
+    // The name of a gene within 100kb of the variant, one time in ten a symbol Ensembl does not know
+    private static String reportedGene(SyntheticGenome genome, String rsId, Random random) {
+        int draw = random.nextInt(10);
+        if (draw == 0) {
+            return "NR";
+        } else if (draw == 1) {
+            return "UNKNOWN" + random.nextInt(100);
+        }
+        Map<String, Object> variation = genome.variation(rsId);
+        if (variation == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> mapping = ((List<Map<String, Object>>) variation.get("mappings")).get(0);
+        int position = (Integer) mapping.get("start");
+        List<Map<String, Object>> nearby = genome.overlapGenes((String) mapping.get("seq_region_name"), Math.max(1, position - 100000),
+                                                               position + 100000, SyntheticGenome.ENSEMBL_SOURCE);
+        return nearby.isEmpty() ? null : (String) nearby.get(random.nextInt(nearby.size())).get("external_name");
+    }
+
+    private void run(String mode) throws Exception {
+        // Every mode maps the whole catalog, whatever the previous one left
+        this.inTransaction(entityManager -> entityManager.createQuery("update Association set lastMappingDate = null").executeUpdate());
+        standIn.reset();
+        EnsemblRunnner runner = context.getBean(EnsemblRunnner.class);
+        AssociationMappingPipeline pipeline = context.getBean(AssociationMappingPipeline.class);
+        List<StageTimings> previousTimings = pipeline.getLastRunTimings();
+
+        long start = System.nanoTime();
+        switch (mode) {
+            case "map-asscn-ids":
+                runner.mapAssociationList(associationIds);
+                break;
+            case "map-all-snp":
+                runner.mapAllAssociations("mapping_harness");
+                break;
+            case "map-some-snp":
+                runner.mapSomeAssociations("mapping_harness");
+                break;
+            default:
+                throw new IllegalArgumentException("Mode " + mode + " is not timed by the harness");
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long mapped = this.countMapped();
+        Map<String, EnsemblStandIn.Endpoint> endpoints = standIn.getEndpoints();
+        long requests = endpoints.values().stream().mapToLong(EnsemblStandIn.Endpoint::getRequests).sum();
+        System.out.printf("%n%s: %s of %s associations mapped in %.1f s, %.1f associations/s, %s requests, %.1f requests/s%n",
+                          mode, mapped, associationIds.size(), seconds, mapped / seconds, requests, requests / seconds);
+        System.out.printf("  %-22s %9s %7s %7s %10s %10s%n", "endpoint", "requests", "429", "5xx", "p50 ms", "p99 ms");
+        endpoints.forEach((name, endpoint) -> System.out.printf("  %-22s %9s %7s %7s %10.1f %10.1f%n", name, endpoint.getRequests(),
+                                                                endpoint.getRateLimited(), endpoint.getFailed(),
+                                                                endpoint.percentileMillis(0.50), endpoint.percentileMillis(0.99)));
+        List<StageTimings> timings = pipeline.getLastRunTimings();
+        if (timings != previousTimings) {
+            System.out.printf("  %-22s %9s %10s %10s %10s%n", "stage", "done", "p50 ms", "p99 ms", "max ms");
+            timings.forEach(stage -> System.out.printf("  %-22s %9s %10.1f %10.1f %10.1f%n", stage.getStage(), stage.getProcessed(),
+                                                       stage.getP50Millis(), stage.getP99Millis(), stage.getMaxMillis()));
+        }
+    }
+
+    private long countMapped() {
+        EntityManager entityManager = context.getBean(EntityManagerFactory.class).createEntityManager();
+        try {
+            return entityManager.createQuery("select count(a) from Association a where a.lastMappingDate is not null", Long.class)
+                    .getSingleResult();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private void inTransaction(Consumer<EntityManager> work) {
+        EntityManagerFactory factory = context.getBean(EntityManagerFactory.class);
+        new TransactionTemplate(context.getBean(PlatformTransactionManager.class)).executeWithoutResult(status -> {
+            EntityManager entityManager = EntityManagerFactoryUtils.getTransactionalEntityManager(factory);
+            work.accept(entityManager);
+            entityManager.flush();
+        });
+    }
+}
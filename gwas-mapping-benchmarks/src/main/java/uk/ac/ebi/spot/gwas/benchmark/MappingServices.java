@@ -0,0 +1,87 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfoService;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.lookup.TieredLookupFactory;
+import uk.ac.ebi.spot.gwas.common.repository.AssociationReportRepository;
+import uk.ac.ebi.spot.gwas.common.service.AssociationReportService;
+import uk.ac.ebi.spot.gwas.genomic_context.GenomicContextService;
+import uk.ac.ebi.spot.gwas.mapping.MappingFacade;
+import uk.ac.ebi.spot.gwas.overlap_region.CytogeneticBandIndex;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+
+/**
+ * The services under test wired by hand the way Spring wires them, over the fixtures instead of the
+ * database and Ensembl. Repositories do nothing so only the CPU side of the services is measured.
+ */
+final class MappingServices {
+
+    static final String RELEASE = "104";
+
+    private MappingServices() {
+        // Hide implicit public constructor
+    }
+
+    static MappingFacade mappingFacade(MappingFixtures fixtures) {
+        AppConfig config = new AppConfig();
+        config.setERelease(RELEASE);
+        TieredLookupFactory lookupFactory = new TieredLookupFactory(config, new CaffeineCacheManager(), null, false);
+        AssemblyInfoService assemblyInfoService = new AssemblyInfoService(config, null, null, null, lookupFactory) {
+            @Override
+            public AssemblyInfo getBandsFromDB(String chromosome) {
+                return fixtures.getAssemblyInfo().get(chromosome);
+            }
+        };
+
+        MappingFacade facade = new MappingFacade();
+        facade.setGenomicDistance(MappingFixtures.GENOMIC_DISTANCE);
+        facade.setEnsemblSource(MappingFixtures.ENSEMBL_SOURCE);
+        facade.setNcbiSource(MappingFixtures.NCBI_SOURCE);
+        facade.setMappingMethod("Ensembl_pipeline");
+        facade.setGeneProvider("rest");
+        facade.setERelease(RELEASE);
+        facade.setEnsemblData(fixtures.getEnsemblData());
+        facade.setAssemblyInfoService(assemblyInfoService);
+        facade.setCytogeneticBandIndex(new CytogeneticBandIndex(config, assemblyInfoService));
+        facade.setGenomicContextService(genomicContextService());
+        return facade;
+    }
+
+    static GenomicContextService genomicContextService() {
+        GenomicContextService service = new GenomicContextService();
+        inject(service, "ensemblSource", MappingFixtures.ENSEMBL_SOURCE);
+        inject(service, "ncbiSource", MappingFixtures.NCBI_SOURCE);
+        inject(service, "mappingMethod", "Ensembl_pipeline");
+        return service;
+    }
+
+    static AssociationReportService associationReportService() {
+        AssociationReportService service = new AssociationReportService();
+        inject(service, "associationReportRepository", noop(AssociationReportRepository.class));
+        return service;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T noop(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.getName().equals("equals") ? proxy == args[0] : method.getName().equals("hashCode") ? 0 : type.getName();
+            }
+            return method.getReturnType() == boolean.class ? false : method.getReturnType() == long.class ? 0L : null;
+        });
+    }
+
+    private static void inject(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set " + name + " of " + target.getClass().getSimpleName(), e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.ebi.spot.gwas.common.util.MappingUtil;
+import uk.ac.ebi.spot.gwas.overlap_gene.OverlapGene;
+import uk.ac.ebi.spot.gwas.mapping.dto.Mapping;
+import uk.ac.ebi.spot.gwas.variation.Variant;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NCBI id parsing of one gene description, and the distinct locations of a batch of variants as
+ * the cache preparation collects them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class MappingUtilBenchmark {
+
+    @Param({"200"})
+    public int batchSize;
+
+    private OverlapGene[] ncbiGenes;
+    private List<List<Variant>> batches;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        MappingFixtures fixtures = MappingFixtures.get();
+        List<OverlapGene> genes = new ArrayList<>();
+        for (Mapping mapping : fixtures.getChromosomeMappings()) {
+            genes.addAll(fixtures.getUpstreamGenes(mapping, MappingFixtures.NCBI_SOURCE));
+        }
+        ncbiGenes = genes.toArray(new OverlapGene[0]);
+        batches = new ArrayList<>();
+        List<Variant> variants = fixtures.getVariants();
+        for (int start = 0; start < variants.size(); start += batchSize) {
+            batches.add(variants.subList(start, Math.min(start + batchSize, variants.size())));
+        }
+    }
+
+    @Benchmark
+    public String parseNCBIid() {
+        OverlapGene gene = ncbiGenes[next++ % ncbiGenes.length];
+        return MappingUtil.parseNCBIid(gene.getDescription(), gene.getExternalName());
+    }
+
+    @Benchmark
+    public List<String> getAllChromosomesAndPositions() {
+        return MappingUtil.getAllChromosomesAndPositions(batches.get(next++ % batches.size()));
+    }
+}
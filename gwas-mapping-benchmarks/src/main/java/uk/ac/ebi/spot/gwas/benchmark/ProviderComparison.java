@@ -0,0 +1,171 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.collections4.ListUtils;
+import org.springframework.http.ResponseEntity;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.constant.Uri;
+import uk.ac.ebi.spot.gwas.common.service.EnsemblClient;
+import uk.ac.ebi.spot.gwas.ensembl_database.EnsemblDatabaseClient;
+import uk.ac.ebi.spot.gwas.ensembl_database.EnsemblDatabaseService;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends the same variation, lookup/symbol, overlap/region and info/assembly requests to the
+ * {@link EnsemblStandIn} over REST and to the database provider over the {@link EnsemblSchemaSubset}, both
+ * built from the synthetic genome, and fails on the first responses which differ in status or JSON.
+ * <p>
+ * java -cp target/benchmarks.jar uk.ac.ebi.spot.gwas.benchmark.ProviderComparison
+ * -Dcomparison.variants=2000           rsIDs compared, with the windows and genes around them
+ */
+public class ProviderComparison {
+
+    private static final int GENOMIC_DISTANCE = 100000;
+    private static final int POST_BATCH_SIZE = 200;
+    private static final int SHOWN_DIFFERENCES = 10;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final EnsemblClient restClient;
+    private final EnsemblDatabaseClient databaseClient;
+    private final String server;
+    private final Map<String, int[]> counts = new TreeMap<>();
+    private final List<String> differences = new ArrayList<>();
+
+    private ProviderComparison(EnsemblClient restClient, EnsemblDatabaseClient databaseClient, String server) {
+        this.restClient = restClient;
+        this.databaseClient = databaseClient;
+        this.server = server;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = Integer.getInteger("comparison.variants", 2000);
+        List<String> rsIds = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            rsIds.add("rs" + (1000 + i * 7919));
+        }
+        EnsemblSchemaSubset.load(rsIds);
+
+        try (EnsemblStandIn standIn = EnsemblStandIn.start(EnsemblStandIn.Responses.synthetic(), new EnsemblStandIn.Faults(0, 0, 0, 0, 0), 16)) {
+            AppConfig config = new AppConfig();
+            config.setServer(standIn.getServer());
+            config.setRequestPerSecond(1000);
+            config.setMaxRetries(0);
+            config.setMaxBackoffMs(1000);
+            config.setEnsemblDbUrl(EnsemblSchemaSubset.URL);
+            config.setEnsemblDbDriver("org.h2.Driver");
+            config.setEnsemblDbUsername("sa");
+            config.setEnsemblDbPassword("");
+            config.setEnsemblDbPoolSize(8);
+            config.setEnsemblCoreSchema(EnsemblSchemaSubset.CORE);
+            config.setEnsemblOtherfeaturesSchema(EnsemblSchemaSubset.OTHERFEATURES);
+            config.setEnsemblVariationSchema(EnsemblSchemaSubset.VARIATION);
+            config.setNcbiLogicName("refseq_import");
+            config.setNcbiDbType("otherfeatures");
+
+            EnsemblClient restClient = new EnsemblClient(config);
+            EnsemblDatabaseService databaseService = new EnsemblDatabaseService(config);
+            EnsemblDatabaseClient databaseClient = new EnsemblDatabaseClient(config, databaseService);
+            try {
+                ProviderComparison comparison = new ProviderComparison(restClient, databaseClient, standIn.getServer());
+                comparison.compare(config, rsIds);
+                if (!comparison.report()) {
+                    System.exit(1);
+                }
+            } finally {
+                restClient.close();
+                databaseClient.close();
+                databaseService.close();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void compare(AppConfig config, List<String> rsIds) {
+        SyntheticGenome genome = SyntheticGenome.get();
+        Set<String> symbols = new TreeSet<>(Arrays.asList("NR", "UNKNOWN1"));
+        Set<String> windows = new TreeSet<>();
+        for (String rsId : rsIds) {
+            this.get("GET variation", String.format("%s/%s/%s", server, Uri.VARIATION, rsId));
+            Map<String, Object> variation = genome.variation(rsId);
+            if (variation == null) {
+                continue;
+            }
+            for (Map<String, Object> mapping : (List<Map<String, Object>>) variation.get("mappings")) {
+                String chromosome = (String) mapping.get("seq_region_name");
+                int position = (Integer) mapping.get("start");
+                windows.add(String.format("%s:%s-%s", chromosome, Math.max(1, position - GENOMIC_DISTANCE), position + GENOMIC_DISTANCE));
+                genome.overlapGenes(chromosome, position - GENOMIC_DISTANCE, position + GENOMIC_DISTANCE, SyntheticGenome.ENSEMBL_SOURCE)
+                        .forEach(gene -> symbols.add((String) gene.get("external_name")));
+            }
+        }
+        for (List<String> batch : ListUtils.partition(rsIds, POST_BATCH_SIZE)) {
+            this.post("POST variation", String.format("%s/%s", server, Uri.VARIATION), Collections.singletonMap("ids", batch));
+        }
+        for (String symbol : symbols) {
+            this.get("GET lookup/symbol", String.format("%s/%s/%s", server, Uri.REPORTED_GENES, symbol));
+        }
+        for (List<String> batch : ListUtils.partition(new ArrayList<>(symbols), POST_BATCH_SIZE)) {
+            this.post("POST lookup/symbol", String.format("%s/%s", server, Uri.REPORTED_GENES), Collections.singletonMap("symbols", batch));
+        }
+        for (String window : windows) {
+            this.get("GET overlap band", String.format("%s/%s/%s?feature=band", server, Uri.OVERLAP_BAND_REGION, window));
+            this.get("GET overlap gene", String.format("%s/%s/%s?feature=gene", server, Uri.OVERLAPPING_GENE_REGION, window));
+            this.get("GET overlap gene", String.format("%s/%s/%s?feature=gene&logic_name=%s&db_type=%s", server, Uri.OVERLAPPING_GENE_REGION,
+                                                       window, config.getNcbiLogicName(), config.getNcbiDbType()));
+        }
+        List<String> chromosomes = new ArrayList<>(SyntheticGenome.chromosomes());
+        chromosomes.addAll(Arrays.asList(SyntheticGenome.ALT_HAPLOTYPE, "Z9"));
+        for (String chromosome : chromosomes) {
+            this.get("GET info/assembly", String.format("%s/%s/%s", server, Uri.INFO_ASSEMBLY, chromosome));
+            this.get("GET info/assembly", String.format("%s/%s/%s?bands=1", server, Uri.INFO_ASSEMBLY, chromosome));
+        }
+    }
+
+    private void get(String endpoint, String uri) {
+        this.compare(endpoint, uri, restClient.get(uri), databaseClient.get(uri));
+    }
+
+    private void post(String endpoint, String uri, Map<String, Object> request) {
+        try {
+            String json = mapper.writeValueAsString(request);
+            this.compare(endpoint, uri, restClient.post(uri, json), databaseClient.post(uri, json));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void compare(String endpoint, String uri, CompletableFuture<ResponseEntity<String>> rest,
+                         CompletableFuture<ResponseEntity<String>> database) {
+        int[] count = counts.computeIfAbsent(endpoint, k -> new int[2]);
+        count[0]++;
+        ResponseEntity<String> restResponse = rest.join();
+        ResponseEntity<String> databaseResponse = database.join();
+        JsonNode restBody = this.parse(restResponse.getBody());
+        JsonNode databaseBody = this.parse(databaseResponse.getBody());
+        if (restResponse.getStatusCode() != databaseResponse.getStatusCode() || !restBody.equals(databaseBody)) {
+            count[1]++;
+            if (differences.size() < SHOWN_DIFFERENCES) {
+                differences.add(String.format("%s%n  REST     %s %s%n  database %s %s", uri, restResponse.getStatusCodeValue(), restBody,
+                                              databaseResponse.getStatusCodeValue(), databaseBody));
+            }
+        }
+    }
+
+    private JsonNode parse(String body) {
+        try {
+            return mapper.readTree(body);
+        } catch (Exception e) {
+            throw new IllegalStateException("Not JSON: " + body, e);
+        }
+    }
+
+    private boolean report() {
+        System.out.printf("%n  %-22s %9s %9s%n", "endpoint", "requests", "differ");
+        counts.forEach((endpoint, count) -> System.out.printf("  %-22s %9s %9s%n", endpoint, count[0], count[1]));
+        differences.forEach(difference -> System.out.printf("%n%s%n", difference));
+        return differences.isEmpty();
+    }
+}
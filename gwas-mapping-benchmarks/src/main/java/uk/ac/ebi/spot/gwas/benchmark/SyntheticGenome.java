@@ -0,0 +1,301 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A made up GRCh38 with real chromosome lengths, bands of about 3Mb and a gene every 40kb, returned as
+ * Ensembl REST JSON structures. Everything is derived from a fixed seed and the key asked for, so any
+ * rsID, symbol or window gives the same answer in every run whatever order it is asked in.
+ */
+public final class SyntheticGenome {
+
+    public static final String ENSEMBL_SOURCE = "Ensembl";
+    public static final String NCBI_SOURCE = "NCBI";
+
+    static final String ASSEMBLY = "GRCh38";
+    private static final long SEED = 20210617L;
+    private static final int MAX_GENE_LENGTH = 100000;
+    private static final int BAND_SIZE = 3000000;
+
+    // Some variations also map to this alternative haplotype, which has no bands and no genes here
+    static final String ALT_HAPLOTYPE = "CHR_HSCHR6_MHC_COX_CTG1";
+    static final int ALT_HAPLOTYPE_LENGTH = 4795265;
+
+    private static final String[] CHROMOSOMES = {
+            "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12",
+            "13", "14", "15", "16", "17", "18", "19", "20", "21", "22", "X", "Y"};
+    private static final int[] LENGTHS = {
+            248956422, 242193529, 198295559, 190214555, 181538259, 170805979, 159345973, 145138636,
+            138394717, 133797422, 135086622, 133275309, 114364328, 107043718, 101991189, 90338345,
+            83257441, 80373285, 58617616, 64444167, 46709983, 50818468, 156040895, 57227415};
+
+    private static final String[] CONSEQUENCES = {
+            "intron_variant", "intergenic_variant", "upstream_gene_variant", "downstream_gene_variant",
+            "missense_variant", "3_prime_UTR_variant", "regulatory_region_variant", "synonymous_variant"};
+    private static final String[] BIOTYPES = {"protein_coding", "lncRNA", "processed_pseudogene", "miRNA"};
+    private static final String[] BASES = {"A", "C", "G", "T"};
+
+    private static final SyntheticGenome INSTANCE = new SyntheticGenome();
+
+    private final Map<String, List<Map<String, Object>>> bands = new ConcurrentHashMap<>();
+    private final Map<String, List<Map<String, Object>>> genes = new ConcurrentHashMap<>();
+
+    private SyntheticGenome() {
+    }
+
+    public static SyntheticGenome get() {
+        return INSTANCE;
+    }
+
+    public static List<String> chromosomes() {
+        return Arrays.asList(CHROMOSOMES);
+    }
+
+    /**
+     * Length of the chromosome, 0 when it is not one of the primary assembly.
+     */
+    public int length(String chromosome) {
+        int index = Arrays.asList(CHROMOSOMES).indexOf(chromosome);
+        return index < 0 ? 0 : LENGTHS[index];
+    }
+
+    /**
+     * info/assembly response of the chromosome, null when it is unknown.
+     */
+    public Map<String, Object> assembly(String chromosome, boolean withBands) {
+        int length = ALT_HAPLOTYPE.equals(chromosome) ? ALT_HAPLOTYPE_LENGTH : this.length(chromosome);
+        if (length == 0) {
+            return null;
+        }
+        Map<String, Object> assembly = new LinkedHashMap<>();
+        assembly.put("coordinate_system", "chromosome");
+        assembly.put("assembly_name", ASSEMBLY);
+        assembly.put("length", length);
+        assembly.put("assembly_exception_type", ALT_HAPLOTYPE.equals(chromosome) ? "HAP" : "REF");
+        assembly.put("is_chromosome", ALT_HAPLOTYPE.equals(chromosome) ? 0 : 1);
+        assembly.put("is_circular", 0);
+        if (withBands) {
+            assembly.put("karyotype_band", ALT_HAPLOTYPE.equals(chromosome) ? Collections.emptyList() : this.bands(chromosome));
+        }
+        return assembly;
+    }
+
+    /**
+     * variation response of the rsID, null for the one in fifty Ensembl does not know.
+     */
+    public Map<String, Object> variation(String rsId) {
+        long number;
+        try {
+            number = Long.parseLong(rsId.substring(2));
+        } catch (RuntimeException e) {
+            return null;
+        }
+        Random random = new Random(SEED ^ number * 0x9E3779B97F4A7C15L);
+        if (!rsId.startsWith("rs") || random.nextInt(50) == 0) {
+            return null;
+        }
+        int index = random.nextInt(CHROMOSOMES.length - 1);
+        List<Map<String, Object>> mappings = new ArrayList<>();
+        mappings.add(mapping(CHROMOSOMES[index], 1 + random.nextInt(LENGTHS[index] - 1), random));
+        if (random.nextInt(30) == 0) {
+            // Alternative haplotypes, skipped by the band lookup
+            mappings.add(mapping(ALT_HAPLOTYPE, 1 + random.nextInt(ALT_HAPLOTYPE_LENGTH - 1), random));
+        }
+        Map<String, Object> variation = new LinkedHashMap<>();
+        variation.put("name", rsId);
+        variation.put("source", "Variants (including SNPs and indels) imported from dbSNP");
+        variation.put("mappings", mappings);
+        variation.put("var_class", "SNP");
+        variation.put("ambiguity", ambiguity((String) mappings.get(0).get("allele_string")));
+        variation.put("minor_allele", BASES[random.nextInt(BASES.length)]);
+        variation.put("MAF", Math.round(random.nextDouble() * 5000) / 10000.0);
+        variation.put("evidence", Arrays.asList("Frequency", "1000Genomes", "ESP", "ExAC", "TOPMed", "gnomAD"));
+        variation.put("most_severe_consequence", CONSEQUENCES[random.nextInt(CONSEQUENCES.length)]);
+        variation.put("synonyms", Collections.singletonList("rs" + (1000 + random.nextInt(150000000))));
+        return variation;
+    }
+
+    /**
+     * lookup/symbol response of a gene name of the Ensembl source, e.g. G7_00012, null when there is none.
+     */
+    public Map<String, Object> symbol(String symbol) {
+        int separator = symbol.lastIndexOf('_');
+        if (!symbol.startsWith("G") || separator < 2) {
+            return null;
+        }
+        String chromosome = symbol.substring(1, separator);
+        if (this.length(chromosome) == 0) {
+            return null;
+        }
+        int id;
+        try {
+            id = Integer.parseInt(symbol.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        List<Map<String, Object>> chromosomeGenes = this.genes(chromosome, ENSEMBL_SOURCE);
+        if (id >= chromosomeGenes.size()) {
+            return null;
+        }
+        Map<String, Object> gene = chromosomeGenes.get(id);
+        Map<String, Object> lookup = new LinkedHashMap<>();
+        lookup.put("id", gene.get("id"));
+        lookup.put("display_name", gene.get("external_name"));
+        lookup.put("species", "homo_sapiens");
+        lookup.put("object_type", "Gene");
+        lookup.put("db_type", "core");
+        for (String field : Arrays.asList("seq_region_name", "start", "end", "strand", "biotype", "assembly_name",
+                                          "source", "logic_name", "description", "version")) {
+            lookup.put(field, gene.get(field));
+        }
+        return lookup;
+    }
+
+    /**
+     * Gene name of the given chromosome and index, for fixtures which need symbols that exist.
+     */
+    public static String geneName(String chromosome, int id) {
+        return String.format("G%s_%05d", chromosome, id);
+    }
+
+    public List<Map<String, Object>> overlapBands(String chromosome, int start, int end) {
+        List<Map<String, Object>> found = new ArrayList<>();
+        if (this.length(chromosome) == 0) {
+            return found;
+        }
+        for (Map<String, Object> band : this.bands(chromosome)) {
+            if ((Integer) band.get("start") <= end && start <= (Integer) band.get("end")) {
+                found.add(band);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * overlap/region genes of the window, sorted by start like Ensembl returns them.
+     */
+    public List<Map<String, Object>> overlapGenes(String chromosome, int start, int end, String source) {
+        List<Map<String, Object>> found = new ArrayList<>();
+        if (this.length(chromosome) == 0) {
+            return found;
+        }
+        List<Map<String, Object>> chromosomeGenes = this.genes(chromosome, source);
+        // No gene is longer than MAX_GENE_LENGTH, genes starting before that cannot reach the window
+        int low = 0;
+        int high = chromosomeGenes.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if ((Integer) chromosomeGenes.get(middle).get("start") < start - MAX_GENE_LENGTH) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < chromosomeGenes.size(); i++) {
+            Map<String, Object> gene = chromosomeGenes.get(i);
+            if ((Integer) gene.get("start") > end) {
+                break;
+            }
+            if ((Integer) gene.get("end") >= start) {
+                found.add(gene);
+            }
+        }
+        return found;
+    }
+
+    private List<Map<String, Object>> bands(String chromosome) {
+        return bands.computeIfAbsent(chromosome, chr -> {
+            int length = this.length(chr);
+            List<Map<String, Object>> chromosomeBands = new ArrayList<>();
+            int count = Math.max(2, length / BAND_SIZE);
+            int centromere = count / 3;
+            for (int i = 0; i < count; i++) {
+                boolean p = i < centromere;
+                int offset = p ? centromere - i : i - centromere + 1;
+                Map<String, Object> band = new LinkedHashMap<>();
+                band.put("strand", 0);
+                band.put("feature_type", "band");
+                band.put("start", i * BAND_SIZE + 1);
+                band.put("end", i == count - 1 ? length : (i + 1) * BAND_SIZE);
+                band.put("assembly_name", ASSEMBLY);
+                band.put("id", String.format("%s%s%s.%s", p ? "p" : "q", 1 + offset / 10, offset % 10 + 1, 1 + i % 3));
+                band.put("seq_region_name", chr);
+                band.put("stain", i % 2 == 0 ? "gneg" : "gpos50");
+                chromosomeBands.add(band);
+            }
+            return Collections.unmodifiableList(chromosomeBands);
+        });
+    }
+
+    private List<Map<String, Object>> genes(String chromosome, String source) {
+        return genes.computeIfAbsent(source + ':' + chromosome, key -> {
+            int length = this.length(chromosome);
+            Random random = new Random(SEED ^ key.hashCode());
+            int chromosomeIndex = Arrays.asList(CHROMOSOMES).indexOf(chromosome) + 1;
+            List<Map<String, Object>> chromosomeGenes = new ArrayList<>();
+            int start = 1 + random.nextInt(20000);
+            int id = 0;
+            while (start < length) {
+                int end = Math.min(length, start + 1000 + random.nextInt(MAX_GENE_LENGTH - 1000));
+                String name = geneName(chromosome, id);
+                Map<String, Object> gene = new LinkedHashMap<>();
+                gene.put("start", start);
+                gene.put("end", end);
+                gene.put("strand", random.nextBoolean() ? 1 : -1);
+                gene.put("assembly_name", ASSEMBLY);
+                gene.put("seq_region_name", chromosome);
+                gene.put("feature_type", "gene");
+                gene.put("biotype", BIOTYPES[random.nextInt(BIOTYPES.length)]);
+                gene.put("external_name", name);
+                if (NCBI_SOURCE.equals(source)) {
+                    int entrezId = chromosomeIndex * 100000 + id;
+                    gene.put("id", String.valueOf(entrezId));
+                    gene.put("gene_id", String.valueOf(entrezId));
+                    gene.put("source", "RefSeq");
+                    gene.put("logic_name", "refseq_import");
+                    gene.put("description", String.format("%s gene product [Source:NCBI gene (formerly Entrezgene);Acc:%s]", name, entrezId));
+                } else {
+                    String ensemblId = String.format("ENSG%011d", chromosomeIndex * 1000000 + id);
+                    gene.put("id", ensemblId);
+                    gene.put("gene_id", ensemblId);
+                    gene.put("version", 1 + random.nextInt(20));
+                    gene.put("source", "ensembl_havana");
+                    gene.put("logic_name", "ensembl_havana_gene_homo_sapiens");
+                    gene.put("description", String.format("%s gene product [Source:HGNC Symbol;Acc:HGNC:%s]", name, 1000 + id));
+                }
+                chromosomeGenes.add(Collections.unmodifiableMap(gene));
+                id++;
+                start += 5000 + random.nextInt(70000);
+            }
+            return Collections.unmodifiableList(chromosomeGenes);
+        });
+    }
+
+    // IUPAC code of the two bases, e.g. A/G is R
+    private static String ambiguity(String alleleString) {
+        String bases = alleleString.replace("/", "");
+        for (String[] code : new String[][]{{"AG", "R"}, {"CT", "Y"}, {"AC", "M"}, {"GT", "K"}, {"CG", "S"}, {"AT", "W"}}) {
+            if (bases.equals(code[0]) || bases.equals(new StringBuilder(code[0]).reverse().toString())) {
+                return code[1];
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, Object> mapping(String chromosome, int position, Random random) {
+        int reference = random.nextInt(BASES.length);
+        int alternative = (reference + 1 + random.nextInt(3)) % BASES.length;
+        Map<String, Object> mapping = new LinkedHashMap<>();
+        mapping.put("strand", 1);
+        mapping.put("start", position);
+        mapping.put("end", position);
+        mapping.put("assembly_name", ASSEMBLY);
+        mapping.put("ancestral_allele", BASES[reference]);
+        mapping.put("seq_region_name", chromosome);
+        mapping.put("allele_string", BASES[reference] + "/" + BASES[alternative]);
+        mapping.put("coord_system", "chromosome");
+        mapping.put("location", String.format("%s:%s-%s", chromosome, position, position));
+        return mapping;
+    }
+}
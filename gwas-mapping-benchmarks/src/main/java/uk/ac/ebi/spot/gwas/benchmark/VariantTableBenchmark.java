@@ -0,0 +1,73 @@
+package uk.ac.ebi.spot.gwas.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import uk.ac.ebi.spot.gwas.common.util.ResponseStore;
+import uk.ac.ebi.spot.gwas.variation.Variant;
+import uk.ac.ebi.spot.gwas.variation.VariantTable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * One variant lookup of the map-all-snp mode: from the columnar VariantTable the run now keeps, from the
+ * variation ResponseStore it used to read, and from a HashMap of Jackson bound variants for reference.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class VariantTableBenchmark {
+
+    @Param({"table", "responseStore", "hashMap"})
+    public String store;
+
+    private Map<String, Variant> variations;
+    private Path storeDirectory;
+    private String[] rsIds;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<Variant> variants = MappingFixtures.get().getVariants();
+        Map<String, Variant> byRsId = new HashMap<>();
+        variants.forEach(variant -> byRsId.put(variant.getName(), variant));
+        rsIds = byRsId.keySet().toArray(new String[0]);
+        if ("table".equals(store)) {
+            variations = VariantTable.copyOf(byRsId, byRsId.keySet());
+        } else if ("responseStore".equals(store)) {
+            storeDirectory = Files.createTempDirectory("variant-table-benchmark");
+            ResponseStore<Variant> responseStore = new ResponseStore<>(storeDirectory.resolve("variants").toString(),
+                                                                       new ObjectMapper().constructType(Variant.class));
+            responseStore.putAll(byRsId);
+            responseStore.flush();
+            variations = responseStore;
+        } else {
+            variations = byRsId;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (storeDirectory != null) {
+            ((ResponseStore<?>) variations).close();
+            try (Stream<Path> files = Files.walk(storeDirectory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public Variant get() {
+        return variations.get(rsIds[next++ % rsIds.length]);
+    }
+}
@@ -6,6 +6,9 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import uk.ac.ebi.spot.gwas.overlap_region.OverlapRegion;
+
+import java.util.List;
 
 @Data
 @AllArgsConstructor
@@ -32,6 +35,9 @@ public class AssemblyInfo {
     @JsonProperty("is_chromosome")
     public Integer isChromosome;
 
+    @JsonProperty("karyotype_band")
+    public List<OverlapRegion> bands;
+
 }
 
 
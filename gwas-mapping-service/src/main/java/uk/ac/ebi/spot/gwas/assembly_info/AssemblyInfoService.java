@@ -3,13 +3,14 @@ package uk.ac.ebi.spot.gwas.assembly_info;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import uk.ac.ebi.spot.gwas.common.config.AppConfig;
 import uk.ac.ebi.spot.gwas.common.constant.DataType;
 import uk.ac.ebi.spot.gwas.common.constant.Type;
 import uk.ac.ebi.spot.gwas.common.constant.Uri;
+import uk.ac.ebi.spot.gwas.common.lookup.TieredLookup;
+import uk.ac.ebi.spot.gwas.common.lookup.TieredLookupFactory;
 import uk.ac.ebi.spot.gwas.common.service.RestResponseResultBuilderService;
 import uk.ac.ebi.spot.gwas.gene_symbol.GeneSymbol;
 import uk.ac.ebi.spot.gwas.mapping.dto.RestResponseResult;
@@ -18,10 +19,8 @@ import uk.ac.ebi.spot.gwas.common.service.ApiService;
 import uk.ac.ebi.spot.gwas.common.util.CacheUtil;
 import uk.ac.ebi.spot.gwas.common.util.MappingUtil;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Service
@@ -31,16 +30,20 @@ public class AssemblyInfoService {
     private final AppConfig config;
     private final EnsemblRestcallHistoryService historyService;
     private final ApiService mappingApiService;
+    private final TieredLookup<String, AssemblyInfo> lookup;
     RestResponseResultBuilderService restResponseResultBuilderService;
 
     public AssemblyInfoService(AppConfig config,
                                EnsemblRestcallHistoryService historyService,
                                ApiService mappingApiService,
-                               RestResponseResultBuilderService restResponseResultBuilderService) {
+                               RestResponseResultBuilderService restResponseResultBuilderService,
+                               TieredLookupFactory lookupFactory) {
         this.config = config;
         this.historyService = historyService;
         this.mappingApiService = mappingApiService;
         this.restResponseResultBuilderService = restResponseResultBuilderService;
+        this.lookup = lookupFactory.create("assemblyInfo", () -> CacheUtil.assemblyInfo(DataType.ASSEMBLY_INFO, config.getCacheDir()),
+                                           Type.INFO_ASSEMBLY, chromosome -> chromosome, this::parseHistory, this::restApiCall);
     }
 
     public Map<String, AssemblyInfo> getAssemblyInfo(DataType dataType, List<String> chromosomes) { // Get Chromosome End
@@ -57,32 +60,76 @@ public class AssemblyInfoService {
         return cached;
     }
 
-    @Cacheable(value = "assemblyInfo")
     public AssemblyInfo getAssemblyInfoFromDB(String chromosome) {
-        log.warn("Retrieving Assembly infor for chromosome: {}", chromosome);
-        RestResponseResult result = historyService.getHistoryByTypeParamAndVersion(Type.INFO_ASSEMBLY, chromosome, config.getERelease());
-        AssemblyInfo assemblyInfo = new AssemblyInfo();
-        if (result == null) {
-            assemblyInfo = this.restApiCall(chromosome).get(chromosome);
-        } else {
-            try {
-                log.info("inside getting assemblyInfo from History block");
-                assemblyInfo = mapper.readValue(result.getRestResult(), AssemblyInfo.class);
-            } catch (JsonProcessingException e) { log.info(e.getMessage()); }
+        log.debug("Retrieving Assembly info for chromosome: {}", chromosome);
+        return lookup.get(chromosome);
+    }
+
+    public Map<String, AssemblyInfo> getAssemblyInfoFromDB(Collection<String> chromosomes) {
+        return lookup.getAll(chromosomes);
+    }
+
+    private AssemblyInfo parseHistory(RestResponseResult result) {
+        if (result.getRestResult() == null) {
+            // Recorded error, no length to give
+            return new AssemblyInfo();
+        }
+        try {
+            return mapper.readValue(result.getRestResult(), AssemblyInfo.class);
+        } catch (JsonProcessingException e) {
+            log.info(e.getMessage());
+            return null;
         }
-        return assemblyInfo;
+    }
+
+    private Map<String, AssemblyInfo> restApiCall(Collection<String> chromosomes) {
+        List<CompletableFuture<Map<String, AssemblyInfo>>> futureList = new ArrayList<>();
+        chromosomes.forEach(chromosome -> futureList.add(this.restApiCallAsync(chromosome)));
+        Map<String, AssemblyInfo> assemblyInfoMap = new HashMap<>();
+        futureList.forEach(future -> assemblyInfoMap.putAll(future.join()));
+        return assemblyInfoMap;
+    }
+
+    // Whole karyotype of one chromosome, recorded in the history table like any other assembly lookup.
+    // Null when Ensembl failed, now or in the recorded answer of this release
+    public AssemblyInfo getBandsFromDB(String chromosome) {
+        String param = String.format("%s?bands=1", chromosome);
+        RestResponseResult result = historyService.getHistoryByTypeParamAndVersion(Type.INFO_ASSEMBLY, param, config.getERelease());
+        if (result != null && result.getRestResult() == null) {
+            log.debug("Recorded error for the bands of chromosome {}: {}", chromosome, result.getError());
+            return null;
+        }
+        AssemblyInfo recorded = result != null ? this.parseHistory(result) : null;
+        if (recorded != null) {
+            return recorded;
+        }
+        String uri = String.format("%s/%s/%s", config.getServer(), Uri.INFO_ASSEMBLY, param);
+        Optional<ResponseEntity<AssemblyInfo>> optionalEntity = mappingApiService.getRequestAssemblyInfo(uri);
+        if (!optionalEntity.isPresent()) {
+            return null;
+        }
+        AssemblyInfo assemblyInfo = this.buildResult(param, uri, optionalEntity).get(param);
+        return optionalEntity.get().getStatusCode().is2xxSuccessful() ? assemblyInfo : null;
     }
 
     // fix manip here
     public Map<String, AssemblyInfo> restApiCall(String chromosome) { // chromosomeEnd
+        return this.restApiCallAsync(chromosome).join();
+    }
+
+    public CompletableFuture<Map<String, AssemblyInfo>> restApiCallAsync(String chromosome) {
         String uri = String.format("%s/%s/%s", config.getServer(), Uri.INFO_ASSEMBLY, chromosome);
         log.debug("AssemblyInfo url is {}", uri);
+        return mappingApiService.getRequestAssemblyInfoAsync(uri).thenApply(optionalEntity -> this.buildResult(chromosome, uri, optionalEntity));
+    }
+
+    // Keyed and recorded by param, the chromosome or the chromosome with the query of the request
+    private Map<String, AssemblyInfo> buildResult(String param, String uri, Optional<ResponseEntity<AssemblyInfo>> optionalEntity) {
         Map<String, AssemblyInfo> assemblyInfoMap = new HashMap<>();
-        Optional<ResponseEntity<AssemblyInfo>> optionalEntity = mappingApiService.getRequestAssemblyInfo(uri);
         AssemblyInfo assemblyInfo = optionalEntity
                 .map(response -> mapper.convertValue(response.getBody(), AssemblyInfo.class))
                 .orElseGet(AssemblyInfo::new);
-        assemblyInfoMap.put(chromosome, assemblyInfo);
+        assemblyInfoMap.put(param, assemblyInfo);
         String assemblyInfoResponse = "";
         try {
 
@@ -91,7 +138,7 @@ public class AssemblyInfoService {
             log.error("Exception in writing object as string in AssemblyInfoService"+ex.getMessage(),ex);
         }
 
-        restResponseResultBuilderService.buildResponseResult(uri, chromosome, Type.INFO_ASSEMBLY, optionalEntity.get(),assemblyInfoResponse);
+        restResponseResultBuilderService.buildResponseResult(uri, param, Type.INFO_ASSEMBLY, optionalEntity.get(),assemblyInfoResponse);
 
         return assemblyInfoMap;
     }
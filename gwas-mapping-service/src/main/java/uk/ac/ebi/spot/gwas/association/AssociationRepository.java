@@ -6,22 +6,56 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import uk.ac.ebi.spot.gwas.association.Association;
-import uk.ac.ebi.spot.gwas.common.projection.MappingProjection;
+import uk.ac.ebi.spot.gwas.common.projection.IdRangeProjection;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface AssociationRepository extends JpaRepository<Association, Long> {
 
-    @Query("select association.id as associationId" +
+    @Query("select min(association.id) as minId, max(association.id) as maxId, count(association.id) as total" +
             " FROM Association as association")
-    List<MappingProjection> findAllWithFewAttributes(Pageable pageable);
+    IdRangeProjection findIdBounds();
 
-    @Query("select association.id as associationId" +
-            " FROM Association as association where association.lastMappingDate is null ")
-    List<MappingProjection> findUnmappedWithFewAttributes(Pageable pageable);
+    @Query("select min(association.id) as minId, max(association.id) as maxId, count(association.id) as total" +
+            " FROM Association as association where association.lastMappingDate is null")
+    IdRangeProjection findUnmappedIdBounds();
 
-    List<Association> findBylastMappingDateIsNull(Pageable pageable);
+    // Every step-th id value, a sample of the id distribution which any database can answer
+    @Query("select association.id FROM Association as association" +
+            " where mod(association.id, :step) = 0 order by association.id")
+    List<Long> findIdSample(@Param("step") Long step);
+
+    @Query("select association.id FROM Association as association" +
+            " where mod(association.id, :step) = 0 and association.lastMappingDate is null order by association.id")
+    List<Long> findUnmappedIdSample(@Param("step") Long step);
+
+    @Query("select association.id FROM Association as association" +
+            " where association.id > :lastId and association.id <= :toId order by association.id")
+    List<Long> findIdsInRange(@Param("lastId") Long lastId, @Param("toId") Long toId, Pageable pageable);
+
+    @Query("select association.id FROM Association as association" +
+            " where association.id > :lastId and association.id <= :toId and association.lastMappingDate is null" +
+            " order by association.id")
+    List<Long> findUnmappedIdsInRange(@Param("lastId") Long lastId, @Param("toId") Long toId, Pageable pageable);
+
+    @Query("select association FROM Association as association" +
+            " where association.id > :lastId and association.id <= :toId order by association.id")
+    List<Association> findInRange(@Param("lastId") Long lastId, @Param("toId") Long toId, Pageable pageable);
+
+    @Query("select association FROM Association as association" +
+            " where association.id > :lastId and association.id <= :toId and association.lastMappingDate is null" +
+            " order by association.id")
+    List<Association> findUnmappedInRange(@Param("lastId") Long lastId, @Param("toId") Long toId, Pageable pageable);
+
+    @Query("select association.id FROM Association as association" +
+            " where association.id > :lastId order by association.id")
+    List<Long> findIdsAfter(@Param("lastId") Long lastId, Pageable pageable);
+
+    @Query("select association.id FROM Association as association" +
+            " where association.id > :lastId and association.lastMappingDate is null order by association.id")
+    List<Long> findUnmappedIdsAfter(@Param("lastId") Long lastId, Pageable pageable);
 
     @Query("Select association from Association as association " +
             "JOIN association.study study " +
@@ -30,4 +64,38 @@ public interface AssociationRepository extends JpaRepository<Association, Long>
 
 
     List<Association> findByIdIsIn(List<Long> ids);
+
+    @Query("select distinct snp.rsId FROM Association as association" +
+            " JOIN association.loci as loci JOIN loci.strongestRiskAlleles as riskAlleles JOIN riskAlleles.snp as snp" +
+            " WHERE association.id in :ids")
+    List<String> findSnpRsIdsByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("select distinct gene.geneName FROM Association as association" +
+            " JOIN association.loci as loci JOIN loci.authorReportedGenes as gene" +
+            " WHERE association.id in :ids")
+    List<String> findReportedGenesByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("select distinct association.id FROM Association as association" +
+            " JOIN association.loci as loci JOIN loci.strongestRiskAlleles as riskAlleles JOIN riskAlleles.snp as snp" +
+            " WHERE snp.rsId in :rsIds")
+    List<Long> findIdsBySnpRsIdIn(@Param("rsIds") Collection<String> rsIds);
+
+    @Query("select distinct association.id FROM Association as association" +
+            " JOIN association.loci as loci JOIN loci.strongestRiskAlleles as riskAlleles JOIN riskAlleles.snp as snp" +
+            " JOIN snp.locations as location" +
+            " WHERE location.chromosomeName = :chromosome and location.chromosomePosition between :start and :end")
+    List<Long> findIdsBySnpLocationBetween(@Param("chromosome") String chromosome,
+                                           @Param("start") Integer start,
+                                           @Param("end") Integer end);
+
+    @Query("select distinct association.id FROM Association as association" +
+            " JOIN association.loci as loci JOIN loci.strongestRiskAlleles as riskAlleles JOIN riskAlleles.snp as snp" +
+            " JOIN snp.locations as location" +
+            " WHERE location.chromosomeName = :chromosome")
+    List<Long> findIdsBySnpChromosome(@Param("chromosome") String chromosome);
+
+    @Query("select distinct association.id FROM Association as association" +
+            " JOIN association.loci as loci JOIN loci.authorReportedGenes as gene" +
+            " WHERE gene.geneName in :geneNames")
+    List<Long> findIdsByReportedGeneIn(@Param("geneNames") Collection<String> geneNames);
 }
@@ -4,7 +4,6 @@ import org.apache.commons.collections4.ListUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.scheduling.annotation.Async;
@@ -13,20 +12,23 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import uk.ac.ebi.spot.gwas.common.constant.OperationMode;
 import uk.ac.ebi.spot.gwas.mapping.dto.MappingDto;
-import uk.ac.ebi.spot.gwas.common.projection.MappingProjection;
+import uk.ac.ebi.spot.gwas.common.projection.IdRangeProjection;
 import uk.ac.ebi.spot.gwas.common.repository.GeneRepository;
 import uk.ac.ebi.spot.gwas.common.repository.LocusRepository;
 import uk.ac.ebi.spot.gwas.common.repository.SingleNucleotidePolymorphismRepository;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
 
 @Service
 public class AssociationService {
 
+    // Sampled ids per range, enough for the quantiles to follow the gaps of the id space
+    private static final int SAMPLES_PER_RANGE = 16;
+
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
@@ -38,54 +40,96 @@ public class AssociationService {
     @Autowired
     private SingleNucleotidePolymorphismRepository snpRepo;
 
+    // Contiguous id ranges holding about the same number of associations each, at most count of them
     @Transactional(propagation = Propagation.SUPPORTS)
-    public Page<Association> getAssociationPageInfo(int start, int size) {
-        log.info("Retrieving Association Page info ...");
-        Pageable pageable = PageRequest.of(start, size);
-        return associationRepository.findAll(pageable);
-    }
-
-    @Async("asyncExecutor")
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public CompletableFuture<MappingDto> getAssociationsBatch(int start, int size, OperationMode mode) {
-
-        log.info("Get data part {} : {} starts", start, size);
-        Pageable pageable = PageRequest.of(start, size);
-
-        List<Long> associationIds = new ArrayList<>();
-        List<MappingProjection> associations;
-        if (mode == OperationMode.MAP_ALL_SNPS_INDB) {
-            associations = associationRepository.findAllWithFewAttributes(pageable);
-        } else {
-            associations = associationRepository.findUnmappedWithFewAttributes(pageable);
+    public List<IdRange> getIdRanges(int count, OperationMode mode) {
+        boolean all = mode == OperationMode.MAP_ALL_SNPS_INDB;
+        IdRangeProjection bounds = all ? associationRepository.findIdBounds() : associationRepository.findUnmappedIdBounds();
+        List<IdRange> ranges = new ArrayList<>();
+        if (bounds == null || bounds.getTotal() == null || bounds.getTotal() == 0) {
+            return ranges;
+        }
+        long minId = bounds.getMinId();
+        long maxId = bounds.getMaxId();
+        int rangeCount = (int) Math.max(1, Math.min(count, bounds.getTotal()));
+
+        List<Long> boundaries = new ArrayList<>();
+        if (rangeCount > 1) {
+            long step = Math.max(1, bounds.getTotal() / ((long) rangeCount * SAMPLES_PER_RANGE));
+            List<Long> sample = all ? associationRepository.findIdSample(step) : associationRepository.findUnmappedIdSample(step);
+            if (sample.size() >= rangeCount * 2) {
+                // Quantiles of the sample, ranges follow the gaps of the id space
+                for (int i = 1; i < rangeCount; i++) {
+                    boundaries.add(sample.get(i * sample.size() / rangeCount));
+                }
+            } else {
+                // Too few ids are multiples of the step to go by, equal widths
+                for (int i = 1; i < rangeCount; i++) {
+                    boundaries.add(minId - 1 + (maxId - minId + 1) * i / rangeCount);
+                }
+            }
         }
 
-        associations.forEach(association -> associationIds.add(association.getAssociationId()));
-
-        List<MappingProjection> authorReportedGeneNames = generepository.findUsingAssociationIds(associationIds);
-        List<String> reportedGenes = authorReportedGeneNames.stream()
-                .map(MappingProjection::getGeneName).distinct().collect(Collectors.toList());
-
-        List<Long> locusIds = new ArrayList<>();
-        List<MappingProjection> associationLoci = locusRepository.findUsingAssociationIds(associationIds);
-        associationLoci.forEach(locus -> locusIds.add(locus.getLocusId()));
+        long fromId = minId - 1;
+        for (Long boundary : boundaries) {
+            if (boundary > fromId && boundary < maxId) {
+                ranges.add(new IdRange(fromId, boundary));
+                fromId = boundary;
+            }
+        }
+        ranges.add(new IdRange(fromId, maxId));
+        log.info("{} associations with ids {} to {} split in {} ranges", bounds.getTotal(), minId, maxId, ranges.size());
+        return ranges;
+    }
 
-        Collection<MappingProjection> snpsLinkedToLocus = new ArrayList<>();
-        ListUtils.partition(locusIds, 1000).forEach(listPart -> snpsLinkedToLocus.addAll(snpRepo.findUsingRiskAllelesLociIds(listPart)));
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public long countAssociations(OperationMode mode) {
+        IdRangeProjection bounds = mode == OperationMode.MAP_ALL_SNPS_INDB ?
+                associationRepository.findIdBounds() : associationRepository.findUnmappedIdBounds();
+        return bounds == null || bounds.getTotal() == null ? 0 : bounds.getTotal();
+    }
 
-        List<String> snpRsIds = snpsLinkedToLocus.stream()
-                .map(MappingProjection::getSnpRsid).distinct().collect(Collectors.toList());
+    // Bounds of every association whatever the mode, mapping an association does not move them
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public IdRangeProjection getIdBounds() {
+        return associationRepository.findIdBounds();
+    }
 
-        log.info("Get data part {} : {} ends", start, size);
+    // Streams the range in keyset pages of size associations
+    @Async("asyncExecutor")
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public CompletableFuture<MappingDto> getAssociationsBatch(IdRange range, int size, OperationMode mode) {
+        log.info("Get data of ids {} to {} starts", range.getFromId(), range.getToId());
+        Set<String> snpRsIds = new LinkedHashSet<>();
+        Set<String> reportedGenes = new LinkedHashSet<>();
+
+        Long lastId = range.getFromId();
+        List<Long> associationIds;
+        do {
+            associationIds = this.getAssociationIdsInRange(lastId, range.getToId(), size, mode);
+            if (associationIds.isEmpty()) {
+                break;
+            }
+            generepository.findUsingAssociationIds(associationIds)
+                    .forEach(gene -> reportedGenes.add(gene.getGeneName()));
+
+            List<Long> locusIds = new ArrayList<>();
+            locusRepository.findUsingAssociationIds(associationIds).forEach(locus -> locusIds.add(locus.getLocusId()));
+            ListUtils.partition(locusIds, 1000)
+                    .forEach(listPart -> snpRepo.findUsingRiskAllelesLociIds(listPart).forEach(snp -> snpRsIds.add(snp.getSnpRsid())));
+
+            lastId = associationIds.get(associationIds.size() - 1);
+        } while (associationIds.size() == size);
+
+        log.info("Get data of ids {} to {} ends", range.getFromId(), range.getToId());
 
         MappingDto mappingDto = MappingDto.builder()
-                .snpRsIds(snpRsIds)
-                .reportedGenes(reportedGenes).build();
+                .snpRsIds(new ArrayList<>(snpRsIds))
+                .reportedGenes(new ArrayList<>(reportedGenes)).build();
 
         return CompletableFuture.completedFuture(mappingDto);
     }
 
-
     @Transactional(propagation = Propagation.REQUIRED)
     public List<Association> getAssociations(List<Long> asscnIds) {
         log.info("Get details for these associations"+asscnIds.size());
@@ -95,20 +139,46 @@ public class AssociationService {
 
     @Async("asyncExecutor")
     @Transactional(propagation = Propagation.REQUIRED)
-    public CompletableFuture<List<Association>> getAssociations(int start, int size, OperationMode mode) {
-        log.info("Get association {} : {} starts", start, size);
-        Pageable pageable = PageRequest.of(start, size);
+    public CompletableFuture<List<Association>> getAssociations(IdRange range, int size, OperationMode mode) {
+        log.info("Get associations of ids {} to {} starts", range.getFromId(), range.getToId());
+        Pageable pageable = PageRequest.of(0, size);
+
+        List<Association> associations = new ArrayList<>();
+        Long lastId = range.getFromId();
+        List<Association> page;
+        do {
+            if (mode == OperationMode.MAP_ALL_SNPS_INDB) {
+                page = associationRepository.findInRange(lastId, range.getToId(), pageable);
+            } else {
+                page = associationRepository.findUnmappedInRange(lastId, range.getToId(), pageable);
+            }
+            if (page.isEmpty()) {
+                break;
+            }
+            associations.addAll(page);
+            lastId = page.get(page.size() - 1).getId();
+        } while (page.size() == size);
+
+        log.info("Get associations of ids {} to {} ends", range.getFromId(), range.getToId());
+        return CompletableFuture.completedFuture(associations);
+    }
 
-        List<Association> associations;
+    // Keyset paging, stays correct while the associations already read are being mapped
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<Long> getAssociationIdsAfter(Long lastId, int size, OperationMode mode) {
+        Pageable pageable = PageRequest.of(0, size);
         if (mode == OperationMode.MAP_ALL_SNPS_INDB) {
-            Page<Association> associationPages = associationRepository.findAll(pageable);
-            associations = associationPages.getContent();
-        } else {
-            associations = associationRepository.findBylastMappingDateIsNull(pageable);
+            return associationRepository.findIdsAfter(lastId, pageable);
         }
+        return associationRepository.findUnmappedIdsAfter(lastId, pageable);
+    }
 
-        log.info("Get association {} : {} ends", start, size);
-        return CompletableFuture.completedFuture(associations);
+    private List<Long> getAssociationIdsInRange(Long lastId, Long toId, int size, OperationMode mode) {
+        Pageable pageable = PageRequest.of(0, size);
+        if (mode == OperationMode.MAP_ALL_SNPS_INDB) {
+            return associationRepository.findIdsInRange(lastId, toId, pageable);
+        }
+        return associationRepository.findUnmappedIdsInRange(lastId, toId, pageable);
     }
 
     public List<Association> getAssociationsByStudy(Long studyId){
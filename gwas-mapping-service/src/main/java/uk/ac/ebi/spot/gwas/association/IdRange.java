@@ -0,0 +1,16 @@
+package uk.ac.ebi.spot.gwas.association;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Contiguous range of association ids, from exclusive and to inclusive, so ranges split at the same
+ * boundary neither overlap nor leave a gap.
+ */
+@Data
+@AllArgsConstructor
+public class IdRange {
+
+    private Long fromId;
+    private Long toId;
+}
@@ -3,7 +3,6 @@ package uk.ac.ebi.spot.gwas.association;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -14,8 +13,11 @@ import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
+/**
+ * Loads the associations to map, split up front into threadSize contiguous id ranges which are each
+ * streamed by keyset pages of batchSize on their own thread.
+ */
 @Service
 public class SnpLoadingService {
 
@@ -25,69 +27,47 @@ public class SnpLoadingService {
     private AssociationService service;
 
     public MappingDto getSnpsLinkedToLocus(OperationMode mode, int threadSize, int batchSize) throws ExecutionException, InterruptedException {
-        int pageStart = 0;
-        int pageEnd = threadSize;
         long start = System.currentTimeMillis();
-        Page<Association> associations = service.getAssociationPageInfo(pageStart, batchSize);
-        log.info("Total elements is: {} Total pages is: {} ", associations.getTotalElements(), associations.getTotalPages());
-
-        List<String> snpRsIds = new ArrayList<>();
-        List<String> reportedGenes = new ArrayList<>();
-
-        while (pageStart < associations.getTotalPages()) {
-            List<Integer> dataPages = IntStream.range(pageStart, pageEnd).boxed().collect(Collectors.toList());
-
-            List<CompletableFuture<MappingDto>> futureList =
-                    dataPages.stream()
-                            .map(dataPage -> service.getAssociationsBatch(dataPage, batchSize, mode)).collect(Collectors.toList());
-
-            CompletableFuture.allOf(futureList.toArray(new CompletableFuture[futureList.size()]));
-            for (CompletableFuture<MappingDto> future : futureList) {
-                snpRsIds.addAll(future.get().getSnpRsIds());
-                reportedGenes.addAll(future.get().getReportedGenes());
-            }
-            pageStart += threadSize;
-            pageEnd += threadSize;
+        long total = service.countAssociations(mode);
+        List<IdRange> ranges = service.getIdRanges(threadSize, mode);
+        log.info("Total elements is: {} Total ranges is: {} ", total, ranges.size());
+
+        List<CompletableFuture<MappingDto>> futureList =
+                ranges.stream()
+                        .map(range -> service.getAssociationsBatch(range, batchSize, mode)).collect(Collectors.toList());
+
+        Set<String> snpRsIds = new LinkedHashSet<>();
+        Set<String> reportedGenes = new LinkedHashSet<>();
+        for (CompletableFuture<MappingDto> future : futureList) {
+            MappingDto rangeDto = future.get();
+            rangeDto.getSnpRsIds().forEach(rsId -> snpRsIds.add(rsId.toLowerCase()));
+            rangeDto.getReportedGenes().forEach(gene -> reportedGenes.add(gene.toLowerCase()));
         }
         log.info("Total time {}", (System.currentTimeMillis() - start));
 
-        snpRsIds = snpRsIds.stream()
-                .map(String::toLowerCase).distinct().collect(Collectors.toList());
-
-        reportedGenes = reportedGenes.stream()
-                .map(String::toLowerCase).distinct().collect(Collectors.toList());
-
         return MappingDto.builder()
-                .snpRsIds(snpRsIds)
+                .snpRsIds(new ArrayList<>(snpRsIds))
                 .threadSize(threadSize)
                 .batchSize(batchSize)
-                .totalPagesToMap(associations.getTotalPages())
-                .reportedGenes(reportedGenes).build();
+                .totalPagesToMap((int) ((total + batchSize - 1) / batchSize))
+                .reportedGenes(new ArrayList<>(reportedGenes)).build();
     }
+
     @Transactional(propagation = Propagation.SUPPORTS)
     public List<Association> getAssociationInBatch(OperationMode mode,
                                                    int threadSize,
-                                                   int batchSize,
-                                                   int totalPages) throws ExecutionException, InterruptedException {
-        int pageStart = 0;
-        int pageEnd = threadSize;
+                                                   int batchSize) throws ExecutionException, InterruptedException {
         long start = System.currentTimeMillis();
-        log.info("Total elements is: {} ", totalPages);
+        List<IdRange> ranges = service.getIdRanges(threadSize, mode);
+        log.info("Total ranges is: {} ", ranges.size());
 
-        List<Association> associations = new ArrayList<>();
-        while (pageStart < totalPages) {
-            List<Integer> dataPages = IntStream.range(pageStart, pageEnd).boxed().collect(Collectors.toList());
+        List<CompletableFuture<List<Association>>> futureList =
+                ranges.stream()
+                        .map(range -> service.getAssociations(range, batchSize, mode)).collect(Collectors.toList());
 
-            List<CompletableFuture<List<Association>>> futureList =
-                    dataPages.stream()
-                            .map(dataPage -> service.getAssociations(dataPage, batchSize, mode)).collect(Collectors.toList());
-
-            CompletableFuture.allOf(futureList.toArray(new CompletableFuture[futureList.size()]));
-            for (CompletableFuture<List<Association>> future : futureList) {
-                associations.addAll(future.get());
-            }
-            pageStart += threadSize;
-            pageEnd += threadSize;
+        List<Association> associations = new ArrayList<>();
+        for (CompletableFuture<List<Association>> future : futureList) {
+            associations.addAll(future.get());
         }
 
         log.info("Total time {}", (System.currentTimeMillis() - start));
@@ -75,6 +75,16 @@ public class Cli implements CommandLineRunner {
             case "server-mode":
                 log.info("Application executed successfully, running in server mode!");
                 break;
+            case "map-release-diff":
+                log.info("Mapping -m {}", executionMode);
+                ensemblRunnner.mapReleaseDiff(performer);
+                System.exit(1);
+                break;
+            case "migrate-history-payloads":
+                log.info("Mapping -m {}", executionMode);
+                ensemblRunnner.migrateHistoryPayloads(performer);
+                System.exit(1);
+                break;
             case "map-asscn-ids":
                 log.info("Mapping some associations with ids");
                 ensemblRunnner.mapAssociationList(asscnIds);
@@ -4,15 +4,19 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.ListUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.service.EnsemblPayloadStore;
 import uk.ac.ebi.spot.gwas.common.constant.OperationMode;
 import uk.ac.ebi.spot.gwas.ensembl_data.EnsemblData;
+import uk.ac.ebi.spot.gwas.mapping.AssociationMappingPipeline;
+import uk.ac.ebi.spot.gwas.mapping.HistoryPrefetcher;
+import uk.ac.ebi.spot.gwas.mapping.MappingResultCache;
 import uk.ac.ebi.spot.gwas.mapping.MappingSavingService;
 import uk.ac.ebi.spot.gwas.mapping.MappingService;
+import uk.ac.ebi.spot.gwas.mapping.ReleaseDiffService;
 import uk.ac.ebi.spot.gwas.association.SnpLoadingService;
 import uk.ac.ebi.spot.gwas.mapping.dto.MappingDto;
 import uk.ac.ebi.spot.gwas.association.Association;
@@ -41,9 +45,19 @@ public class EnsemblRunnner {
     private final MappingSavingService dataSavingService;
     @Autowired
     private AssociationService associationService;
+    @Autowired
+    private AssociationMappingPipeline mappingPipeline;
+    @Autowired
+    private MappingResultCache resultCache;
+    @Autowired
+    private HistoryPrefetcher historyPrefetcher;
+    @Autowired
+    private ReleaseDiffService releaseDiffService;
+    @Autowired
+    private EnsemblPayloadStore payloadStore;
+    @Autowired
+    private AppConfig config;
 
-    //@Autowired
-    //private AppConfig config;
     private EnsemblData ensemblData = EnsemblData.builder().build();
 
     public EnsemblRunnner(MappingService mappingService,
@@ -63,16 +77,11 @@ public class EnsemblRunnner {
         ensemblDataService.cacheEnsemblData(mappingDto);
     }
 
+    // Nothing is loaded up front, the pipeline fetches the Ensembl data of each page of associations it reads
     public void mapAllAssociations(String performer) throws ExecutionException, InterruptedException, IOException {
         log.info("Full database remap commenced by performer: {}", performer);
         OperationMode mode = OperationMode.MAP_SOME_SNPS_INDB;
-        MappingDto mappingDto = snpLoadingService.getSnpsLinkedToLocus(mode, loadingThreadSize, DB_BATCH_SIZE);
-        ensemblData = ensemblDataService.cacheEnsemblData(mappingDto);
-        List<Association> associations = snpLoadingService.getAssociationInBatch(mode,
-                                                                                 loadingThreadSize,
-                                                                                 DB_BATCH_SIZE,
-                                                                                 mappingDto.getTotalPagesToMap());
-        this.mapAssociations(OperationMode.MAP_ALL_SNPS_INDB, associations,ensemblData);
+        mappingPipeline.run(mode, mode, ensemblData);
     }
 
     public void mapAssociationsByStudy(Long studyId, String performer) {
@@ -85,14 +94,27 @@ public class EnsemblRunnner {
     public void mapSomeAssociations(String performer) throws ExecutionException, InterruptedException {
         log.info("Mapping -m {}", performer);
         OperationMode mode = OperationMode.MAP_SOME_SNPS_INDB;
-        Page<Association> pageInfo = associationService.getAssociationPageInfo(0, DB_BATCH_SIZE);
         List<Association> associations = snpLoadingService.getAssociationInBatch(mode,
                                                                                  loadingThreadSize,
-                                                                                 DB_BATCH_SIZE,
-                                                                                 pageInfo.getTotalPages());
+                                                                                 DB_BATCH_SIZE);
         this.mapAssociations(mode, associations, ensemblData);
     }
 
+    // Remaps only the associations touched by Ensembl payloads which changed since the previous release
+    public void mapReleaseDiff(String performer) {
+        log.info("Release diff remap commenced by performer: {}", performer);
+        OperationMode mode = OperationMode.MAP_SOME_SNPS_INDB;
+        List<Long> associationIds = new ArrayList<>(releaseDiffService.findChangedAssociations());
+        for (List<Long> idList : ListUtils.partition(associationIds, DB_BATCH_SIZE)) {
+            this.mapAssociations(mode, associationService.getAssociations(idList), ensemblData);
+        }
+    }
+
+    public void migrateHistoryPayloads(String performer) {
+        log.info("History payload migration commenced by performer: {}", performer);
+        payloadStore.migrate();
+    }
+
     public void mapAssociationList(List<Long> associationIds) {
         OperationMode mode = OperationMode.MAP_SOME_SNPS_INDB;
         List<Association> associations = associationService.getAssociations(associationIds);
@@ -108,24 +130,32 @@ public class EnsemblRunnner {
         long start = System.currentTimeMillis();
         List<MappingDto> mappingDtoList = new ArrayList<>();
         int count = MAPPING_THREAD_SIZE;
+        resultCache.open();
 
-        for (List<Association> associationList : ListUtils.partition(associations, MAPPING_THREAD_SIZE)) {
-            try {
-                List<CompletableFuture<MappingDto>> futureList =
-                        associationList.stream()
-                                .map(association -> mappingService.mapAndSaveData(association, ensemblData, mode))
-                                .collect(Collectors.toList());
-                CompletableFuture.allOf(futureList.toArray(new CompletableFuture[futureList.size()]));
-                for (CompletableFuture<MappingDto> future : futureList) {
-                    mappingDtoList.add(future.get());
+        for (List<Association> prefetchBatch : ListUtils.partition(associations, config.getHistoryPrefetchBatchSize())) {
+            if (mode != OperationMode.MAP_ALL_SNPS_INDB) {
+                historyPrefetcher.prefetch(prefetchBatch);
+            }
+            for (List<Association> associationList : ListUtils.partition(prefetchBatch, MAPPING_THREAD_SIZE)) {
+                try {
+                    List<CompletableFuture<MappingDto>> futureList =
+                            associationList.stream()
+                                    .map(association -> mappingService.mapAndSaveData(association, ensemblData, mode))
+                                    .collect(Collectors.toList());
+                    CompletableFuture.allOf(futureList.toArray(new CompletableFuture[futureList.size()]));
+                    for (CompletableFuture<MappingDto> future : futureList) {
+                        mappingDtoList.add(future.get());
+                    }
+                } catch (Exception e) {
+                    log.error("Association {} was not mapped due to error {}", associationList.get(0).getId(), e.getMessage());
                 }
-            } catch (Exception e) {
-                log.error("Association {} was not mapped due to error {}", associationList.get(0).getId(), e.getMessage());
+                log.info("Finished Processing {} Association", count);
+                count += MAPPING_THREAD_SIZE;
             }
-            log.info("Finished Processing {} Association", count);
-            count += MAPPING_THREAD_SIZE;
         }
 
+        historyPrefetcher.clear();
+        resultCache.close();
         dataSavingService.postMappingReportCheck(associations);
         //dataSavingService.saveRestHistory(ensemblData, config.getERelease(), associations.size());
 
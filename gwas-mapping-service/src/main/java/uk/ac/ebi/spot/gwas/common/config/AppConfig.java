@@ -36,4 +36,106 @@ public class AppConfig {
     @Value("${mapping.cache}/${mapping.version}/")
     private String cacheDir;
 
+    @Value("${mapping.cache}")
+    private String cacheRoot;
+
+    @Value("${mapping.release_diff.previous_version:}")
+    private String releaseDiffPreviousVersion;
+
+    @Value("${mapping.release_diff.batch_size:1000}")
+    private int releaseDiffBatchSize;
+
+    @Value("${mapping.requestPerSecond:15}")
+    private double requestPerSecond;
+
+    @Value("${mapping.client.max_retries:8}")
+    private int maxRetries;
+
+    @Value("${mapping.client.max_backoff_ms:60000}")
+    private long maxBackoffMs;
+
+    @Value("${mapping.pipeline.queue_capacity:50}")
+    private int pipelineQueueCapacity;
+
+    @Value("${mapping.pipeline.read_batch_size:1000}")
+    private int pipelineReadBatchSize;
+
+    @Value("${mapping.pipeline.expander_threads:4}")
+    private int pipelineExpanderThreads;
+
+    @Value("${mapping.pipeline.resolver_threads:8}")
+    private int pipelineResolverThreads;
+
+    @Value("${mapping.pipeline.context_threads:8}")
+    private int pipelineContextThreads;
+
+    @Value("${mapping.pipeline.writer_threads:1}")
+    private int pipelineWriterThreads;
+
+    @Value("${mapping.pipeline.report_interval_seconds:30}")
+    private int pipelineReportIntervalSeconds;
+
+    @Value("${mapping.bulk_write.enabled:false}")
+    private boolean bulkWrite;
+
+    @Value("${mapping.bulk_write.sequence:hibernate_sequence}")
+    private String bulkWriteSequence;
+
+    @Value("${mapping.compare_write.enabled:false}")
+    private boolean compareWrite;
+
+    @Value("${mapping.history_prefetch.batch_size:200}")
+    private int historyPrefetchBatchSize;
+
+    @Value("${mapping.gene_provider:rest}")
+    private String geneProvider;
+
+    @Value("${mapping.annotation.ensembl:}")
+    private String ensemblAnnotationFile;
+
+    @Value("${mapping.annotation.ncbi:}")
+    private String ncbiAnnotationFile;
+
+    @Value("${mapping.gene_symbol_provider:rest}")
+    private String geneSymbolProvider;
+
+    @Value("${mapping.gene_symbol.synonyms:}")
+    private String geneSymbolSynonymsFile;
+
+    @Value("${mapping.variation_provider:rest}")
+    private String variationProvider;
+
+    @Value("${mapping.variation.vcf:}")
+    private String variationVcfFile;
+
+    @Value("${mapping.variation.merge_history:}")
+    private String variationMergeFile;
+
+    @Value("${mapping.ensembl_provider:rest}")
+    private String ensemblProvider;
+
+    @Value("${ensembl.datasource.url:}")
+    private String ensemblDbUrl;
+
+    @Value("${ensembl.datasource.driver-class:}")
+    private String ensemblDbDriver;
+
+    @Value("${ensembl.datasource.username:anonymous}")
+    private String ensemblDbUsername;
+
+    @Value("${ensembl.datasource.password:}")
+    private String ensemblDbPassword;
+
+    @Value("${ensembl.datasource.pool_size:8}")
+    private int ensemblDbPoolSize;
+
+    @Value("${ensembl.datasource.core:homo_sapiens_core_${ensembl.db_version}_38}")
+    private String ensemblCoreSchema;
+
+    @Value("${ensembl.datasource.otherfeatures:homo_sapiens_otherfeatures_${ensembl.db_version}_38}")
+    private String ensemblOtherfeaturesSchema;
+
+    @Value("${ensembl.datasource.variation:homo_sapiens_variation_${ensembl.db_version}_38}")
+    private String ensemblVariationSchema;
+
 }
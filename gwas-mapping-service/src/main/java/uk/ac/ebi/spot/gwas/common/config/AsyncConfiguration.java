@@ -1,11 +1,13 @@
 package uk.ac.ebi.spot.gwas.common.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableAsync
@@ -21,4 +23,17 @@ public class AsyncConfiguration {
         executor.initialize();
         return executor;
     }
+
+    // Genomic context lookups of one location, bounded so a mapping run cannot exhaust the connection pool
+    @Bean(name = "genomicContextExecutor")
+    public Executor genomicContextExecutor(@Value("${mapping.genomic_context_threads:6}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(100);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("GenomicContext-");
+        executor.initialize();
+        return executor;
+    }
 }
@@ -0,0 +1,164 @@
+package uk.ac.ebi.spot.gwas.common.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CachingConfigurerSupport;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import uk.ac.ebi.spot.gwas.common.lookup.TieredLookup;
+
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Caches of the Ensembl lookups done against the database. Every cache is bounded by weight and expires
+ * entries which are not read, so memory stays predictable in server mode. The weight of a cached list is
+ * its size. Settings are Caffeine specs under mapping.caches.<name>. Keys include mapping.version, a
+ * release change never serves values of the previous one. The statistics of each cache are registered
+ * with the platform MBean server as uk.ac.ebi.spot.gwas:type=Cache,name=<name>, no metrics registry is on
+ * the classpath, and are logged every mapping.caches.stats_interval_ms.
+ */
+@Slf4j
+@Configuration
+public class CacheConfiguration extends CachingConfigurerSupport {
+
+    private static final Map<String, String> DEFAULT_SPECS = new LinkedHashMap<>();
+
+    static {
+        DEFAULT_SPECS.put("variation", "maximumWeight=200000,expireAfterAccess=6h");
+        DEFAULT_SPECS.put("overlapGene", "maximumWeight=500000,expireAfterAccess=6h");
+        DEFAULT_SPECS.put("cytogeneticBand", "maximumWeight=100000,expireAfterAccess=6h");
+        DEFAULT_SPECS.put("assemblyInfo", "maximumWeight=1000,expireAfterAccess=24h");
+        DEFAULT_SPECS.put("geneSymbol", "maximumWeight=100000,expireAfterAccess=6h");
+    }
+
+    private static final String OBJECT_NAME = "uk.ac.ebi.spot.gwas:type=Cache,name=%s";
+
+    private final Environment environment;
+    private final List<ObjectName> registered = new ArrayList<>();
+    private CaffeineCacheManager cacheManager;
+
+    public CacheConfiguration(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Bean
+    @Override
+    public CacheManager cacheManager() {
+        cacheManager = new CaffeineCacheManager();
+        DEFAULT_SPECS.forEach((name, defaultSpec) -> {
+            String spec = environment.getProperty("mapping.caches." + name, defaultSpec);
+            Caffeine<Object, Object> builder = Caffeine.from(spec).recordStats();
+            if (spec.contains("maximumWeight")) {
+                builder.weigher((key, value) -> value instanceof Collection ? ((Collection<?>) value).size() + 1 : 1);
+            }
+            com.github.benmanes.caffeine.cache.Cache<Object, Object> cache = builder.build();
+            cacheManager.registerCustomCache(name, cache);
+            this.registerStats(name, cache);
+            log.info("Cache {}: {}", name, spec);
+        });
+        // Anything else stays bounded as well
+        cacheManager.setCaffeine(Caffeine.newBuilder().maximumSize(10000).recordStats());
+        return cacheManager;
+    }
+
+    @Scheduled(initialDelayString = "${mapping.caches.stats_interval_ms:300000}",
+               fixedDelayString = "${mapping.caches.stats_interval_ms:300000}")
+    public void logStats() {
+        if (cacheManager == null) {
+            return;
+        }
+        for (String name : cacheManager.getCacheNames()) {
+            CaffeineCache cache = (CaffeineCache) cacheManager.getCache(name);
+            if (cache == null) {
+                continue;
+            }
+            com.github.benmanes.caffeine.cache.Cache<Object, Object> nativeCache = cache.getNativeCache();
+            CacheStats stats = nativeCache.stats();
+            log.info("Cache {}: {} entries, {} hits, {} misses ({}% hit), {} evictions, {} ms average load",
+                     name, nativeCache.estimatedSize(), stats.hitCount(), stats.missCount(),
+                     String.format("%.1f", stats.hitRate() * 100), stats.evictionCount(),
+                     String.format("%.1f", stats.averageLoadPenalty() / 1_000_000));
+        }
+        TieredLookup.registered().forEach(lookup -> log.info(lookup.getStats()));
+    }
+
+    @PreDestroy
+    public void close() {
+        this.logStats();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                log.debug("Could not unregister {}: {}", name, e.getMessage());
+            }
+        }
+        registered.clear();
+    }
+
+    private void registerStats(String name, com.github.benmanes.caffeine.cache.Cache<Object, Object> cache) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(String.format(OBJECT_NAME, name));
+            // Left by an earlier context of the same JVM
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new StandardMBean(new NativeCacheStats(cache), CacheStatsMXBean.class, true), objectName);
+            registered.add(objectName);
+        } catch (JMException e) {
+            log.warn("Statistics of cache {} could not be registered: {}", name, e.getMessage());
+        }
+    }
+
+    private static class NativeCacheStats implements CacheStatsMXBean {
+
+        private final com.github.benmanes.caffeine.cache.Cache<Object, Object> cache;
+
+        NativeCacheStats(com.github.benmanes.caffeine.cache.Cache<Object, Object> cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            return cache.estimatedSize();
+        }
+
+        @Override
+        public long getHitCount() {
+            return cache.stats().hitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return cache.stats().missCount();
+        }
+
+        @Override
+        public double getHitRate() {
+            return cache.stats().hitRate();
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return cache.stats().evictionCount();
+        }
+
+        @Override
+        public double getAverageLoadMillis() {
+            return cache.stats().averageLoadPenalty() / 1_000_000.0;
+        }
+    }
+}
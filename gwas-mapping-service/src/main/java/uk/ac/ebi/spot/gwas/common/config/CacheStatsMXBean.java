@@ -0,0 +1,19 @@
+package uk.ac.ebi.spot.gwas.common.config;
+
+/**
+ * Statistics of one of the configured caches, registered as uk.ac.ebi.spot.gwas:type=Cache,name=&lt;cache&gt;.
+ */
+public interface CacheStatsMXBean {
+
+    long getEstimatedSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getEvictionCount();
+
+    double getAverageLoadMillis();
+}
@@ -0,0 +1,14 @@
+package uk.ac.ebi.spot.gwas.common.constant;
+
+public enum EnsemblProvider {
+
+    // Ensembl REST API, paced by mapping.requestPerSecond
+    REST,
+
+    // Ensembl core, otherfeatures and variation databases of ensembl.datasource
+    DATABASE;
+
+    public static EnsemblProvider from(String value) {
+        return (value == null || value.trim().isEmpty()) ? REST : EnsemblProvider.valueOf(value.trim().toUpperCase());
+    }
+}
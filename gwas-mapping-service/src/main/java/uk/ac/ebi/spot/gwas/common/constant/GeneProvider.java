@@ -0,0 +1,14 @@
+package uk.ac.ebi.spot.gwas.common.constant;
+
+public enum GeneProvider {
+
+    // Ensembl overlap/region REST calls, backed by the history table
+    REST,
+
+    // In-process GeneAnnotationIndex built from the local annotation dumps
+    LOCAL;
+
+    public static GeneProvider from(String value) {
+        return (value == null || value.trim().isEmpty()) ? REST : GeneProvider.valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,14 @@
+package uk.ac.ebi.spot.gwas.common.constant;
+
+public enum GeneSymbolProvider {
+
+    // Ensembl lookup/symbol REST calls (or the Ensembl databases), backed by the history table
+    REST,
+
+    // In-process GeneSymbolIndex built from the local gene dump, or from the history of the release
+    LOCAL;
+
+    public static GeneSymbolProvider from(String value) {
+        return (value == null || value.trim().isEmpty()) ? REST : GeneSymbolProvider.valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,14 @@
+package uk.ac.ebi.spot.gwas.common.constant;
+
+public enum VariationProvider {
+
+    // Ensembl variation REST calls (or the Ensembl databases), backed by the history table
+    REST,
+
+    // In-process VariantIndex built from the local VCF and dbSNP merge history
+    LOCAL;
+
+    public static VariationProvider from(String value) {
+        return (value == null || value.trim().isEmpty()) ? REST : VariationProvider.valueOf(value.trim().toUpperCase());
+    }
+}
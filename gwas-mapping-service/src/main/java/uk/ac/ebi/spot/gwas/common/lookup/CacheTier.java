@@ -0,0 +1,53 @@
+package uk.ac.ebi.spot.gwas.common.lookup;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.interceptor.SimpleKey;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * In-heap tier backed by one of the configured caches. Keys carry the Ensembl release, the same way
+ * as the keys of {@code @Cacheable} lookups, and the qualifier of lookups sharing a cache.
+ */
+public class CacheTier<K, V> implements Tier<K, V> {
+
+    private final Cache cache;
+    private final Supplier<String> release;
+    private final Object qualifier;
+
+    public CacheTier(Cache cache, Supplier<String> release, Object qualifier) {
+        this.cache = cache;
+        this.release = release;
+        this.qualifier = qualifier;
+    }
+
+    @Override
+    public String getName() {
+        return "heap";
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<K, V> getAll(Collection<K> keys) {
+        Map<K, V> values = new HashMap<>();
+        for (K key : keys) {
+            Cache.ValueWrapper value = cache.get(this.key(key));
+            if (value != null && value.get() != null) {
+                values.put(key, (V) value.get());
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void putAll(Map<K, V> values) {
+        values.forEach((key, value) -> cache.put(this.key(key), value));
+    }
+
+    private SimpleKey key(K key) {
+        return qualifier == null ? new SimpleKey(release.get(), key) : new SimpleKey(release.get(), key, qualifier);
+    }
+}
@@ -0,0 +1,55 @@
+package uk.ac.ebi.spot.gwas.common.lookup;
+
+import uk.ac.ebi.spot.gwas.common.service.EnsemblRestcallHistoryService;
+import uk.ac.ebi.spot.gwas.mapping.dto.RestResponseResult;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Ensembl call history tier. Several keys are loaded together with the history prefetch.
+ */
+public class HistoryTier<K, V> implements Tier<K, V> {
+
+    private final EnsemblRestcallHistoryService historyService;
+    private final String type;
+    private final Function<K, String> param;
+    private final Function<RestResponseResult, V> parser;
+    private final Supplier<String> release;
+
+    public HistoryTier(EnsemblRestcallHistoryService historyService, String type, Function<K, String> param,
+                       Function<RestResponseResult, V> parser, Supplier<String> release) {
+        this.historyService = historyService;
+        this.type = type;
+        this.param = param;
+        this.parser = parser;
+        this.release = release;
+    }
+
+    @Override
+    public String getName() {
+        return "history";
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) {
+        String eRelease = release.get();
+        if (keys.size() > 1) {
+            Set<String> params = new HashSet<>();
+            keys.forEach(key -> params.add(param.apply(key)));
+            historyService.prefetch(type, params, eRelease);
+        }
+        Map<K, V> values = new HashMap<>();
+        for (K key : keys) {
+            RestResponseResult result = historyService.getHistoryByTypeParamAndVersion(type, param.apply(key), eRelease);
+            if (result != null) {
+                V value = parser.apply(result);
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+        }
+        return values;
+    }
+}
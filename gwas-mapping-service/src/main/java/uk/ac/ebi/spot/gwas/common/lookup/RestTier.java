@@ -0,0 +1,33 @@
+package uk.ac.ebi.spot.gwas.common.lookup;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Ensembl REST tier, the last one of a lookup. The call records the history of what it fetched.
+ * Its failures are not skipped, an Ensembl outage must not look like a key without data.
+ */
+public class RestTier<K, V> implements Tier<K, V> {
+
+    private final Function<Collection<K>, Map<K, V>> call;
+
+    public RestTier(Function<Collection<K>, Map<K, V>> call) {
+        this.call = call;
+    }
+
+    @Override
+    public String getName() {
+        return "rest";
+    }
+
+    @Override
+    public boolean isSkippable() {
+        return false;
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) {
+        return call.apply(keys);
+    }
+}
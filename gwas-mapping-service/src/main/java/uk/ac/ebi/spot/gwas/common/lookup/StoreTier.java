@@ -0,0 +1,68 @@
+package uk.ac.ebi.spot.gwas.common.lookup;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Local persistent tier over a response store of the release cache directory. The store is opened
+ * on first use, a store which cannot be opened turns the tier off.
+ */
+@Slf4j
+public class StoreTier<V> implements Tier<String, V> {
+
+    private final Supplier<Map<String, V>> storeSupplier;
+    private volatile Map<String, V> store;
+    private volatile boolean disabled;
+
+    public StoreTier(Supplier<Map<String, V>> storeSupplier) {
+        this.storeSupplier = storeSupplier;
+    }
+
+    @Override
+    public String getName() {
+        return "store";
+    }
+
+    @Override
+    public Map<String, V> getAll(Collection<String> keys) {
+        Map<String, V> values = new HashMap<>();
+        Map<String, V> responses = this.store();
+        if (responses != null) {
+            for (String key : keys) {
+                V value = responses.get(key);
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void putAll(Map<String, V> values) {
+        Map<String, V> responses = this.store();
+        if (responses != null) {
+            responses.putAll(values);
+        }
+    }
+
+    private Map<String, V> store() {
+        if (store == null && !disabled) {
+            synchronized (this) {
+                if (store == null && !disabled) {
+                    try {
+                        store = storeSupplier.get();
+                    } catch (RuntimeException e) {
+                        log.warn("Response store could not be opened, looking up without it: {}", e.getMessage());
+                        disabled = true;
+                    }
+                }
+            }
+        }
+        return store;
+    }
+}
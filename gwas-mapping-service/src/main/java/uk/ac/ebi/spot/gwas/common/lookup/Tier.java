@@ -0,0 +1,24 @@
+package uk.ac.ebi.spot.gwas.common.lookup;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * One level of a {@link TieredLookup}. Returns the values it holds for the given keys, keys it does not
+ * know are left out of the result.
+ */
+public interface Tier<K, V> {
+
+    String getName();
+
+    Map<K, V> getAll(Collection<K> keys);
+
+    // Values found in a lower tier, kept by the tiers which can hold them
+    default void putAll(Map<K, V> values) {
+    }
+
+    // Errors of a skippable tier send the keys to the next tier, errors of the others fail the lookup
+    default boolean isSkippable() {
+        return true;
+    }
+}
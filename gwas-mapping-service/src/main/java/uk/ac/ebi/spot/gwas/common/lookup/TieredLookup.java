@@ -0,0 +1,120 @@
+package uk.ac.ebi.spot.gwas.common.lookup;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Looks keys up through an ordered list of tiers, typically heap cache, local response store, history table
+ * and Ensembl. Keys missing from a tier are asked of the next one in a single call, so batches reach
+ * the POST endpoints as batches. Values found lower down are promoted to the tiers above. A failing cache,
+ * store or history tier is skipped, a failing REST tier fails the lookup.
+ * Single key lookups of a key already being looked up wait for that lookup.
+ */
+@Slf4j
+public class TieredLookup<K, V> {
+
+    private static final List<TieredLookup<?, ?>> registered = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final List<Tier<K, V>> tiers;
+    private final List<TierStats> stats = new ArrayList<>();
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    public TieredLookup(String name, List<Tier<K, V>> tiers) {
+        this.name = name;
+        this.tiers = new ArrayList<>(tiers);
+        this.tiers.forEach(tier -> stats.add(new TierStats()));
+        registered.add(this);
+    }
+
+    public static List<TieredLookup<?, ?>> registered() {
+        return Collections.unmodifiableList(registered);
+    }
+
+    public V get(K key) {
+        CompletableFuture<V> result = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, result);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            result.complete(this.getAll(Collections.singletonList(key)).get(key));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, result);
+        }
+        return result.join();
+    }
+
+    public Map<K, V> getAll(Collection<K> keys) {
+        Map<K, V> found = new HashMap<>();
+        Set<K> missing = new LinkedHashSet<>(keys);
+        for (int i = 0; i < tiers.size() && !missing.isEmpty(); i++) {
+            Tier<K, V> tier = tiers.get(i);
+            TierStats tierStats = stats.get(i);
+            long start = System.nanoTime();
+            Map<K, V> values = new HashMap<>();
+            try {
+                tier.getAll(missing).forEach((key, value) -> {
+                    if (value != null) {
+                        values.put(key, value);
+                    }
+                });
+            } catch (RuntimeException e) {
+                if (!tier.isSkippable()) {
+                    throw e;
+                }
+                // The next tier is asked instead
+                log.warn("{} lookup in the {} tier failed: {}", name, tier.getName(), e.getMessage());
+            }
+            tierStats.record(missing.size(), values.size(), System.nanoTime() - start);
+            if (!values.isEmpty()) {
+                found.putAll(values);
+                missing.removeAll(values.keySet());
+                for (int upper = 0; upper < i; upper++) {
+                    tiers.get(upper).putAll(values);
+                }
+            }
+        }
+        return found;
+    }
+
+    public String getStats() {
+        StringBuilder text = new StringBuilder(name);
+        for (int i = 0; i < tiers.size(); i++) {
+            TierStats tierStats = stats.get(i);
+            long requested = tierStats.requested.get();
+            text.append(String.format(" %s[%s/%s hit, %.1f ms average]", tiers.get(i).getName(), tierStats.hits.get(), requested,
+                                      tierStats.calls.get() == 0 ? 0.0 : tierStats.nanos.get() / 1_000_000.0 / tierStats.calls.get()));
+        }
+        return text.toString();
+    }
+
+    private static class TierStats {
+
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+
+        void record(int keys, int found, long time) {
+            calls.incrementAndGet();
+            requested.addAndGet(keys);
+            hits.addAndGet(found);
+            nanos.addAndGet(time);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package uk.ac.ebi.spot.gwas.common.lookup;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.service.EnsemblRestcallHistoryService;
+import uk.ac.ebi.spot.gwas.mapping.dto.RestResponseResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Builds the heap, store, history and REST lookups of the Ensembl backed services. The store tier is only added
+ * when mapping.lookup.local_store is set, it keeps every value promoted into it and nothing is ever evicted.
+ */
+@Component
+public class TieredLookupFactory {
+
+    private final AppConfig config;
+    private final CacheManager cacheManager;
+    private final EnsemblRestcallHistoryService historyService;
+    private final boolean localStore;
+
+    public TieredLookupFactory(AppConfig config,
+                               CacheManager cacheManager,
+                               EnsemblRestcallHistoryService historyService,
+                               @Value("${mapping.lookup.local_store:false}") boolean localStore) {
+        this.config = config;
+        this.cacheManager = cacheManager;
+        this.historyService = historyService;
+        this.localStore = localStore;
+    }
+
+    public <V> TieredLookup<String, V> create(String cacheName,
+                                              Supplier<Map<String, V>> store,
+                                              String type,
+                                              Function<String, String> param,
+                                              Function<RestResponseResult, V> parser,
+                                              Function<Collection<String>, Map<String, V>> rest) {
+        return this.create(cacheName, null, store, type, param, parser, rest);
+    }
+
+    /**
+     * As above for lookups sharing a cache, the qualifier is added to their cache keys.
+     */
+    public <V> TieredLookup<String, V> create(String cacheName,
+                                              Object qualifier,
+                                              Supplier<Map<String, V>> store,
+                                              String type,
+                                              Function<String, String> param,
+                                              Function<RestResponseResult, V> parser,
+                                              Function<Collection<String>, Map<String, V>> rest) {
+        List<Tier<String, V>> tiers = new ArrayList<>();
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) {
+            tiers.add(new CacheTier<>(cache, config::getERelease, qualifier));
+        }
+        if (localStore) {
+            tiers.add(new StoreTier<>(store));
+        }
+        tiers.add(new HistoryTier<>(historyService, type, param, parser, config::getERelease));
+        tiers.add(new RestTier<>(rest));
+        String name = qualifier == null ? cacheName : cacheName + "/" + qualifier;
+        return new TieredLookup<>(name, tiers);
+    }
+}
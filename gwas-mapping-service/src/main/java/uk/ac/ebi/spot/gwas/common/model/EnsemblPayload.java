@@ -0,0 +1,53 @@
+package uk.ac.ebi.spot.gwas.common.model;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Compressed Ensembl response shared by every history row with the same content, whatever the
+ * request, parameter or release. Keyed by the hash of the normalised response, see db/ensembl_payload.sql.
+ */
+@Entity
+public class EnsemblPayload {
+
+    @Id
+    private String payloadHash;
+
+    @Lob
+    private byte[] payload;
+
+    // Length of the response before compression
+    private Integer payloadSize;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date created;
+
+    // JPA no-args constructor
+    public EnsemblPayload() {
+    }
+
+    public EnsemblPayload(String payloadHash, byte[] payload, Integer payloadSize) {
+        this.payloadHash = payloadHash;
+        this.payload = payload;
+        this.payloadSize = payloadSize;
+    }
+
+    @PrePersist
+    protected void onCreate() {
+        created = new Date();
+    }
+
+    public String getPayloadHash() { return payloadHash; }
+
+    public void setPayloadHash(String payloadHash) { this.payloadHash = payloadHash; }
+
+    public byte[] getPayload() { return payload; }
+
+    public void setPayload(byte[] payload) { this.payload = payload; }
+
+    public Integer getPayloadSize() { return payloadSize; }
+
+    public void setPayloadSize(Integer payloadSize) { this.payloadSize = payloadSize; }
+
+    public Date getCreated() { return created; }
+}
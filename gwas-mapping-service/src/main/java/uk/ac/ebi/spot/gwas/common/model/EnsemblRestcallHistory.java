@@ -15,6 +15,8 @@ import java.util.Date;
  */
 
 @Entity
+// Backs every history lookup, see db/ensembl_restcall_history_key_idx.sql
+@Table(indexes = @Index(name = "ENSEMBL_HISTORY_KEY_IDX", columnList = "requestType, ensemblVersion, ensemblParam"))
 public class EnsemblRestcallHistory {
 
     @Id
@@ -37,6 +39,9 @@ public class EnsemblRestcallHistory {
 
     private String ensemblVersion;
 
+    // Key of the response in ENSEMBL_PAYLOAD, see db/ensembl_payload.sql. Null for rows keeping their response.
+    private String payloadHash;
+
     @Temporal(TemporalType.TIMESTAMP)
     @Column(name="LAST_UPDATE_TIME")
     private Date lastUpdateTime;
@@ -88,6 +93,10 @@ public class EnsemblRestcallHistory {
 
     public void setEnsemblVersion(String ensemblVersion) { this.ensemblVersion = ensemblVersion; }
 
+    public String getPayloadHash() { return payloadHash; }
+
+    public void setPayloadHash(String payloadHash) { this.payloadHash = payloadHash; }
+
     public Date getLastUpdateTime() { return lastUpdateTime; }
 
     public void setLastUpdateTime(Date lastUpdateTime) { this.lastUpdateTime = lastUpdateTime; }
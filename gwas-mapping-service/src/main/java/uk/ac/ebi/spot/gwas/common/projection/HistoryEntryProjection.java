@@ -0,0 +1,11 @@
+package uk.ac.ebi.spot.gwas.common.projection;
+
+public interface HistoryEntryProjection {
+
+    Long getId();
+    String getRequestType();
+    String getEnsemblParam();
+    String getEnsemblResponse();
+    String getEnsemblError();
+    String getPayloadHash();
+}
@@ -0,0 +1,10 @@
+package uk.ac.ebi.spot.gwas.common.projection;
+
+public interface HistoryProjection {
+
+    String getEnsemblParam();
+    String getEnsemblUrl();
+    String getEnsemblResponse();
+    String getEnsemblError();
+    String getPayloadHash();
+}
@@ -0,0 +1,8 @@
+package uk.ac.ebi.spot.gwas.common.projection;
+
+public interface IdRangeProjection {
+
+    Long getMinId();
+    Long getMaxId();
+    Long getTotal();
+}
@@ -0,0 +1,7 @@
+package uk.ac.ebi.spot.gwas.common.projection;
+
+public interface KeyProjection {
+
+    Long getId();
+    String getName();
+}
@@ -0,0 +1,9 @@
+package uk.ac.ebi.spot.gwas.common.projection;
+
+public interface LocationKeyProjection {
+
+    Long getId();
+    String getChromosomeName();
+    Integer getChromosomePosition();
+    String getRegionName();
+}
@@ -1,9 +1,11 @@
 package uk.ac.ebi.spot.gwas.common.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import uk.ac.ebi.spot.gwas.common.model.AssociationReport;
 
 import java.util.Collection;
@@ -21,6 +23,8 @@ public interface AssociationReportRepository extends JpaRepository<AssociationRe
             nativeQuery = true)
     Collection<AssociationReport> findAllLSF(@Param("minRow") Integer minRow, @Param("maxRow") Integer maxRow);
 
+    @Modifying
+    @Transactional
     @Query(value = "DELETE FROM ASSOCIATION_REPORT WHERE ASSOCIATION_ID = :associationId ",
             nativeQuery = true)
     void deleteByAssociationId(@Param("associationId") Long associationId);
@@ -0,0 +1,18 @@
+package uk.ac.ebi.spot.gwas.common.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import uk.ac.ebi.spot.gwas.common.model.EnsemblPayload;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface EnsemblPayloadRepository extends JpaRepository<EnsemblPayload, String> {
+
+    @Query("select payload.payloadHash FROM EnsemblPayload as payload WHERE payload.payloadHash in :hashes")
+    List<String> findExistingHashes(@Param("hashes") Collection<String> hashes);
+
+}
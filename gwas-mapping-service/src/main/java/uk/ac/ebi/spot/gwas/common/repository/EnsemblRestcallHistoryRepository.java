@@ -1,10 +1,16 @@
 package uk.ac.ebi.spot.gwas.common.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import uk.ac.ebi.spot.gwas.common.model.EnsemblRestcallHistory;
+import uk.ac.ebi.spot.gwas.common.projection.HistoryEntryProjection;
+import uk.ac.ebi.spot.gwas.common.projection.HistoryProjection;
 
 import java.util.Collection;
+import java.util.List;
 
 
 @Repository
@@ -12,4 +18,36 @@ public interface EnsemblRestcallHistoryRepository extends JpaRepository<EnsemblR
 
     Collection<EnsemblRestcallHistory> findByRequestTypeAndEnsemblParamAndEnsemblVersion(String requestType, String ensemblParam, String ensemblVersion);
 
+    @Query("select history.ensemblParam as ensemblParam, history.ensemblUrl as ensemblUrl," +
+            " history.ensemblResponse as ensemblResponse, history.ensemblError as ensemblError," +
+            " history.payloadHash as payloadHash" +
+            " FROM EnsemblRestcallHistory as history" +
+            " WHERE history.requestType = :type and history.ensemblVersion = :version and history.ensemblParam in :params")
+    List<HistoryProjection> findByTypeVersionAndParams(@Param("type") String requestType,
+                                                       @Param("version") String ensemblVersion,
+                                                       @Param("params") Collection<String> ensemblParams);
+
+    @Query("select history.id as id, history.requestType as requestType, history.ensemblParam as ensemblParam," +
+            " history.ensemblResponse as ensemblResponse, history.ensemblError as ensemblError," +
+            " history.payloadHash as payloadHash" +
+            " FROM EnsemblRestcallHistory as history" +
+            " WHERE history.ensemblVersion = :version and history.id > :lastId order by history.id")
+    List<HistoryEntryProjection> findByVersionAfter(@Param("version") String ensemblVersion,
+                                                    @Param("lastId") Long lastId,
+                                                    Pageable pageable);
+
+    @Query("select history.id as id, history.requestType as requestType, history.ensemblParam as ensemblParam," +
+            " history.ensemblResponse as ensemblResponse, history.ensemblError as ensemblError," +
+            " history.payloadHash as payloadHash" +
+            " FROM EnsemblRestcallHistory as history" +
+            " WHERE history.requestType = :type and history.ensemblVersion = :version and history.id > :lastId order by history.id")
+    List<HistoryEntryProjection> findByTypeVersionAfter(@Param("type") String requestType,
+                                                        @Param("version") String ensemblVersion,
+                                                        @Param("lastId") Long lastId,
+                                                        Pageable pageable);
+
+    @Query("select history.id FROM EnsemblRestcallHistory as history" +
+            " WHERE history.payloadHash is null and history.ensemblResponse is not null and history.id > :lastId order by history.id")
+    List<Long> findIdsWithResponseAfter(@Param("lastId") Long lastId, Pageable pageable);
+
 }
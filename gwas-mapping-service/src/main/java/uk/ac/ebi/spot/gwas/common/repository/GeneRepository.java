@@ -5,8 +5,10 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import uk.ac.ebi.spot.gwas.common.model.Gene;
+import uk.ac.ebi.spot.gwas.common.projection.KeyProjection;
 import uk.ac.ebi.spot.gwas.common.projection.MappingProjection;
 
+import java.util.Collection;
 import java.util.List;
 
 
@@ -23,4 +25,13 @@ public interface GeneRepository extends JpaRepository<Gene, Long> {
 
     Gene findByGeneName(String geneName);
 
+    @Query("select gene.id as id, gene.geneName as name FROM Gene as gene WHERE gene.geneName in :names")
+    List<KeyProjection> findKeysByGeneNameIn(@Param("names") Collection<String> names);
+
+    @Query("select distinct gene FROM Gene as gene LEFT JOIN FETCH gene.ensemblGeneIds WHERE gene.id in :ids")
+    List<Gene> findWithEnsemblGeneIdsByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("select distinct gene FROM Gene as gene LEFT JOIN FETCH gene.entrezGeneIds WHERE gene.id in :ids")
+    List<Gene> findWithEntrezGeneIdsByIdIn(@Param("ids") Collection<Long> ids);
+
 }
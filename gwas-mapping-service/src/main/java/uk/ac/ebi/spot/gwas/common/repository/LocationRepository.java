@@ -1,8 +1,14 @@
 package uk.ac.ebi.spot.gwas.common.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import uk.ac.ebi.spot.gwas.common.model.Location;
+import uk.ac.ebi.spot.gwas.common.projection.LocationKeyProjection;
+
+import java.util.Collection;
+import java.util.List;
 
 
 @Repository
@@ -11,4 +17,10 @@ public interface LocationRepository extends JpaRepository<Location, Long> {
     Location findByChromosomeNameAndChromosomePositionAndRegionName(String chromosomeName,
                                                                     Integer chromosomePosition,
                                                                     String regionName);
+
+    @Query("select location.id as id, location.chromosomeName as chromosomeName," +
+            " location.chromosomePosition as chromosomePosition, region.name as regionName" +
+            " FROM Location as location LEFT JOIN location.region as region" +
+            " WHERE location.chromosomePosition in :positions")
+    List<LocationKeyProjection> findKeysByChromosomePositionIn(@Param("positions") Collection<Integer> positions);
 }
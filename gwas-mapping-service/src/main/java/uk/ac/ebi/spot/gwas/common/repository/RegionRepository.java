@@ -1,12 +1,21 @@
 package uk.ac.ebi.spot.gwas.common.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import uk.ac.ebi.spot.gwas.common.model.Region;
+import uk.ac.ebi.spot.gwas.common.projection.KeyProjection;
+
+import java.util.Collection;
+import java.util.List;
 
 @Repository
 public interface RegionRepository extends JpaRepository<Region, Long> {
 
     Region findByName(String regionName);
 
+    @Query("select region.id as id, region.name as name FROM Region as region WHERE region.name in :names")
+    List<KeyProjection> findKeysByNameIn(@Param("names") Collection<String> names);
+
 }
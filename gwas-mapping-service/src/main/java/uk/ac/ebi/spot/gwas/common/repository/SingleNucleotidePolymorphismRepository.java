@@ -5,6 +5,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import uk.ac.ebi.spot.gwas.common.model.SingleNucleotidePolymorphism;
+import uk.ac.ebi.spot.gwas.common.projection.KeyProjection;
 import uk.ac.ebi.spot.gwas.common.projection.MappingProjection;
 
 import java.util.Collection;
@@ -30,6 +31,27 @@ public interface SingleNucleotidePolymorphismRepository extends JpaRepository<Si
 
 
 
+    @Query("select distinct snp.rsId FROM SingleNucleotidePolymorphism as snp")
+    List<String> findAllRsIds();
+
+    @Query("select snp.id as id, snp.rsId as name FROM SingleNucleotidePolymorphism as snp WHERE snp.rsId in :rsIds")
+    List<KeyProjection> findKeysByRsIdIn(@Param("rsIds") Collection<String> rsIds);
+
+    @Query("select snp.id as id, lower(snp.rsId) as name FROM SingleNucleotidePolymorphism as snp WHERE lower(snp.rsId) in :rsIds")
+    List<KeyProjection> findKeysByLowerRsIdIn(@Param("rsIds") Collection<String> rsIds);
+
+    // The collections are bags, Hibernate fetches one of them per query
+    @Query("select distinct snp FROM SingleNucleotidePolymorphism as snp" +
+            " LEFT JOIN FETCH snp.locations as location LEFT JOIN FETCH location.region" +
+            " WHERE snp.id in :ids")
+    List<SingleNucleotidePolymorphism> findWithLocationsByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("select distinct snp FROM SingleNucleotidePolymorphism as snp" +
+            " LEFT JOIN FETCH snp.genomicContexts as genomicContext LEFT JOIN FETCH genomicContext.gene" +
+            " LEFT JOIN FETCH genomicContext.location as location LEFT JOIN FETCH location.region" +
+            " WHERE snp.id in :ids")
+    List<SingleNucleotidePolymorphism> findWithGenomicContextsByIdIn(@Param("ids") Collection<Long> ids);
+
     @Query("select new SingleNucleotidePolymorphism(s.id) from SingleNucleotidePolymorphism s join s.locations loc " +
             "where loc.id = :locationId")
     List<SingleNucleotidePolymorphism> findIdsByLocationId(Long locationId);
@@ -1,32 +1,31 @@
 package uk.ac.ebi.spot.gwas.common.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
 import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.constant.EnsemblProvider;
 import uk.ac.ebi.spot.gwas.common.constant.Uri;
+import uk.ac.ebi.spot.gwas.ensembl_database.EnsemblDatabaseClient;
 import uk.ac.ebi.spot.gwas.exception.EnsemblRestClientException;
 import uk.ac.ebi.spot.gwas.gene_symbol.GeneSymbol;
 import uk.ac.ebi.spot.gwas.overlap_gene.OverlapGene;
 import uk.ac.ebi.spot.gwas.overlap_region.OverlapRegion;
 import uk.ac.ebi.spot.gwas.variation.Variant;
 
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Data
@@ -43,44 +42,59 @@ public class ApiService {
     @Autowired
     private AppConfig config;
 
+    @Autowired
+    private EnsemblClient ensemblClient;
+
+    @Autowired
+    private EnsemblDatabaseClient ensemblDatabaseClient;
+
     public void setEnsemblCount(Integer ensemblCount) {
         this.ensemblCount += ensemblCount;
     }
 
-    @Async("asyncExecutor")
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
     public CompletableFuture<Map<String, Variant>> variationPost(List<String> snpRsIds) {
         List<Object> cleaned = snpRsIds.stream().map(String::trim).collect(Collectors.toList());
         log.info("Start getting next {} snp rsIds from Ensembl", cleaned.size());
-        Object response = postRequest(Collections.singletonMap("ids", cleaned), String.format("%s/%s", config.getServer(), Uri.VARIATION));
-        Map<String, Variant> variantMap = mapper.convertValue(response, new TypeReference<Map<String, Variant>>() {});
-
-        setEnsemblCount(cleaned.size());
-        log.info("Finished getting {} snp rsIds from Ensembl", getEnsemblCount());
-        return CompletableFuture.completedFuture(variantMap);
+        return postRequest(Collections.singletonMap("ids", cleaned), String.format("%s/%s", config.getServer(), Uri.VARIATION))
+                .thenApply(response -> {
+                    Map<String, Variant> variantMap = mapper.convertValue(response, new TypeReference<Map<String, Variant>>() {});
+                    setEnsemblCount(cleaned.size());
+                    log.info("Finished getting {} snp rsIds from Ensembl", getEnsemblCount());
+                    return variantMap;
+                });
     }
 
-    @Async("asyncExecutor")
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
     public CompletableFuture<Map<String, GeneSymbol>> geneSymbolPost(List<String> reportedGenes) {
         log.info("Start getting next {} reported geneIds from Ensembl", reportedGenes.size());
-        Object response = postRequest(Collections.singletonMap("symbols", reportedGenes),
-                                      String.format("%s/%s", config.getServer(), Uri.REPORTED_GENES));
-        Map<String, GeneSymbol> geneMap = mapper.convertValue(response, new TypeReference<Map<String, GeneSymbol>>() {});
-
-        setEnsemblCount(reportedGenes.size());
-        log.info("Finished getting {} reported geneIds from Ensembl", getEnsemblCount());
-        return CompletableFuture.completedFuture(geneMap);
+        return postRequest(Collections.singletonMap("symbols", reportedGenes), String.format("%s/%s", config.getServer(), Uri.REPORTED_GENES))
+                .thenApply(response -> {
+                    Map<String, GeneSymbol> geneMap = mapper.convertValue(response, new TypeReference<Map<String, GeneSymbol>>() {});
+                    setEnsemblCount(reportedGenes.size());
+                    log.info("Finished getting {} reported geneIds from Ensembl", getEnsemblCount());
+                    return geneMap;
+                });
     }
 
-    public Object postRequest(Map<String, Object> request, String uri) {
-        Object response = null;
+    // Empty when Ensembl rejects the batch, the ids are then left for the single lookups
+    public CompletableFuture<Object> postRequest(Map<String, Object> request, String uri) {
+        String json;
         try {
-            response = restTemplate.postForObject(new URI(uri), request, Object.class);
-        } catch (URISyntaxException | HttpStatusCodeException e) {
-            log.error("Error: {} for SNP RsIds: {} retrying ...", e.getMessage(), request);
+            json = mapper.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            throw new EnsemblRestClientException(e.getMessage(), e);
         }
-        return response;
+        return this.post(uri, json).thenApply(response -> {
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                log.error("Error: {} {} for SNP RsIds: {}", response.getStatusCodeValue(), response.getBody(), request);
+                return Collections.emptyMap();
+            }
+            try {
+                return mapper.readValue(response.getBody(), Object.class);
+            } catch (JsonProcessingException e) {
+                log.error("Error: {} for SNP RsIds: {}", e.getMessage(), request);
+                return Collections.emptyMap();
+            }
+        });
     }
 
     public ResponseEntity<String> getRequestBody(String uri) {
@@ -108,206 +122,75 @@ public class ApiService {
 
     }
     public Optional<ResponseEntity<Variant>> getRequestVariant(String uri) {
-        log.info("Calling: {}", uri);
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        ResponseEntity<Variant> out = null;
-        List<MediaType> mediaTypes = new ArrayList<MediaType>();
-        mediaTypes.add(MediaType.TEXT_HTML);
-        mediaTypes.add(MediaType.APPLICATION_JSON);
-        mediaTypes.add(MediaType.ALL);
-        headers.setAccept(mediaTypes);
-        ResponseEntity<String> response = null;
-        HttpEntity<Object> entity = new HttpEntity<Object>(headers);
-        try {
-            //response = restTemplate.getForEntity(uri, Object.class);
-            out = restTemplate.exchange(uri, HttpMethod.GET, entity, new ParameterizedTypeReference
-                    <Variant>() {
-            });
-            log.info("Ressponse body in getRequest() {}",out.getBody());
-        } catch (HttpStatusCodeException e) {
-            if (e.getStatusCode().equals(HttpStatus.TOO_MANY_REQUESTS)) {
-                log.warn("warning: too many request {} retrying ...", uri);
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException interruptedException) {
-                    Thread.currentThread().interrupt();
-                }
-                return this.getRequestVariant(uri);
-            }
-            else if (e.getStatusCode().equals(HttpStatus.BAD_REQUEST)) {
-                log.debug("Inside Bad request block");
-                log.debug("Variant error is {}", e.getResponseBodyAsString());
-                out = new ResponseEntity<>(new Variant(e.getResponseBodyAsString()), e.getStatusCode());
-            }
-            else{
-                out = new ResponseEntity<>(new Variant(e.getResponseBodyAsString()), e.getStatusCode());
-            }
-        }
-        return Optional.of(out);
+        return this.getRequestVariantAsync(uri).join();
+    }
+
+    public CompletableFuture<Optional<ResponseEntity<Variant>>> getRequestVariantAsync(String uri) {
+        return this.getRequest(uri, mapper.constructType(Variant.class), Variant::new);
     }
 
     public Optional<ResponseEntity<List<OverlapRegion>>> getRequestOverlapRegion(String uri) {
-        log.info("Calling: {}", uri);
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        ResponseEntity<List<OverlapRegion>> out = null;
-        List<MediaType> mediaTypes = new ArrayList<MediaType>();
-        mediaTypes.add(MediaType.TEXT_HTML);
-        mediaTypes.add(MediaType.APPLICATION_JSON);
-        mediaTypes.add(MediaType.ALL);
-        headers.setAccept(mediaTypes);
-        ResponseEntity<String> response = null;
-        HttpEntity<Object> entity = new HttpEntity<Object>(headers);
-        try {
-            //response = restTemplate.getForEntity(uri, Object.class);
-            out = restTemplate.exchange(uri, HttpMethod.GET, entity, new ParameterizedTypeReference
-                    <List<OverlapRegion>>() {
-            });
-            log.info("Ressponse body in getRequest() {}",out.getBody());
-        } catch (HttpStatusCodeException e) {
-            if (e.getStatusCode().equals(HttpStatus.TOO_MANY_REQUESTS)) {
-                log.warn("warning: too many request {} retrying ...", uri);
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException interruptedException) {
-                    Thread.currentThread().interrupt();
-                }
-                return this.getRequestOverlapRegion(uri);
-            }
-            else if (e.getStatusCode().equals(HttpStatus.BAD_REQUEST)) {
-                log.debug("Inside Bad request block");
-                log.debug("OverlapRegion error is {}", e.getResponseBodyAsString());
-                OverlapRegion overlapRegion = new OverlapRegion(e.getResponseBodyAsString());
-                out = new ResponseEntity<>(Collections.singletonList(overlapRegion) , e.getStatusCode());
-            }
-            else{
-                OverlapRegion overlapRegion = new OverlapRegion(e.getResponseBodyAsString());
-                out = new ResponseEntity<>(Collections.singletonList(overlapRegion), e.getStatusCode());
-            }
-        }
-        return Optional.of(out);
+        return this.getRequestOverlapRegionAsync(uri).join();
     }
 
+    public CompletableFuture<Optional<ResponseEntity<List<OverlapRegion>>>> getRequestOverlapRegionAsync(String uri) {
+        return this.getRequest(uri, mapper.getTypeFactory().constructCollectionType(List.class, OverlapRegion.class),
+                error -> Collections.singletonList(new OverlapRegion(error)));
+    }
 
     public Optional<ResponseEntity<List<OverlapGene>>> getRequestOverlapGene(String uri) {
-        log.info("Calling: {}", uri);
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        ResponseEntity<List<OverlapGene>> out = null;
-        List<MediaType> mediaTypes = new ArrayList<MediaType>();
-        mediaTypes.add(MediaType.TEXT_HTML);
-        mediaTypes.add(MediaType.APPLICATION_JSON);
-        mediaTypes.add(MediaType.ALL);
-        headers.setAccept(mediaTypes);
-        ResponseEntity<String> response = null;
-        HttpEntity<Object> entity = new HttpEntity<Object>(headers);
-        try {
-            //response = restTemplate.getForEntity(uri, Object.class);
-            out = restTemplate.exchange(uri, HttpMethod.GET, entity, new ParameterizedTypeReference
-                    <List<OverlapGene>>() {
-            });
-            log.info("Ressponse body in getRequest() {}",out.getBody());
-        } catch (HttpStatusCodeException e) {
-            if (e.getStatusCode().equals(HttpStatus.TOO_MANY_REQUESTS)) {
-                log.warn("warning: too many request {} retrying ...", uri);
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException interruptedException) {
-                    Thread.currentThread().interrupt();
-                }
-                return this.getRequestOverlapGene(uri);
-            }
-            else if (e.getStatusCode().equals(HttpStatus.BAD_REQUEST)) {
-                log.debug("Inside Bad request block");
-                log.error("OverlapGene error is {}", e.getResponseBodyAsString());
-                OverlapGene overlapGene = new OverlapGene(e.getResponseBodyAsString());
-                out = new ResponseEntity<>(Collections.singletonList(overlapGene) , e.getStatusCode());
-            }
-            else{
-                OverlapGene overlapGene = new OverlapGene(e.getResponseBodyAsString());
-                out = new ResponseEntity<>(Collections.singletonList(overlapGene) , e.getStatusCode());
-            }
-        }
-        return Optional.of(out);
+        return this.getRequestOverlapGeneAsync(uri).join();
+    }
+
+    public CompletableFuture<Optional<ResponseEntity<List<OverlapGene>>>> getRequestOverlapGeneAsync(String uri) {
+        return this.getRequest(uri, mapper.getTypeFactory().constructCollectionType(List.class, OverlapGene.class),
+                error -> Collections.singletonList(new OverlapGene(error)));
     }
 
     public Optional<ResponseEntity<GeneSymbol>> getRequestGeneSymbol(String uri) {
-        log.info("Calling: {}", uri);
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        ResponseEntity<GeneSymbol> out = null;
-        List<MediaType> mediaTypes = new ArrayList<MediaType>();
-        mediaTypes.add(MediaType.TEXT_HTML);
-        mediaTypes.add(MediaType.APPLICATION_JSON);
-        mediaTypes.add(MediaType.ALL);
-        headers.setAccept(mediaTypes);
-        ResponseEntity<String> response = null;
-        HttpEntity<Object> entity = new HttpEntity<Object>(headers);
-        try {
-            //response = restTemplate.getForEntity(uri, Object.class);
-            out = restTemplate.exchange(uri, HttpMethod.GET, entity, new ParameterizedTypeReference
-                    <GeneSymbol>() {
-            });
-            log.info("Ressponse body in getRequest() {}",out.getBody());
-        } catch (HttpStatusCodeException e) {
-            if (e.getStatusCode().equals(HttpStatus.TOO_MANY_REQUESTS)) {
-                log.warn("warning: too many request {} retrying ...", uri);
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException interruptedException) {
-                    Thread.currentThread().interrupt();
-                }
-                return this.getRequestGeneSymbol(uri);
-            }
-            else if (e.getStatusCode().equals(HttpStatus.BAD_REQUEST)) {
-                log.debug("Inside Bad request block");
-                log.error("GeneSymbol error is {}", e.getResponseBodyAsString());
-                GeneSymbol geneSymbol = new GeneSymbol(e.getResponseBodyAsString());
-                out = new ResponseEntity<>(geneSymbol , e.getStatusCode());
-            }
-            else{
-                GeneSymbol geneSymbol = new GeneSymbol(e.getResponseBodyAsString());
-                out = new ResponseEntity<>(geneSymbol , e.getStatusCode());
-            }
-        }
-        return Optional.of(out);
+        return this.getRequestGeneSymbolAsync(uri).join();
+    }
+
+    public CompletableFuture<Optional<ResponseEntity<GeneSymbol>>> getRequestGeneSymbolAsync(String uri) {
+        return this.getRequest(uri, mapper.constructType(GeneSymbol.class), GeneSymbol::new);
     }
 
     public Optional<ResponseEntity<AssemblyInfo>> getRequestAssemblyInfo(String uri) {
+        return this.getRequestAssemblyInfoAsync(uri).join();
+    }
+
+    public CompletableFuture<Optional<ResponseEntity<AssemblyInfo>>> getRequestAssemblyInfoAsync(String uri) {
+        return this.getRequest(uri, mapper.constructType(AssemblyInfo.class), error -> new AssemblyInfo());
+    }
+
+    // Throttling and retries are handled by the client, any other error status is turned into an error body
+    private <T> CompletableFuture<Optional<ResponseEntity<T>>> getRequest(String uri, JavaType type, Function<String, T> errorBody) {
         log.info("Calling: {}", uri);
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        ResponseEntity<AssemblyInfo> out = null;
-        List<MediaType> mediaTypes = new ArrayList<MediaType>();
-        mediaTypes.add(MediaType.TEXT_HTML);
-        mediaTypes.add(MediaType.APPLICATION_JSON);
-        mediaTypes.add(MediaType.ALL);
-        headers.setAccept(mediaTypes);
-        ResponseEntity<String> response = null;
-        HttpEntity<Object> entity = new HttpEntity<Object>(headers);
-        try {
-            //response = restTemplate.getForEntity(uri, Object.class);
-            out = restTemplate.exchange(uri, HttpMethod.GET, entity, new ParameterizedTypeReference
-                    <AssemblyInfo>() {
-            });
-            log.info("Ressponse body in getRequest() {}",out.getBody());
-        } catch (HttpStatusCodeException e) {
-            if (e.getStatusCode().equals(HttpStatus.TOO_MANY_REQUESTS)) {
-                log.warn("warning: too many request {} retrying ...", uri);
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException interruptedException) {
-                    Thread.currentThread().interrupt();
-                }
-                return this.getRequestAssemblyInfo(uri);
+        return this.get(uri).thenApply(response -> {
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                log.debug("Error for {} is {}", uri, response.getBody());
+                return Optional.of(new ResponseEntity<>(errorBody.apply(response.getBody()), response.getStatusCode()));
             }
-            else{
-                out = new ResponseEntity<>(new AssemblyInfo(), e.getStatusCode());
+            try {
+                T body = mapper.readValue(response.getBody(), type);
+                log.debug("Response body in getRequest() {}", body);
+                return Optional.of(new ResponseEntity<>(body, response.getStatusCode()));
+            } catch (JsonProcessingException e) {
+                throw new EnsemblRestClientException(String.format("Could not parse response of %s", uri), e);
             }
-        }
-        return Optional.of(out);
+        });
     }
 
+    // Same requests and responses whichever answers them, mapping.ensembl_provider picks one for the run
+    private CompletableFuture<ResponseEntity<String>> get(String uri) {
+        return this.fromDatabase() ? ensemblDatabaseClient.get(uri) : ensemblClient.get(uri);
+    }
 
+    private CompletableFuture<ResponseEntity<String>> post(String uri, String json) {
+        return this.fromDatabase() ? ensemblDatabaseClient.post(uri, json) : ensemblClient.post(uri, json);
+    }
+
+    private boolean fromDatabase() {
+        return EnsemblProvider.from(config.getEnsemblProvider()) == EnsemblProvider.DATABASE;
+    }
 }
@@ -0,0 +1,280 @@
+package uk.ac.ebi.spot.gwas.common.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.ListUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.model.GenomicContext;
+import uk.ac.ebi.spot.gwas.common.model.Location;
+import uk.ac.ebi.spot.gwas.common.model.Region;
+import uk.ac.ebi.spot.gwas.common.projection.KeyProjection;
+import uk.ac.ebi.spot.gwas.common.projection.LocationKeyProjection;
+import uk.ac.ebi.spot.gwas.common.repository.GeneRepository;
+import uk.ac.ebi.spot.gwas.common.repository.LocationRepository;
+import uk.ac.ebi.spot.gwas.common.repository.RegionRepository;
+import uk.ac.ebi.spot.gwas.common.repository.SingleNucleotidePolymorphismRepository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.Types;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Set based counterpart of {@link SnpLocationMappingService#storeSnpLocation} and
+ * {@link SnpGenomicContextMappingService#storeSnpGenomicContext}. The SNPs, locations, regions and genes of a
+ * batch are looked up with IN queries, ids of the new rows are taken from the sequence in one round trip
+ * and the rows are inserted with JDBC batches, one table after the other. Off unless mapping.bulk_write.enabled
+ * is set: the id allocation is Oracle only and locations without a region are not matched the way the derived
+ * query of {@link SnpLocationMappingService} matches them.
+ */
+@Slf4j
+@Service
+public class BulkMappingWriter {
+
+    // Oracle limit on the number of IN list values
+    private static final int IN_LIST_SIZE = 1000;
+
+    private static final String INSERT_REGION = "INSERT INTO REGION (ID, NAME) VALUES (?, ?)";
+    private static final String INSERT_LOCATION = "INSERT INTO LOCATION (ID, CHROMOSOME_NAME, CHROMOSOME_POSITION, REGION_ID) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_SNP_LOCATION = "INSERT INTO SNP_LOCATION (SNP_ID, LOCATION_ID) VALUES (?, ?)";
+    private static final String INSERT_GENOMIC_CONTEXT = "INSERT INTO GENOMIC_CONTEXT (ID, IS_INTERGENIC, IS_UPSTREAM, IS_DOWNSTREAM, DISTANCE, " +
+            "SNP_ID, GENE_ID, LOCATION_ID, SOURCE, MAPPING_METHOD, IS_CLOSEST_GENE) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AppConfig config;
+    private final SingleNucleotidePolymorphismRepository snpRepository;
+    private final LocationRepository locationRepository;
+    private final RegionRepository regionRepository;
+    private final GeneRepository geneRepository;
+
+    public BulkMappingWriter(JdbcTemplate jdbcTemplate,
+                             AppConfig config,
+                             SingleNucleotidePolymorphismRepository snpRepository,
+                             LocationRepository locationRepository,
+                             RegionRepository regionRepository,
+                             GeneRepository geneRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.config = config;
+        this.snpRepository = snpRepository;
+        this.locationRepository = locationRepository;
+        this.regionRepository = regionRepository;
+        this.geneRepository = geneRepository;
+    }
+
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void storeSnpLocations(Map<String, Set<Location>> snpToLocations) {
+        // Removed locations and SNP updates must reach the database before the inserts
+        entityManager.flush();
+        Map<String, Long> snpIds = this.findSnpIds(snpToLocations.keySet());
+
+        List<LocationKey> keys = new ArrayList<>();
+        snpToLocations.values().forEach(locations -> locations.forEach(location -> keys.add(LocationKey.of(location))));
+        Map<LocationKey, Long> locationIds = this.findOrCreateLocations(keys);
+
+        List<Object[]> links = new ArrayList<>();
+        snpToLocations.forEach((snpRsId, locations) -> {
+            Long snpId = snpIds.get(snpRsId);
+            if (snpId == null) {
+                log.error("Adding location for SNP not found in database, RS_ID:" + snpRsId);
+                throw new RuntimeException("Adding location for SNP not found in database, RS_ID: " + snpRsId);
+            }
+            Set<Long> linked = new HashSet<>();
+            for (Location location : locations) {
+                Long locationId = locationIds.get(LocationKey.of(location));
+                if (linked.add(locationId)) {
+                    links.add(new Object[]{snpId, locationId});
+                }
+            }
+        });
+        jdbcTemplate.batchUpdate(INSERT_SNP_LOCATION, links, new int[]{Types.BIGINT, Types.BIGINT});
+        log.info("Stored {} locations of {} SNPs", links.size(), snpIds.size());
+    }
+
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void storeSnpGenomicContexts(Map<String, Set<GenomicContext>> snpToGenomicContextMap) {
+        // Genes created by processGenes and removed contexts must reach the database before the inserts
+        entityManager.flush();
+        Map<String, Long> snpIds = this.findSnpIds(snpToGenomicContextMap.keySet());
+
+        List<GenomicContext> genomicContexts = new ArrayList<>();
+        Set<String> geneNames = new HashSet<>();
+        List<LocationKey> keys = new ArrayList<>();
+        snpToGenomicContextMap.forEach((snpRsId, contexts) -> {
+            if (!snpIds.containsKey(snpRsId)) {
+                log.error("Adding genomic context for SNP not found in database, RS_ID:" + snpRsId);
+                throw new RuntimeException("Adding genomic context for SNP not found in database, RS_ID: " + snpRsId);
+            }
+            for (GenomicContext genomicContext : contexts) {
+                String geneName = geneName(genomicContext);
+                if (geneName.equalsIgnoreCase("undefined")) {
+                    log.warn("Gene name returned from mapping pipeline is 'undefined' for SNP" + snpRsId);
+                    continue;
+                }
+                genomicContexts.add(genomicContext);
+                geneNames.add(geneName);
+                keys.add(LocationKey.of(genomicContext.getLocation()));
+            }
+        });
+
+        Map<String, Long> geneIds = this.findIds(geneNames, geneRepository::findKeysByGeneNameIn);
+        Map<LocationKey, Long> locationIds = this.findOrCreateLocations(keys);
+        Iterator<Long> ids = this.nextIds(genomicContexts.size()).iterator();
+
+        List<Object[]> rows = new ArrayList<>();
+        for (GenomicContext genomicContext : genomicContexts) {
+            rows.add(new Object[]{
+                    ids.next(),
+                    flag(genomicContext.getIsIntergenic()),
+                    flag(genomicContext.getIsUpstream()),
+                    flag(genomicContext.getIsDownstream()),
+                    genomicContext.getDistance(),
+                    snpIds.get(genomicContext.getSnp().getRsId()),
+                    geneIds.get(geneName(genomicContext)),
+                    locationIds.get(LocationKey.of(genomicContext.getLocation())),
+                    genomicContext.getSource(),
+                    genomicContext.getMappingMethod(),
+                    flag(genomicContext.getIsClosestGene())});
+        }
+        jdbcTemplate.batchUpdate(INSERT_GENOMIC_CONTEXT, rows, new int[]{Types.BIGINT, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.BIGINT,
+                Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.INTEGER});
+        log.info("Stored {} genomic contexts of {} SNPs", rows.size(), snpIds.size());
+    }
+
+    // rsIDs as given, falling back to a case insensitive match like the per SNP lookups do
+    private Map<String, Long> findSnpIds(Collection<String> rsIds) {
+        Map<String, Long> snpIds = this.findIds(rsIds, snpRepository::findKeysByRsIdIn);
+        Map<String, String> missing = new HashMap<>();
+        rsIds.stream().filter(rsId -> !snpIds.containsKey(rsId)).forEach(rsId -> missing.put(rsId.toLowerCase(), rsId));
+        if (!missing.isEmpty()) {
+            this.findIds(missing.keySet(), snpRepository::findKeysByLowerRsIdIn)
+                    .forEach((lowerRsId, id) -> snpIds.put(missing.get(lowerRsId), id));
+        }
+        return snpIds;
+    }
+
+    private Map<LocationKey, Long> findOrCreateLocations(Collection<LocationKey> keys) {
+        Set<LocationKey> distinctKeys = new LinkedHashSet<>(keys);
+        Set<Integer> positions = new HashSet<>();
+        distinctKeys.forEach(key -> positions.add(key.position));
+
+        Map<LocationKey, Long> locationIds = new HashMap<>();
+        for (List<Integer> part : ListUtils.partition(new ArrayList<>(positions), IN_LIST_SIZE)) {
+            for (LocationKeyProjection location : locationRepository.findKeysByChromosomePositionIn(part)) {
+                locationIds.putIfAbsent(new LocationKey(location.getChromosomeName(), location.getChromosomePosition(), location.getRegionName()), location.getId());
+            }
+        }
+
+        List<LocationKey> newKeys = new ArrayList<>();
+        distinctKeys.stream().filter(key -> !locationIds.containsKey(key)).forEach(newKeys::add);
+        if (newKeys.isEmpty()) {
+            return locationIds;
+        }
+
+        Set<String> regionNames = new HashSet<>();
+        newKeys.stream().filter(key -> key.region != null).forEach(key -> regionNames.add(key.region));
+        Map<String, Long> regionIds = this.findOrCreateRegions(regionNames);
+
+        Iterator<Long> ids = this.nextIds(newKeys.size()).iterator();
+        List<Object[]> rows = new ArrayList<>();
+        for (LocationKey key : newKeys) {
+            Long id = ids.next();
+            locationIds.put(key, id);
+            rows.add(new Object[]{id, key.chromosome, key.position, key.region == null ? null : regionIds.get(key.region)});
+        }
+        jdbcTemplate.batchUpdate(INSERT_LOCATION, rows, new int[]{Types.BIGINT, Types.VARCHAR, Types.INTEGER, Types.BIGINT});
+        return locationIds;
+    }
+
+    private Map<String, Long> findOrCreateRegions(Set<String> regionNames) {
+        Map<String, Long> regionIds = this.findIds(regionNames, regionRepository::findKeysByNameIn);
+        List<String> newRegions = new ArrayList<>();
+        regionNames.stream().filter(name -> !regionIds.containsKey(name)).forEach(newRegions::add);
+        if (!newRegions.isEmpty()) {
+            Iterator<Long> ids = this.nextIds(newRegions.size()).iterator();
+            List<Object[]> rows = new ArrayList<>();
+            for (String name : newRegions) {
+                Long id = ids.next();
+                regionIds.put(name, id);
+                rows.add(new Object[]{id, name});
+            }
+            jdbcTemplate.batchUpdate(INSERT_REGION, rows, new int[]{Types.BIGINT, Types.VARCHAR});
+        }
+        return regionIds;
+    }
+
+    private Map<String, Long> findIds(Collection<String> names, Function<List<String>, List<KeyProjection>> query) {
+        Map<String, Long> ids = new HashMap<>();
+        for (List<String> part : ListUtils.partition(new ArrayList<>(names), IN_LIST_SIZE)) {
+            query.apply(part).forEach(key -> ids.putIfAbsent(key.getName(), key.getId()));
+        }
+        return ids;
+    }
+
+    // One round trip for the whole batch, the entities share the sequence Hibernate uses
+    private List<Long> nextIds(int count) {
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        String sql = String.format("SELECT %s.NEXTVAL FROM DUAL CONNECT BY LEVEL <= ?", config.getBulkWriteSequence());
+        return jdbcTemplate.queryForList(sql, Long.class, count);
+    }
+
+    // Booleans are stored as NUMBER(1)
+    private static Integer flag(Boolean value) {
+        return value == null ? null : (value ? 1 : 0);
+    }
+
+    private static String geneName(GenomicContext genomicContext) {
+        if (genomicContext.getGene() == null || genomicContext.getGene().getGeneName() == null) {
+            return "undefined";
+        }
+        return genomicContext.getGene().getGeneName().trim();
+    }
+
+    private static final class LocationKey {
+
+        private final String chromosome;
+        private final Integer position;
+        private final String region;
+
+        private LocationKey(String chromosome, Integer position, String region) {
+            this.chromosome = chromosome;
+            this.position = position;
+            this.region = region;
+        }
+
+        // Trimmed the same way as the per location lookups
+        static LocationKey of(Location location) {
+            String chromosome = location.getChromosomeName() == null ? null : location.getChromosomeName().trim();
+            Region region = location.getRegion();
+            String regionName = region == null || region.getName() == null ? null : region.getName().trim();
+            return new LocationKey(chromosome, location.getChromosomePosition(), regionName);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LocationKey)) {
+                return false;
+            }
+            LocationKey that = (LocationKey) o;
+            return Objects.equals(chromosome, that.chromosome)
+                    && Objects.equals(position, that.position)
+                    && Objects.equals(region, that.region);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(chromosome, position, region);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package uk.ac.ebi.spot.gwas.common.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.util.EntityUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.util.RateLimiter;
+import uk.ac.ebi.spot.gwas.exception.EnsemblRestClientException;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking client for the Ensembl REST API. Every request takes a token from a shared
+ * {@link RateLimiter} set to mapping.requestPerSecond, throttled responses pause the limiter for the time
+ * given in Retry-After (or X-RateLimit-Reset) and are retried with a bounded exponential backoff,
+ * so no thread is parked while waiting. Responses are returned with their status whatever it is,
+ * only a request which could not be sent at all completes exceptionally.
+ */
+@Slf4j
+@Service
+public class EnsemblClient {
+
+    private static final int MAXIMUM_TOTAL_CONNECTION = 20;
+    private static final int MAXIMUM_CONNECTION_PER_ROUTE = 20;
+    private static final int CONNECTION_TIMEOUT_MS = 60 * 1000;
+    private static final int SOCKET_TIMEOUT_MS = 30 * 60 * 1000;
+    private static final long BASE_BACKOFF_MS = 500;
+
+    private final RateLimiter rateLimiter;
+    private final int maxRetries;
+    private final long maxBackoffMs;
+    private final CloseableHttpAsyncClient httpClient;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService callbackExecutor;
+
+    public EnsemblClient(AppConfig config) {
+        this.rateLimiter = new RateLimiter(config.getRequestPerSecond());
+        this.maxRetries = config.getMaxRetries();
+        this.maxBackoffMs = config.getMaxBackoffMs();
+        this.httpClient = HttpAsyncClients.custom()
+                .setMaxConnTotal(MAXIMUM_TOTAL_CONNECTION)
+                .setMaxConnPerRoute(MAXIMUM_CONNECTION_PER_ROUTE)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(CONNECTION_TIMEOUT_MS)
+                        .setSocketTimeout(SOCKET_TIMEOUT_MS)
+                        .build())
+                .build();
+        this.httpClient.start();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(namedThreads("EnsemblClientScheduler-"));
+        // Responses are parsed off the I/O reactor threads
+        this.callbackExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), namedThreads("EnsemblClient-"));
+    }
+
+    public CompletableFuture<ResponseEntity<String>> get(String uri) {
+        return this.execute(() -> {
+            HttpGet get = new HttpGet(uri);
+            get.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+            return get;
+        });
+    }
+
+    public CompletableFuture<ResponseEntity<String>> post(String uri, String json) {
+        return this.execute(() -> {
+            HttpPost post = new HttpPost(uri);
+            post.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+            post.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+            return post;
+        });
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    private CompletableFuture<ResponseEntity<String>> execute(Supplier<HttpUriRequest> request) {
+        CompletableFuture<ResponseEntity<String>> result = new CompletableFuture<>();
+        this.schedule(request, 0, result);
+        return result;
+    }
+
+    private void schedule(Supplier<HttpUriRequest> request, int attempt, CompletableFuture<ResponseEntity<String>> result) {
+        long wait = rateLimiter.reserve();
+        if (wait <= 0) {
+            this.send(request, attempt, result);
+        } else {
+            scheduler.schedule(() -> this.send(request, attempt, result), wait, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void retry(Supplier<HttpUriRequest> request, int attempt, long delayMs, CompletableFuture<ResponseEntity<String>> result) {
+        scheduler.schedule(() -> this.schedule(request, attempt + 1, result), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void send(Supplier<HttpUriRequest> request, int attempt, CompletableFuture<ResponseEntity<String>> result) {
+        HttpUriRequest httpRequest = request.get();
+        httpClient.execute(httpRequest, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                callbackExecutor.execute(() -> handle(request, httpRequest, response, attempt, result));
+            }
+
+            @Override
+            public void failed(Exception e) {
+                if (attempt < maxRetries) {
+                    long delay = backoff(attempt);
+                    log.warn("{} failed ({}), retrying in {} ms", httpRequest.getURI(), e.getMessage(), delay);
+                    retry(request, attempt, delay, result);
+                } else {
+                    result.completeExceptionally(new EnsemblRestClientException(String.format("%s failed after %s attempts", httpRequest.getURI(), attempt + 1), e));
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+    }
+
+    private void handle(Supplier<HttpUriRequest> request, HttpUriRequest httpRequest, HttpResponse response, int attempt,
+                        CompletableFuture<ResponseEntity<String>> result) {
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+
+            long resetMs = this.rateLimitResetMs(response);
+            if (status == HttpStatus.TOO_MANY_REQUESTS.value()) {
+                // Ensembl's own hint wins over our backoff
+                long retryAfterMs = this.retryAfterMs(response);
+                long delay = retryAfterMs > 0 ? retryAfterMs : (resetMs > 0 ? resetMs : backoff(attempt));
+                // Everyone waits, not just this request
+                rateLimiter.pause(delay, TimeUnit.MILLISECONDS);
+                if (attempt < maxRetries) {
+                    log.warn("warning: too many request {} retrying in {} ms", httpRequest.getURI(), delay);
+                    this.retry(request, attempt, delay, result);
+                    return;
+                }
+            } else if (isTransient(status) && attempt < maxRetries) {
+                long delay = backoff(attempt);
+                log.warn("{} returned {}, retrying in {} ms", httpRequest.getURI(), status, delay);
+                this.retry(request, attempt, delay, result);
+                return;
+            } else if (resetMs > 0 && "0".equals(headerValue(response, "X-RateLimit-Remaining"))) {
+                // Quota used up, hold back until it resets instead of collecting 429s
+                rateLimiter.pause(resetMs, TimeUnit.MILLISECONDS);
+            }
+            result.complete(new ResponseEntity<>(body, HttpStatus.valueOf(status)));
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(new EnsemblRestClientException(String.format("Could not read response of %s", httpRequest.getURI()), e));
+        }
+    }
+
+    // Exponential with jitter, capped at the configured maximum
+    private long backoff(int attempt) {
+        long delay = BASE_BACKOFF_MS << Math.min(attempt, 20);
+        delay = Math.min(delay, maxBackoffMs);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static boolean isTransient(int status) {
+        return status == HttpStatus.BAD_GATEWAY.value()
+                || status == HttpStatus.SERVICE_UNAVAILABLE.value()
+                || status == HttpStatus.GATEWAY_TIMEOUT.value();
+    }
+
+    // Ensembl sends fractional seconds, e.g. Retry-After: 0.25
+    private long retryAfterMs(HttpResponse response) {
+        return secondsToMs(headerValue(response, HttpHeaders.RETRY_AFTER));
+    }
+
+    private long rateLimitResetMs(HttpResponse response) {
+        return secondsToMs(headerValue(response, "X-RateLimit-Reset"));
+    }
+
+    private static long secondsToMs(String seconds) {
+        if (seconds == null) {
+            return 0;
+        }
+        try {
+            return (long) Math.ceil(Double.parseDouble(seconds.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        callbackExecutor.shutdown();
+        httpClient.close();
+    }
+}
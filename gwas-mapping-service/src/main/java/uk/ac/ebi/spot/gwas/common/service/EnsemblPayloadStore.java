@@ -0,0 +1,242 @@
+package uk.ac.ebi.spot.gwas.common.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.ListUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.ebi.spot.gwas.common.model.EnsemblPayload;
+import uk.ac.ebi.spot.gwas.common.model.EnsemblRestcallHistory;
+import uk.ac.ebi.spot.gwas.common.repository.EnsemblPayloadRepository;
+import uk.ac.ebi.spot.gwas.common.repository.EnsemblRestcallHistoryRepository;
+import uk.ac.ebi.spot.gwas.common.util.PayloadHasher;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps Ensembl responses out of the history rows. A response is stored once in ENSEMBL_PAYLOAD under the
+ * hash of its normalised JSON, deflated, and history rows only carry that hash. Neighbouring windows with
+ * the same genes and variations which did not change between releases share one payload.
+ * Rows written before the store was switched on keep their response and are read as before.
+ * New payloads are inserted in their own transaction, so a payload stored at the same time by another
+ * writer only costs a retry and never fails the history rows being saved.
+ * The history entity maps the hash column whether or not the store is on, so the service does not start
+ * before db/ensembl_payload.sql has been run.
+ */
+@Slf4j
+@Service
+public class EnsemblPayloadStore {
+
+    // Oracle limit on the number of IN list values
+    private static final int IN_LIST_SIZE = 1000;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final EnsemblPayloadRepository payloadRepository;
+    private final EnsemblRestcallHistoryRepository historyRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate insertTemplate;
+    private final boolean enabled;
+    private final int migrateBatchSize;
+
+    // Hashes known to be stored, saves looking them up again for every row
+    private final Cache<String, Boolean> storedHashes = Caffeine.newBuilder().maximumSize(100000).build();
+
+    public EnsemblPayloadStore(EnsemblPayloadRepository payloadRepository,
+                               EnsemblRestcallHistoryRepository historyRepository,
+                               JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${mapping.payload_store.enabled:false}") boolean enabled,
+                               @Value("${mapping.payload_store.migrate_batch_size:1000}") int migrateBatchSize) {
+        this.payloadRepository = payloadRepository;
+        this.historyRepository = historyRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.insertTemplate = new TransactionTemplate(transactionManager);
+        this.insertTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.enabled = enabled;
+        this.migrateBatchSize = Math.max(1, migrateBatchSize);
+    }
+
+    // Every history read and write selects the hash column, without it they would all fail with ORA-00904
+    @PostConstruct
+    public void checkSchema() {
+        this.checkColumn("ENSEMBL_RESTCALL_HISTORY", "PAYLOAD_HASH");
+        if (enabled) {
+            this.checkColumn("ENSEMBL_PAYLOAD", "PAYLOAD");
+        }
+    }
+
+    private void checkColumn(String table, String column) {
+        try {
+            jdbcTemplate.queryForList(String.format("SELECT %s FROM %s WHERE 1 = 0", column, table));
+        } catch (DataAccessException e) {
+            throw new IllegalStateException(String.format("%s.%s cannot be read, run db/ensembl_payload.sql before starting the service: %s",
+                                                          table, column, e.getMessage()), e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Moves the responses of the given rows into the payload table, joining the transaction saving the
+     * rows when there is one. The rows are left with the hash of their response.
+     */
+    @Transactional
+    public void externalise(Collection<EnsemblRestcallHistory> histories) {
+        if (!enabled) {
+            return;
+        }
+        Map<String, String> payloads = new HashMap<>();
+        for (EnsemblRestcallHistory history : histories) {
+            String response = history.getEnsemblResponse();
+            if (response != null && history.getPayloadHash() == null) {
+                String hash = PayloadHasher.hashJson(response);
+                payloads.putIfAbsent(hash, response);
+                history.setPayloadHash(hash);
+                history.setEnsemblResponse(null);
+            }
+        }
+
+        List<String> unknown = new ArrayList<>();
+        payloads.keySet().stream().filter(hash -> storedHashes.getIfPresent(hash) == null).forEach(unknown::add);
+        Set<String> existing = new HashSet<>();
+        ListUtils.partition(unknown, IN_LIST_SIZE).forEach(part -> existing.addAll(payloadRepository.findExistingHashes(part)));
+        List<String> missing = new ArrayList<>();
+        unknown.stream().filter(hash -> !existing.contains(hash)).forEach(missing::add);
+        if (!missing.isEmpty()) {
+            try {
+                this.insert(missing, payloads);
+            } catch (RuntimeException e) {
+                // Another writer stored some of them meanwhile, the others are inserted one by one
+                log.debug("Inserting {} payloads failed, retrying them one by one: {}", missing.size(), e.getMessage());
+                missing.forEach(hash -> this.insertIfAbsent(hash, payloads));
+            }
+        }
+        // Only trusted once written
+        unknown.forEach(hash -> storedHashes.put(hash, Boolean.TRUE));
+    }
+
+    private void insert(List<String> hashes, Map<String, String> payloads) {
+        insertTemplate.execute(status -> {
+            for (String hash : hashes) {
+                byte[] json = payloads.get(hash).getBytes(StandardCharsets.UTF_8);
+                entityManager.persist(new EnsemblPayload(hash, compress(json), json.length));
+            }
+            entityManager.flush();
+            return null;
+        });
+    }
+
+    // A duplicate key means the payload is there already, any other failure is passed on
+    private void insertIfAbsent(String hash, Map<String, String> payloads) {
+        try {
+            this.insert(Collections.singletonList(hash), payloads);
+        } catch (RuntimeException e) {
+            if (payloadRepository.findExistingHashes(Collections.singletonList(hash)).isEmpty()) {
+                throw e;
+            }
+        }
+    }
+
+    public String load(String payloadHash) {
+        return this.loadAll(Collections.singleton(payloadHash)).get(payloadHash);
+    }
+
+    public Map<String, String> loadAll(Collection<String> payloadHashes) {
+        Map<String, String> responses = new HashMap<>();
+        List<String> hashes = new ArrayList<>(new HashSet<>(payloadHashes));
+        for (List<String> part : ListUtils.partition(hashes, IN_LIST_SIZE)) {
+            for (EnsemblPayload payload : payloadRepository.findAllById(part)) {
+                responses.put(payload.getPayloadHash(), new String(decompress(payload.getPayload(), payload.getPayloadSize()),
+                                                                   StandardCharsets.UTF_8));
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Moves the responses of rows written before the store was switched on, a batch per transaction.
+     */
+    public long migrate() {
+        if (!enabled) {
+            throw new IllegalStateException("Switch on mapping.payload_store.enabled before migrating the history");
+        }
+        long start = System.currentTimeMillis();
+        long migrated = 0;
+        Long lastId = 0L;
+        List<Long> ids;
+        do {
+            ids = historyRepository.findIdsWithResponseAfter(lastId, PageRequest.of(0, migrateBatchSize));
+            if (!ids.isEmpty()) {
+                List<Long> batch = ids;
+                transactionTemplate.execute(status -> {
+                    this.externalise(historyRepository.findAllById(batch));
+                    return null;
+                });
+                migrated += ids.size();
+                lastId = ids.get(ids.size() - 1);
+                log.info("Moved the responses of {} history rows to the payload store", migrated);
+            }
+        } while (!ids.isEmpty());
+        log.info("History payload migration of {} rows finished in {} ms", migrated, System.currentTimeMillis() - start);
+        return migrated;
+    }
+
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] data, Integer size) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size != null ? size : data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt Ensembl payload: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
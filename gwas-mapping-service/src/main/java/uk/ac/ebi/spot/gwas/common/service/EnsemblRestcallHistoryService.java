@@ -1,29 +1,57 @@
 package uk.ac.ebi.spot.gwas.common.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.ListUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import uk.ac.ebi.spot.gwas.mapping.dto.RestResponseResult;
 import uk.ac.ebi.spot.gwas.common.model.EnsemblRestcallHistory;
+import uk.ac.ebi.spot.gwas.common.projection.HistoryEntryProjection;
+import uk.ac.ebi.spot.gwas.common.projection.HistoryProjection;
 import uk.ac.ebi.spot.gwas.common.repository.EnsemblRestcallHistoryRepository;
 
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class EnsemblRestcallHistoryService {
 
+    // Oracle limit on the number of IN list values
+    private static final int IN_LIST_SIZE = 1000;
+
+    // Prefetched key without a row, the lookup goes straight to Ensembl
+    private static final RestResponseResult ABSENT = new RestResponseResult();
+
     private EnsemblRestcallHistoryRepository ensemblRestcallHistoryRepository;
+    private final EnsemblRestcallHistoryWriter historyWriter;
+    private final EnsemblPayloadStore payloadStore;
 
+    // Results loaded ahead of the batches, kept for every batch in flight until evicted for size
+    private final Cache<String, RestResponseResult> prefetched;
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong prefetchAbsent = new AtomicLong();
+    private final AtomicLong singleLookups = new AtomicLong();
 
     @Autowired
-    public EnsemblRestcallHistoryService(EnsemblRestcallHistoryRepository ensemblRestcallHistoryRepository) {
+    public EnsemblRestcallHistoryService(EnsemblRestcallHistoryRepository ensemblRestcallHistoryRepository,
+                                         EnsemblRestcallHistoryWriter historyWriter,
+                                         EnsemblPayloadStore payloadStore,
+                                         @Value("${mapping.history_prefetch.max_entries:50000}") int maxPrefetched) {
         this.ensemblRestcallHistoryRepository = ensemblRestcallHistoryRepository;
+        this.historyWriter = historyWriter;
+        this.payloadStore = payloadStore;
+        this.prefetched = Caffeine.newBuilder().maximumSize(maxPrefetched).build();
     }
 
     //Without release version, the data are not stored.
@@ -50,7 +78,9 @@ public class EnsemblRestcallHistoryService {
                             ensemblRestcallHistory.setEnsemblResponse(resultResponseResult.getRestResult());
                         }
 
-                        this.ensemblRestcallHistoryRepository.save(ensemblRestcallHistory);
+                        // Saved by the writer's thread, this runs on the threads handling Ensembl responses
+                        historyWriter.write(ensemblRestcallHistory);
+                        prefetched.invalidate(key(type, param, eRelease));
                     } catch (Exception e) {
                         log.error("Exception in EnsemblRestcallHistory "+e.getMessage(),e);
                         // BEWARE: the following code MUST NOT block Ensembl Rest API Call
@@ -64,6 +94,7 @@ public class EnsemblRestcallHistoryService {
     @Async("asyncExecutor")
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     public CompletableFuture<EnsemblRestcallHistory> create(EnsemblRestcallHistory ensemblRestcallHistory) {
+        payloadStore.externalise(Collections.singletonList(ensemblRestcallHistory));
         EnsemblRestcallHistory history = ensemblRestcallHistoryRepository.save(ensemblRestcallHistory);
         return CompletableFuture.completedFuture(history);
     }
@@ -71,6 +102,7 @@ public class EnsemblRestcallHistoryService {
     @Async("asyncExecutor")
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     public CompletableFuture<List<EnsemblRestcallHistory>> create(List<EnsemblRestcallHistory> ensemblRestcallHistory) {
+        payloadStore.externalise(ensemblRestcallHistory);
         List<EnsemblRestcallHistory> history = ensemblRestcallHistoryRepository.saveAll(ensemblRestcallHistory);
         return CompletableFuture.completedFuture(history);
     }
@@ -99,19 +131,26 @@ public class EnsemblRestcallHistoryService {
         // Without release it is pointless stores the info.
         if (eRelease != null) {
             if (!(eRelease.isEmpty())) {
+                // A row written since the prefetch is only queued or spilled, it answers before any marker
+                EnsemblRestcallHistory queued = historyWriter.findPending(type, param, eRelease);
+                if (queued != null) {
+                    return toResult(queued.getEnsemblUrl(), queued.getEnsemblError(), queued.getEnsemblResponse());
+                }
+                RestResponseResult prefetchedResult = prefetched.getIfPresent(key(type, param, eRelease));
+                if (prefetchedResult == ABSENT) {
+                    prefetchAbsent.incrementAndGet();
+                    return null;
+                } else if (prefetchedResult != null) {
+                    prefetchHits.incrementAndGet();
+                    return prefetchedResult;
+                }
+                singleLookups.incrementAndGet();
                 try {
                     Collection<EnsemblRestcallHistory> urls = ensemblRestcallHistoryRepository.findByRequestTypeAndEnsemblParamAndEnsemblVersion(type, param, eRelease);
                     if (urls.size() > 0) {
                         EnsemblRestcallHistory result = urls.iterator().next();
-                        restResponseResult = new RestResponseResult();
-                        restResponseResult.setUrl(result.getEnsemblUrl());
-                        String restApiError = result.getEnsemblError();
-
-                        if (restApiError != null && !restApiError.isEmpty()) {
-                            restResponseResult.setError(restApiError);
-                        } else {
-                            restResponseResult.setRestResult(result.getEnsemblResponse());
-                        }
+                        String response = result.getPayloadHash() != null ? payloadStore.load(result.getPayloadHash()) : result.getEnsemblResponse();
+                        restResponseResult = toResult(result.getEnsemblUrl(), result.getEnsemblError(), response);
                     }
                 } catch (Exception e) {
                     // BEWARE: the following code MUST NOT block Ensembl Rest API Call
@@ -120,4 +159,92 @@ public class EnsemblRestcallHistoryService {
         }
         return restResponseResult;
     }
+
+    /**
+     * Loads the history of the given parameters with chunked IN queries so that the lookups of a batch
+     * are answered from memory. Parameters without history are remembered as such, those with a row
+     * waiting in the write-behind queue or spill file are left to it.
+     */
+    public void prefetch(String type, Collection<String> params, String eRelease) {
+        if (eRelease == null || eRelease.isEmpty() || params.isEmpty()) {
+            return;
+        }
+        List<String> toLoad = params.stream().distinct()
+                .filter(param -> prefetched.getIfPresent(key(type, param, eRelease)) == null)
+                .filter(param -> historyWriter.findPending(type, param, eRelease) == null)
+                .collect(Collectors.toList());
+        try {
+            for (List<String> part : ListUtils.partition(toLoad, IN_LIST_SIZE)) {
+                Set<String> found = new HashSet<>();
+                List<HistoryProjection> histories = ensemblRestcallHistoryRepository.findByTypeVersionAndParams(type, eRelease, part);
+                Map<String, String> payloads = this.loadPayloads(histories);
+                for (HistoryProjection history : histories) {
+                    if (found.add(history.getEnsemblParam())) {
+                        String response = history.getPayloadHash() != null ? payloads.get(history.getPayloadHash()) : history.getEnsemblResponse();
+                        prefetched.put(key(type, history.getEnsemblParam(), eRelease),
+                                       toResult(history.getEnsemblUrl(), history.getEnsemblError(), response));
+                    }
+                }
+                part.stream().filter(param -> !found.contains(param))
+                        .forEach(param -> prefetched.asMap().putIfAbsent(key(type, param, eRelease), ABSENT));
+            }
+        } catch (Exception e) {
+            // Lookups fall back to single queries
+            log.warn("Prefetching {} history failed: {}", type, e.getMessage());
+        }
+    }
+
+    /**
+     * Every result of the type in the release, a page at a time in id order, e.g. to build an index of them.
+     */
+    public void forEachResult(String type, String eRelease, int pageSize, BiConsumer<String, RestResponseResult> consumer) {
+        Long lastId = 0L;
+        List<HistoryEntryProjection> entries;
+        do {
+            entries = ensemblRestcallHistoryRepository.findByTypeVersionAfter(type, eRelease, lastId, PageRequest.of(0, pageSize));
+            List<String> hashes = entries.stream().map(HistoryEntryProjection::getPayloadHash)
+                    .filter(Objects::nonNull).collect(Collectors.toList());
+            Map<String, String> payloads = hashes.isEmpty() ? Collections.emptyMap() : payloadStore.loadAll(hashes);
+            for (HistoryEntryProjection entry : entries) {
+                String response = entry.getPayloadHash() != null ? payloads.get(entry.getPayloadHash()) : entry.getEnsemblResponse();
+                consumer.accept(entry.getEnsemblParam(), toResult(null, entry.getEnsemblError(), response));
+            }
+            if (!entries.isEmpty()) {
+                lastId = entries.get(entries.size() - 1).getId();
+            }
+        } while (!entries.isEmpty());
+    }
+
+    private Map<String, String> loadPayloads(List<HistoryProjection> histories) {
+        List<String> hashes = histories.stream().map(HistoryProjection::getPayloadHash)
+                .filter(Objects::nonNull).collect(Collectors.toList());
+        return hashes.isEmpty() ? Collections.emptyMap() : payloadStore.loadAll(hashes);
+    }
+
+    public void clearPrefetched() {
+        prefetched.invalidateAll();
+    }
+
+    public String getPrefetchStats() {
+        long hits = prefetchHits.get();
+        long absent = prefetchAbsent.get();
+        long lookups = hits + absent + singleLookups.get();
+        return String.format("history prefetch %s hits, %s known absent, %s single lookups (%.1f%% prefetched)",
+                             hits, absent, singleLookups.get(), lookups == 0 ? 0.0 : 100.0 * (hits + absent) / lookups);
+    }
+
+    private static RestResponseResult toResult(String url, String restApiError, String response) {
+        RestResponseResult restResponseResult = new RestResponseResult();
+        restResponseResult.setUrl(url);
+        if (restApiError != null && !restApiError.isEmpty()) {
+            restResponseResult.setError(restApiError);
+        } else {
+            restResponseResult.setRestResult(response);
+        }
+        return restResponseResult;
+    }
+
+    private static String key(String type, String param, String eRelease) {
+        return type + '|' + eRelease + '|' + param;
+    }
 }
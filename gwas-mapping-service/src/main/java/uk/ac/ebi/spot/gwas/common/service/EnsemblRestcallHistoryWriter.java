@@ -0,0 +1,364 @@
+package uk.ac.ebi.spot.gwas.common.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.ebi.spot.gwas.common.model.EnsemblRestcallHistory;
+import uk.ac.ebi.spot.gwas.common.repository.EnsemblRestcallHistoryRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes Ensembl call history behind the mapping. Rows are queued in memory and saved in batches by
+ * a single writer thread in their own transaction, so a REST miss no longer waits for its history insert.
+ * When the queue is full or a batch cannot be saved the rows are appended to a spill file, which is
+ * loaded again once the queue has drained and at shutdown. Rows are only lost when the spill file
+ * cannot be written either. Queued and spilled rows can be read back until they are saved, so a key is not fetched twice.
+ * A replay file left by a run which died is saved before the spill file is moved in its place.
+ * With write-behind off every row is saved on its own, still on a writer thread rather than the caller's.
+ */
+@Slf4j
+@Service
+public class EnsemblRestcallHistoryWriter {
+
+    private final EnsemblRestcallHistoryRepository historyRepository;
+    private final EnsemblPayloadStore payloadStore;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final Path spillFile;
+    private final BlockingQueue<QueuedHistory> queue;
+    private final ConcurrentMap<String, EnsemblRestcallHistory> pending = new ConcurrentHashMap<>();
+    private final Object spillLock = new Object();
+    private volatile boolean running = true;
+    private Thread writer;
+    // Saves rows one at a time when write-behind is off
+    private final ExecutorService directWriter;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong lastBatchLagMs = new AtomicLong();
+    private long reportedDropped;
+
+    public EnsemblRestcallHistoryWriter(EnsemblRestcallHistoryRepository historyRepository,
+                                        EnsemblPayloadStore payloadStore,
+                                        PlatformTransactionManager transactionManager,
+                                        @Value("${mapping.history_write_behind.enabled:true}") boolean enabled,
+                                        @Value("${mapping.history_write_behind.queue_capacity:10000}") int queueCapacity,
+                                        @Value("${mapping.history_write_behind.batch_size:500}") int batchSize,
+                                        @Value("${mapping.history_write_behind.flush_interval_ms:1000}") long flushIntervalMs,
+                                        @Value("${mapping.history_write_behind.spill_file:ensembl_restcall_history.spill}") String spillFile) {
+        this.historyRepository = historyRepository;
+        this.payloadStore = payloadStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = flushIntervalMs;
+        this.spillFile = Paths.get(spillFile);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.directWriter = enabled ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "EnsemblHistoryWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        writer = new Thread(this::writeLoop, "EnsemblHistoryWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues the row, or spills it when the queue is full, or hands it to the direct writer. Never blocks on the database.
+     */
+    public void write(EnsemblRestcallHistory history) {
+        queued.incrementAndGet();
+        pending.put(key(history.getRequestType(), history.getEnsemblParam(), history.getEnsemblVersion()), history);
+        QueuedHistory item = new QueuedHistory(history, System.currentTimeMillis());
+        if (directWriter != null) {
+            directWriter.execute(() -> this.saveOne(item));
+        } else if (!running || !queue.offer(item)) {
+            this.spill(Collections.singletonList(item));
+        }
+    }
+
+    /**
+     * The queued or spilled row of the given key, null once it has been saved.
+     */
+    public EnsemblRestcallHistory findPending(String type, String param, String eRelease) {
+        return pending.isEmpty() ? null : pending.get(key(type, param, eRelease));
+    }
+
+    private void writeLoop() {
+        List<QueuedHistory> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                QueuedHistory first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    this.replaySpill();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                this.save(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                log.error("History writer error {}", e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void save(List<QueuedHistory> batch) {
+        // Copies are saved, queued rows keep their response for findPending until released
+        List<EnsemblRestcallHistory> rows = new ArrayList<>(batch.size());
+        batch.forEach(item -> rows.add(SpilledHistory.of(item.history).toHistory()));
+        try {
+            transactionTemplate.execute(status -> {
+                payloadStore.externalise(rows);
+                return historyRepository.saveAll(rows);
+            });
+            written.addAndGet(rows.size());
+            this.release(batch);
+            lastBatchLagMs.set(System.currentTimeMillis() - batch.get(0).queuedAt);
+        } catch (RuntimeException e) {
+            log.warn("Saving {} history rows failed, spilling them: {}", rows.size(), e.getMessage());
+            this.spill(batch);
+        }
+    }
+
+    // Without write-behind a row which cannot be saved is logged and dropped, as it was when saved by the caller
+    private void saveOne(QueuedHistory item) {
+        EnsemblRestcallHistory row = SpilledHistory.of(item.history).toHistory();
+        try {
+            transactionTemplate.execute(status -> {
+                payloadStore.externalise(Collections.singletonList(row));
+                return historyRepository.save(row);
+            });
+            written.incrementAndGet();
+        } catch (RuntimeException e) {
+            dropped.incrementAndGet();
+            log.error("Exception in EnsemblRestcallHistory " + e.getMessage(), e);
+        } finally {
+            this.release(Collections.singletonList(item));
+        }
+    }
+
+    // Replayed rows are copies of the pending ones, a newer row of the same key is kept
+    private void release(Iterable<QueuedHistory> items) {
+        for (QueuedHistory item : items) {
+            EnsemblRestcallHistory history = item.history;
+            pending.computeIfPresent(key(history.getRequestType(), history.getEnsemblParam(), history.getEnsemblVersion()),
+                                     (key, current) -> current == history || sameRow(current, history) ? null : current);
+        }
+    }
+
+    private static boolean sameRow(EnsemblRestcallHistory a, EnsemblRestcallHistory b) {
+        return Objects.equals(a.getEnsemblUrl(), b.getEnsemblUrl())
+                && Objects.equals(a.getEnsemblResponse(), b.getEnsemblResponse())
+                && Objects.equals(a.getEnsemblError(), b.getEnsemblError());
+    }
+
+    private void spill(List<QueuedHistory> items) {
+        synchronized (spillLock) {
+            try (BufferedWriter out = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                                                              StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (QueuedHistory item : items) {
+                    out.write(mapper.writeValueAsString(SpilledHistory.of(item.history)));
+                    out.newLine();
+                    spilled.incrementAndGet();
+                }
+            } catch (IOException e) {
+                dropped.addAndGet(items.size());
+                log.error("History spill file {} could not be written, {} rows dropped: {}", spillFile, items.size(), e.getMessage());
+                // Dropped rows cannot be read back, spilled ones stay pending until replayed and saved
+                this.release(items);
+            }
+        }
+    }
+
+    // Saves the spill file once the database keeps up again, rows failing again go to a new spill file
+    private void replaySpill() {
+        Path replay = spillFile.resolveSibling(spillFile.getFileName() + ".replay");
+        if (Files.exists(replay) && !this.replay(replay)) {
+            return;
+        }
+        synchronized (spillLock) {
+            if (!Files.exists(spillFile)) {
+                return;
+            }
+            try {
+                Files.move(spillFile, replay);
+            } catch (IOException e) {
+                log.warn("History spill file {} could not be replayed: {}", spillFile, e.getMessage());
+                return;
+            }
+        }
+        this.replay(replay);
+    }
+
+    // True once the file is saved and deleted
+    private boolean replay(Path replay) {
+        List<QueuedHistory> batch = new ArrayList<>(batchSize);
+        long count = 0;
+        try (BufferedReader in = Files.newBufferedReader(replay, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    batch.add(new QueuedHistory(mapper.readValue(line, SpilledHistory.class).toHistory(), System.currentTimeMillis()));
+                } catch (JsonProcessingException e) {
+                    // A line cut short by a crash, the rest of the file is still saved
+                    dropped.incrementAndGet();
+                    log.error("Spilled history row in {} could not be read, dropped: {}", replay, e.getMessage());
+                    continue;
+                }
+                count++;
+                if (batch.size() == batchSize) {
+                    this.save(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                this.save(batch);
+            }
+            Files.delete(replay);
+            log.info("Replayed {} spilled history rows", count);
+            return true;
+        } catch (IOException e) {
+            log.error("History spill file {} could not be read: {}", replay, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Stops accepting rows and saves everything still queued or spilled.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (directWriter != null) {
+            directWriter.shutdown();
+            directWriter.awaitTermination(1, TimeUnit.MINUTES);
+            return;
+        }
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        writer.join();
+        this.replaySpill();
+        log.info(this.getStats());
+    }
+
+    @Scheduled(initialDelayString = "${mapping.history_write_behind.stats_interval_ms:60000}",
+               fixedDelayString = "${mapping.history_write_behind.stats_interval_ms:60000}")
+    public void logStats() {
+        if (writer == null) {
+            return;
+        }
+        long droppedNow = dropped.get();
+        if (droppedNow > reportedDropped) {
+            log.warn("{}, {} rows dropped since the last report", this.getStats(), droppedNow - reportedDropped);
+        } else {
+            log.info(this.getStats());
+        }
+        reportedDropped = droppedNow;
+    }
+
+    public String getStats() {
+        QueuedHistory oldest = queue.peek();
+        long oldestAgeMs = oldest == null ? 0 : System.currentTimeMillis() - oldest.queuedAt;
+        return String.format("history writer %s queued, %s written, %s spilled, %s dropped, %s pending, last batch lag %s ms, oldest queued %s ms",
+                             queued.get(), written.get(), spilled.get(), dropped.get(), queue.size(), lastBatchLagMs.get(), oldestAgeMs);
+    }
+
+    private static String key(String type, String param, String eRelease) {
+        return type + '|' + eRelease + '|' + param;
+    }
+
+    private static class QueuedHistory {
+
+        private final EnsemblRestcallHistory history;
+        private final long queuedAt;
+
+        QueuedHistory(EnsemblRestcallHistory history, long queuedAt) {
+            this.history = history;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    private static class SpilledHistory {
+
+        private String requestType;
+        private String ensemblParam;
+        private String ensemblUrl;
+        private String ensemblResponse;
+        private String ensemblError;
+        private String ensemblVersion;
+
+        static SpilledHistory of(EnsemblRestcallHistory history) {
+            SpilledHistory spilled = new SpilledHistory();
+            spilled.setRequestType(history.getRequestType());
+            spilled.setEnsemblParam(history.getEnsemblParam());
+            spilled.setEnsemblUrl(history.getEnsemblUrl());
+            spilled.setEnsemblResponse(history.getEnsemblResponse());
+            spilled.setEnsemblError(history.getEnsemblError());
+            spilled.setEnsemblVersion(history.getEnsemblVersion());
+            return spilled;
+        }
+
+        EnsemblRestcallHistory toHistory() {
+            EnsemblRestcallHistory history = new EnsemblRestcallHistory();
+            history.setRequestType(requestType);
+            history.setEnsemblParam(ensemblParam);
+            history.setEnsemblUrl(ensemblUrl);
+            history.setEnsemblResponse(ensemblResponse);
+            history.setEnsemblError(ensemblError);
+            history.setEnsemblVersion(ensemblVersion);
+            return history;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package uk.ac.ebi.spot.gwas.common.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Restart points of the long runs, one journal file per run in the cache directory of the release.
+ * A run records the stages it finished and high-water marks, e.g. the last association id of which
+ * everything before has been saved; each record is synced to disk before the call returns. A run which
+ * dies leaves its journal behind and the next run of the same name resumes from it, one which finishes
+ * removes it. Whatever the journal records must be safe to do again, it only saves the work before it.
+ * A run opened with the hash of its input only resumes a journal written for the same input.
+ */
+@Slf4j
+@Service
+public class RunJournal {
+
+    private static final String DIRECTORY = "journal";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final AppConfig config;
+    private final boolean enabled;
+
+    public RunJournal(AppConfig config, @Value("${mapping.journal.enabled:true}") boolean enabled) {
+        this.config = config;
+        this.enabled = enabled;
+    }
+
+    public Run open(String name) {
+        return this.open(name, null);
+    }
+
+    /**
+     * Opens the run of the given input. A journal left by a run of another input is discarded, the stages it
+     * records do not cover this one.
+     */
+    public Run open(String name, String input) {
+        if (!enabled) {
+            return new Run(name, null);
+        }
+        Path file = Paths.get(config.getCacheDir(), DIRECTORY, name + ".journal");
+        Run run = new Run(name, file);
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    run.replay(line);
+                }
+            } catch (IOException e) {
+                log.warn("Journal {} could not be read, {} starts from the beginning: {}", file, name, e.getMessage());
+                return new Run(name, file);
+            }
+            if (input != null && !input.equals(run.input)) {
+                log.info("Journal {} was written for another input, {} starts from the beginning", file, name);
+                run = new Run(name, file);
+                run.discard();
+            } else {
+                log.info("Resuming {} from journal {}: stages {} done, marks {}", name, file, run.stages, run.marks);
+            }
+        }
+        if (input != null && run.input == null) {
+            run.input = input;
+            run.append(new Entry(Entry.INPUT, input, null, System.currentTimeMillis()));
+        }
+        return run;
+    }
+
+    public class Run {
+
+        private final String name;
+        private final Path file;
+        private final Set<String> stages = new LinkedHashSet<>();
+        private final Map<String, Long> marks = new LinkedHashMap<>();
+        private String input;
+        private boolean resumed;
+
+        private Run(String name, Path file) {
+            this.name = name;
+            this.file = file;
+        }
+
+        public boolean isResumed() {
+            return resumed;
+        }
+
+        public synchronized boolean isDone(String stage) {
+            return stages.contains(stage);
+        }
+
+        public synchronized void done(String stage) {
+            if (stages.add(stage)) {
+                this.append(new Entry(Entry.STAGE, stage, null, System.currentTimeMillis()));
+            }
+        }
+
+        // 0 until the first mark
+        public synchronized long mark(String key) {
+            return marks.getOrDefault(key, 0L);
+        }
+
+        public synchronized void mark(String key, long value) {
+            marks.put(key, value);
+            this.append(new Entry(Entry.MARK, key, value, System.currentTimeMillis()));
+        }
+
+        // The run is complete, the next one starts from the beginning
+        public synchronized void finish() {
+            if (this.discard()) {
+                log.info("{} finished, journal {} removed", name, file);
+            }
+        }
+
+        private boolean discard() {
+            if (file == null) {
+                return false;
+            }
+            try {
+                Files.deleteIfExists(file);
+                return true;
+            } catch (IOException e) {
+                log.warn("Journal {} could not be removed, the next {} would resume from it: {}", file, name, e.getMessage());
+                return false;
+            }
+        }
+
+        private void append(Entry entry) {
+            if (file == null) {
+                return;
+            }
+            try {
+                Files.createDirectories(file.getParent());
+                byte[] line = (mapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+                Files.write(file, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+            } catch (IOException e) {
+                // The run goes on, a restart just does more again
+                log.warn("Journal {} could not be written: {}", file, e.getMessage());
+            }
+        }
+
+        // A torn last line, from a crash during an append, is skipped
+        private void replay(String line) {
+            try {
+                Entry entry = mapper.readValue(line, Entry.class);
+                if (Entry.INPUT.equals(entry.getType())) {
+                    input = entry.getName();
+                } else if (Entry.STAGE.equals(entry.getType())) {
+                    stages.add(entry.getName());
+                } else if (Entry.MARK.equals(entry.getType()) && entry.getValue() != null) {
+                    marks.put(entry.getName(), entry.getValue());
+                }
+                resumed = true;
+            } catch (JsonProcessingException e) {
+                log.warn("Skipping unreadable line of journal {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class Entry {
+
+        static final String INPUT = "input";
+        static final String STAGE = "stage";
+        static final String MARK = "mark";
+
+        private String type;
+        private String name;
+        private Long value;
+        private long time;
+    }
+}
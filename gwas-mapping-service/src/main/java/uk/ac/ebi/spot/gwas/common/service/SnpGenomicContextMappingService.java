@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
 import uk.ac.ebi.spot.gwas.common.model.*;
 import uk.ac.ebi.spot.gwas.common.repository.*;
 
@@ -38,6 +39,10 @@ public class SnpGenomicContextMappingService {
     private LocationCreationService locationCreationService;
     @Autowired
     private GenomicContextCreationService genomicContextCreationService;
+    @Autowired
+    private BulkMappingWriter bulkMappingWriter;
+    @Autowired
+    private AppConfig config;
 
     private Logger log = LoggerFactory.getLogger(getClass());
 
@@ -70,7 +75,11 @@ public class SnpGenomicContextMappingService {
             }
         }
         getLog().debug("Storing new genomic context information...");
-        storeSnpGenomicContext(snpToGenomicContextMap);
+        if (config.isBulkWrite()) {
+            bulkMappingWriter.storeSnpGenomicContexts(snpToGenomicContextMap);
+        } else {
+            storeSnpGenomicContext(snpToGenomicContextMap);
+        }
     }
 
 
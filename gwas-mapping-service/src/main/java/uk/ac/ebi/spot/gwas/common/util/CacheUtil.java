@@ -1,10 +1,11 @@
 package uk.ac.ebi.spot.gwas.common.util;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.FileUtils;
 import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
 import uk.ac.ebi.spot.gwas.common.constant.DataType;
 import uk.ac.ebi.spot.gwas.gene_symbol.GeneSymbol;
@@ -15,95 +16,164 @@ import uk.ac.ebi.spot.gwas.variation.Variant;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 public class CacheUtil {
 
     private static final ObjectMapper mapper = new ObjectMapper();
 
-    private static final Date uniq = new Date();
+    private static final Map<String, ResponseStore<?>> stores = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> stores.values().forEach(ResponseStore::close)));
+    }
 
     private CacheUtil() {
         // Hide implicit public constructor
     }
 
     public static Map<String, Variant> variation(DataType dataType, String cacheDir) {
-        Map<String, Variant> variationMap = new HashMap<>();
-        String cache = cacheDir + dataType.getFileLocation();
-
-        if (Files.exists(Paths.get(cache))) {
-            variationMap = mapper.convertValue(readJsonLocal(cache), new TypeReference<Map<String, Variant>>() {
-            });
-        }
-        return variationMap;
+        return store(dataType, cacheDir);
     }
 
     public static Map<String, GeneSymbol> reportedGenes(DataType dataType, String cacheDir) {
-        Map<String, GeneSymbol> geneSymbolMap = new HashMap<>();
-        String cache = cacheDir + dataType.getFileLocation();
-
-        if (Files.exists(Paths.get(cache))) {
-            geneSymbolMap = mapper.convertValue(readJsonLocal(cache), new TypeReference<Map<String, GeneSymbol>>() {
-            });
-        }
-        return geneSymbolMap;
+        return store(dataType, cacheDir);
     }
 
 
     public static Map<String, List<OverlapRegion>> cytoGeneticBand(DataType dataType, String cacheDir) {
-        Map<String, List<OverlapRegion>> cytoGeneticBand = new HashMap<>();
-        String cache = cacheDir + dataType.getFileLocation();
-        if (Files.exists(Paths.get(cache))) {
-            cytoGeneticBand = mapper.convertValue(readJsonLocal(cache), new TypeReference<Map<String, List<OverlapRegion>>>() {});
-        }
-        return cytoGeneticBand;
+        return store(dataType, cacheDir);
     }
 
     public static Map<String, AssemblyInfo> assemblyInfo(DataType dataType, String cacheDir) {
-
-        Map<String, AssemblyInfo> assemblyInfos = new HashMap<>();
-        String cache = cacheDir + dataType.getFileLocation();
-        if (Files.exists(Paths.get(cache))) {
-            assemblyInfos = mapper.convertValue(readJsonLocal(cache), new TypeReference<Map<String, AssemblyInfo>>() {
-            });
-        }
-        return assemblyInfos;
+        return store(dataType, cacheDir);
     }
 
 
     public static Map<String, List<OverlapGene>> overlappingGenes(DataType dataType, String cacheDir) {
+        return store(dataType, cacheDir);
+    }
 
-        Map<String, List<OverlapGene>> overlappingGenes = new HashMap<>();
-        String cache = cacheDir + dataType.getFileLocation();
-        if (Files.exists(Paths.get(cache))) {
-            overlappingGenes = mapper.convertValue(readJsonLocal(cache), new TypeReference<Map<String, List<OverlapGene>>>() {
-            });
-        }
-        return overlappingGenes;
+    public static boolean exists(DataType dataType, String cacheDir) {
+        String fileName = cacheDir + dataType.getFileLocation();
+        return ResponseStore.exists(fileName.substring(0, fileName.length() - ".json".length()));
     }
 
-    public static void saveToFile(DataType dataType, String cacheDir, Object dataToSave) {
+    // One open store per file, shared by every caller
+    @SuppressWarnings("unchecked")
+    private static <V> ResponseStore<V> store(DataType dataType, String cacheDir) {
+        JavaType valueType = valueType(dataType);
         String fileName = cacheDir + dataType.getFileLocation();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmss");
-        String backup = cacheDir + String.format("backup-%s/%s", dateFormat.format(uniq), dataType.getFileLocation());
-        try {
-            if (Files.exists(Paths.get(backup))) {
-                Files.delete(Paths.get(backup));
-            }
-            if (Files.exists(Paths.get(fileName))) {
-                FileUtils.moveFile(FileUtils.getFile(fileName), FileUtils.getFile(backup));
+        String basePath = fileName.substring(0, fileName.length() - ".json".length());
+        return (ResponseStore<V>) stores.computeIfAbsent(basePath, path -> {
+            boolean importLegacy = !ResponseStore.exists(path) && Files.exists(Paths.get(fileName));
+            ResponseStore<Object> store = new ResponseStore<>(path, valueType);
+            if (importLegacy) {
+                importLegacyFile(fileName, store);
             }
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName, false))) {
-                writer.append(mapper.writeValueAsString(dataToSave));
+            return store;
+        });
+    }
+
+    private static JavaType valueType(DataType dataType) {
+        switch (dataType) {
+            case VARIATION:
+                return mapper.getTypeFactory().constructType(Variant.class);
+            case REPORTED_GENES:
+                return mapper.getTypeFactory().constructType(GeneSymbol.class);
+            case CYTOGENETIC_BAND:
+                return mapper.getTypeFactory().constructCollectionType(List.class, OverlapRegion.class);
+            case ASSEMBLY_INFO:
+                return mapper.getTypeFactory().constructType(AssemblyInfo.class);
+            default:
+                return mapper.getTypeFactory().constructCollectionType(List.class, OverlapGene.class);
+        }
+    }
+
+    // Streams the old single-object JSON cache into the store one entry at a time
+    private static void importLegacyFile(String fileName, ResponseStore<?> store) {
+        long start = System.currentTimeMillis();
+        int imported = 0;
+        try (JsonParser parser = mapper.getFactory().createParser(new File(fileName))) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String key = parser.getCurrentName();
+                    parser.nextToken();
+                    store.putRaw(key, mapper.writeValueAsBytes(mapper.readTree(parser)));
+                    imported++;
+                }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Could not import {} into the response store: {}", fileName, e.getMessage());
+        }
+        store.flush();
+        log.info("Imported {} entries from {} in {} ms", imported, fileName, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Read-only view over several cached maps, looked up in order.
+     */
+    @SafeVarargs
+    public static <V> Map<String, V> union(Map<String, V>... maps) {
+        return new AbstractMap<String, V>() {
+            @Override
+            public V get(Object key) {
+                for (Map<String, V> map : maps) {
+                    V value = map.get(key);
+                    if (value != null) {
+                        return value;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return Arrays.stream(maps).anyMatch(map -> map.containsKey(key));
+            }
+
+            @Override
+            public Set<Entry<String, V>> entrySet() {
+                return new AbstractSet<Entry<String, V>>() {
+                    @Override
+                    public Iterator<Entry<String, V>> iterator() {
+                        return Arrays.stream(maps).flatMap(map -> map.entrySet().stream()).iterator();
+                    }
+
+                    @Override
+                    public int size() {
+                        return Arrays.stream(maps).mapToInt(Map::size).sum();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Persists the entries added since the last call. Only the new records are written,
+     * entries of maps which are not backed by a store are appended to the store of the data type
+     * when it does not hold them already.
+     */
+    @SuppressWarnings("unchecked")
+    public static void saveToFile(DataType dataType, String cacheDir, Object dataToSave) {
+        if (dataToSave instanceof ResponseStore) {
+            ((ResponseStore<?>) dataToSave).flush();
+            return;
+        }
+        Map<String, Object> entries = (Map<String, Object>) dataToSave;
+        ResponseStore<Object> store = store(dataType, cacheDir);
+        int written = 0;
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            try {
+                written += store.putIfChanged(entry.getKey(), entry.getValue()) ? 1 : 0;
+            } catch (UncheckedIOException e) {
+                log.error("Could not cache {}: {}", entry.getKey(), e.getMessage());
+            }
         }
+        log.debug("Saved {} new or changed {} entries out of {}", written, dataType, entries.size());
+        store.flush();
     }
 
     public static JsonNode readJsonLocal(String jsonFileLink) {
@@ -13,6 +13,8 @@ public class CommandUtil {
     public static final String EXEC_MODE_OPT_DESC = "-m [execution-mode] Example below: \n " +
             "Map some associations in database: java -jar gwas-mapping-service.jar -m map-some-snp \n "+
             "Map all associations in database: java -jar gwas-mapping-service.jar -m map-all-snp \n"+
+            "Map associations changed since the previous Ensembl release: java -jar gwas-mapping-service.jar -m map-release-diff \n"+
+            "Move Ensembl call history responses to the payload store: java -jar gwas-mapping-service.jar -m migrate-history-payloads \n"+
             "Cache Ensembl prior to full remap: java -jar gwas-mapping-service.jar -m cache-ensembl-data \n"+
             "Run in server & scheduler mode: java -jar gwas-mapping-service.jar -m server-mode \n";
 
@@ -0,0 +1,33 @@
+package uk.ac.ebi.spot.gwas.common.util;
+
+/**
+ * chr:start-end locations, the keys of Ensembl overlap/region requests and of the response stores.
+ * They are only built by {@link #location}, without String.format.
+ */
+public final class GenomicKey {
+
+    private GenomicKey() {
+        // Hide implicit public constructor
+    }
+
+    public static String location(String chromosome, int start, int end) {
+        return new StringBuilder(chromosome.length() + 20).append(chromosome).append(':').append(start).append('-').append(end).toString();
+    }
+
+    // Chromosomes and mitochondria: all digits, X, Y or MT
+    public static boolean isChromosome(String name) {
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        if (name.equals("X") || name.equals("Y") || name.equals("MT")) {
+            return true;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
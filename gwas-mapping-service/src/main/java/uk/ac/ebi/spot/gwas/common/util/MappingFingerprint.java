@@ -0,0 +1,122 @@
+package uk.ac.ebi.spot.gwas.common.util;
+
+import uk.ac.ebi.spot.gwas.common.model.*;
+
+import java.util.*;
+
+/**
+ * Canonical fingerprint of the mapping of one SNP: functional class, merge, locations and genomic contexts
+ * with their genes, in a form which does not depend on the order of the collections or on whether the
+ * objects are stored entities or the fresh result of a mapping run, so that the two can be compared.
+ * <p>
+ * Gene ids are left out of the fingerprint. A stored gene is shared by the contexts of both sources and by every
+ * SNP mapped to it, and carries the union of the ids the last run found for it per source, a fresh one only the
+ * ids of its own source found for this SNP. {@link #matches} checks those are among the stored ones instead.
+ */
+public class MappingFingerprint {
+
+    private static final String NCBI_SOURCE = "NCBI";
+
+    private MappingFingerprint() {
+        // Hide implicit public constructor
+    }
+
+    /**
+     * Whether the fresh mapping of a SNP is the one stored: same fingerprint, and every gene id of a fresh context
+     * already linked to the stored gene for the source of the context.
+     */
+    public static boolean matches(SingleNucleotidePolymorphism stored, String functionalClass, Long merged, String currentSnpId,
+                                  Collection<Location> locations, Collection<GenomicContext> genomicContexts) {
+        if (!of(stored).equals(of(functionalClass, merged, currentSnpId, locations, genomicContexts))) {
+            return false;
+        }
+        Map<String, Set<String>> storedIds = geneIds(stored.getGenomicContexts());
+        for (Map.Entry<String, Set<String>> freshIds : geneIds(genomicContexts).entrySet()) {
+            if (!storedIds.getOrDefault(freshIds.getKey(), Collections.emptySet()).containsAll(freshIds.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static String of(SingleNucleotidePolymorphism snp) {
+        String currentSnpId = snp.getCurrentSnp() == null ? null : snp.getCurrentSnp().getRsId();
+        return of(snp.getFunctionalClass(), snp.getMerged(), currentSnpId, snp.getLocations(), snp.getGenomicContexts());
+    }
+
+    public static String of(String functionalClass, Long merged, String currentSnpId,
+                            Collection<Location> locations, Collection<GenomicContext> genomicContexts) {
+        boolean isMerged = merged != null && merged == 1;
+        List<String> lines = new ArrayList<>();
+        lines.add(String.join("|", "snp", trim(functionalClass), String.valueOf(isMerged),
+                              isMerged ? trim(currentSnpId).toLowerCase(Locale.ROOT) : ""));
+        if (locations != null) {
+            // A SNP is linked to a location once, however often the mapping returns it
+            locations.stream().map(location -> "location|" + location(location)).distinct().forEach(lines::add);
+        }
+        if (genomicContexts != null) {
+            // Contexts without a gene name are never stored
+            genomicContexts.stream().filter(MappingFingerprint::hasGene)
+                    .forEach(genomicContext -> lines.add(genomicContext(genomicContext)));
+        }
+        Collections.sort(lines);
+        return PayloadHasher.hash(lines);
+    }
+
+    private static boolean hasGene(GenomicContext genomicContext) {
+        Gene gene = genomicContext.getGene();
+        return gene != null && gene.getGeneName() != null && !gene.getGeneName().trim().equalsIgnoreCase("undefined");
+    }
+
+    // Gene ids of the contexts per source and gene name
+    private static Map<String, Set<String>> geneIds(Collection<GenomicContext> genomicContexts) {
+        Map<String, Set<String>> geneIds = new HashMap<>();
+        if (genomicContexts != null) {
+            genomicContexts.stream().filter(MappingFingerprint::hasGene).forEach(genomicContext -> {
+                Gene gene = genomicContext.getGene();
+                String key = trim(genomicContext.getSource()).toUpperCase(Locale.ROOT) + "|" + trim(gene.getGeneName());
+                Set<String> ids = geneIds.computeIfAbsent(key, k -> new HashSet<>());
+                // NCBI contexts are stored with Entrez ids, the others with Ensembl ids; ids a mapping did not find are not stored
+                if (NCBI_SOURCE.equalsIgnoreCase(trim(genomicContext.getSource()))) {
+                    if (gene.getEntrezGeneIds() != null) {
+                        gene.getEntrezGeneIds().stream().map(EntrezGene::getEntrezGeneId).filter(Objects::nonNull)
+                                .forEach(id -> ids.add(id.trim()));
+                    }
+                } else if (gene.getEnsemblGeneIds() != null) {
+                    gene.getEnsemblGeneIds().stream().map(EnsemblGene::getEnsemblGeneId).filter(Objects::nonNull)
+                            .forEach(id -> ids.add(id.trim()));
+                }
+            });
+        }
+        return geneIds;
+    }
+
+    private static String genomicContext(GenomicContext genomicContext) {
+        Gene gene = genomicContext.getGene();
+        return String.join("|", "context",
+                           trim(genomicContext.getSource()),
+                           trim(genomicContext.getMappingMethod()),
+                           trim(gene.getGeneName()),
+                           flag(genomicContext.getIsIntergenic()),
+                           flag(genomicContext.getIsUpstream()),
+                           flag(genomicContext.getIsDownstream()),
+                           flag(genomicContext.getIsClosestGene()),
+                           String.valueOf(genomicContext.getDistance()),
+                           genomicContext.getLocation() == null ? "" : location(genomicContext.getLocation()));
+    }
+
+    // Chromosome and region names are trimmed when stored
+    private static String location(Location location) {
+        Region region = location.getRegion();
+        return String.join(":", trim(location.getChromosomeName()), String.valueOf(location.getChromosomePosition()),
+                           region == null ? "" : trim(region.getName()));
+    }
+
+    private static String flag(Boolean value) {
+        return Boolean.TRUE.equals(value) ? "1" : "0";
+    }
+
+    private static String trim(String value) {
+        return value == null ? "" : value.trim();
+    }
+}
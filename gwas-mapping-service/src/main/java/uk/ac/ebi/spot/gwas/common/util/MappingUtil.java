@@ -10,8 +10,6 @@ import uk.ac.ebi.spot.gwas.variation.Variant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class MappingUtil {
@@ -31,10 +29,9 @@ public class MappingUtil {
     public static List<String> getAllChromosomesAndPositions(List<Variant> variants) {
         List<String> locations = new ArrayList<>();
         variants.forEach(variant -> locations.addAll(variant.getMappings().stream()
-                                                             .map(mapping -> String.format("%s:%s-%s",
-                                                                                           mapping.getSeqRegionName(),
-                                                                                           mapping.getStart(),
-                                                                                           mapping.getStart()))
+                                                             .map(mapping -> GenomicKey.location(mapping.getSeqRegionName(),
+                                                                                                 mapping.getStart(),
+                                                                                                 mapping.getStart()))
                                                              .collect(Collectors.toList())));
         return locations.stream().map(String::trim).distinct().collect(Collectors.toList());
     }
@@ -55,7 +52,7 @@ public class MappingUtil {
             String chromosome = mapping.getSeqRegionName();
             int position = mapping.getStart();
             int positionUp = ((position - genomicDistance) < 0) ? chromStart : position - genomicDistance;
-            locations.add(String.format("%s:%s-%s", chromosome, positionUp, position));
+            locations.add(GenomicKey.location(chromosome, positionUp, position));
         }));
         return locations.stream().map(String::trim).distinct().collect(Collectors.toList());
     }
@@ -70,22 +67,49 @@ public class MappingUtil {
             if (chrEnd != 0) {
                 int positionDown = position + genomicDistance;
                 positionDown = Math.min(positionDown, chrEnd);
-                locations.add(String.format("%s:%s-%s", chromosome, position, positionDown));
+                locations.add(GenomicKey.location(chromosome, position, positionDown));
             }
         }));
         return locations.stream().map(String::trim).distinct().collect(Collectors.toList());
     }
 
-    // Using regular expression to parse description:
+    // RefSeq uses accessions (NC_000001.11) and UCSC style names (chr1); Ensembl uses 1, X, MT
+    public static String normaliseChromosome(String seqId) {
+        if (seqId.startsWith("chr")) {
+            seqId = seqId.substring(3);
+            return "M".equals(seqId) ? "MT" : seqId;
+        }
+        if (seqId.startsWith("NC_012920")) {
+            return "MT";
+        }
+        if (seqId.startsWith("NC_0000")) {
+            int dot = seqId.indexOf('.');
+            int number = Integer.parseInt(seqId.substring(3, dot < 0 ? seqId.length() : dot));
+            if (number == 23) {
+                return "X";
+            }
+            return number == 24 ? "Y" : String.valueOf(number);
+        }
+        return seqId;
+    }
+
+    // The digits of the first "Acc:<digits>]" in the description, e.g. [Source:NCBI gene (formerly Entrezgene);Acc:1234]
     public static String parseNCBIid( String description, String geneName){
-        Pattern refseqIdPattern = Pattern.compile("Acc:(\\d+)]");
-        Matcher matcher = refseqIdPattern.matcher(description);
-        if (matcher.find()) {
-            return matcher.group(1);
-        } else {
-            log.info("[Warning] NCBI ID for {} Was not found. ", geneName);
-            return "NCBI ID was not found for this gene.";
+        int from = 0;
+        int acc;
+        while ((acc = description.indexOf("Acc:", from)) >= 0) {
+            int start = acc + "Acc:".length();
+            int end = start;
+            while (end < description.length() && description.charAt(end) >= '0' && description.charAt(end) <= '9') {
+                end++;
+            }
+            if (end > start && end < description.length() && description.charAt(end) == ']') {
+                return description.substring(start, end);
+            }
+            from = start;
         }
+        log.info("[Warning] NCBI ID for {} Was not found. ", geneName);
+        return "NCBI ID was not found for this gene.";
     }
 
     public static List<String> removeBlackListedVariants(List<String> snpRsIds){
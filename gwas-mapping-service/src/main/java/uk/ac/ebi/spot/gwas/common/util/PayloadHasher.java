@@ -0,0 +1,65 @@
+package uk.ac.ebi.spot.gwas.common.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 of Ensembl payloads in a normalised JSON form, object fields sorted by name, so that two
+ * payloads hash the same when they hold the same data whatever the order of their fields.
+ */
+public class PayloadHasher {
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private PayloadHasher() {
+        // Hide implicit public constructor
+    }
+
+    public static String hash(Object value) {
+        try {
+            return hash(mapper.valueToTree(value));
+        } catch (IllegalArgumentException e) {
+            return digest(String.valueOf(value));
+        }
+    }
+
+    // Stored payloads which are not JSON, such as truncated errors, are hashed as they are
+    public static String hashJson(String json) {
+        if (json == null) {
+            return digest("");
+        }
+        try {
+            return hash(mapper.readTree(json));
+        } catch (JsonProcessingException e) {
+            return digest(json);
+        }
+    }
+
+    private static String hash(JsonNode node) {
+        try {
+            return digest(mapper.writeValueAsString(mapper.treeToValue(node, Object.class)));
+        } catch (JsonProcessingException e) {
+            return digest(node.toString());
+        }
+    }
+
+    private static String digest(String text) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package uk.ac.ebi.spot.gwas.common.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket shared by every Ensembl request. Callers reserve a token and are told how long to wait
+ * before sending, so nobody blocks a thread while waiting. The bucket holds one second worth of tokens.
+ */
+public class RateLimiter {
+
+    private final double permitsPerSecond;
+    private final long intervalNanos;
+    private double tokens;
+    // In the future while paused
+    private long lastRefill;
+
+    public RateLimiter(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.tokens = permitsPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a token, returns the delay in nanoseconds after which the request may be sent.
+     */
+    public synchronized long reserve() {
+        long now = System.nanoTime();
+        this.refill(now);
+        long wait = Math.max(0, lastRefill - now);
+        if (tokens < 1) {
+            wait += (long) ((1 - tokens) * intervalNanos);
+        }
+        tokens -= 1;
+        return wait;
+    }
+
+    /**
+     * Holds back every request for the given time, used when Ensembl asks us to slow down.
+     * The bucket is emptied so requests resume at the configured rate rather than in a burst.
+     */
+    public synchronized void pause(long delay, TimeUnit unit) {
+        long now = System.nanoTime();
+        long until = now + unit.toNanos(delay);
+        if (until > lastRefill) {
+            this.refill(now);
+            tokens = Math.min(tokens, 0);
+            lastRefill = until;
+        }
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(permitsPerSecond, tokens + (double) (now - lastRefill) / intervalNanos);
+            lastRefill = now;
+        }
+    }
+}
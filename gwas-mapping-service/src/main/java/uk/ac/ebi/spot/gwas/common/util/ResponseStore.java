@@ -0,0 +1,575 @@
+package uk.ac.ebi.spot.gwas.common.util;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import uk.ac.ebi.spot.gwas.exception.FileProcessingException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent map of Ensembl responses for one {@link uk.ac.ebi.spot.gwas.common.constant.DataType}.
+ * <p>
+ * Values are appended to a log file as JSON records (key length, value length, CRC32, key, value)
+ * and located through an open addressing hash table kept in a memory-mapped index file,
+ * so only the entries actually read are ever deserialised. A put appends a record and repoints the slot;
+ * the index header remembers how much of the log it covers and anything after that is replayed on open.
+ * A torn record at the end of the log (crash during an append) is truncated away.
+ * {@link #compact()} rewrites the live records once overwritten ones make up most of the log.
+ * <p>
+ * The index is only trusted when its header was marked clean by a flush after the log was forced. The mark
+ * is cleared, and synced, before the first change after a flush and before a compacted log replaces the old
+ * one, so a crash at any point leaves either a clean index of the log on disk or one which is rebuilt from
+ * the log. Records are checked against their CRC when read.
+ * <p>
+ * {@link #put} returns null rather than the previous value to avoid reading it back.
+ */
+@Slf4j
+public class ResponseStore<V> extends AbstractMap<String, V> implements Closeable {
+
+    private static final int INDEX_MAGIC = 0x47574931;
+    // Header state, the slots of a dirty index may point at records which never reached the log
+    private static final int INDEX_DIRTY = 0;
+    private static final int INDEX_CLEAN = 0x434c4e31;
+    private static final int INDEX_HEADER = 32;
+    private static final int SLOT_SIZE = 12;
+    private static final int RECORD_HEADER = 12;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final double MAX_LOAD = 0.7;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Path logPath;
+    private final Path indexPath;
+    private final JavaType valueType;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel logChannel;
+    private long logLength;
+    private long liveBytes;
+
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+    private boolean clean;
+
+    public ResponseStore(String basePath, JavaType valueType) {
+        this.logPath = Paths.get(basePath + ".log");
+        this.indexPath = Paths.get(basePath + ".idx");
+        this.valueType = valueType;
+        try {
+            Files.createDirectories(logPath.toAbsolutePath().getParent());
+            this.open();
+        } catch (IOException e) {
+            throw new FileProcessingException(String.format("Could not open response store %s: %s", basePath, e.getMessage()));
+        }
+    }
+
+    public static boolean exists(String basePath) {
+        return Files.exists(Paths.get(basePath + ".log"));
+    }
+
+    private void open() throws IOException {
+        logChannel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logLength = logChannel.size();
+
+        long indexedLength = this.openIndex();
+        long validLength = this.replay(indexedLength);
+        if (validLength < logLength) {
+            log.warn("Truncating {} from {} to {} bytes after an incomplete write", logPath, logLength, validLength);
+            logChannel.truncate(validLength);
+            logLength = validLength;
+            // Slots may point past the truncated tail, rebuild them from the surviving records
+            this.resetIndex(INITIAL_CAPACITY);
+            this.replay(0);
+        }
+        this.markClean();
+        log.info("Opened response store {} with {} entries", logPath, count);
+    }
+
+    // Returns how much of the log the existing index already covers, 0 when it has to be rebuilt
+    private long openIndex() throws IOException {
+        if (Files.exists(indexPath) && Files.size(indexPath) >= INDEX_HEADER) {
+            try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, INDEX_HEADER);
+                int storedCapacity = header.getInt(4);
+                long indexedLength = header.getLong(16);
+                boolean valid = header.getInt(0) == INDEX_MAGIC
+                        && header.getInt(12) == INDEX_CLEAN
+                        && Integer.bitCount(storedCapacity) == 1
+                        && channel.size() == INDEX_HEADER + (long) storedCapacity * SLOT_SIZE
+                        && indexedLength <= logLength;
+                if (valid) {
+                    capacity = storedCapacity;
+                    index = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) capacity * SLOT_SIZE);
+                    count = index.getInt(8);
+                    liveBytes = index.getLong(24);
+                    clean = true;
+                    return indexedLength;
+                }
+            }
+            log.warn("Index {} does not match {} or was not closed cleanly, rebuilding it", indexPath, logPath);
+        }
+        this.resetIndex(INITIAL_CAPACITY);
+        return 0;
+    }
+
+    private void resetIndex(int newCapacity) throws IOException {
+        Files.deleteIfExists(indexPath);
+        index = this.mapIndex(indexPath, newCapacity);
+        capacity = newCapacity;
+        count = 0;
+        liveBytes = 0;
+        clean = false;
+    }
+
+    private MappedByteBuffer mapIndex(Path path, int slots) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) slots * SLOT_SIZE);
+            buffer.putInt(0, INDEX_MAGIC);
+            buffer.putInt(4, slots);
+            return buffer;
+        }
+    }
+
+    // Indexes every complete record from the given offset and returns the end of the last one
+    private long replay(long from) throws IOException {
+        long position = from;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        while (position + RECORD_HEADER <= logLength) {
+            header.clear();
+            this.readFully(header, position);
+            int keyLength = header.getInt(0);
+            int valueLength = header.getInt(4);
+            long recordLength = RECORD_HEADER + (long) keyLength + valueLength;
+            if (keyLength <= 0 || valueLength < 0 || position + recordLength > logLength) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(keyLength + valueLength);
+            this.readFully(body, position + RECORD_HEADER);
+            CRC32 crc = new CRC32();
+            crc.update(body.array());
+            if ((int) crc.getValue() != header.getInt(8)) {
+                break;
+            }
+            this.index(new String(body.array(), 0, keyLength, StandardCharsets.UTF_8), position, recordLength);
+            position += recordLength;
+        }
+        return position;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            int slot = this.findSlot((String) key);
+            if (slot < 0) {
+                return null;
+            }
+            byte[] body;
+            try {
+                body = this.readRecord(this.slotOffset(slot));
+            } catch (IOException e) {
+                // As good as missing, the caller fetches it again
+                log.warn("Ignoring record of {}: {}", key, e.getMessage());
+                return null;
+            }
+            int keyLength = ((String) key).getBytes(StandardCharsets.UTF_8).length;
+            return mapper.readValue(body, keyLength, body.length - keyLength, valueType);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof String)) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            return this.findSlot((String) key) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public V put(String key, V value) {
+        try {
+            this.putRaw(key, mapper.writeValueAsBytes(value));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return null;
+    }
+
+    /**
+     * Appends the value unless the store already holds the same JSON for the key, returns whether it did.
+     */
+    public boolean putIfChanged(String key, V value) {
+        byte[] json;
+        try {
+            json = mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        lock.readLock().lock();
+        try {
+            int slot = this.findSlot(key);
+            if (slot >= 0) {
+                byte[] body = this.readRecord(this.slotOffset(slot));
+                int keyLength = key.getBytes(StandardCharsets.UTF_8).length;
+                if (Arrays.equals(json, Arrays.copyOfRange(body, keyLength, body.length))) {
+                    return false;
+                }
+            }
+        } catch (IOException e) {
+            // Unreadable record, replaced below
+            log.warn("Replacing unreadable record of {} in {}: {}", key, logPath, e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+        this.putRaw(key, json);
+        return true;
+    }
+
+    /**
+     * Appends an already serialised JSON value, used when importing the legacy cache files.
+     */
+    public void putRaw(String key, byte[] json) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + keyBytes.length + json.length);
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        crc.update(json);
+        record.putInt(keyBytes.length).putInt(json.length).putInt((int) crc.getValue()).put(keyBytes).put(json);
+        record.flip();
+
+        lock.writeLock().lock();
+        try {
+            long position = logLength;
+            while (record.hasRemaining()) {
+                logChannel.write(record, position + record.position());
+            }
+            logLength += record.limit();
+            this.index(key, position, record.limit());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Makes the appended records and the index durable, compacting the log first when most of it is dead.
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            if (logLength > (1 << 20) && liveBytes < logLength / 2) {
+                this.compactLocked();
+            }
+            this.markClean();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            this.compactLocked();
+            this.markClean();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.flush();
+        try {
+            logChannel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                // Records are read in log order, the values are only deserialised when the entry is consumed
+                long[] offsets = ResponseStore.this.liveOffsets();
+                return new Iterator<Entry<String, V>>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < offsets.length;
+                    }
+
+                    @Override
+                    public Entry<String, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return ResponseStore.this.readEntry(offsets[next++]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ResponseStore.this.size();
+            }
+        };
+    }
+
+    private void compactLocked() throws IOException {
+        long[] offsets = this.liveOffsetsLocked();
+        Path compactLog = Paths.get(logPath + ".compact");
+        long before = logLength;
+        try (FileChannel target = FileChannel.open(compactLog, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            for (long offset : offsets) {
+                ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+                this.readFully(header, offset);
+                long recordLength = RECORD_HEADER + (long) header.getInt(0) + header.getInt(4);
+                long copied = 0;
+                while (copied < recordLength) {
+                    copied += logChannel.transferTo(offset + copied, recordLength - copied, target);
+                }
+            }
+            target.force(true);
+        }
+        // The slots point into the old log, a crash after the move must not find them trusted
+        this.markDirty();
+        logChannel.close();
+        Files.move(compactLog, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logChannel = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logLength = logChannel.size();
+        this.resetIndex(capacity);
+        this.replay(0);
+        log.info("Compacted {} from {} to {} bytes", logPath, before, logLength);
+    }
+
+    private long[] liveOffsets() {
+        lock.readLock().lock();
+        try {
+            return this.liveOffsetsLocked();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long[] liveOffsetsLocked() {
+        long[] offsets = new long[count];
+        int n = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            long offset = index.getLong(INDEX_HEADER + slot * SLOT_SIZE);
+            if (offset != 0) {
+                offsets[n++] = offset - 1;
+            }
+        }
+        Arrays.sort(offsets, 0, n);
+        return n == offsets.length ? offsets : Arrays.copyOf(offsets, n);
+    }
+
+    private Entry<String, V> readEntry(long offset) {
+        lock.readLock().lock();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            this.readFully(header, offset);
+            int keyLength = header.getInt(0);
+            byte[] body = this.readRecord(offset);
+            String key = new String(body, 0, keyLength, StandardCharsets.UTF_8);
+            V value = mapper.readValue(body, keyLength, body.length - keyLength, valueType);
+            return new SimpleImmutableEntry<>(key, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Key and value bytes of the record, checked against its CRC
+    private byte[] readRecord(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        this.readFully(header, offset);
+        int keyLength = header.getInt(0);
+        int valueLength = header.getInt(4);
+        if (keyLength <= 0 || valueLength < 0 || offset + RECORD_HEADER + (long) keyLength + valueLength > logLength) {
+            throw new IOException(String.format("Bad record header at %d of %s", offset, logPath));
+        }
+        byte[] body = new byte[keyLength + valueLength];
+        this.readFully(ByteBuffer.wrap(body), offset + RECORD_HEADER);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != header.getInt(8)) {
+            throw new IOException(String.format("CRC mismatch of the record at %d of %s", offset, logPath));
+        }
+        return body;
+    }
+
+    private String readKey(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        this.readFully(header, offset);
+        ByteBuffer key = ByteBuffer.allocate(header.getInt(0));
+        this.readFully(key, offset + RECORD_HEADER);
+        return new String(key.array(), StandardCharsets.UTF_8);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (logChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + logPath);
+            }
+        }
+    }
+
+    private void index(String key, long offset, long recordLength) throws IOException {
+        this.markDirty();
+        int slot = this.findSlot(key);
+        if (slot >= 0) {
+            liveBytes -= this.recordLength(this.slotOffset(slot));
+        } else {
+            if (count + 1 > capacity * MAX_LOAD) {
+                this.grow();
+            }
+            slot = this.emptySlot(hash(key));
+            count++;
+        }
+        index.putLong(INDEX_HEADER + slot * SLOT_SIZE, offset + 1);
+        index.putInt(INDEX_HEADER + slot * SLOT_SIZE + 8, hash(key));
+        liveBytes += recordLength;
+    }
+
+    private long recordLength(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        this.readFully(header, offset);
+        return RECORD_HEADER + (long) header.getInt(0) + header.getInt(4);
+    }
+
+    private int findSlot(String key) {
+        int hash = hash(key);
+        int mask = capacity - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long offset = index.getLong(INDEX_HEADER + slot * SLOT_SIZE);
+            if (offset == 0) {
+                return -1;
+            }
+            if (index.getInt(INDEX_HEADER + slot * SLOT_SIZE + 8) == hash) {
+                try {
+                    if (key.equals(this.readKey(offset - 1))) {
+                        return slot;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    private int emptySlot(int hash) {
+        int mask = capacity - 1;
+        int slot = hash & mask;
+        while (index.getLong(INDEX_HEADER + slot * SLOT_SIZE) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private long slotOffset(int slot) {
+        return index.getLong(INDEX_HEADER + slot * SLOT_SIZE) - 1;
+    }
+
+    private void grow() throws IOException {
+        int newCapacity = capacity << 1;
+        Path grownPath = Paths.get(indexPath + ".grow");
+        Files.deleteIfExists(grownPath);
+        MappedByteBuffer grown = this.mapIndex(grownPath, newCapacity);
+        int mask = newCapacity - 1;
+        for (int slot = 0; slot < capacity; slot++) {
+            long offset = index.getLong(INDEX_HEADER + slot * SLOT_SIZE);
+            if (offset != 0) {
+                int hash = index.getInt(INDEX_HEADER + slot * SLOT_SIZE + 8);
+                int target = hash & mask;
+                while (grown.getLong(INDEX_HEADER + target * SLOT_SIZE) != 0) {
+                    target = (target + 1) & mask;
+                }
+                grown.putLong(INDEX_HEADER + target * SLOT_SIZE, offset);
+                grown.putInt(INDEX_HEADER + target * SLOT_SIZE + 8, hash);
+            }
+        }
+        Files.move(grownPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index = grown;
+        capacity = newCapacity;
+    }
+
+    // Log first, so a clean index never covers records the log may still lose
+    private void markClean() throws IOException {
+        logChannel.force(false);
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, capacity);
+        index.putInt(8, count);
+        index.putLong(16, logLength);
+        index.putLong(24, liveBytes);
+        index.putInt(12, INDEX_CLEAN);
+        index.force();
+        clean = true;
+    }
+
+    // Synced before the slots change, the dirty pages of the index may reach the disk ahead of the log
+    private void markDirty() {
+        if (clean) {
+            index.putInt(12, INDEX_DIRTY);
+            index.force();
+            clean = false;
+        }
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
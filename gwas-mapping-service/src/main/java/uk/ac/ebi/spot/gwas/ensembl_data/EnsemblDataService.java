@@ -6,8 +6,11 @@ import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
 import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfoService;
 import uk.ac.ebi.spot.gwas.common.config.AppConfig;
 import uk.ac.ebi.spot.gwas.common.constant.DataType;
+import uk.ac.ebi.spot.gwas.common.service.RunJournal;
 import uk.ac.ebi.spot.gwas.mapping.dto.*;
+import uk.ac.ebi.spot.gwas.common.util.CacheUtil;
 import uk.ac.ebi.spot.gwas.common.util.MappingUtil;
+import uk.ac.ebi.spot.gwas.common.util.PayloadHasher;
 import uk.ac.ebi.spot.gwas.gene_symbol.GeneSymbol;
 import uk.ac.ebi.spot.gwas.gene_symbol.GeneSymbolService;
 import uk.ac.ebi.spot.gwas.overlap_gene.OverlapGene;
@@ -15,6 +18,7 @@ import uk.ac.ebi.spot.gwas.overlap_gene.OverlappingGeneService;
 import uk.ac.ebi.spot.gwas.overlap_region.OverlapRegionService;
 import uk.ac.ebi.spot.gwas.overlap_region.OverlapRegion;
 import uk.ac.ebi.spot.gwas.variation.Variant;
+import uk.ac.ebi.spot.gwas.variation.VariantTable;
 import uk.ac.ebi.spot.gwas.variation.VariationService;
 
 import java.io.IOException;
@@ -22,6 +26,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
@@ -40,9 +46,20 @@ public class EnsemblDataService {
     @Autowired
     private OverlappingGeneService overlappingGeneService;
 
+    @Autowired
+    private RunJournal runJournal;
+
     @Autowired
     private AppConfig config;
 
+    // Journal of the cache run and its stages, the output of each is the response store it fills
+    private static final String CACHE_RUN = "cache-ensembl-data";
+    private static final String VARIATIONS = "variations";
+    private static final String CYTOGENETIC_BANDS = "cytogenetic_bands";
+    private static final String ASSEMBLY_INFO = "assembly_info";
+    private static final String ENSEMBL_GENES = "ensembl_genes";
+    private static final String NCBI_GENES = "ncbi_genes";
+
     private static final Integer API_BATCH_SIZE = 200;
     private static final Integer DB_BATCH_SIZE = 1000;
     private static final Integer THREAD_SIZE = 15;
@@ -53,11 +70,23 @@ public class EnsemblDataService {
 
         Path path = Paths.get(config.getCacheDir());
         Files.createDirectories(path);
+        // Stages of a run over other rsIDs or genes do not cover these, their journal is discarded
+        RunJournal.Run run = runJournal.open(CACHE_RUN, this.inputHash(snpRsIds, reportedGenes));
 
+        // Not journaled, symbols answered by the local index are not kept in the store
         Map<String, GeneSymbol> reportedGeneMap = geneSymbolService.getReportedGenes(THREAD_SIZE, API_BATCH_SIZE, reportedGenes);
 
-        Map<String, Variant> variantMap = variationService.getVariation(THREAD_SIZE, API_BATCH_SIZE, snpRsIds);
-        variantMap = variationService.getVariationsWhoseRsidHasChanged(variantMap, snpRsIds);
+        // Stages finished before a restart are read back from their stores rather than checked key by key
+        Map<String, Variant> variantMap;
+        if (run.isDone(VARIATIONS)) {
+            variantMap = variationService.getStoredVariation(snpRsIds);
+        } else {
+            variantMap = variationService.getVariation(THREAD_SIZE, API_BATCH_SIZE, snpRsIds);
+            variantMap = variationService.getVariationsWhoseRsidHasChanged(variantMap, snpRsIds);
+            run.done(VARIATIONS);
+        }
+        // Only the variants of this run, held in columns rather than read back from the store on every lookup
+        variantMap = VariantTable.copyOf(variantMap, snpRsIds);
 
         List<Variant> variants = new ArrayList<>();
         variantMap.forEach((k, v) -> {
@@ -68,26 +97,47 @@ public class EnsemblDataService {
 
         // Get CytoGenetic Bands
         List<String> locations = MappingUtil.getAllChromosomesAndPositions(variants);
-        Map<String, List<OverlapRegion>> cytoGeneticBand = overlapRegionService.getCytoGeneticBands(DataType.CYTOGENETIC_BAND, locations);
+        Map<String, List<OverlapRegion>> cytoGeneticBand;
+        if (run.isDone(CYTOGENETIC_BANDS)) {
+            cytoGeneticBand = CacheUtil.cytoGeneticBand(DataType.CYTOGENETIC_BAND, config.getCacheDir());
+        } else {
+            cytoGeneticBand = overlapRegionService.getCytoGeneticBands(DataType.CYTOGENETIC_BAND, locations);
+            run.done(CYTOGENETIC_BANDS);
+        }
 
         // Get Chromosome End
-        List<String> chromosomes = MappingUtil.getAllChromosomes(variants);
-        Map<String, AssemblyInfo> assemblyInfos = assemblyInfoService.getAssemblyInfo(DataType.ASSEMBLY_INFO, chromosomes);
-
-        // Get Overlapping genes
-        Map<String, List<OverlapGene>> ensemblOverlappingGenes = overlappingGeneService.getOverlappingGenes(DataType.ENSEMBL_OVERLAP_GENES, config.getEnsemblSource(), locations);
-        Map<String, List<OverlapGene>> ncbiOverlappingGenes = overlappingGeneService.getOverlappingGenes(DataType.NCBI_OVERLAP_GENES, config.getNcbiSource(), locations);
-
-        // Get Upstream Genes
+        Map<String, AssemblyInfo> assemblyInfos;
+        if (run.isDone(ASSEMBLY_INFO)) {
+            assemblyInfos = CacheUtil.assemblyInfo(DataType.ASSEMBLY_INFO, config.getCacheDir());
+        } else {
+            List<String> chromosomes = MappingUtil.getAllChromosomes(variants);
+            assemblyInfos = assemblyInfoService.getAssemblyInfo(DataType.ASSEMBLY_INFO, chromosomes);
+            run.done(ASSEMBLY_INFO);
+        }
+
+        // Get Overlapping, Upstream and Downstream genes, windows of neighbouring SNPs are fetched together
         List<String> upstreamLocations = MappingUtil.getUpstreamLocations(variants, config.getGenomicDistance());
-        ensemblOverlappingGenes.putAll(overlappingGeneService.getOverlappingGenes(DataType.ENSEMBL_UPSTREAM_GENES, config.getEnsemblSource(), upstreamLocations));
-        ncbiOverlappingGenes.putAll(overlappingGeneService.getOverlappingGenes(DataType.NCBI_UPSTREAM_GENES, config.getNcbiSource(), upstreamLocations));
-
-        // Get Downstream Genes
         List<String> downStreamLocations = MappingUtil.getDownstreamLocations(variants, assemblyInfos, config.getGenomicDistance());
-        ensemblOverlappingGenes.putAll(overlappingGeneService.getOverlappingGenes(DataType.ENSEMBL_DOWNSTREAM_GENES, config.getEnsemblSource(), downStreamLocations));
-        ncbiOverlappingGenes.putAll(overlappingGeneService.getOverlappingGenes(DataType.NCBI_DOWNSTREAM_GENES, config.getNcbiSource(), downStreamLocations));
 
+        Map<DataType, List<String>> ensemblLocations = new EnumMap<>(DataType.class);
+        ensemblLocations.put(DataType.ENSEMBL_OVERLAP_GENES, locations);
+        ensemblLocations.put(DataType.ENSEMBL_UPSTREAM_GENES, upstreamLocations);
+        ensemblLocations.put(DataType.ENSEMBL_DOWNSTREAM_GENES, downStreamLocations);
+        Map<DataType, Map<String, List<OverlapGene>>> ensemblGenes = this.getOverlappingGenes(run, ENSEMBL_GENES, config.getEnsemblSource(), ensemblLocations);
+
+        Map<DataType, List<String>> ncbiLocations = new EnumMap<>(DataType.class);
+        ncbiLocations.put(DataType.NCBI_OVERLAP_GENES, locations);
+        ncbiLocations.put(DataType.NCBI_UPSTREAM_GENES, upstreamLocations);
+        ncbiLocations.put(DataType.NCBI_DOWNSTREAM_GENES, downStreamLocations);
+        Map<DataType, Map<String, List<OverlapGene>>> ncbiGenes = this.getOverlappingGenes(run, NCBI_GENES, config.getNcbiSource(), ncbiLocations);
+
+        // Views over the stores, merging them would copy every response into the overlap store
+        Map<String, List<OverlapGene>> ensemblOverlappingGenes = CacheUtil.union(ensemblGenes.get(DataType.ENSEMBL_OVERLAP_GENES),
+                ensemblGenes.get(DataType.ENSEMBL_UPSTREAM_GENES), ensemblGenes.get(DataType.ENSEMBL_DOWNSTREAM_GENES));
+        Map<String, List<OverlapGene>> ncbiOverlappingGenes = CacheUtil.union(ncbiGenes.get(DataType.NCBI_OVERLAP_GENES),
+                ncbiGenes.get(DataType.NCBI_UPSTREAM_GENES), ncbiGenes.get(DataType.NCBI_DOWNSTREAM_GENES));
+
+        run.finish();
         return EnsemblData.builder()
                 .variations(variantMap)
                 .reportedGenes(reportedGeneMap)
@@ -98,4 +148,24 @@ public class EnsemblDataService {
                 .build();
     }
 
+    private String inputHash(List<String> snpRsIds, List<String> reportedGenes) {
+        List<String> input = new ArrayList<>();
+        snpRsIds.forEach(snpRsId -> input.add("snp|" + snpRsId.trim()));
+        reportedGenes.forEach(gene -> input.add("gene|" + gene.trim()));
+        Collections.sort(input);
+        return PayloadHasher.hash(input);
+    }
+
+    private Map<DataType, Map<String, List<OverlapGene>>> getOverlappingGenes(RunJournal.Run run, String stage, String source,
+                                                                             Map<DataType, List<String>> locationsByType) {
+        if (!run.isDone(stage)) {
+            Map<DataType, Map<String, List<OverlapGene>>> genes = overlappingGeneService.getOverlappingGenes(source, locationsByType);
+            run.done(stage);
+            return genes;
+        }
+        Map<DataType, Map<String, List<OverlapGene>>> genes = new EnumMap<>(DataType.class);
+        locationsByType.keySet().forEach(dataType -> genes.put(dataType, CacheUtil.overlappingGenes(dataType, config.getCacheDir())));
+        return genes;
+    }
+
 }
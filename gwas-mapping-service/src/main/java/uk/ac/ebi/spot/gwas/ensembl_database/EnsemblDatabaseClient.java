@@ -0,0 +1,180 @@
+package uk.ac.ebi.spot.gwas.ensembl_database;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.constant.Uri;
+import uk.ac.ebi.spot.gwas.exception.EnsemblRestClientException;
+import uk.ac.ebi.spot.gwas.gene_symbol.GeneSymbol;
+import uk.ac.ebi.spot.gwas.variation.Variant;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Answers the Ensembl REST requests of the mapping from the Ensembl databases, with the same
+ * {@link uk.ac.ebi.spot.gwas.common.service.EnsemblClient} contract: the JSON body and status the REST API
+ * would have given, so the responses are parsed and recorded in the history exactly like REST ones.
+ * Requests run on a pool as large as the connection pool instead of being paced.
+ */
+@Slf4j
+@Service
+public class EnsemblDatabaseClient {
+
+    private static final String VARIATION = "/" + Uri.VARIATION;
+    private static final String SYMBOL = "/" + Uri.REPORTED_GENES;
+    private static final String OVERLAP = "/" + Uri.OVERLAP_BAND_REGION;
+    private static final String ASSEMBLY = "/" + Uri.INFO_ASSEMBLY;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AppConfig config;
+    private final EnsemblDatabaseService databaseService;
+    private final ExecutorService executor;
+
+    public EnsemblDatabaseClient(AppConfig config, EnsemblDatabaseService databaseService) {
+        this.config = config;
+        this.databaseService = databaseService;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(config.getEnsemblDbPoolSize(), runnable -> {
+            Thread thread = new Thread(runnable, "EnsemblDatabase-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<ResponseEntity<String>> get(String uri) {
+        return this.execute(uri, () -> this.answerGet(uri));
+    }
+
+    public CompletableFuture<ResponseEntity<String>> post(String uri, String json) {
+        return this.execute(uri, () -> this.answerPost(uri, json));
+    }
+
+    private CompletableFuture<ResponseEntity<String>> execute(String uri, Supplier<ResponseEntity<String>> answer) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return answer.get();
+            } catch (RuntimeException e) {
+                throw new EnsemblRestClientException(String.format("Could not read %s from the Ensembl databases", uri), e);
+            }
+        }, executor);
+    }
+
+    private ResponseEntity<String> answerGet(String uri) {
+        String path = this.path(uri);
+        Map<String, String> query = query(uri);
+        if (path.startsWith(VARIATION + "/")) {
+            String rsId = last(path);
+            Variant variant = databaseService.getVariations(Collections.singletonList(rsId)).get(rsId);
+            return this.okOrError(variant, String.format("%s not found for homo_sapiens", rsId));
+        }
+        if (path.startsWith(SYMBOL + "/")) {
+            String symbol = last(path);
+            GeneSymbol geneSymbol = databaseService.getGeneSymbols(Collections.singletonList(symbol)).get(symbol);
+            return this.okOrError(geneSymbol, String.format("No valid lookup found for symbol %s", symbol));
+        }
+        if (path.startsWith(OVERLAP + "/")) {
+            String location = last(path);
+            String seqRegionName = location.substring(0, location.indexOf(':'));
+            String[] range = location.substring(location.indexOf(':') + 1).split("-");
+            int start = Integer.parseInt(range[0]);
+            int end = Integer.parseInt(range[1]);
+            if ("band".equals(query.get("feature"))) {
+                return this.ok(databaseService.getOverlapBands(seqRegionName, start, end));
+            }
+            return this.ok(databaseService.getOverlapGenes(seqRegionName, start, end, query.get("logic_name"), query.get("db_type")));
+        }
+        if (path.startsWith(ASSEMBLY + "/")) {
+            String seqRegionName = last(path);
+            AssemblyInfo assemblyInfo = databaseService.getAssemblyInfo(seqRegionName, "1".equals(query.get("bands")));
+            return this.okOrError(assemblyInfo, String.format("Cannot find a SeqRegion for type 'toplevel' and name '%s'", seqRegionName));
+        }
+        return this.error(HttpStatus.NOT_FOUND, String.format("%s is not served from the Ensembl databases", uri));
+    }
+
+    // Like the REST API, ids which are not found are left out of the response
+    private ResponseEntity<String> answerPost(String uri, String json) {
+        String path = this.path(uri);
+        JsonNode request;
+        try {
+            request = mapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            return this.error(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        if (path.equals(VARIATION)) {
+            return this.ok(databaseService.getVariations(values(request.path("ids"))));
+        }
+        if (path.equals(SYMBOL)) {
+            return this.ok(databaseService.getGeneSymbols(values(request.path("symbols"))));
+        }
+        return this.error(HttpStatus.NOT_FOUND, String.format("%s is not served from the Ensembl databases", uri));
+    }
+
+    private String path(String uri) {
+        String path = uri.startsWith(config.getServer()) ? uri.substring(config.getServer().length()) : uri;
+        int queryStart = path.indexOf('?');
+        path = queryStart < 0 ? path : path.substring(0, queryStart);
+        return path.startsWith("/") ? path : "/" + path;
+    }
+
+    private ResponseEntity<String> okOrError(Object body, String error) {
+        return body == null ? this.error(HttpStatus.BAD_REQUEST, error) : this.ok(body);
+    }
+
+    private ResponseEntity<String> ok(Object body) {
+        try {
+            return new ResponseEntity<>(mapper.writeValueAsString(body), HttpStatus.OK);
+        } catch (JsonProcessingException e) {
+            throw new EnsemblRestClientException(e.getMessage(), e);
+        }
+    }
+
+    private ResponseEntity<String> error(HttpStatus status, String error) {
+        try {
+            return new ResponseEntity<>(mapper.writeValueAsString(Collections.singletonMap("error", error)), status);
+        } catch (JsonProcessingException e) {
+            throw new EnsemblRestClientException(e.getMessage(), e);
+        }
+    }
+
+    private static String last(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static Map<String, String> query(String uri) {
+        Map<String, String> query = new HashMap<>();
+        int queryStart = uri.indexOf('?');
+        if (queryStart < 0) {
+            return query;
+        }
+        for (String param : uri.substring(queryStart + 1).split("[&;]")) {
+            int separator = param.indexOf('=');
+            if (separator > 0) {
+                query.put(param.substring(0, separator), param.substring(separator + 1));
+            }
+        }
+        return query;
+    }
+
+    private static List<String> values(JsonNode array) {
+        List<String> values = new ArrayList<>();
+        array.forEach(value -> values.add(value.asText().trim()));
+        return values;
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+}
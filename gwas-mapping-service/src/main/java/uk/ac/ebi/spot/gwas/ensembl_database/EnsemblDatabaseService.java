@@ -0,0 +1,479 @@
+package uk.ac.ebi.spot.gwas.ensembl_database;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.ListUtils;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.gene_symbol.GeneSymbol;
+import uk.ac.ebi.spot.gwas.mapping.dto.Mapping;
+import uk.ac.ebi.spot.gwas.overlap_gene.OverlapGene;
+import uk.ac.ebi.spot.gwas.overlap_region.OverlapRegion;
+import uk.ac.ebi.spot.gwas.variation.Consequences;
+import uk.ac.ebi.spot.gwas.variation.Variant;
+
+import javax.annotation.PreDestroy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Reads what the mapping needs straight from the Ensembl core, otherfeatures and variation databases
+ * of ensembl.datasource and returns it as the Ensembl REST API does, so the rest of the mapping cannot
+ * tell the two apart. Variations and symbols are fetched a batch at a time with IN queries, overlaps
+ * with one range query per window. The pool is only opened by the first query, a REST run never
+ * connects to the database.
+ */
+@Slf4j
+@Service
+public class EnsemblDatabaseService {
+
+    private static final int IN_LIST_SIZE = 1000;
+    private static final String SPECIES = "homo_sapiens";
+    private static final String CORE_DB_TYPE = "core";
+    private static final String OTHERFEATURES_DB_TYPE = "otherfeatures";
+
+    private static final Map<String, String> AMBIGUITY_CODES = new HashMap<>();
+
+    static {
+        String[][] codes = {{"AG", "R"}, {"CT", "Y"}, {"AC", "M"}, {"GT", "K"}, {"CG", "S"}, {"AT", "W"},
+                {"CGT", "B"}, {"AGT", "D"}, {"ACT", "H"}, {"ACG", "V"}, {"ACGT", "N"}};
+        for (String[] code : codes) {
+            AMBIGUITY_CODES.put(code[0], code[1]);
+        }
+    }
+
+    private final AppConfig config;
+    private final Map<String, Map<String, SeqRegion>> seqRegions = new ConcurrentHashMap<>();
+    private final Map<String, Integer> maxGeneLengths = new ConcurrentHashMap<>();
+    private volatile Map<Integer, String> variationAttribs;
+    private HikariDataSource dataSource;
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    public EnsemblDatabaseService(AppConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Variations of the rsIDs, by the rsID asked for. Merged rsIDs are found through their synonyms
+     * and come back under their current name, rsIDs Ensembl does not know are left out.
+     */
+    public Map<String, Variant> getVariations(Collection<String> rsIds) {
+        Map<String, Long> variationIds = new LinkedHashMap<>();
+        String byName = String.format("SELECT v.variation_id, v.name FROM %s.variation v WHERE v.name IN (:values)", variation());
+        String bySynonym = String.format("SELECT vs.variation_id, vs.name FROM %s.variation_synonym vs WHERE vs.name IN (:values) " +
+                                         "ORDER BY vs.variation_synonym_id", variation());
+        this.queryIn(byName, rsIds, rs -> variationIds.putIfAbsent(rs.getString("name"), rs.getLong("variation_id")));
+        List<String> merged = rsIds.stream().filter(rsId -> !variationIds.containsKey(rsId)).collect(Collectors.toList());
+        if (!merged.isEmpty()) {
+            this.queryIn(bySynonym, merged, rs -> variationIds.putIfAbsent(rs.getString("name"), rs.getLong("variation_id")));
+        }
+        if (variationIds.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        Map<Long, Variant> variants = new HashMap<>();
+        Map<Long, String> evidence = new HashMap<>();
+        Map<Long, List<String>> consequences = new HashMap<>();
+        Set<Long> ids = new HashSet<>(variationIds.values());
+        this.queryIn(String.format("SELECT v.variation_id, v.name, s.description AS source, v.class_attrib_id, v.minor_allele, " +
+                                   "v.minor_allele_freq, v.evidence_attribs FROM %1$s.variation v " +
+                                   "JOIN %1$s.source s ON s.source_id = v.source_id WHERE v.variation_id IN (:values)", variation()),
+                     ids, rs -> {
+                    Variant variant = new Variant();
+                    variant.setName(rs.getString("name"));
+                    variant.setSource(rs.getString("source"));
+                    variant.setVarClass(this.variationAttribs().get(rs.getInt("class_attrib_id")));
+                    variant.setMinorAllele(rs.getString("minor_allele"));
+                    variant.setMaf(decimal(rs.getObject("minor_allele_freq")));
+                    variant.setMappings(new ArrayList<>());
+                    variants.put(rs.getLong("variation_id"), variant);
+                    evidence.put(rs.getLong("variation_id"), rs.getString("evidence_attribs"));
+                });
+        this.queryIn(String.format("SELECT vf.variation_id, sr.name AS seq_region_name, cs.name AS coord_system, cs.version AS assembly_name, " +
+                                   "vf.seq_region_start, vf.seq_region_end, vf.seq_region_strand, vf.allele_string, vf.ancestral_allele, " +
+                                   "vf.consequence_types FROM %1$s.variation_feature vf " +
+                                   "JOIN %1$s.seq_region sr ON sr.seq_region_id = vf.seq_region_id " +
+                                   "JOIN %1$s.coord_system cs ON cs.coord_system_id = sr.coord_system_id " +
+                                   "WHERE vf.variation_id IN (:values) ORDER BY vf.variation_feature_id", variation()),
+                     ids, rs -> {
+                    Mapping mapping = new Mapping();
+                    mapping.setSeqRegionName(rs.getString("seq_region_name"));
+                    mapping.setCoordSystem(rs.getString("coord_system"));
+                    mapping.setAssemblyName(rs.getString("assembly_name"));
+                    mapping.setStart(rs.getInt("seq_region_start"));
+                    mapping.setEnd(rs.getInt("seq_region_end"));
+                    mapping.setStrand(rs.getInt("seq_region_strand"));
+                    mapping.setAlleleString(rs.getString("allele_string"));
+                    mapping.setAncestralAllele(rs.getString("ancestral_allele"));
+                    mapping.setLocation(String.format("%s:%s-%s", mapping.getSeqRegionName(), mapping.getStart(), mapping.getEnd()));
+                    variants.get(rs.getLong("variation_id")).getMappings().add(mapping);
+                    consequences.computeIfAbsent(rs.getLong("variation_id"), k -> new ArrayList<>()).add(rs.getString("consequence_types"));
+                });
+        this.queryIn(String.format("SELECT vs.variation_id, vs.name FROM %s.variation_synonym vs WHERE vs.variation_id IN (:values) " +
+                                   "ORDER BY vs.variation_synonym_id", variation()),
+                     ids, rs -> {
+                    Variant variant = variants.get(rs.getLong("variation_id"));
+                    if (variant.getSynonyms() == null) {
+                        variant.setSynonyms(new ArrayList<>());
+                    }
+                    if (!variant.getSynonyms().contains(rs.getString("name"))) {
+                        variant.getSynonyms().add(rs.getString("name"));
+                    }
+                });
+        this.queryIn(String.format("SELECT fv.variation_id, fd.description FROM %1$s.failed_variation fv " +
+                                   "JOIN %1$s.failed_description fd ON fd.failed_description_id = fv.failed_description_id " +
+                                   "WHERE fv.variation_id IN (:values) ORDER BY fv.failed_variation_id", variation()),
+                     ids, rs -> {
+                    Variant variant = variants.get(rs.getLong("variation_id"));
+                    variant.setFailed(variant.getFailed() == null ? rs.getString("description")
+                                              : String.format("%s;%s", variant.getFailed(), rs.getString("description")));
+                });
+
+        variants.forEach((id, variant) -> {
+            variant.setEvidence(this.evidence(evidence.get(id)));
+            variant.setMostSevereConsequence(mostSevere(consequences.get(id)));
+            if (!variant.getMappings().isEmpty()) {
+                variant.setAmbiguity(ambiguity(variant.getMappings().get(0).getAlleleString()));
+            }
+            if (variant.getSynonyms() == null) {
+                variant.setSynonyms(new ArrayList<>());
+            }
+        });
+        Map<String, Variant> found = new HashMap<>();
+        variationIds.forEach((rsId, id) -> found.put(rsId, variants.get(id)));
+        return found;
+    }
+
+    /**
+     * Genes of the core database named by the symbols, by the symbol asked for. Display names are
+     * matched first, then the other names and synonyms of the genes, genes of the reference assembly
+     * are preferred over those of patches and haplotypes.
+     */
+    public Map<String, GeneSymbol> getGeneSymbols(Collection<String> symbols) {
+        // MySQL compares names regardless of case, like the REST lookup
+        Map<String, String> requested = new HashMap<>();
+        symbols.forEach(symbol -> requested.put(symbol.toUpperCase(Locale.ROOT), symbol));
+        Map<String, GeneSymbol> found = new HashMap<>();
+        String select = "SELECT %2$s AS symbol, g.stable_id, g.version, g.biotype, g.source, g.description, g.seq_region_start, " +
+                "g.seq_region_end, g.seq_region_strand, sr.name AS seq_region_name, cs.version AS assembly_name, a.logic_name, " +
+                "dx.display_label FROM %3$s " +
+                "JOIN %1$s.seq_region sr ON sr.seq_region_id = g.seq_region_id " +
+                "JOIN %1$s.coord_system cs ON cs.coord_system_id = sr.coord_system_id " +
+                "JOIN %1$s.analysis a ON a.analysis_id = g.analysis_id " +
+                "LEFT JOIN %1$s.xref dx ON dx.xref_id = g.display_xref_id " +
+                "WHERE %2$s IN (:values) AND g.is_current = 1 " +
+                "ORDER BY " + nonReference(core(), "g.seq_region_id") + ", g.gene_id";
+        String byDisplayName = String.format(select, core(), "x.display_label",
+                                             String.format("%1$s.xref x JOIN %1$s.gene g ON g.display_xref_id = x.xref_id", core()));
+        String byOtherName = String.format(select, core(), "x.display_label",
+                                           String.format("%1$s.xref x JOIN %1$s.object_xref ox ON ox.xref_id = x.xref_id " +
+                                                         "AND ox.ensembl_object_type = 'Gene' JOIN %1$s.gene g ON g.gene_id = ox.ensembl_id", core()));
+        String bySynonym = String.format(select, core(), "es.synonym",
+                                         String.format("%1$s.external_synonym es JOIN %1$s.object_xref ox ON ox.xref_id = es.xref_id " +
+                                                       "AND ox.ensembl_object_type = 'Gene' JOIN %1$s.gene g ON g.gene_id = ox.ensembl_id", core()));
+        for (String sql : Arrays.asList(byDisplayName, byOtherName, bySynonym)) {
+            List<String> missing = requested.entrySet().stream().filter(entry -> !found.containsKey(entry.getValue()))
+                    .map(Map.Entry::getValue).collect(Collectors.toList());
+            if (missing.isEmpty()) {
+                break;
+            }
+            this.queryIn(sql, missing, rs -> {
+                String symbol = requested.get(rs.getString("symbol").toUpperCase(Locale.ROOT));
+                if (symbol != null && !found.containsKey(symbol)) {
+                    found.put(symbol, this.geneSymbol(rs));
+                }
+            });
+        }
+        return found;
+    }
+
+    /**
+     * Karyotype bands overlapping the region, empty when the sequence region is unknown.
+     */
+    public List<OverlapRegion> getOverlapBands(String seqRegionName, int start, int end) {
+        Optional<SeqRegion> seqRegion = this.getSeqRegion(core(), seqRegionName);
+        if (!seqRegion.isPresent()) {
+            return new ArrayList<>();
+        }
+        String sql = String.format("SELECT k.seq_region_start, k.seq_region_end, k.band, k.stain FROM %s.karyotype k " +
+                                   "WHERE k.seq_region_id = :seqRegionId AND k.seq_region_start <= :end AND k.seq_region_end >= :start " +
+                                   "ORDER BY k.seq_region_start", core());
+        MapSqlParameterSource params = new MapSqlParameterSource("seqRegionId", seqRegion.get().getId())
+                .addValue("start", start).addValue("end", end);
+        return this.jdbcTemplate().query(sql, params, (rs, row) -> {
+            OverlapRegion band = new OverlapRegion();
+            band.setStrand(0);
+            band.setFeatureType("band");
+            band.setStart(rs.getInt("seq_region_start"));
+            band.setEnd(rs.getInt("seq_region_end"));
+            band.setAssemblyName(seqRegion.get().getAssemblyName());
+            band.setId(rs.getString("band"));
+            band.setSeqRegionName(seqRegion.get().getName());
+            band.setStain(rs.getString("stain"));
+            return band;
+        });
+    }
+
+    /**
+     * Current genes overlapping the region in the database of the given type, only those of the
+     * analysis when a logic name is given. Empty when the sequence region is unknown.
+     */
+    public List<OverlapGene> getOverlapGenes(String seqRegionName, int start, int end, String logicName, String dbType) {
+        String schema = this.schema(dbType);
+        Optional<SeqRegion> seqRegion = this.getSeqRegion(schema, seqRegionName);
+        if (!seqRegion.isPresent()) {
+            return new ArrayList<>();
+        }
+        String sql = String.format("SELECT g.stable_id, g.version, g.biotype, g.source, g.description, g.seq_region_start, g.seq_region_end, " +
+                                   "g.seq_region_strand, a.logic_name, x.display_label FROM %1$s.gene g " +
+                                   "JOIN %1$s.analysis a ON a.analysis_id = g.analysis_id " +
+                                   "LEFT JOIN %1$s.xref x ON x.xref_id = g.display_xref_id " +
+                                   "WHERE g.seq_region_id = :seqRegionId AND g.seq_region_start <= :end AND g.seq_region_end >= :start " +
+                                   "AND g.seq_region_start >= :lowestStart AND g.is_current = 1%2$s ORDER BY g.seq_region_start, g.gene_id",
+                                   schema, logicName == null ? "" : " AND a.logic_name = :logicName");
+        // No gene is longer than meta_coord says, so the index range on the start is bounded on both sides
+        long lowestStart = (long) start - this.getMaxGeneLength(schema);
+        MapSqlParameterSource params = new MapSqlParameterSource("seqRegionId", seqRegion.get().getId())
+                .addValue("start", start).addValue("end", end).addValue("lowestStart", lowestStart).addValue("logicName", logicName);
+        return this.jdbcTemplate().query(sql, params, (rs, row) -> OverlapGene.builder()
+                .id(rs.getString("stable_id"))
+                .geneId(rs.getString("stable_id"))
+                .version(rs.getObject("version", Integer.class))
+                .externalName(rs.getString("display_label"))
+                .start(rs.getInt("seq_region_start"))
+                .end(rs.getInt("seq_region_end"))
+                .strand(rs.getInt("seq_region_strand"))
+                .biotype(rs.getString("biotype"))
+                .source(rs.getString("source"))
+                .description(rs.getString("description"))
+                .logicName(rs.getString("logic_name"))
+                .featureType("gene")
+                .seqRegionName(seqRegion.get().getName())
+                .assemblyName(seqRegion.get().getAssemblyName())
+                .build());
+    }
+
+    /**
+     * Length and kind of the top level sequence region, with its whole karyotype when asked for,
+     * null when the sequence region is unknown.
+     */
+    public AssemblyInfo getAssemblyInfo(String seqRegionName, boolean withBands) {
+        Optional<SeqRegion> found = this.getSeqRegion(core(), seqRegionName);
+        if (!found.isPresent()) {
+            return null;
+        }
+        SeqRegion seqRegion = found.get();
+        AssemblyInfo assemblyInfo = new AssemblyInfo();
+        assemblyInfo.setCoordinateSystem(seqRegion.getCoordSystem());
+        assemblyInfo.setAssemblyName(seqRegion.getAssemblyName());
+        assemblyInfo.setAssemblyExceptionType(seqRegion.getAssemblyExceptionType());
+        assemblyInfo.setLength(seqRegion.getLength());
+        assemblyInfo.setIsChromosome(seqRegion.isChromosome() ? 1 : 0);
+        assemblyInfo.setIsCircular(seqRegion.isCircular() ? 1 : 0);
+        if (withBands) {
+            assemblyInfo.setBands(this.getOverlapBands(seqRegionName, 1, seqRegion.getLength()));
+        }
+        return assemblyInfo;
+    }
+
+    // Integer.MAX_VALUE when meta_coord has no gene row. Read outside the map, callers racing on the first
+    // lookup of a schema may both run the query
+    private int getMaxGeneLength(String schema) {
+        Integer maxGeneLength = maxGeneLengths.get(schema);
+        if (maxGeneLength == null) {
+            Integer maxLength = this.jdbcTemplate().queryForObject(
+                    String.format("SELECT MAX(mc.max_length) FROM %s.meta_coord mc WHERE mc.table_name = 'gene'", schema),
+                    new MapSqlParameterSource(), Integer.class);
+            maxGeneLength = maxLength == null ? Integer.MAX_VALUE : maxLength;
+            maxGeneLengths.putIfAbsent(schema, maxGeneLength);
+        }
+        return maxGeneLength;
+    }
+
+    // Top level regions only, like the REST API
+    private Optional<SeqRegion> getSeqRegion(String schema, String name) {
+        Map<String, SeqRegion> regions = seqRegions.get(schema);
+        if (regions == null) {
+            Map<String, SeqRegion> loaded = this.loadSeqRegions(schema);
+            regions = seqRegions.putIfAbsent(schema, loaded);
+            regions = regions == null ? loaded : regions;
+        }
+        return Optional.ofNullable(regions.get(name));
+    }
+
+    // Every top level region of the schema in one query, chromosomes, scaffolds, patches and haplotypes
+    // are a few hundred rows
+    private Map<String, SeqRegion> loadSeqRegions(String schema) {
+        String sql = String.format("SELECT sr.seq_region_id, sr.name, sr.length, cs.name AS coord_system, cs.version AS assembly_name, " +
+                                   "(SELECT MIN(ae.exc_type) FROM %1$s.assembly_exception ae WHERE ae.seq_region_id = sr.seq_region_id " +
+                                   "AND ae.exc_type <> 'PAR') AS exc_type, " +
+                                   attrib(schema, "karyotype_rank") + " AS karyotype_rank, " +
+                                   attrib(schema, "circular_seq") + " AS circular_seq " +
+                                   "FROM %1$s.seq_region sr JOIN %1$s.coord_system cs ON cs.coord_system_id = sr.coord_system_id " +
+                                   "WHERE " + attrib(schema, "toplevel") + " > 0 ORDER BY sr.seq_region_id",
+                                   schema);
+        Map<String, SeqRegion> regions = new HashMap<>();
+        this.jdbcTemplate().query(sql, (RowCallbackHandler) rs -> regions.putIfAbsent(rs.getString("name"), new SeqRegion(
+                rs.getLong("seq_region_id"), rs.getString("name"), rs.getInt("length"), rs.getString("coord_system"),
+                rs.getString("assembly_name"), Optional.ofNullable(rs.getString("exc_type")).orElse("REF"),
+                rs.getInt("karyotype_rank") > 0, rs.getInt("circular_seq") > 0)));
+        log.info("Read {} top level sequence regions of {}", regions.size(), schema);
+        return regions;
+    }
+
+    private GeneSymbol geneSymbol(ResultSet rs) throws SQLException {
+        GeneSymbol geneSymbol = new GeneSymbol();
+        geneSymbol.setId(rs.getString("stable_id"));
+        geneSymbol.setDisplayName(rs.getString("display_label"));
+        geneSymbol.setSpecies(SPECIES);
+        geneSymbol.setObjectType("Gene");
+        geneSymbol.setDbType(CORE_DB_TYPE);
+        geneSymbol.setSeqRegionName(rs.getString("seq_region_name"));
+        geneSymbol.setStart(rs.getInt("seq_region_start"));
+        geneSymbol.setEnd(rs.getInt("seq_region_end"));
+        geneSymbol.setStrand(rs.getInt("seq_region_strand"));
+        geneSymbol.setBiotype(rs.getString("biotype"));
+        geneSymbol.setAssemblyName(rs.getString("assembly_name"));
+        geneSymbol.setSource(rs.getString("source"));
+        geneSymbol.setLogicName(rs.getString("logic_name"));
+        geneSymbol.setDescription(rs.getString("description"));
+        geneSymbol.setVersion(rs.getObject("version", Integer.class));
+        return geneSymbol;
+    }
+
+    // evidence_attribs is a SET of attrib ids, e.g. "368,370"
+    private List<String> evidence(String attribIds) {
+        if (attribIds == null || attribIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return Arrays.stream(attribIds.split(","))
+                .map(id -> this.variationAttribs().get(Integer.valueOf(id.trim())))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    // A few thousand rows, read once
+    private Map<Integer, String> variationAttribs() {
+        if (variationAttribs == null) {
+            Map<Integer, String> attribs = new HashMap<>();
+            this.jdbcTemplate().query(String.format("SELECT attrib_id, value FROM %s.attrib", variation()),
+                                      (RowCallbackHandler) rs -> attribs.put(rs.getInt("attrib_id"), rs.getString("value")));
+            variationAttribs = attribs;
+        }
+        return variationAttribs;
+    }
+
+    private <T> void queryIn(String sql, Collection<T> values, RowCallbackHandler handler) {
+        for (List<T> part : ListUtils.partition(new ArrayList<>(values), IN_LIST_SIZE)) {
+            this.jdbcTemplate().query(sql, new MapSqlParameterSource("values", part), handler);
+        }
+    }
+
+    private String schema(String dbType) {
+        if (dbType == null || CORE_DB_TYPE.equals(dbType)) {
+            return core();
+        }
+        if (OTHERFEATURES_DB_TYPE.equals(dbType)) {
+            return config.getEnsemblOtherfeaturesSchema();
+        }
+        throw new IllegalArgumentException("Unknown Ensembl db_type " + dbType);
+    }
+
+    private String core() {
+        return config.getEnsemblCoreSchema();
+    }
+
+    private String variation() {
+        return config.getEnsemblVariationSchema();
+    }
+
+    private static String attrib(String schema, String code) {
+        return String.format("(SELECT COUNT(*) FROM %1$s.seq_region_attrib sra JOIN %1$s.attrib_type at ON at.attrib_type_id = sra.attrib_type_id " +
+                             "WHERE sra.seq_region_id = sr.seq_region_id AND at.code = '%2$s')", schema, code);
+    }
+
+    private static String nonReference(String schema, String seqRegionId) {
+        return String.format("(SELECT COUNT(*) FROM %1$s.seq_region_attrib sra JOIN %1$s.attrib_type at ON at.attrib_type_id = sra.attrib_type_id " +
+                             "WHERE sra.seq_region_id = %2$s AND at.code = 'non_ref')", schema, seqRegionId);
+    }
+
+    private static String mostSevere(List<String> consequenceTypes) {
+        if (consequenceTypes == null) {
+            return null;
+        }
+        return Consequences.mostSevere(consequenceTypes.stream()
+                                               .filter(Objects::nonNull)
+                                               .flatMap(types -> Arrays.stream(types.split(",")))
+                                               .collect(Collectors.toList()));
+    }
+
+    // Single base alleles only, e.g. A/G is R
+    private static String ambiguity(String alleleString) {
+        if (alleleString == null) {
+            return null;
+        }
+        Set<String> bases = new TreeSet<>(Arrays.asList(alleleString.split("/")));
+        if (bases.stream().anyMatch(base -> !base.matches("[ACGT]"))) {
+            return null;
+        }
+        return bases.size() == 1 ? bases.iterator().next() : AMBIGUITY_CODES.get(String.join("", bases));
+    }
+
+    // FLOAT columns, 0.1234 and not 0.12340000271797180
+    private static Double decimal(Object value) {
+        if (value == null) {
+            return null;
+        }
+        return value instanceof Float ? Double.valueOf(value.toString()) : ((Number) value).doubleValue();
+    }
+
+    private synchronized NamedParameterJdbcTemplate jdbcTemplate() {
+        if (jdbcTemplate == null) {
+            if (config.getEnsemblDbUrl() == null || config.getEnsemblDbUrl().isEmpty()) {
+                throw new IllegalStateException("ensembl.datasource.url is needed to read Ensembl from its databases");
+            }
+            HikariConfig hikariConfig = new HikariConfig();
+            hikariConfig.setPoolName("EnsemblDatabase");
+            hikariConfig.setJdbcUrl(config.getEnsemblDbUrl());
+            if (config.getEnsemblDbDriver() != null && !config.getEnsemblDbDriver().isEmpty()) {
+                hikariConfig.setDriverClassName(config.getEnsemblDbDriver());
+            }
+            hikariConfig.setUsername(config.getEnsemblDbUsername());
+            hikariConfig.setPassword(config.getEnsemblDbPassword());
+            hikariConfig.setMaximumPoolSize(config.getEnsemblDbPoolSize());
+            hikariConfig.setReadOnly(true);
+            dataSource = new HikariDataSource(hikariConfig);
+            jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+            log.info("Reading Ensembl from {} ({}, {}, {})", config.getEnsemblDbUrl(), core(),
+                     config.getEnsemblOtherfeaturesSchema(), variation());
+        }
+        return jdbcTemplate;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @lombok.Value
+    private static class SeqRegion {
+        long id;
+        String name;
+        int length;
+        String coordSystem;
+        String assemblyName;
+        String assemblyExceptionType;
+        boolean chromosome;
+        boolean circular;
+    }
+}
@@ -0,0 +1,182 @@
+package uk.ac.ebi.spot.gwas.gene_symbol;
+
+import uk.ac.ebi.spot.gwas.common.util.GenomicKey;
+
+import java.util.*;
+
+/**
+ * Gene symbols and synonyms of one Ensembl release, upper cased, to the gene they name: the Ensembl ID,
+ * chromosome and position kept in per gene columns. Symbols are preferred over synonyms and genes of the
+ * chromosomes over those of patches and haplotypes, as the lookup/symbol endpoint does. An index of the
+ * whole gene dump is complete and answers every symbol, one of the history table only those looked up before.
+ */
+public class GeneSymbolIndex {
+
+    private static final String SPECIES = "homo_sapiens";
+
+    private final Map<String, Integer> rows;
+    private final Map<String, String> errors;
+    private final boolean complete;
+    private final String[] ids;
+    private final String[] names;
+    private final String[] chromosomes;
+    private final String[] biotypes;
+    private final int[] starts;
+    private final int[] ends;
+    private final byte[] strands;
+
+    private GeneSymbolIndex(Builder builder) {
+        this.rows = builder.rows;
+        this.errors = builder.errors;
+        this.complete = builder.complete;
+        this.ids = Arrays.copyOf(builder.ids, builder.size);
+        this.names = Arrays.copyOf(builder.names, builder.size);
+        this.chromosomes = Arrays.copyOf(builder.chromosomes, builder.size);
+        this.biotypes = Arrays.copyOf(builder.biotypes, builder.size);
+        this.starts = Arrays.copyOf(builder.starts, builder.size);
+        this.ends = Arrays.copyOf(builder.ends, builder.size);
+        this.strands = Arrays.copyOf(builder.strands, builder.size);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int symbols() {
+        return rows.size();
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public boolean covers(String symbol) {
+        String key = key(symbol);
+        return complete || rows.containsKey(key) || errors.containsKey(key);
+    }
+
+    // Chromosome of the gene, null when the symbol is unknown or not covered
+    public String chromosome(String symbol) {
+        Integer row = rows.get(key(symbol));
+        return row == null ? null : chromosomes[row];
+    }
+
+    // What the lookup/symbol endpoint would answer, only meaningful for covered symbols
+    public GeneSymbol get(String symbol) {
+        String key = key(symbol);
+        Integer row = rows.get(key);
+        if (row == null) {
+            String error = errors.get(key);
+            return new GeneSymbol(error != null ? error : String.format("No valid lookup found for symbol %s", symbol));
+        }
+        GeneSymbol geneSymbol = new GeneSymbol();
+        geneSymbol.setId(ids[row]);
+        geneSymbol.setDisplayName(names[row]);
+        geneSymbol.setSeqRegionName(chromosomes[row]);
+        geneSymbol.setBiotype(biotypes[row]);
+        geneSymbol.setStart(starts[row]);
+        geneSymbol.setEnd(ends[row]);
+        geneSymbol.setStrand((int) strands[row]);
+        geneSymbol.setObjectType("Gene");
+        geneSymbol.setDbType("core");
+        geneSymbol.setSpecies(SPECIES);
+        return geneSymbol;
+    }
+
+    private static String key(String symbol) {
+        return symbol == null ? "" : symbol.trim().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Collects genes with their symbol and synonyms, a name already taken by a better gene is kept by it.
+     */
+    static class Builder {
+
+        private final boolean complete;
+        private final Map<String, Integer> rows = new HashMap<>();
+        private final Map<String, Integer> ranks = new HashMap<>();
+        private final Map<String, Integer> rowsById = new HashMap<>();
+        private final Map<String, String> errors = new HashMap<>();
+        private final Map<String, String> chromosomeNames = new HashMap<>();
+        private String[] ids = new String[1024];
+        private String[] names = new String[1024];
+        private String[] chromosomes = new String[1024];
+        private String[] biotypes = new String[1024];
+        private int[] starts = new int[1024];
+        private int[] ends = new int[1024];
+        private byte[] strands = new byte[1024];
+        private int size;
+
+        Builder(boolean complete) {
+            this.complete = complete;
+        }
+
+        void add(String symbol, String id, String chromosome, String biotype, int start, int end, int strand) {
+            if (id == null || chromosome == null) {
+                return;
+            }
+            Integer row = rowsById.get(id);
+            if (row == null) {
+                row = this.addRow(symbol, id, chromosome, biotype, start, end, strand);
+            }
+            this.name(symbol, row, false);
+        }
+
+        // Synonyms of a gene already added, by its Ensembl ID
+        void synonym(String id, String synonym) {
+            Integer row = rowsById.get(id);
+            if (row != null) {
+                this.name(synonym, row, true);
+            }
+        }
+
+        void error(String symbol, String error) {
+            String key = key(symbol);
+            if (!key.isEmpty() && !rows.containsKey(key)) {
+                errors.put(key, error);
+            }
+        }
+
+        GeneSymbolIndex build() {
+            return new GeneSymbolIndex(this);
+        }
+
+        private int addRow(String symbol, String id, String chromosome, String biotype, int start, int end, int strand) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                names = Arrays.copyOf(names, capacity);
+                chromosomes = Arrays.copyOf(chromosomes, capacity);
+                biotypes = Arrays.copyOf(biotypes, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                strands = Arrays.copyOf(strands, capacity);
+            }
+            int row = size++;
+            ids[row] = id;
+            names[row] = symbol;
+            chromosomes[row] = chromosomeNames.computeIfAbsent(chromosome, name -> name);
+            biotypes[row] = biotype;
+            starts[row] = start;
+            ends[row] = end;
+            strands[row] = (byte) strand;
+            rowsById.put(id, row);
+            return row;
+        }
+
+        // Lower ranks win: symbols before synonyms, chromosomes before patches and haplotypes
+        private void name(String name, int row, boolean synonym) {
+            String key = key(name);
+            if (key.isEmpty()) {
+                return;
+            }
+            int rank = (synonym ? 2 : 0) + (GenomicKey.isChromosome(chromosomes[row]) ? 0 : 1);
+            Integer previous = ranks.get(key);
+            if (previous == null || rank < previous) {
+                rows.put(key, row);
+                ranks.put(key, rank);
+                errors.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package uk.ac.ebi.spot.gwas.gene_symbol;
+
+import lombok.extern.slf4j.Slf4j;
+import uk.ac.ebi.spot.gwas.exception.FileProcessingException;
+import uk.ac.ebi.spot.gwas.overlap_gene.GeneAnnotationLoader;
+import uk.ac.ebi.spot.gwas.overlap_gene.OverlapGene;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Builds a complete {@link GeneSymbolIndex} from the Ensembl gene dump of the release (GTF or GFF3) and,
+ * when given, the HGNC complete set, whose alias and previous symbols become synonyms of the Ensembl gene
+ * they are linked to.
+ */
+@Slf4j
+public class GeneSymbolLoader {
+
+    private GeneSymbolLoader() {
+        // Hide implicit public constructor
+    }
+
+    public static GeneSymbolIndex load(String annotationFile, String synonymsFile, String source) {
+        long start = System.currentTimeMillis();
+        GeneSymbolIndex.Builder builder = new GeneSymbolIndex.Builder(true);
+        for (OverlapGene gene : GeneAnnotationLoader.load(annotationFile, source)) {
+            if (gene.getStart() != null && gene.getEnd() != null) {
+                builder.add(gene.getExternalName(), gene.getId(), gene.getSeqRegionName(), gene.getBiotype(),
+                            gene.getStart(), gene.getEnd(), gene.getStrand() == null ? 1 : gene.getStrand());
+            }
+        }
+        int synonyms = 0;
+        if (synonymsFile == null || synonymsFile.isEmpty() || !Files.exists(Paths.get(synonymsFile))) {
+            log.warn("No gene synonyms at {}, only the symbols of the gene dump will be found", synonymsFile);
+        } else {
+            synonyms = readSynonyms(synonymsFile, builder);
+        }
+        GeneSymbolIndex index = builder.build();
+        log.info("Indexed {} symbols of {} genes ({} synonyms) from {} in {} ms", index.symbols(), index.size(), synonyms,
+                 annotationFile, System.currentTimeMillis() - start);
+        return index;
+    }
+
+    // hgnc_id symbol name ... alias_symbol ... prev_symbol ... ensembl_gene_id ..., names are separated by |
+    private static int readSynonyms(String synonymsFile, GeneSymbolIndex.Builder builder) {
+        int synonyms = 0;
+        try (BufferedReader reader = open(synonymsFile)) {
+            String header = reader.readLine();
+            List<String> columns = header == null ? Collections.emptyList() : Arrays.asList(header.split("\t", -1));
+            int ensemblId = columns.indexOf("ensembl_gene_id");
+            int[] nameColumns = {columns.indexOf("symbol"), columns.indexOf("alias_symbol"), columns.indexOf("prev_symbol")};
+            if (ensemblId < 0) {
+                throw new FileProcessingException(String.format("No ensembl_gene_id column in gene synonyms %s", synonymsFile));
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.split("\t", -1);
+                if (ensemblId >= values.length || values[ensemblId].isEmpty()) {
+                    continue;
+                }
+                String id = unquote(values[ensemblId]);
+                for (int column : nameColumns) {
+                    if (column < 0 || column >= values.length) {
+                        continue;
+                    }
+                    for (String synonym : unquote(values[column]).split("\\|")) {
+                        if (!synonym.isEmpty()) {
+                            builder.synonym(id, synonym);
+                            synonyms++;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new FileProcessingException(String.format("Could not read gene synonyms %s: %s", synonymsFile, e.getMessage()));
+        }
+        return synonyms;
+    }
+
+    private static String unquote(String value) {
+        String trimmed = value.trim();
+        return trimmed.length() > 1 && trimmed.startsWith("\"") && trimmed.endsWith("\"") ? trimmed.substring(1, trimmed.length() - 1) : trimmed;
+    }
+
+    private static BufferedReader open(String file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+}
@@ -4,13 +4,15 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.ListUtils;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import uk.ac.ebi.spot.gwas.common.config.AppConfig;
 import uk.ac.ebi.spot.gwas.common.constant.DataType;
+import uk.ac.ebi.spot.gwas.common.constant.GeneSymbolProvider;
 import uk.ac.ebi.spot.gwas.common.constant.Type;
 import uk.ac.ebi.spot.gwas.common.constant.Uri;
+import uk.ac.ebi.spot.gwas.common.lookup.TieredLookup;
+import uk.ac.ebi.spot.gwas.common.lookup.TieredLookupFactory;
 import uk.ac.ebi.spot.gwas.common.service.RestResponseResultBuilderService;
 import uk.ac.ebi.spot.gwas.mapping.dto.RestResponseResult;
 import uk.ac.ebi.spot.gwas.common.service.EnsemblRestcallHistoryService;
@@ -18,10 +20,7 @@ import uk.ac.ebi.spot.gwas.common.service.ApiService;
 import uk.ac.ebi.spot.gwas.common.util.CacheUtil;
 import uk.ac.ebi.spot.gwas.variation.Variant;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
@@ -30,21 +29,31 @@ import java.util.stream.Collectors;
 @Service
 public class GeneSymbolService {
 
+    // Ensembl limit on the symbols of one POST request
+    private static final int POST_BATCH_SIZE = 1000;
+
     private final ObjectMapper mapper = new ObjectMapper();
 
     private final AppConfig config;
     private final EnsemblRestcallHistoryService historyService;
     private final ApiService mappingApiService;
+    private final LocalGeneSymbolService localGeneSymbolService;
+    private final TieredLookup<String, GeneSymbol> lookup;
     RestResponseResultBuilderService restResponseResultBuilderService;
 
     public GeneSymbolService(AppConfig config,
                              EnsemblRestcallHistoryService historyService,
                              ApiService mappingApiService,
-                             RestResponseResultBuilderService restResponseResultBuilderService) {
+                             LocalGeneSymbolService localGeneSymbolService,
+                             RestResponseResultBuilderService restResponseResultBuilderService,
+                             TieredLookupFactory lookupFactory) {
         this.config = config;
         this.historyService = historyService;
         this.mappingApiService = mappingApiService;
+        this.localGeneSymbolService = localGeneSymbolService;
         this.restResponseResultBuilderService = restResponseResultBuilderService;
+        this.lookup = lookupFactory.create("geneSymbol", () -> CacheUtil.reportedGenes(DataType.REPORTED_GENES, config.getCacheDir()),
+                                           Type.LOOKUP_SYMBOL, gene -> gene, this::parseHistory, this::restApiCall);
     }
 
     public Map<String, GeneSymbol> getReportedGenes(int threadSize,
@@ -55,9 +64,13 @@ public class GeneSymbolService {
         Map<String, GeneSymbol> cached = CacheUtil.reportedGenes(DataType.REPORTED_GENES, config.getCacheDir());
         int partitionSize = threadSize * batchSize;
 
+        // Covered genes are answered by the index and not copied into the store
+        Map<String, GeneSymbol> local = this.isLocalProvider() ? localGeneSymbolService.getReportedGenes(snpRsIds) : Collections.emptyMap();
+        log.info("Resolved {} reported genes from the local symbol index out of {}", local.size(), snpRsIds.size());
+
         List<String> getFromApi = new ArrayList<>();
         for (String snpRsId : snpRsIds) {
-            GeneSymbol geneSymbol = cached.get(snpRsId.trim());
+            GeneSymbol geneSymbol = local.containsKey(snpRsId) ? local.get(snpRsId) : cached.get(snpRsId.trim());
             if (geneSymbol == null) {
                 getFromApi.add(snpRsId);
             }
@@ -74,34 +87,94 @@ public class GeneSymbolService {
         }
         log.info("Total reported gene api call time {}", (System.currentTimeMillis() - start));
         CacheUtil.saveToFile(DataType.REPORTED_GENES, config.getCacheDir(), cached);
-        return cached;
+        if (local.isEmpty()) {
+            return cached;
+        }
+        Map<String, GeneSymbol> reportedGenes = new HashMap<>(local);
+        snpRsIds.stream().filter(gene -> !local.containsKey(gene) && cached.containsKey(gene.trim()))
+                .forEach(gene -> reportedGenes.put(gene.trim(), cached.get(gene.trim())));
+        return reportedGenes;
     }
 
-    @Cacheable(value = "geneSymbol")
     public GeneSymbol getReportedGeneFromDB(String gene) {
-        log.warn("Retrieving Reported Gene for gene: {}", gene);
-        RestResponseResult result = historyService.getHistoryByTypeParamAndVersion(Type.LOOKUP_SYMBOL, gene, config.getERelease());
-        GeneSymbol geneSymbol = new GeneSymbol();
-        if (result == null) {
-            geneSymbol = this.restApiCall(gene);
-        } else {
-            try {
-                log.info("inside getting geneSymbol from History block");
-                if(result.getRestResult() != null ) {
-                    geneSymbol = mapper.readValue(result.getRestResult(), GeneSymbol.class);
-                } else{
-                    geneSymbol = mapper.readValue(result.getError(), GeneSymbol.class);
-                }
-
-            } catch (JsonProcessingException e) { log.error(e.getMessage()); }
+        log.debug("Retrieving Reported Gene for gene: {}", gene);
+        if (this.isLocalProvider() && localGeneSymbolService.covers(gene)) {
+            return localGeneSymbolService.getReportedGene(gene);
+        }
+        return Optional.ofNullable(lookup.get(gene)).orElseGet(GeneSymbol::new);
+    }
+
+    public Map<String, GeneSymbol> getReportedGenesFromDB(Collection<String> genes) {
+        if (!this.isLocalProvider()) {
+            return lookup.getAll(genes);
+        }
+        Map<String, GeneSymbol> geneSymbols = localGeneSymbolService.getReportedGenes(genes);
+        List<String> remaining = genes.stream().filter(gene -> !geneSymbols.containsKey(gene)).collect(Collectors.toList());
+        if (!remaining.isEmpty()) {
+            geneSymbols.putAll(lookup.getAll(remaining));
+        }
+        return geneSymbols;
+    }
+
+    private boolean isLocalProvider() {
+        return GeneSymbolProvider.from(config.getGeneSymbolProvider()) == GeneSymbolProvider.LOCAL;
+    }
+
+    private GeneSymbol parseHistory(RestResponseResult result) {
+        try {
+            if (result.getRestResult() != null) {
+                return mapper.readValue(result.getRestResult(), GeneSymbol.class);
+            } else {
+                return mapper.readValue(result.getError(), GeneSymbol.class);
+            }
+        } catch (JsonProcessingException e) {
+            log.error(e.getMessage());
+            return null;
+        }
+    }
+
+    // Batches go to the POST endpoint, symbols it does not return are fetched one by one for their error
+    private Map<String, GeneSymbol> restApiCall(Collection<String> genes) {
+        Map<String, GeneSymbol> geneSymbols = new HashMap<>();
+        if (genes.size() > 1) {
+            List<CompletableFuture<Map<String, GeneSymbol>>> futureList = ListUtils.partition(new ArrayList<>(genes), POST_BATCH_SIZE)
+                    .stream().map(mappingApiService::geneSymbolPost).collect(Collectors.toList());
+            for (CompletableFuture<Map<String, GeneSymbol>> future : futureList) {
+                future.join().forEach((gene, geneSymbol) -> {
+                    if (genes.contains(gene) && geneSymbol != null) {
+                        geneSymbols.put(gene, geneSymbol);
+                        this.recordHistory(gene, geneSymbol);
+                    }
+                });
+            }
+        }
+        Map<String, CompletableFuture<GeneSymbol>> singles = new HashMap<>();
+        genes.stream().filter(gene -> !geneSymbols.containsKey(gene)).forEach(gene -> singles.put(gene, this.restApiCallAsync(gene)));
+        singles.forEach((gene, future) -> geneSymbols.put(gene, future.join()));
+        return geneSymbols;
+    }
+
+    private void recordHistory(String gene, GeneSymbol geneSymbol) {
+        try {
+            String uri = String.format("%s/%s/%s", config.getServer(), Uri.REPORTED_GENES, gene);
+            restResponseResultBuilderService.buildResponseResult(uri, gene, Type.LOOKUP_SYMBOL, ResponseEntity.ok().build(),
+                                                                 mapper.writeValueAsString(geneSymbol));
+        } catch (JsonProcessingException e) {
+            log.error("Exception in writing object as string in GeneSymbolService" + e.getMessage(), e);
         }
-        return geneSymbol;
     }
 
     public GeneSymbol restApiCall(String gene) { // chromosomeEnd
+        return this.restApiCallAsync(gene).join();
+    }
+
+    public CompletableFuture<GeneSymbol> restApiCallAsync(String gene) {
         String uri = String.format("%s/%s/%s", config.getServer(), Uri.REPORTED_GENES, gene);
         log.debug("GeneSymbol url is {}", uri);
-        Optional<ResponseEntity<GeneSymbol>> optionalEntity = mappingApiService.getRequestGeneSymbol(uri);
+        return mappingApiService.getRequestGeneSymbolAsync(uri).thenApply(optionalEntity -> this.buildResult(gene, uri, optionalEntity));
+    }
+
+    private GeneSymbol buildResult(String gene, String uri, Optional<ResponseEntity<GeneSymbol>> optionalEntity) {
         GeneSymbol geneSymbol = optionalEntity
                 .map(response -> mapper.convertValue(response.getBody(), GeneSymbol.class))
                 .orElseGet(GeneSymbol::new);
@@ -0,0 +1,106 @@
+package uk.ac.ebi.spot.gwas.gene_symbol;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.constant.Type;
+import uk.ac.ebi.spot.gwas.common.service.EnsemblRestcallHistoryService;
+import uk.ac.ebi.spot.gwas.mapping.dto.RestResponseResult;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Resolves reported genes from the {@link GeneSymbolIndex} of the configured release. The index is built
+ * once from the Ensembl gene dump and the gene synonyms, or, without a dump, from the symbols the history
+ * table holds for the release; symbols that index does not cover are left to Ensembl.
+ */
+@Slf4j
+@Service
+public class LocalGeneSymbolService {
+
+    private static final int HISTORY_PAGE_SIZE = 1000;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final AppConfig config;
+    private final EnsemblRestcallHistoryService historyService;
+    private volatile GeneSymbolIndex index;
+
+    public LocalGeneSymbolService(AppConfig config, EnsemblRestcallHistoryService historyService) {
+        this.config = config;
+        this.historyService = historyService;
+    }
+
+    public boolean covers(String gene) {
+        return this.getIndex().covers(gene);
+    }
+
+    public GeneSymbol getReportedGene(String gene) {
+        return this.getIndex().get(gene);
+    }
+
+    // Only the covered genes, keyed as given
+    public Map<String, GeneSymbol> getReportedGenes(Collection<String> genes) {
+        GeneSymbolIndex symbolIndex = this.getIndex();
+        Map<String, GeneSymbol> geneSymbols = new HashMap<>();
+        for (String gene : genes) {
+            if (symbolIndex.covers(gene)) {
+                geneSymbols.put(gene, symbolIndex.get(gene));
+            }
+        }
+        return geneSymbols;
+    }
+
+    private GeneSymbolIndex getIndex() {
+        GeneSymbolIndex symbolIndex = index;
+        if (symbolIndex == null) {
+            synchronized (this) {
+                if (index == null) {
+                    index = this.loadIndex();
+                }
+                symbolIndex = index;
+            }
+        }
+        return symbolIndex;
+    }
+
+    private GeneSymbolIndex loadIndex() {
+        String annotationFile = config.getEnsemblAnnotationFile();
+        if (annotationFile != null && !annotationFile.isEmpty() && Files.exists(Paths.get(annotationFile))) {
+            return GeneSymbolLoader.load(annotationFile, config.getGeneSymbolSynonymsFile(), config.getEnsemblSource());
+        }
+        log.warn("Gene annotation file {} not found, indexing the gene symbols of release {} in the history table",
+                 annotationFile, config.getERelease());
+        long start = System.currentTimeMillis();
+        GeneSymbolIndex.Builder builder = new GeneSymbolIndex.Builder(false);
+        historyService.forEachResult(Type.LOOKUP_SYMBOL, config.getERelease(), HISTORY_PAGE_SIZE,
+                                     (gene, result) -> this.addHistory(builder, gene, result));
+        GeneSymbolIndex symbolIndex = builder.build();
+        log.info("Indexed {} symbols of {} genes from the history of release {} in {} ms", symbolIndex.symbols(), symbolIndex.size(),
+                 config.getERelease(), System.currentTimeMillis() - start);
+        return symbolIndex;
+    }
+
+    private void addHistory(GeneSymbolIndex.Builder builder, String gene, RestResponseResult result) {
+        try {
+            String payload = result.getRestResult() != null ? result.getRestResult() : result.getError();
+            GeneSymbol geneSymbol = payload == null ? null : mapper.readValue(payload, GeneSymbol.class);
+            if (geneSymbol == null) {
+                return;
+            }
+            if (geneSymbol.getError() != null && !geneSymbol.getError().isEmpty()) {
+                builder.error(gene, geneSymbol.getError());
+            } else if (geneSymbol.getStart() != null && geneSymbol.getEnd() != null) {
+                builder.add(geneSymbol.getDisplayName(), geneSymbol.getId(), geneSymbol.getSeqRegionName(), geneSymbol.getBiotype(),
+                            geneSymbol.getStart(), geneSymbol.getEnd(), geneSymbol.getStrand() == null ? 1 : geneSymbol.getStrand());
+                builder.synonym(geneSymbol.getId(), gene);
+            }
+        } catch (JsonProcessingException e) {
+            log.debug("Skipping unreadable {} history of {}: {}", Type.LOOKUP_SYMBOL, gene, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package uk.ac.ebi.spot.gwas.mapping;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.spot.gwas.association.AssociationService;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.constant.OperationMode;
+import uk.ac.ebi.spot.gwas.common.projection.IdRangeProjection;
+import uk.ac.ebi.spot.gwas.common.service.RunJournal;
+import uk.ac.ebi.spot.gwas.common.util.PayloadHasher;
+import uk.ac.ebi.spot.gwas.ensembl_data.EnsemblData;
+import uk.ac.ebi.spot.gwas.mapping.dto.AssociationMapping;
+import uk.ac.ebi.spot.gwas.mapping.dto.StageTimings;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Streams associations through the mapping stages instead of loading them all up front:
+ * id reader, locus/SNP expander, Ensembl resolver, genomic context computer and DB writer.
+ * When mapping against the database, the Ensembl data of each page of ids is fetched by the reader before the page
+ * is handed on, from the history table and then from Ensembl.
+ * Stages are connected by bounded queues, so a slow stage holds back the ones before it and memory
+ * does not grow with the size of the catalog. Each stage runs on its own threads, so database reads,
+ * Ensembl calls and writes of different associations overlap.
+ * <p>
+ * Once every association of a read batch is saved or has failed, the last id of the batch is journaled,
+ * a run which dies is resumed after it and does at most the batches which were in flight again. The journal is
+ * only resumed by a run of the same release and modes over the same association id bounds.
+ */
+@Slf4j
+@Service
+public class AssociationMappingPipeline {
+
+    // Marks the end of a queue, handed on by the last worker of a stage
+    private static final AssociationMapping END = new AssociationMapping();
+
+    // Latencies kept per stage for the percentiles, the most recent ones
+    private static final int LATENCY_SAMPLES = 8192;
+
+    private static final String ASSOCIATION_MARK = "association_id";
+
+    private final AppConfig config;
+    private final AssociationService associationService;
+    private final MappingService mappingService;
+    private final MappingSavingService dataSavingService;
+    private final MappingResultCache resultCache;
+    private final HistoryPrefetcher historyPrefetcher;
+    private final RunJournal runJournal;
+
+    private volatile List<StageTimings> lastRunTimings = Collections.emptyList();
+
+    public AssociationMappingPipeline(AppConfig config,
+                                      AssociationService associationService,
+                                      MappingService mappingService,
+                                      MappingSavingService dataSavingService,
+                                      MappingResultCache resultCache,
+                                      HistoryPrefetcher historyPrefetcher,
+                                      RunJournal runJournal) {
+        this.config = config;
+        this.associationService = associationService;
+        this.mappingService = mappingService;
+        this.dataSavingService = dataSavingService;
+        this.resultCache = resultCache;
+        this.historyPrefetcher = historyPrefetcher;
+        this.runJournal = runJournal;
+    }
+
+    /**
+     * Maps every association selected by the given mode, returns the number of associations saved.
+     */
+    public long run(OperationMode selectionMode, OperationMode mappingMode, EnsemblData ensemblData) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        int capacity = config.getPipelineQueueCapacity();
+        BlockingQueue<AssociationMapping> toExpand = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<AssociationMapping> toResolve = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<AssociationMapping> toCompute = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<AssociationMapping> toWrite = new ArrayBlockingQueue<>(capacity);
+        AtomicLong read = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicBoolean readAll = new AtomicBoolean();
+        RunJournal.Run run = runJournal.open(String.format("mapping-pipeline-%s", selectionMode.name().toLowerCase(Locale.ROOT)),
+                                             this.inputHash(selectionMode, mappingMode));
+        Checkpoints checkpoints = new Checkpoints(run);
+
+        List<Stage> stages = new ArrayList<>();
+        stages.add(new Stage("expand", toExpand, toResolve, config.getPipelineExpanderThreads(), failed, checkpoints,
+                             item -> item.setSnps(mappingService.getSnpsToMap(item.getAssociationId()).getSnps())));
+        stages.add(new Stage("resolve", toResolve, toCompute, config.getPipelineResolverThreads(), failed, checkpoints,
+                             item -> item.getSnps().stream().filter(snp -> !resultCache.contains(snp.getRsId())).forEach(snp -> {
+                                 snp.setVariant(mappingService.resolveVariant(ensemblData, snp.getRsId(), mappingMode));
+                                 snp.setResolved(true);
+                             })));
+        stages.add(new Stage("context", toCompute, toWrite, config.getPipelineContextThreads(), failed, checkpoints,
+                             item -> item.getSnps().forEach(snp -> {
+                                 snp.setResult(mappingService.mapSnp(ensemblData, snp, mappingMode));
+                                 // Not needed by the writer, let it go
+                                 snp.setVariant(null);
+                             })));
+        Stage writer = new Stage("write", toWrite, null, config.getPipelineWriterThreads(), failed, checkpoints,
+                                 mappingService::saveMapping);
+        stages.add(writer);
+
+        int threads = 1 + stages.stream().mapToInt(stage -> stage.threads).sum();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, namedThreads("MappingPipeline-"));
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(namedThreads("MappingPipelineReport-"));
+        int interval = config.getPipelineReportIntervalSeconds();
+        reporter.scheduleAtFixedRate(() -> this.report(read, failed, stages), interval, interval, TimeUnit.SECONDS);
+
+        log.info("Mapping pipeline started with {} threads, queue capacity {}", threads, capacity);
+        resultCache.open();
+        try {
+            executor.execute(() -> this.readIds(selectionMode, mappingMode, toExpand, read, checkpoints, readAll));
+            stages.forEach(stage -> stage.start(executor));
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+            reporter.shutdownNow();
+            this.report(read, failed, stages);
+            lastRunTimings = stages.stream().map(Stage::timings).collect(Collectors.toList());
+            resultCache.close();
+            historyPrefetcher.clear();
+        }
+
+        if (readAll.get() && !Thread.currentThread().isInterrupted()) {
+            run.finish();
+        }
+        log.info("Mapping pipeline finished, {} associations read, {} saved, {} failed in {} ms",
+                 read.get(), writer.processed.get(), failed.get(), System.currentTimeMillis() - start);
+        return writer.processed.get();
+    }
+
+    /**
+     * Per association latencies of the stages of the last run which finished.
+     */
+    public List<StageTimings> getLastRunTimings() {
+        return lastRunTimings;
+    }
+
+    // A journal left by a run of another release, mode or set of associations is not resumed
+    private String inputHash(OperationMode selectionMode, OperationMode mappingMode) {
+        IdRangeProjection bounds = associationService.getIdBounds();
+        List<Object> input = new ArrayList<>();
+        input.add(config.getERelease());
+        input.add(selectionMode.name());
+        input.add(mappingMode.name());
+        if (bounds != null) {
+            input.add(bounds.getMinId());
+            input.add(bounds.getMaxId());
+            input.add(bounds.getTotal());
+        }
+        return PayloadHasher.hash(input);
+    }
+
+    private void readIds(OperationMode mode, OperationMode mappingMode, BlockingQueue<AssociationMapping> output,
+                         AtomicLong read, Checkpoints checkpoints, AtomicBoolean readAll) {
+        try {
+            try {
+                Long lastId = checkpoints.resumeAfter();
+                if (lastId > 0) {
+                    log.info("Mapping pipeline resumes after association {}", lastId);
+                }
+                List<Long> ids;
+                do {
+                    ids = associationService.getAssociationIdsAfter(lastId, config.getPipelineReadBatchSize(), mode);
+                    if (mappingMode != OperationMode.MAP_ALL_SNPS_INDB && !ids.isEmpty()) {
+                        // The resolver then finds the page in the prefetched history
+                        historyPrefetcher.prefetchAssociations(ids);
+                    }
+                    checkpoints.read(ids);
+                    for (Long id : ids) {
+                        output.put(new AssociationMapping(id));
+                        read.incrementAndGet();
+                    }
+                    if (!ids.isEmpty()) {
+                        lastId = ids.get(ids.size() - 1);
+                    }
+                } while (!ids.isEmpty());
+                readAll.set(true);
+            } catch (RuntimeException e) {
+                log.error("Reading association ids stopped due to error {}", e.getMessage());
+            } finally {
+                output.put(END);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void report(AtomicLong read, AtomicLong failed, List<Stage> stages) {
+        StringBuilder depths = new StringBuilder();
+        for (Stage stage : stages) {
+            StageTimings timings = stage.timings();
+            depths.append(String.format(" %s[queue %s/%s, done %s, p50 %.1fms, p99 %.1fms]", stage.name, stage.input.size(),
+                                        stage.input.size() + stage.input.remainingCapacity(), stage.processed.get(),
+                                        timings.getP50Millis(), timings.getP99Millis()));
+        }
+        log.info("Mapping pipeline: read {}, failed {},{}, results cache {} hits {} misses",
+                 read.get(), failed.get(), depths, resultCache.getHits(), resultCache.getMisses());
+    }
+
+    private void failed(String stage, AssociationMapping item, RuntimeException e, AtomicLong failed) {
+        failed.incrementAndGet();
+        log.error("Association {} was not mapped due to error in {}: {}", item.getAssociationId(), stage, e.getMessage());
+        try {
+            // Leaves the same error report as the report check at the end of a list remap
+            dataSavingService.postMappingReportCheck(associationService.getAssociations(Collections.singletonList(item.getAssociationId())));
+        } catch (RuntimeException reportError) {
+            log.error("Association {} report could not be checked: {}", item.getAssociationId(), reportError.getMessage());
+        }
+    }
+
+    private class Stage {
+
+        private final String name;
+        private final BlockingQueue<AssociationMapping> input;
+        private final BlockingQueue<AssociationMapping> output;
+        private final int threads;
+        private final AtomicLong failures;
+        private final Checkpoints checkpoints;
+        private final Consumer<AssociationMapping> work;
+        private final AtomicInteger running;
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong timed = new AtomicLong();
+        private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_SAMPLES);
+
+        Stage(String name, BlockingQueue<AssociationMapping> input, BlockingQueue<AssociationMapping> output,
+              int threads, AtomicLong failures, Checkpoints checkpoints, Consumer<AssociationMapping> work) {
+            this.name = name;
+            this.input = input;
+            this.output = output;
+            this.threads = Math.max(1, threads);
+            this.failures = failures;
+            this.checkpoints = checkpoints;
+            this.work = work;
+            this.running = new AtomicInteger(this.threads);
+        }
+
+        void start(ExecutorService executor) {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(this::work);
+            }
+        }
+
+        StageTimings timings() {
+            long[] sorted = new long[(int) Math.min(timed.get(), LATENCY_SAMPLES)];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = latencies.get(i);
+            }
+            Arrays.sort(sorted);
+            return new StageTimings(name, processed.get(), percentile(sorted, 0.50), percentile(sorted, 0.99),
+                                    percentile(sorted, 1.0));
+        }
+
+        private double percentile(long[] sorted, double rank) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = Math.min(sorted.length - 1, (int) Math.ceil(rank * sorted.length) - 1);
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+
+        private void work() {
+            try {
+                try {
+                    AssociationMapping item;
+                    while ((item = input.take()) != END) {
+                        long began = System.nanoTime();
+                        try {
+                            work.accept(item);
+                        } catch (RuntimeException e) {
+                            failed(name, item, e, failures);
+                            checkpoints.finished(item.getAssociationId());
+                            continue;
+                        } finally {
+                            latencies.set((int) (timed.getAndIncrement() % LATENCY_SAMPLES), System.nanoTime() - began);
+                        }
+                        processed.incrementAndGet();
+                        if (output != null) {
+                            output.put(item);
+                        } else {
+                            checkpoints.finished(item.getAssociationId());
+                        }
+                    }
+                    // Siblings of this stage stop on the same marker
+                    input.put(END);
+                } finally {
+                    if (running.decrementAndGet() == 0 && output != null) {
+                        output.put(END);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Read batches by their last id with the number of associations still being mapped. The journal mark
+     * only moves past a batch once it and every batch before it are done.
+     */
+    private static class Checkpoints {
+
+        private final RunJournal.Run run;
+        private final ConcurrentSkipListMap<Long, AtomicInteger> batches = new ConcurrentSkipListMap<>();
+
+        Checkpoints(RunJournal.Run run) {
+            this.run = run;
+        }
+
+        long resumeAfter() {
+            return run.mark(ASSOCIATION_MARK);
+        }
+
+        // Before the batch is handed on, ids come in ascending order
+        void read(List<Long> ids) {
+            if (!ids.isEmpty()) {
+                batches.put(ids.get(ids.size() - 1), new AtomicInteger(ids.size()));
+            }
+        }
+
+        void finished(Long associationId) {
+            Map.Entry<Long, AtomicInteger> batch = batches.ceilingEntry(associationId);
+            if (batch != null && batch.getValue().decrementAndGet() == 0) {
+                this.advance();
+            }
+        }
+
+        private synchronized void advance() {
+            Long mark = null;
+            Map.Entry<Long, AtomicInteger> first;
+            while ((first = batches.firstEntry()) != null && first.getValue().get() == 0) {
+                batches.remove(first.getKey());
+                mark = first.getKey();
+            }
+            if (mark != null) {
+                run.mark(ASSOCIATION_MARK, mark);
+            }
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,116 @@
+package uk.ac.ebi.spot.gwas.mapping;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.ListUtils;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.spot.gwas.association.Association;
+import uk.ac.ebi.spot.gwas.association.AssociationRepository;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.constant.Type;
+import uk.ac.ebi.spot.gwas.common.model.Gene;
+import uk.ac.ebi.spot.gwas.common.model.Locus;
+import uk.ac.ebi.spot.gwas.common.projection.MappingProjection;
+import uk.ac.ebi.spot.gwas.common.repository.SingleNucleotidePolymorphismRepository;
+import uk.ac.ebi.spot.gwas.common.service.EnsemblRestcallHistoryService;
+import uk.ac.ebi.spot.gwas.mapping.dto.Mapping;
+import uk.ac.ebi.spot.gwas.variation.Variant;
+import uk.ac.ebi.spot.gwas.variation.VariationService;
+
+import java.util.*;
+
+/**
+ * Loads the Ensembl call history a batch of associations will look up before it is mapped, so that
+ * mapping against the database (MAP_SOME_SNPS_INDB) only goes to the history table or to Ensembl for true misses.
+ * Variations and reported genes are known up front, band and gene window keys follow from the variant locations.
+ */
+@Slf4j
+@Service
+public class HistoryPrefetcher {
+
+    private static final List<String> REPORTED_GENES_TO_IGNORE = Arrays.asList("NR", "intergenic", "genic");
+
+    private final AppConfig config;
+    private final EnsemblRestcallHistoryService historyService;
+    private final VariationService variationService;
+    private final MappingFacade mappingFacade;
+    private final SingleNucleotidePolymorphismRepository snpRepository;
+    private final AssociationRepository associationRepository;
+
+    public HistoryPrefetcher(AppConfig config,
+                             EnsemblRestcallHistoryService historyService,
+                             VariationService variationService,
+                             MappingFacade mappingFacade,
+                             SingleNucleotidePolymorphismRepository snpRepository,
+                             AssociationRepository associationRepository) {
+        this.config = config;
+        this.historyService = historyService;
+        this.variationService = variationService;
+        this.mappingFacade = mappingFacade;
+        this.snpRepository = snpRepository;
+        this.associationRepository = associationRepository;
+    }
+
+    public void prefetch(Collection<Association> associations) {
+        List<Long> locusIds = new ArrayList<>();
+        Set<String> reportedGenes = new HashSet<>();
+        for (Association association : associations) {
+            for (Locus locus : association.getLoci()) {
+                locusIds.add(locus.getId());
+                for (Gene gene : locus.getAuthorReportedGenes()) {
+                    if (gene.getGeneName() != null) {
+                        reportedGenes.add(gene.getGeneName().trim());
+                    }
+                }
+            }
+        }
+        Set<String> snpRsIds = new LinkedHashSet<>();
+        ListUtils.partition(locusIds, 1000).forEach(listPart -> snpRepository.findUsingRiskAllelesLociIds(listPart)
+                .stream().map(MappingProjection::getSnpRsid).forEach(snpRsIds::add));
+        this.prefetch(snpRsIds, reportedGenes);
+    }
+
+    // Same as prefetch(associations) with the rsIDs and reported genes read by id, without the entities
+    public void prefetchAssociations(List<Long> associationIds) {
+        Set<String> snpRsIds = new LinkedHashSet<>();
+        Set<String> reportedGenes = new HashSet<>();
+        for (List<Long> listPart : ListUtils.partition(associationIds, 1000)) {
+            snpRsIds.addAll(associationRepository.findSnpRsIdsByIdIn(listPart));
+            associationRepository.findReportedGenesByIdIn(listPart).stream().filter(Objects::nonNull)
+                    .map(String::trim).forEach(reportedGenes::add);
+        }
+        this.prefetch(snpRsIds, reportedGenes);
+    }
+
+    public void prefetch(Collection<String> snpRsIds, Collection<String> reportedGenes) {
+        long start = System.currentTimeMillis();
+        String eRelease = config.getERelease();
+        try {
+            historyService.prefetch(Type.SNP, snpRsIds, eRelease);
+            Set<String> genes = new HashSet<>();
+            reportedGenes.stream().map(gene -> gene.replace(" ", ""))
+                    .filter(gene -> !REPORTED_GENES_TO_IGNORE.contains(gene)).forEach(genes::add);
+            historyService.prefetch(Type.LOOKUP_SYMBOL, genes, eRelease);
+
+            // Cached by the variation lookup for the mapping which follows, misses go to Ensembl as one batch
+            List<Variant> variants = new ArrayList<>();
+            Set<String> chromosomes = new HashSet<>();
+            for (Variant variant : variationService.getVariationsFromDB(snpRsIds).values()) {
+                if (variant.getMappings() != null) {
+                    variants.add(variant);
+                    variant.getMappings().stream().map(Mapping::getSeqRegionName).filter(Objects::nonNull).forEach(chromosomes::add);
+                }
+            }
+            historyService.prefetch(Type.INFO_ASSEMBLY, chromosomes, eRelease);
+            historyService.prefetch(Type.OVERLAP_REGION, mappingFacade.getOverlapRegionParams(variants), eRelease);
+        } catch (RuntimeException e) {
+            // The mapping looks everything up on its own
+            log.warn("History prefetch failed: {}", e.getMessage());
+        }
+        log.info("Prefetched history of {} SNPs in {} ms", snpRsIds.size(), System.currentTimeMillis() - start);
+    }
+
+    public void clear() {
+        historyService.clearPrefetched();
+        log.info(historyService.getPrefetchStats());
+    }
+}
@@ -7,8 +7,10 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
 import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfoService;
+import uk.ac.ebi.spot.gwas.common.constant.GeneProvider;
 import uk.ac.ebi.spot.gwas.common.constant.OperationMode;
 import uk.ac.ebi.spot.gwas.common.model.*;
+import uk.ac.ebi.spot.gwas.common.util.GenomicKey;
 import uk.ac.ebi.spot.gwas.ensembl_data.EnsemblData;
 import uk.ac.ebi.spot.gwas.gene_symbol.GeneSymbol;
 import uk.ac.ebi.spot.gwas.gene_symbol.GeneSymbolService;
@@ -16,22 +18,22 @@ import uk.ac.ebi.spot.gwas.genomic_context.GenomicContextService;
 import uk.ac.ebi.spot.gwas.mapping.dto.EnsemblMappingResult;
 import uk.ac.ebi.spot.gwas.mapping.dto.Mapping;
 import uk.ac.ebi.spot.gwas.mapping.dto.MappingDto;
+import uk.ac.ebi.spot.gwas.overlap_gene.GeneAnnotationService;
 import uk.ac.ebi.spot.gwas.overlap_gene.OverlapGene;
 import uk.ac.ebi.spot.gwas.overlap_gene.OverlappingGeneService;
+import uk.ac.ebi.spot.gwas.overlap_region.CytogeneticBandIndex;
 import uk.ac.ebi.spot.gwas.overlap_region.OverlapRegion;
 import uk.ac.ebi.spot.gwas.overlap_region.OverlapRegionService;
 import uk.ac.ebi.spot.gwas.variation.Variant;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Data
 @Service
 public class MappingFacade {
 
+    private static final List<String> REPORTED_GENES_TO_IGNORE = Arrays.asList("NR", "intergenic", "genic");
 
     @Value("${mapping.genomic_distance}")
     private int genomicDistance; // 100kb
@@ -45,6 +47,9 @@ public class MappingFacade {
     @Value("${mapping.method}")
     private String mappingMethod;
 
+    @Value("${mapping.gene_provider:rest}")
+    private String geneProvider;
+
     private EnsemblData ensemblData;
 
     private String eRelease;
@@ -59,8 +64,20 @@ public class MappingFacade {
     private GeneSymbolService reportedGeneService;
     @Autowired
     private GenomicContextService genomicContextService;
+    @Autowired
+    private GeneAnnotationService geneAnnotationService;
+    @Autowired
+    private CytogeneticBandIndex cytogeneticBandIndex;
+
+    private boolean isLocalGeneProvider() {
+        return GeneProvider.from(geneProvider) == GeneProvider.LOCAL;
+    }
 
-    private List<OverlapGene> getFromCacheOrDB(String location, String source, OperationMode mode) {
+    private List<OverlapGene> getFromCacheOrDB(String chromosome, int start, int end, String source, OperationMode mode) {
+        if (this.isLocalGeneProvider()) {
+            return geneAnnotationService.getOverlappingGenes(chromosome, start, end, source);
+        }
+        String location = GenomicKey.location(chromosome, start, end);
         List<OverlapGene> overlapGenes;
         if (mode == OperationMode.MAP_ALL_SNPS_INDB){
             Map<String, List<OverlapGene>> overlapGeneData =
@@ -89,32 +106,39 @@ public class MappingFacade {
         return chrEnd;
     }
 
+    private String getCytogeneticBand(String chromosomeName, Integer chromosomePosition, OperationMode mode) {
+        if (cytogeneticBandIndex.isLoaded(chromosomeName)) {
+            return cytogeneticBandIndex.getBand(chromosomeName, chromosomePosition);
+        }
+        String chrLocation = GenomicKey.location(chromosomeName, chromosomePosition, chromosomePosition);
+        List<OverlapRegion> overlapRegions;
+        if (mode == OperationMode.MAP_ALL_SNPS_INDB) {
+            Map<String, List<OverlapRegion>> cytoGeneticBand = ensemblData.getCytoGeneticBand();
+            overlapRegions = cytoGeneticBand.get(chrLocation);
+        } else {
+            overlapRegions = cytoGeneticBandService.getCytoGeneticBandsFromDB(chrLocation);
+        }
+        if (overlapRegions != null && !overlapRegions.isEmpty() && !Optional.ofNullable(overlapRegions.get(0).getError()).isPresent()) {
+            return overlapRegions.get(0).getId();
+        }
+        return null;
+    }
+
     public Collection<Location> getMappings(Variant variant, OperationMode mode) {
 
         Collection<Location> locations = new ArrayList<>();
-        List<Mapping> mappings = variant.getMappings();
-        List<Mapping> chromosomeMappings = mappings.stream().filter(mapping -> mapping.getCoordSystem().equalsIgnoreCase("chromosome"))
-                .collect(Collectors.toList());
-        for (Mapping mapping : chromosomeMappings) {
+        for (Mapping mapping : variant.getMappings()) {
+            if (!mapping.getCoordSystem().equalsIgnoreCase("chromosome")) {
+                continue;
+            }
             String chromosomeName = mapping.getSeqRegionName();
             Integer chromosomePosition = mapping.getStart();
 
             if (Optional.ofNullable(chromosomeName).isPresent()) {
-                String chrLocation = String.format("%s:%s-%s", chromosomeName, chromosomePosition, chromosomePosition);
-                List<OverlapRegion> overlapRegions;
-
-                if (mode == OperationMode.MAP_ALL_SNPS_INDB) {
-                    Map<String, List<OverlapRegion>> cytoGeneticBand = ensemblData.getCytoGeneticBand();
-                    overlapRegions = cytoGeneticBand.get(chrLocation);
-                } else {
-                    overlapRegions = cytoGeneticBandService.getCytoGeneticBandsFromDB(chrLocation);
-                }
                 Region region = new Region();
-                if (!overlapRegions.isEmpty() && !Optional.ofNullable(overlapRegions.get(0).getError()).isPresent()) {
-                    String cytogeneticBand = overlapRegions.get(0).getId();
-                    Matcher matcher1 = Pattern.compile("^[0-9]+|[XY]$").matcher(chromosomeName); // Chromosomes
-                    Matcher matcher2 = Pattern.compile("^MT$").matcher(chromosomeName);          // Mitochondria
-                    if (matcher1.matches() || matcher2.matches()) {
+                if (GenomicKey.isChromosome(chromosomeName)) {
+                    String cytogeneticBand = this.getCytogeneticBand(chromosomeName, chromosomePosition, mode);
+                    if (cytogeneticBand != null) {
                         region.setName(chromosomeName + cytogeneticBand);
                     }
                 }
@@ -125,6 +149,45 @@ public class MappingFacade {
         return locations;
     }
 
+    /**
+     * overlap/region parameters looked up for the locations of these variants: bands and the overlap,
+     * upstream and downstream windows of both sources. Windows of the nearest gene search depend on
+     * the genes found and are left out.
+     */
+    public Set<String> getOverlapRegionParams(Collection<Variant> variants) {
+        Set<String> params = new LinkedHashSet<>();
+        for (Variant variant : variants) {
+            if (variant == null || variant.getMappings() == null) {
+                continue;
+            }
+            for (Mapping mapping : variant.getMappings()) {
+                String chromosome = mapping.getSeqRegionName();
+                Integer position = mapping.getStart();
+                if (!"chromosome".equalsIgnoreCase(mapping.getCoordSystem()) || chromosome == null || position == null) {
+                    continue;
+                }
+                if (GenomicKey.isChromosome(chromosome) && !cytogeneticBandIndex.isLoaded(chromosome)) {
+                    params.add(GenomicKey.location(chromosome, position, position) + "?feature=band");
+                }
+                if (this.isLocalGeneProvider()) {
+                    continue;
+                }
+                int positionUp = position - genomicDistance;
+                int posUp = (positionUp < 0) ? 1 : positionUp;
+                int chrEnd = this.getChromosomeEnd(new Location(chromosome, position, null), OperationMode.MAP_SOME_SNPS_INDB);
+                for (String source : Arrays.asList(ncbiSource, ensemblSource)) {
+                    params.add(overlappingGeneService.buildParam(GenomicKey.location(chromosome, position, position), source));
+                    params.add(overlappingGeneService.buildParam(GenomicKey.location(chromosome, posUp, position), source));
+                    if (chrEnd != 0) {
+                        int positionDown = Math.min(position + genomicDistance, chrEnd);
+                        params.add(overlappingGeneService.buildParam(GenomicKey.location(chromosome, position, positionDown), source));
+                    }
+                }
+            }
+        }
+        return params;
+    }
+
     public MappingDto getOverlapGenes(Location snpLocation,
                                       String source,
                                       EnsemblMappingResult mappingResult,
@@ -133,9 +196,8 @@ public class MappingFacade {
         Set<String> geneNames = new HashSet<>();
         String chromosome = snpLocation.getChromosomeName();
         Integer position = snpLocation.getChromosomePosition();
-        String location = String.format("%s:%s-%s", chromosome, position, position);
 
-        List<OverlapGene> overlapGenes = this.getFromCacheOrDB(location, source, mode);
+        List<OverlapGene> overlapGenes = this.getFromCacheOrDB(chromosome, position, position, source, mode);
         MappingDto mappingDto = MappingDto.builder()
                 .genomicContexts(new ArrayList<>())
                 .build();
@@ -160,9 +222,8 @@ public class MappingFacade {
         int posUp = (positionUp < 0) ? chrStart : positionUp;
 
         List<GenomicContext> genomicContexts = new ArrayList<>();
-        String location = String.format("%s:%s-%s", chromosome, posUp, position);
 
-        List<OverlapGene> overlapGenes = this.getFromCacheOrDB(location, source, mode);
+        List<OverlapGene> overlapGenes = this.getFromCacheOrDB(chromosome, posUp, position, source, mode);
         if (overlapGenes.isEmpty() || !Optional.ofNullable(overlapGenes.get(0).getError()).isPresent()) {
 
             MappingDto mappingDto = genomicContextService.add(overlapGenes, snpLocation, source, type, mappingResult);
@@ -194,9 +255,7 @@ public class MappingFacade {
             positionDown = Math.min(positionDown, chrEnd);
 
             // Check if there are overlap genes
-            String location = String.format("%s:%s-%s", chromosome, position, positionDown);
-
-            List<OverlapGene> overlapGenes = this.getFromCacheOrDB(location, source, mode);
+            List<OverlapGene> overlapGenes = this.getFromCacheOrDB(chromosome, position, positionDown, source, mode);
             if (overlapGenes.isEmpty() || !Optional.ofNullable(overlapGenes.get(0).getError()).isPresent()) {
                 MappingDto pair = genomicContextService.add(overlapGenes, snpLocation, source, type, mappingResult);
                 boolean closestFound = pair.getClosestFound();
@@ -221,6 +280,12 @@ public class MappingFacade {
                                              String type, String source,
                                              EnsemblMappingResult mappingResult,
                                              OperationMode mode) {
+        if (this.isLocalGeneProvider()) {
+            // The index answers the nearest gene directly instead of walking 100kb windows
+            Set<String> overlappingGenes = source.equals(ncbiSource) ?
+                    mappingResult.getNcbiOverlappingGene() : mappingResult.getEnsemblOverlappingGene();
+            return geneAnnotationService.getNearestGene(chromosome, snpPosition, boundary, type, source, overlappingGenes);
+        }
         int position1 = position;
         int position2 = position;
         int snpPos = snpPosition;
@@ -240,8 +305,7 @@ public class MappingFacade {
             }
         }
 
-        String location = String.format("%s:%s-%s", chromosome, position1, position2);
-        List<OverlapGene> overlapGenes = this.getFromCacheOrDB(location, source, mode);
+        List<OverlapGene> overlapGenes = this.getFromCacheOrDB(chromosome, position1, position2, source, mode);
 
         boolean geneError = false;
         if (overlapGenes != null && !overlapGenes.isEmpty()) {
@@ -297,9 +361,8 @@ public class MappingFacade {
         for (String reportedGene : reportedGenes) {
             log.debug("reportedGene is {}", reportedGene);
             reportedGene = reportedGene.replace(" ", "");
-            List<String> reportedGenesToIgnore = Arrays.asList("NR", "intergenic", "genic");
 
-            if (!reportedGenesToIgnore.contains(reportedGene)) {
+            if (!REPORTED_GENES_TO_IGNORE.contains(reportedGene)) {
                 GeneSymbol reportedGeneApiResult;
                 if (mode == OperationMode.MAP_ALL_SNPS_INDB) {
                     reportedGeneApiResult = ensemblData.getReportedGenes().get(reportedGene);
@@ -0,0 +1,97 @@
+package uk.ac.ebi.spot.gwas.mapping;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.ac.ebi.spot.gwas.mapping.dto.EnsemblMappingResult;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Mapping results by rsID for the duration of a mapping run. An rsID linked to many loci is mapped once,
+ * callers asking for an rsID which is being mapped wait for that result instead of mapping it again.
+ * Results hold no reported gene checks, those depend on the locus and are applied on a copy.
+ * At most mapping.result_cache.max_size rsIDs are kept, the least recently used ones are mapped again
+ * if they come back. Outside of a run nothing is kept.
+ */
+@Slf4j
+@Component
+public class MappingResultCache {
+
+    private final Cache<String, CompletableFuture<EnsemblMappingResult>> cache;
+    private final ConcurrentMap<String, CompletableFuture<EnsemblMappingResult>> results;
+    private final AtomicInteger runs = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public MappingResultCache(@Value("${mapping.result_cache.max_size:20000}") long maxSize) {
+        this.cache = Caffeine.newBuilder().maximumSize(maxSize).build();
+        this.results = cache.asMap();
+    }
+
+    public void open() {
+        if (runs.getAndIncrement() == 0) {
+            hits.set(0);
+            misses.set(0);
+        }
+    }
+
+    public void close() {
+        if (runs.decrementAndGet() == 0) {
+            log.info("Mapping result cache: {} rsIDs, {} hits, {} misses", results.size(), hits.get(), misses.get());
+            cache.invalidateAll();
+        }
+    }
+
+    public boolean contains(String rsId) {
+        CompletableFuture<EnsemblMappingResult> result = results.get(rsId);
+        return result != null && result.isDone() && !result.isCompletedExceptionally();
+    }
+
+    public EnsemblMappingResult get(String rsId, Function<String, EnsemblMappingResult> mapping) {
+        if (runs.get() == 0) {
+            return mapping.apply(rsId);
+        }
+
+        CompletableFuture<EnsemblMappingResult> result = new CompletableFuture<>();
+        CompletableFuture<EnsemblMappingResult> existing = results.putIfAbsent(rsId, result);
+        if (existing != null) {
+            hits.incrementAndGet();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        misses.incrementAndGet();
+        try {
+            result.complete(mapping.apply(rsId));
+        } catch (RuntimeException e) {
+            // Waiting callers get the error, later ones try again
+            results.remove(rsId, result);
+            result.completeExceptionally(e);
+            throw e;
+        }
+        return result.join();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return (int) cache.estimatedSize();
+    }
+}
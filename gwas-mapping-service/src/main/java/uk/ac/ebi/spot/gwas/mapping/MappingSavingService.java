@@ -14,12 +14,14 @@ import uk.ac.ebi.spot.gwas.common.config.AppConfig;
 import uk.ac.ebi.spot.gwas.common.constant.Uri;
 import uk.ac.ebi.spot.gwas.mapping.dto.*;
 import uk.ac.ebi.spot.gwas.common.model.*;
+import uk.ac.ebi.spot.gwas.common.repository.GeneRepository;
 import uk.ac.ebi.spot.gwas.common.repository.SingleNucleotidePolymorphismRepository;
 import uk.ac.ebi.spot.gwas.ensembl_data.EnsemblData;
 import uk.ac.ebi.spot.gwas.gene_symbol.GeneSymbol;
 import uk.ac.ebi.spot.gwas.overlap_gene.OverlapGene;
 import uk.ac.ebi.spot.gwas.overlap_region.OverlapRegion;
 import uk.ac.ebi.spot.gwas.common.service.*;
+import uk.ac.ebi.spot.gwas.common.util.MappingFingerprint;
 import uk.ac.ebi.spot.gwas.common.util.MappingUtil;
 import uk.ac.ebi.spot.gwas.variation.Variant;
 
@@ -32,6 +34,9 @@ import java.util.stream.Collectors;
 @Service
 public class MappingSavingService {
 
+    // Oracle limit on the number of IN list values
+    private static final int IN_LIST_SIZE = 1000;
+
     @Autowired
     private SnpLocationMappingService snpLocationMappingService;
     @Autowired
@@ -45,7 +50,34 @@ public class MappingSavingService {
     @Autowired
     private EnsemblRestcallHistoryService historyService;
     @Autowired
+    private BulkMappingWriter bulkMappingWriter;
+    @Autowired
+    private GeneRepository geneRepository;
+    @Autowired
     private AppConfig config;
+
+    /**
+     * Loads the stored mappings of the SNPs into the persistence context with a few set based queries, so the
+     * comparison of {@link #saveMappedData} does not lazy load the collections of each SNP one by one.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void loadStoredMappings(Collection<Long> snpIds) {
+        if (!config.isCompareWrite() || snpIds.isEmpty()) {
+            return;
+        }
+        Set<Long> geneIds = new HashSet<>();
+        for (List<Long> part : ListUtils.partition(new ArrayList<>(new HashSet<>(snpIds)), IN_LIST_SIZE)) {
+            singleNucleotidePolymorphismRepository.findWithLocationsByIdIn(part);
+            singleNucleotidePolymorphismRepository.findWithGenomicContextsByIdIn(part).forEach(snp -> snp.getGenomicContexts().stream()
+                    .filter(genomicContext -> genomicContext.getGene() != null)
+                    .forEach(genomicContext -> geneIds.add(genomicContext.getGene().getId())));
+        }
+        for (List<Long> part : ListUtils.partition(new ArrayList<>(geneIds), IN_LIST_SIZE)) {
+            geneRepository.findWithEnsemblGeneIdsByIdIn(part);
+            geneRepository.findWithEntrezGeneIdsByIdIn(part);
+        }
+    }
+
     @Transactional(propagation = Propagation.SUPPORTS)
     public MappingDto   saveMappedData(SingleNucleotidePolymorphism snpLinkedToLocus, EnsemblMappingResult ensemblMappingResult, Map<String, Set<Location>> snpToLocationsMap,
                                        Collection<GenomicContext> allGenomicContexts, Collection<String> associationPipelineErrors) {
@@ -53,9 +85,6 @@ public class MappingSavingService {
         log.debug("Inside saveMappedData()");
 
         String snpRsId = snpLinkedToLocus.getRsId();
-        snpLocationMappingService.removeExistingSnpLocations(snpLinkedToLocus);
-        snpGenomicContextMappingService.removeExistingGenomicContexts(snpLinkedToLocus);
-        log.info("Removed existing data.");
 
         // Get new Locations, genomic contexts, errors, functionalClass, merged, currentSnpId
         Collection<Location> locations = ensemblMappingResult.getLocations();
@@ -65,13 +94,24 @@ public class MappingSavingService {
         Long merged = Long.valueOf(ensemblMappingResult.getMerged());
         String currentSnpId = ensemblMappingResult.getCurrentSnpId();
 
+        // Most SNPs of a remap are mapped as before, those keep their rows and only get a new update date
+        boolean unchanged = config.isCompareWrite() &&
+                MappingFingerprint.matches(snpLinkedToLocus, functionalClass, merged, currentSnpId, locations, snpGenomicContexts);
+        if (unchanged) {
+            log.info("[{}] Mapping unchanged, keeping existing data.", snpRsId);
+        } else {
+            snpLocationMappingService.removeExistingSnpLocations(snpLinkedToLocus);
+            snpGenomicContextMappingService.removeExistingGenomicContexts(snpLinkedToLocus);
+            log.info("Removed existing data.");
+        }
+
         // Update functional class, update date, merged
         snpLinkedToLocus.setFunctionalClass(functionalClass);
         snpLinkedToLocus.setLastUpdateDate(new Date());
         snpLinkedToLocus.setMerged(merged);
 
         // Update the merge table
-        if (merged == 1) {
+        if (merged == 1 && !unchanged) {
             SingleNucleotidePolymorphism currentSnp = singleNucleotidePolymorphismRepository.findByRsId(currentSnpId);
             // Create a new entry in the SingleNucleotidePolymorphism SQL table for the current rsID, Add the current SingleNucleotidePolymorphism to the "merged" rsID
             log.info("Looking for merged data: {}", currentSnp);
@@ -92,9 +132,9 @@ public class MappingSavingService {
         singleNucleotidePolymorphismRepository.save(snpLinkedToLocus);
         log.info("[{}] SNP linked to locus saved.", snpLinkedToLocus.getRsId());
 
-        // Store location information for SNP
+        // Store location information for SNP, an unchanged SNP keeps the stored ones
         if (!locations.isEmpty()) {
-            for (Location location : locations) {
+            for (Location location : unchanged ? Collections.<Location>emptyList() : locations) {
                 log.info("Snpid & Location are -> "+snpRsId+","+location.getChromosomeName()+"|"+location.getRegion().getName());
 
                 // Next time we see SNP, add location to set. This would only occur if SNP has multiple locations
@@ -113,7 +153,9 @@ public class MappingSavingService {
         }
         // Store genomic context data for snp
         if (!snpGenomicContexts.isEmpty()) {
-            allGenomicContexts.addAll(snpGenomicContexts);
+            if (!unchanged) {
+                allGenomicContexts.addAll(snpGenomicContexts);
+            }
         } else {
             log.warn("Attempt to map SNP: " + snpRsId + " returned no mapped genes");
             pipelineErrors.add("Attempt to map SNP: " + snpRsId + " returned no mapped genes");
@@ -154,7 +196,11 @@ public class MappingSavingService {
         // Save data
         if (!snpToLocationsMap.isEmpty()) {
             log.info("Updating location details ...");
-            snpLocationMappingService.storeSnpLocation(snpToLocationsMap);
+            if (config.isBulkWrite()) {
+                bulkMappingWriter.storeSnpLocations(snpToLocationsMap);
+            } else {
+                snpLocationMappingService.storeSnpLocation(snpToLocationsMap);
+            }
             log.info("Updating location details complete");
         }
         if (!allGenomicContexts.isEmpty()) {
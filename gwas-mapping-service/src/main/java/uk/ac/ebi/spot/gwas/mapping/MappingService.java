@@ -2,15 +2,18 @@ package uk.ac.ebi.spot.gwas.mapping;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import uk.ac.ebi.spot.gwas.association.Association;
+import uk.ac.ebi.spot.gwas.association.AssociationService;
 import uk.ac.ebi.spot.gwas.common.config.AppConfig;
 import uk.ac.ebi.spot.gwas.common.constant.OperationMode;
 import uk.ac.ebi.spot.gwas.mapping.dto.*;
 import uk.ac.ebi.spot.gwas.common.model.*;
+import uk.ac.ebi.spot.gwas.common.repository.SingleNucleotidePolymorphismRepository;
 import uk.ac.ebi.spot.gwas.ensembl_data.EnsemblData;
 import uk.ac.ebi.spot.gwas.common.service.MappingRecordService;
 import uk.ac.ebi.spot.gwas.common.service.SecureUserRepository;
@@ -21,6 +24,9 @@ import uk.ac.ebi.spot.gwas.variation.VariationService;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -43,20 +49,39 @@ public class MappingService {
     private AppConfig config;
     @Autowired
     private VariationService variationService;
+    @Autowired
+    private AssociationService associationService;
+    @Autowired
+    private MappingResultCache resultCache;
+    @Autowired
+    private SingleNucleotidePolymorphismRepository singleNucleotidePolymorphismRepository;
+    @Autowired
+    @Qualifier("genomicContextExecutor")
+    private Executor genomicContextExecutor;
 
     @Async("asyncExecutor")
     @Transactional(propagation = Propagation.REQUIRED)
     public CompletableFuture<MappingDto> mapAndSaveData(Association association, EnsemblData ensemblData, OperationMode mode) {
 
         log.info("commenced mapping and saving Association {} Data", association.getId());
-        MappingDto mappingDto = MappingDto.builder().build();
-        Collection<Locus> studyAssociationLoci = association.getLoci();
-        Map<String, Set<Location>> snpToLocationsMap = new HashMap<>();
-        // Collection to store all genomic contexts
-        Collection<GenomicContext> allGenomicContexts = new ArrayList<>();
-        // Collection to store all errors for one association
-        Collection<String> associationPipelineErrors = new ArrayList<>();
-        for (Locus associationLocus : studyAssociationLoci) {
+        AssociationMapping associationMapping = this.getSnpsToMap(association);
+        for (AssociationMapping.SnpMapping snp : associationMapping.getSnps()) {
+            snp.setResult(this.mappingPipeline(ensemblData, snp.getRsId(), snp.getReportedGenes(), mode));
+        }
+        return CompletableFuture.completedFuture(this.saveMapping(association, associationMapping));
+    }
+
+    /**
+     * SNPs of every locus of the association with the author reported genes of their locus.
+     */
+    @Transactional(readOnly = true)
+    public AssociationMapping getSnpsToMap(Long associationId) {
+        return this.getSnpsToMap(this.findAssociation(associationId));
+    }
+
+    private AssociationMapping getSnpsToMap(Association association) {
+        AssociationMapping associationMapping = new AssociationMapping(association.getId());
+        for (Locus associationLocus : association.getLoci()) {
             Long locusId = associationLocus.getId();
             Collection<SingleNucleotidePolymorphism> snpsLinkedToLocus = singleNucleotidePolymorphismQueryService.findByRiskAllelesLociId(locusId);
             Collection<Gene> authorReportedGenesLinkedToSnp = associationLocus.getAuthorReportedGenes();
@@ -69,13 +94,37 @@ public class MappingService {
             });
 
             for (SingleNucleotidePolymorphism snpLinkedToLocus : snpsLinkedToLocus) {
-                String snpRsId = snpLinkedToLocus.getRsId();
-                // Map to store returned location data, this is used in snpLocationMappingService to process all locations linked to a single snp in one go
-
-                EnsemblMappingResult mappingResult = this.mappingPipeline(ensemblData, snpRsId, authorReportedGeneNamesLinkedToSnp, mode);
-                mappingDto = dataSavingService.saveMappedData(snpLinkedToLocus, mappingResult, snpToLocationsMap, allGenomicContexts, associationPipelineErrors);
+                associationMapping.getSnps().add(new AssociationMapping.SnpMapping(snpLinkedToLocus.getId(),
+                                                                                   snpLinkedToLocus.getRsId(),
+                                                                                   authorReportedGeneNamesLinkedToSnp));
             }
         }
+        return associationMapping;
+    }
+
+    /**
+     * Saves the mapping results of an association, its reports and its mapping record.
+     */
+    @Transactional(propagation = Propagation.REQUIRED)
+    public MappingDto saveMapping(AssociationMapping associationMapping) {
+        return this.saveMapping(this.findAssociation(associationMapping.getAssociationId()), associationMapping);
+    }
+
+    private MappingDto saveMapping(Association association, AssociationMapping associationMapping) {
+        MappingDto mappingDto = MappingDto.builder().build();
+        Map<String, Set<Location>> snpToLocationsMap = new HashMap<>();
+        // Collection to store all genomic contexts
+        Collection<GenomicContext> allGenomicContexts = new ArrayList<>();
+        // Collection to store all errors for one association
+        Collection<String> associationPipelineErrors = new ArrayList<>();
+        // The lookups by id below are then answered by the persistence context
+        dataSavingService.loadStoredMappings(associationMapping.getSnps().stream()
+                                                     .map(AssociationMapping.SnpMapping::getSnpId).collect(Collectors.toList()));
+        for (AssociationMapping.SnpMapping snp : associationMapping.getSnps()) {
+            SingleNucleotidePolymorphism snpLinkedToLocus = singleNucleotidePolymorphismRepository.findById(snp.getSnpId())
+                    .orElseThrow(() -> new IllegalStateException("SNP not found in database, RS_ID: " + snp.getRsId()));
+            mappingDto = dataSavingService.saveMappedData(snpLinkedToLocus, snp.getResult(), snpToLocationsMap, allGenomicContexts, associationPipelineErrors);
+        }
 
         dataSavingService.createAssociationReports(association, mappingDto);
 
@@ -87,7 +136,15 @@ public class MappingService {
         mappingRecordService.updateAssociationMappingRecord(association, new Date(), performer);
 
         log.info(" Mapping was successful ");
-        return CompletableFuture.completedFuture(mappingDto);
+        return mappingDto;
+    }
+
+    private Association findAssociation(Long associationId) {
+        List<Association> associations = associationService.getAssociations(Collections.singletonList(associationId));
+        if (associations.isEmpty()) {
+            throw new IllegalStateException("Association not found in database: " + associationId);
+        }
+        return associations.get(0);
     }
 
     //@Transactional(propagation = Propagation.SUPPORTS)
@@ -96,13 +153,31 @@ public class MappingService {
                                                 Collection<String> reportedGenes, OperationMode mode) {
 
         log.info("Mapping pipeline commenced");
-        Variant variant;
+        EnsemblMappingResult mappingResult = resultCache.get(snpRsId, rsId -> this.mapVariant(this.resolveVariant(ensemblData, rsId, mode), rsId, mode));
+        return this.withReportedGenes(mappingResult, reportedGenes, mode);
+    }
+
+    /**
+     * Same as {@link #mappingPipeline} for a SNP whose variant may already have been resolved.
+     */
+    @Transactional(readOnly = true)
+    public EnsemblMappingResult mapSnp(EnsemblData ensemblData, AssociationMapping.SnpMapping snp, OperationMode mode) {
+        EnsemblMappingResult mappingResult = resultCache.get(snp.getRsId(), rsId -> this.mapVariant(
+                snp.isResolved() ? snp.getVariant() : this.resolveVariant(ensemblData, rsId, mode), rsId, mode));
+        return this.withReportedGenes(mappingResult, snp.getReportedGenes(), mode);
+    }
+
+    @Transactional(readOnly = true)
+    public Variant resolveVariant(EnsemblData ensemblData, String snpRsId, OperationMode mode) {
         if (mode == OperationMode.MAP_ALL_SNPS_INDB){
             mappingFacade.setEnsemblData(ensemblData);
-            variant = ensemblData.getVariations().get(snpRsId);
-        }else {
-            variant = variationService.getVariationFromDB(snpRsId);
+            return ensemblData.getVariations().get(snpRsId);
         }
+        return variationService.getVariationFromDB(snpRsId);
+    }
+
+    // Locations and genomic contexts of a resolved variant, the same for every locus the rsID is linked to
+    private EnsemblMappingResult mapVariant(Variant variant, String snpRsId, OperationMode mode) {
 
         EnsemblMappingResult mappingResult = new EnsemblMappingResult();
         mappingResult.setRsId(snpRsId);
@@ -134,23 +209,7 @@ public class MappingService {
                     }
 
                     for (Location snpLocation : locations) {
-
-                        // Overlapping genes
-                        MappingDto ncbiOverlap = mappingFacade.getOverlapGenes(snpLocation, config.getNcbiSource(), mappingResult, mode);
-                        ncbiOverlap.getGeneNames().forEach(mappingResult::addNcbiOverlappingGene);
-                        ncbiOverlap.getGenomicContexts().forEach(mappingResult::addGenomicContext);
-
-                        MappingDto ensemblOverlap = mappingFacade.getOverlapGenes(snpLocation, config.getEnsemblSource(), mappingResult, mode);
-                        ensemblOverlap.getGeneNames().forEach(mappingResult::addEnsemblOverlappingGene);
-                        ensemblOverlap.getGenomicContexts().forEach(mappingResult::addGenomicContext);
-
-                        // Upstream Genes
-                        mappingFacade.getUpstreamGenes(snpLocation, config.getNcbiSource(), mappingResult, mode).forEach(mappingResult::addGenomicContext);
-                        mappingFacade.getUpstreamGenes(snpLocation, config.getEnsemblSource(), mappingResult, mode).forEach(mappingResult::addGenomicContext);
-
-                        // Downstream Genes
-                        mappingFacade.getDownstreamGenes(snpLocation, config.getNcbiSource(), mappingResult, mode).forEach(mappingResult::addGenomicContext);
-                        mappingFacade.getDownstreamGenes(snpLocation, config.getEnsemblSource(), mappingResult, mode).forEach(mappingResult::addGenomicContext);
+                        this.addGenomicContexts(snpLocation, mappingResult, mode);
                     }
                 }
             }
@@ -158,6 +217,12 @@ public class MappingService {
             log.error("Variation call for SNP {} returned no result", snpRsId);
         }
 
+        return mappingResult;
+    }
+
+    // The shared result is left untouched, reported gene errors go on a copy
+    private EnsemblMappingResult withReportedGenes(EnsemblMappingResult sharedResult, Collection<String> reportedGenes, OperationMode mode) {
+        EnsemblMappingResult mappingResult = sharedResult.copy();
         if (!reportedGenes.isEmpty()) {
             log.debug("Reported Genes {}", reportedGenes);
             String pipelineError = mappingFacade.checkReportedGenes(reportedGenes, mappingResult.getLocations(), mode);
@@ -166,4 +231,37 @@ public class MappingService {
 
         return mappingResult;
     }
+
+    // Overlaps of both sources run together, each source's upstream and downstream lookups start as soon as
+    // its overlapping genes are known. Contexts are added in the same order as the sequential pipeline.
+    private void addGenomicContexts(Location snpLocation, EnsemblMappingResult mappingResult, OperationMode mode) {
+        String ncbiSource = config.getNcbiSource();
+        String ensemblSource = config.getEnsemblSource();
+
+        CompletableFuture<Integer> chromosomeEnd = CompletableFuture.supplyAsync(() -> mappingFacade.getChromosomeEnd(snpLocation, mode), genomicContextExecutor);
+        CompletableFuture<MappingDto> ncbiOverlap = CompletableFuture.supplyAsync(() -> mappingFacade.getOverlapGenes(snpLocation, ncbiSource, mappingResult, mode), genomicContextExecutor);
+        CompletableFuture<MappingDto> ensemblOverlap = CompletableFuture.supplyAsync(() -> mappingFacade.getOverlapGenes(snpLocation, ensemblSource, mappingResult, mode), genomicContextExecutor);
+
+        CompletableFuture<Void> ncbiOverlapKnown = ncbiOverlap.thenAccept(overlap -> overlap.getGeneNames().forEach(mappingResult::addNcbiOverlappingGene));
+        CompletableFuture<Void> ensemblOverlapKnown = ensemblOverlap.thenAccept(overlap -> overlap.getGeneNames().forEach(mappingResult::addEnsemblOverlappingGene));
+
+        CompletableFuture<List<GenomicContext>> ncbiUpstream = ncbiOverlapKnown.thenApplyAsync(known -> mappingFacade.getUpstreamGenes(snpLocation, ncbiSource, mappingResult, mode), genomicContextExecutor);
+        CompletableFuture<List<GenomicContext>> ensemblUpstream = ensemblOverlapKnown.thenApplyAsync(known -> mappingFacade.getUpstreamGenes(snpLocation, ensemblSource, mappingResult, mode), genomicContextExecutor);
+        // The chromosome end is warmed in parallel, getDownstreamGenes then reads it from the cache
+        CompletableFuture<List<GenomicContext>> ncbiDownstream = CompletableFuture.allOf(ncbiOverlapKnown, chromosomeEnd)
+                .thenApplyAsync(known -> mappingFacade.getDownstreamGenes(snpLocation, ncbiSource, mappingResult, mode), genomicContextExecutor);
+        CompletableFuture<List<GenomicContext>> ensemblDownstream = CompletableFuture.allOf(ensemblOverlapKnown, chromosomeEnd)
+                .thenApplyAsync(known -> mappingFacade.getDownstreamGenes(snpLocation, ensemblSource, mappingResult, mode), genomicContextExecutor);
+
+        try {
+            ncbiOverlap.join().getGenomicContexts().forEach(mappingResult::addGenomicContext);
+            ensemblOverlap.join().getGenomicContexts().forEach(mappingResult::addGenomicContext);
+            ncbiUpstream.join().forEach(mappingResult::addGenomicContext);
+            ensemblUpstream.join().forEach(mappingResult::addGenomicContext);
+            ncbiDownstream.join().forEach(mappingResult::addGenomicContext);
+            ensemblDownstream.join().forEach(mappingResult::addGenomicContext);
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
 }
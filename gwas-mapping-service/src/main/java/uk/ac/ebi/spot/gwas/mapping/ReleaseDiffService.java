@@ -0,0 +1,378 @@
+package uk.ac.ebi.spot.gwas.mapping;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.ListUtils;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfoService;
+import uk.ac.ebi.spot.gwas.association.AssociationRepository;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.constant.DataType;
+import uk.ac.ebi.spot.gwas.common.constant.Type;
+import uk.ac.ebi.spot.gwas.common.projection.HistoryEntryProjection;
+import uk.ac.ebi.spot.gwas.common.repository.EnsemblRestcallHistoryRepository;
+import uk.ac.ebi.spot.gwas.common.util.CacheUtil;
+import uk.ac.ebi.spot.gwas.common.util.GenomicKey;
+import uk.ac.ebi.spot.gwas.common.util.PayloadHasher;
+import uk.ac.ebi.spot.gwas.gene_symbol.GeneSymbolService;
+import uk.ac.ebi.spot.gwas.overlap_gene.OverlapGene;
+import uk.ac.ebi.spot.gwas.overlap_gene.OverlappingGeneService;
+import uk.ac.ebi.spot.gwas.overlap_region.OverlapRegionService;
+import uk.ac.ebi.spot.gwas.variation.VariationService;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Finds the associations a release rollover can change. Every rsID, band, gene window, chromosome and
+ * reported gene looked up in the previous release, from the history table and the local response stores,
+ * is looked up again in mapping.version and the two payloads compared by {@link PayloadHasher}.
+ * Only associations with a SNP touched by a changed payload need remapping.
+ * <p>
+ * The nearest gene walk looks further than the windows next to a SNP, mapping.genomic_distance at a time until it finds a gene,
+ * so a changed gene window also stands for the SNPs beyond it up to the first gene on either side.
+ */
+@Slf4j
+@Service
+public class ReleaseDiffService {
+
+    private static final String BAND_FEATURE = "?feature=band";
+    private static final String GENE_FEATURE = "?feature=gene";
+    // Keys already compared, a key seen again once evicted is only compared twice
+    private static final int COMPARED_KEYS = 200000;
+
+    private final AppConfig config;
+    private final EnsemblRestcallHistoryRepository historyRepository;
+    private final AssociationRepository associationRepository;
+    private final VariationService variationService;
+    private final OverlapRegionService overlapRegionService;
+    private final OverlappingGeneService overlappingGeneService;
+    private final AssemblyInfoService assemblyInfoService;
+    private final GeneSymbolService geneSymbolService;
+
+    public ReleaseDiffService(AppConfig config,
+                              EnsemblRestcallHistoryRepository historyRepository,
+                              AssociationRepository associationRepository,
+                              VariationService variationService,
+                              OverlapRegionService overlapRegionService,
+                              OverlappingGeneService overlappingGeneService,
+                              AssemblyInfoService assemblyInfoService,
+                              GeneSymbolService geneSymbolService) {
+        this.config = config;
+        this.historyRepository = historyRepository;
+        this.associationRepository = associationRepository;
+        this.variationService = variationService;
+        this.overlapRegionService = overlapRegionService;
+        this.overlappingGeneService = overlappingGeneService;
+        this.assemblyInfoService = assemblyInfoService;
+        this.geneSymbolService = geneSymbolService;
+    }
+
+    public String getPreviousRelease() {
+        String previous = config.getReleaseDiffPreviousVersion();
+        if (previous != null && !previous.isEmpty()) {
+            return previous;
+        }
+        try {
+            return String.valueOf(Integer.parseInt(config.getERelease()) - 1);
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Set mapping.release_diff.previous_version, " + config.getERelease() + " is not a number");
+        }
+    }
+
+    /**
+     * Ids of the associations whose mapping can differ between the previous release and mapping.version.
+     */
+    public Set<Long> findChangedAssociations() {
+        String previous = this.getPreviousRelease();
+        log.info("Comparing Ensembl release {} with {}", previous, config.getERelease());
+        long start = System.currentTimeMillis();
+        Diff diff = new Diff();
+
+        Long lastId = 0L;
+        List<HistoryEntryProjection> entries;
+        do {
+            entries = historyRepository.findByVersionAfter(previous, lastId, PageRequest.of(0, config.getReleaseDiffBatchSize()));
+            Map<Kind, Map<String, String>> chunk = new EnumMap<>(Kind.class);
+            for (HistoryEntryProjection entry : entries) {
+                Kind kind = Kind.of(entry.getRequestType(), entry.getEnsemblParam(), config.getNcbiSource());
+                if (kind != null) {
+                    String payload = entry.getEnsemblResponse() != null ? entry.getEnsemblResponse() : entry.getEnsemblError();
+                    // Externalised payloads are keyed by the same hash
+                    String hash = entry.getPayloadHash() != null ? entry.getPayloadHash() : PayloadHasher.hashJson(payload);
+                    chunk.computeIfAbsent(kind, k -> new HashMap<>()).put(kind.key(entry.getEnsemblParam()), hash);
+                }
+            }
+            chunk.forEach((kind, hashes) -> this.compare(kind, hashes, diff));
+            if (!entries.isEmpty()) {
+                lastId = entries.get(entries.size() - 1).getId();
+            }
+        } while (!entries.isEmpty());
+
+        // Full remaps read and write the local stores rather than the history table
+        String previousCacheDir = String.format("%s/%s/", config.getCacheRoot(), previous);
+        this.compareStore(Kind.VARIATION, DataType.VARIATION, previousCacheDir, diff);
+        this.compareStore(Kind.BAND, DataType.CYTOGENETIC_BAND, previousCacheDir, diff);
+        this.compareStore(Kind.ASSEMBLY, DataType.ASSEMBLY_INFO, previousCacheDir, diff);
+        this.compareStore(Kind.SYMBOL, DataType.REPORTED_GENES, previousCacheDir, diff);
+        for (DataType dataType : Arrays.asList(DataType.ENSEMBL_OVERLAP_GENES, DataType.ENSEMBL_UPSTREAM_GENES, DataType.ENSEMBL_DOWNSTREAM_GENES)) {
+            this.compareStore(Kind.ENSEMBL_GENES, dataType, previousCacheDir, diff);
+        }
+        for (DataType dataType : Arrays.asList(DataType.NCBI_OVERLAP_GENES, DataType.NCBI_UPSTREAM_GENES, DataType.NCBI_DOWNSTREAM_GENES)) {
+            this.compareStore(Kind.NCBI_GENES, dataType, previousCacheDir, diff);
+        }
+
+        Set<Long> associationIds = this.findAssociations(diff.changed);
+        log.info("Release diff compared {} payloads, {} changed, {} associations to remap in {} ms",
+                 diff.comparedCount, diff.changed.values().stream().mapToInt(Set::size).sum(),
+                 associationIds.size(), System.currentTimeMillis() - start);
+        return associationIds;
+    }
+
+    private void compareStore(Kind kind, DataType dataType, String cacheDir, Diff diff) {
+        if (!CacheUtil.exists(dataType, cacheDir)) {
+            return;
+        }
+        Map<String, ?> store = kind.store(dataType, cacheDir);
+        Map<String, String> hashes = new HashMap<>();
+        for (Map.Entry<String, ?> entry : store.entrySet()) {
+            hashes.put(entry.getKey(), PayloadHasher.hash(entry.getValue()));
+            if (hashes.size() == config.getReleaseDiffBatchSize()) {
+                this.compare(kind, hashes, diff);
+                hashes = new HashMap<>();
+            }
+        }
+        this.compare(kind, hashes, diff);
+    }
+
+    private void compare(Kind kind, Map<String, String> previousHashes, Diff diff) {
+        Map<String, String> toCompare = new HashMap<>();
+        previousHashes.forEach((key, hash) -> {
+            String comparedKey = kind.name() + '|' + key;
+            if (diff.compared.getIfPresent(comparedKey) == null) {
+                diff.compared.put(comparedKey, Boolean.TRUE);
+                toCompare.put(key, hash);
+            }
+        });
+        if (toCompare.isEmpty()) {
+            return;
+        }
+        diff.comparedCount += toCompare.size();
+        Map<String, ?> current;
+        try {
+            current = this.lookup(kind).apply(toCompare.keySet());
+        } catch (RuntimeException e) {
+            // Unknown means changed, the association is remapped rather than left stale
+            log.warn("{} lookup failed for {} keys: {}", kind, toCompare.size(), e.getMessage());
+            current = Collections.emptyMap();
+        }
+        for (Map.Entry<String, String> entry : toCompare.entrySet()) {
+            Object value = current.get(entry.getKey());
+            if (value == null || !PayloadHasher.hash(value).equals(entry.getValue())) {
+                diff.changed.computeIfAbsent(kind, k -> new HashSet<>()).add(entry.getKey());
+            }
+        }
+    }
+
+    private Function<Collection<String>, Map<String, ?>> lookup(Kind kind) {
+        switch (kind) {
+            case VARIATION:
+                return variationService::getVariationsFromDB;
+            case BAND:
+                return overlapRegionService::getCytoGeneticBandsFromDB;
+            case ASSEMBLY:
+                return assemblyInfoService::getAssemblyInfoFromDB;
+            case SYMBOL:
+                return geneSymbolService::getReportedGenesFromDB;
+            default:
+                return locations -> overlappingGeneService.getOverlappingGenesFromDB(locations, this.source(kind));
+        }
+    }
+
+    private String source(Kind kind) {
+        return kind == Kind.NCBI_GENES ? config.getNcbiSource() : config.getEnsemblSource();
+    }
+
+    private Set<Long> findAssociations(Map<Kind, Set<String>> changed) {
+        Set<Long> associationIds = new TreeSet<>();
+        for (Map.Entry<Kind, Set<String>> entry : changed.entrySet()) {
+            switch (entry.getKey()) {
+                case VARIATION:
+                    ListUtils.partition(new ArrayList<>(entry.getValue()), 1000)
+                            .forEach(rsIds -> associationIds.addAll(associationRepository.findIdsBySnpRsIdIn(rsIds)));
+                    break;
+                case SYMBOL:
+                    ListUtils.partition(new ArrayList<>(entry.getValue()), 1000)
+                            .forEach(genes -> associationIds.addAll(associationRepository.findIdsByReportedGeneIn(genes)));
+                    break;
+                case ASSEMBLY:
+                    // A new chromosome end moves the downstream window of every SNP on it
+                    entry.getValue().forEach(chromosome -> associationIds.addAll(associationRepository.findIdsBySnpChromosome(chromosome)));
+                    break;
+                case BAND:
+                    for (String location : entry.getValue()) {
+                        Window window = Window.parse(location);
+                        if (window != null) {
+                            associationIds.addAll(associationRepository.findIdsBySnpLocationBetween(window.chromosome, window.start, window.end));
+                        }
+                    }
+                    break;
+                default:
+                    Map<String, Integer> chromosomeEnds = new HashMap<>();
+                    for (String location : entry.getValue()) {
+                        Window window = Window.parse(location);
+                        if (window != null) {
+                            associationIds.addAll(this.findWindowAssociations(entry.getKey(), window, chromosomeEnds));
+                        }
+                    }
+            }
+        }
+        return associationIds;
+    }
+
+    // The SNPs within a window of the changed one, and those whose nearest gene walk crossed it
+    private List<Long> findWindowAssociations(Kind kind, Window window, Map<String, Integer> chromosomeEnds) {
+        Integer chromosomeEnd = chromosomeEnds.computeIfAbsent(window.chromosome, this::chromosomeEnd);
+        try {
+            if (chromosomeEnd != null) {
+                int from = this.firstGeneUpstream(kind, window);
+                int to = this.firstGeneDownstream(kind, window, chromosomeEnd);
+                return associationRepository.findIdsBySnpLocationBetween(window.chromosome, from, to);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Gene lookup around {} failed, remapping chromosome {}: {}", window, window.chromosome, e.getMessage());
+        }
+        return associationRepository.findIdsBySnpChromosome(window.chromosome);
+    }
+
+    private Integer chromosomeEnd(String chromosome) {
+        try {
+            AssemblyInfo assemblyInfo = assemblyInfoService.getAssemblyInfoFromDB(chromosome);
+            return assemblyInfo != null ? assemblyInfo.getLength() : null;
+        } catch (RuntimeException e) {
+            log.warn("Assembly lookup for chromosome {} failed: {}", chromosome, e.getMessage());
+            return null;
+        }
+    }
+
+    // SNPs downstream of the first gene before the window do not walk past it into the window
+    private int firstGeneUpstream(Kind kind, Window window) {
+        int distance = config.getGenomicDistance();
+        int from = Math.max(1, window.start - distance);
+        for (int end = window.start; end > 1; end -= distance) {
+            int start = Math.max(1, end - distance);
+            List<OverlapGene> genes = overlappingGeneService.getOverlappingGeneFromDB(GenomicKey.location(window.chromosome, start, end), this.source(kind));
+            if (!genes.isEmpty()) {
+                return Math.min(from, genes.stream().map(OverlapGene::getStart).filter(Objects::nonNull).reduce(start, Math::min));
+            }
+        }
+        return 1;
+    }
+
+    private int firstGeneDownstream(Kind kind, Window window, int chromosomeEnd) {
+        int distance = config.getGenomicDistance();
+        int to = Math.min(chromosomeEnd, window.end + distance);
+        for (int start = window.end; start < chromosomeEnd; start += distance) {
+            int end = Math.min(chromosomeEnd, start + distance);
+            List<OverlapGene> genes = overlappingGeneService.getOverlappingGeneFromDB(GenomicKey.location(window.chromosome, start, end), this.source(kind));
+            if (!genes.isEmpty()) {
+                return Math.max(to, genes.stream().map(OverlapGene::getEnd).filter(Objects::nonNull).reduce(end, Math::max));
+            }
+        }
+        return chromosomeEnd;
+    }
+
+    private static class Diff {
+
+        private final Cache<String, Boolean> compared = Caffeine.newBuilder().maximumSize(COMPARED_KEYS).build();
+        private long comparedCount;
+        private final Map<Kind, Set<String>> changed = new EnumMap<>(Kind.class);
+    }
+
+    private enum Kind {
+        VARIATION, BAND, ASSEMBLY, SYMBOL, ENSEMBL_GENES, NCBI_GENES;
+
+        static Kind of(String type, String param, String ncbiSource) {
+            if (param == null) {
+                return null;
+            }
+            switch (type) {
+                case Type.SNP:
+                    return VARIATION;
+                case Type.LOOKUP_SYMBOL:
+                    return SYMBOL;
+                case Type.INFO_ASSEMBLY:
+                    // Karyotype lookups only feed the band index
+                    return param.contains("?") ? null : ASSEMBLY;
+                case Type.OVERLAP_REGION:
+                    if (param.endsWith(BAND_FEATURE)) {
+                        return BAND;
+                    } else if (param.endsWith(GENE_FEATURE)) {
+                        return ENSEMBL_GENES;
+                    } else if (param.contains(GENE_FEATURE)) {
+                        return NCBI_GENES;
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        }
+
+        String key(String param) {
+            int query = param.indexOf('?');
+            return query < 0 ? param : param.substring(0, query);
+        }
+
+        Map<String, ?> store(DataType dataType, String cacheDir) {
+            switch (this) {
+                case VARIATION:
+                    return CacheUtil.variation(dataType, cacheDir);
+                case BAND:
+                    return CacheUtil.cytoGeneticBand(dataType, cacheDir);
+                case ASSEMBLY:
+                    return CacheUtil.assemblyInfo(dataType, cacheDir);
+                case SYMBOL:
+                    return CacheUtil.reportedGenes(dataType, cacheDir);
+                default:
+                    return CacheUtil.overlappingGenes(dataType, cacheDir);
+            }
+        }
+    }
+
+    private static class Window {
+
+        private final String chromosome;
+        private final int start;
+        private final int end;
+
+        Window(String chromosome, int start, int end) {
+            this.chromosome = chromosome;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return GenomicKey.location(chromosome, start, end);
+        }
+
+        // chromosome:start-end
+        static Window parse(String location) {
+            int colon = location.lastIndexOf(':');
+            int dash = location.lastIndexOf('-');
+            if (colon < 0 || dash < colon) {
+                return null;
+            }
+            try {
+                return new Window(location.substring(0, colon),
+                                  Integer.parseInt(location.substring(colon + 1, dash)),
+                                  Integer.parseInt(location.substring(dash + 1)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
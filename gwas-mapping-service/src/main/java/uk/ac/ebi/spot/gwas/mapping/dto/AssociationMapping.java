@@ -0,0 +1,52 @@
+package uk.ac.ebi.spot.gwas.mapping.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import uk.ac.ebi.spot.gwas.variation.Variant;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * One association as it moves through the mapping pipeline. Only ids and the data computed for each SNP
+ * are carried, entities are loaded again by the stage writing the results.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AssociationMapping {
+
+    private Long associationId;
+
+    private List<SnpMapping> snps = new ArrayList<>();
+
+    public AssociationMapping(Long associationId) {
+        this.associationId = associationId;
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class SnpMapping {
+
+        private Long snpId;
+
+        private String rsId;
+
+        private Collection<String> reportedGenes;
+
+        // False when the result was already cached and the variant lookup skipped
+        private boolean resolved;
+
+        private Variant variant;
+
+        private EnsemblMappingResult result;
+
+        public SnpMapping(Long snpId, String rsId, Collection<String> reportedGenes) {
+            this.snpId = snpId;
+            this.rsId = rsId;
+            this.reportedGenes = reportedGenes;
+        }
+    }
+}
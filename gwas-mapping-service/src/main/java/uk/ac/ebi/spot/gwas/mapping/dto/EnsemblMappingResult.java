@@ -56,4 +56,20 @@ public class EnsemblMappingResult {
         setEnsemblOverlappingGene(ensemblOverlappingGene);
     }
 
+    /**
+     * Copy to add errors to, collections holding mapped data are copied shallowly.
+     */
+    public EnsemblMappingResult copy() {
+        EnsemblMappingResult copy = new EnsemblMappingResult();
+        copy.setRsId(rsId);
+        copy.setMerged(merged);
+        copy.setCurrentSnpId(currentSnpId);
+        copy.setLocations(new ArrayList<>(locations));
+        copy.setGenomicContexts(new ArrayList<>(genomicContexts));
+        copy.setPipelineErrors(new ArrayList<>(pipelineErrors));
+        copy.setFunctionalClass(functionalClass);
+        copy.setNcbiOverlappingGene(new HashSet<>(ncbiOverlappingGene));
+        copy.setEnsemblOverlappingGene(new HashSet<>(ensemblOverlappingGene));
+        return copy;
+    }
 }
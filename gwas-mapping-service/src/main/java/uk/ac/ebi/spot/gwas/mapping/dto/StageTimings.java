@@ -0,0 +1,23 @@
+package uk.ac.ebi.spot.gwas.mapping.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Time spent on one association by a stage of the mapping pipeline, over the recent associations
+ * of the stage.
+ */
+@Data
+@AllArgsConstructor
+public class StageTimings {
+
+    private String stage;
+
+    private long processed;
+
+    private double p50Millis;
+
+    private double p99Millis;
+
+    private double maxMillis;
+}
@@ -0,0 +1,221 @@
+package uk.ac.ebi.spot.gwas.overlap_gene;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * In-memory gene annotation index, one implicit interval tree per chromosome.
+ * Genes are sorted by start and kept in primitive arrays, with the max end of every
+ * subtree stored alongside, so overlap queries never touch the network or the heap graph.
+ * Coordinates are 1-based and inclusive, the same as the Ensembl REST overlap endpoint.
+ */
+public class GeneAnnotationIndex {
+
+    private final Map<String, ChromosomeIndex> chromosomes;
+    private final int size;
+
+    private GeneAnnotationIndex(Map<String, ChromosomeIndex> chromosomes, int size) {
+        this.chromosomes = chromosomes;
+        this.size = size;
+    }
+
+    public static GeneAnnotationIndex build(Collection<OverlapGene> genes) {
+        Map<String, List<OverlapGene>> byChromosome = new HashMap<>();
+        int size = 0;
+        for (OverlapGene gene : genes) {
+            if (gene.getSeqRegionName() == null || gene.getStart() == null || gene.getEnd() == null) {
+                continue;
+            }
+            byChromosome.computeIfAbsent(gene.getSeqRegionName(), k -> new ArrayList<>()).add(gene);
+            size++;
+        }
+        Map<String, ChromosomeIndex> chromosomes = new HashMap<>();
+        byChromosome.forEach((chromosome, chromosomeGenes) -> chromosomes.put(chromosome, new ChromosomeIndex(chromosomeGenes)));
+        return new GeneAnnotationIndex(chromosomes, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Genes overlapping [start, end], ordered by gene start.
+     */
+    public List<OverlapGene> overlap(String chromosome, int start, int end) {
+        ChromosomeIndex index = chromosomes.get(chromosome);
+        if (index == null) {
+            return new ArrayList<>();
+        }
+        return index.overlap(start, end);
+    }
+
+    /**
+     * Gene with the greatest end below the position and not before the boundary, skipping excluded genes.
+     */
+    public OverlapGene nearestUpstream(String chromosome, int position, int boundary, Predicate<OverlapGene> exclude) {
+        ChromosomeIndex index = chromosomes.get(chromosome);
+        return index == null ? null : index.nearestUpstream(position, boundary, exclude);
+    }
+
+    /**
+     * Gene with the smallest start above the position and not beyond the boundary, skipping excluded genes.
+     */
+    public OverlapGene nearestDownstream(String chromosome, int position, int boundary, Predicate<OverlapGene> exclude) {
+        ChromosomeIndex index = chromosomes.get(chromosome);
+        return index == null ? null : index.nearestDownstream(position, boundary, exclude);
+    }
+
+    private static final class ChromosomeIndex {
+
+        private final int[] starts;
+        private final int[] ends;
+        private final int[] maxEnds;
+        private final OverlapGene[] genes;
+        private final int rootLevel;
+
+        // Gene indices ordered by end, used for upstream nearest-gene queries
+        private final int[] sortedEnds;
+        private final int[] endOrder;
+
+        ChromosomeIndex(List<OverlapGene> chromosomeGenes) {
+            chromosomeGenes.sort(Comparator.comparingInt(OverlapGene::getStart));
+            int n = chromosomeGenes.size();
+            starts = new int[n];
+            ends = new int[n];
+            maxEnds = new int[n];
+            genes = chromosomeGenes.toArray(new OverlapGene[0]);
+            long[] byEnd = new long[n];
+            for (int i = 0; i < n; i++) {
+                starts[i] = genes[i].getStart();
+                ends[i] = genes[i].getEnd();
+                byEnd[i] = ((long) ends[i] << 32) | i;
+            }
+            rootLevel = indexMaxEnds();
+
+            Arrays.sort(byEnd);
+            sortedEnds = new int[n];
+            endOrder = new int[n];
+            for (int i = 0; i < n; i++) {
+                sortedEnds[i] = (int) (byEnd[i] >>> 32);
+                endOrder[i] = (int) byEnd[i];
+            }
+        }
+
+        // Bottom-up computation of the subtree max end for every node of the implicit tree
+        private int indexMaxEnds() {
+            int n = starts.length;
+            if (n == 0) {
+                return -1;
+            }
+            int lastIndex = 0;
+            int last = 0;
+            for (int i = 0; i < n; i += 2) {
+                lastIndex = i;
+                last = ends[i];
+                maxEnds[i] = last;
+            }
+            int k;
+            for (k = 1; (1 << k) <= n; k++) {
+                int x = 1 << (k - 1);
+                int first = (x << 1) - 1;
+                int step = x << 2;
+                for (int i = first; i < n; i += step) {
+                    int leftMax = maxEnds[i - x];
+                    int rightMax = i + x < n ? maxEnds[i + x] : last;
+                    maxEnds[i] = Math.max(ends[i], Math.max(leftMax, rightMax));
+                }
+                lastIndex = ((lastIndex >> k) & 1) != 0 ? lastIndex - x : lastIndex + x;
+                if (lastIndex < n && maxEnds[lastIndex] > last) {
+                    last = maxEnds[lastIndex];
+                }
+            }
+            return k - 1;
+        }
+
+        List<OverlapGene> overlap(int start, int end) {
+            List<OverlapGene> hits = new ArrayList<>();
+            int n = starts.length;
+            if (n == 0) {
+                return hits;
+            }
+            int[] stackNode = new int[64];
+            int[] stackLevel = new int[64];
+            boolean[] stackLeftDone = new boolean[64];
+            int top = 0;
+            stackLevel[top] = rootLevel;
+            stackNode[top] = (1 << rootLevel) - 1;
+            stackLeftDone[top++] = false;
+
+            while (top > 0) {
+                --top;
+                int node = stackNode[top];
+                int level = stackLevel[top];
+                boolean leftDone = stackLeftDone[top];
+                if (level <= 3) {
+                    // Small subtree, scan it linearly
+                    int i0 = node >> level << level;
+                    int i1 = Math.min(i0 + (1 << (level + 1)) - 1, n);
+                    for (int i = i0; i < i1 && starts[i] <= end; i++) {
+                        if (ends[i] >= start) {
+                            hits.add(genes[i]);
+                        }
+                    }
+                } else if (!leftDone) {
+                    int left = node - (1 << (level - 1));
+                    stackNode[top] = node;
+                    stackLevel[top] = level;
+                    stackLeftDone[top++] = true;
+                    if (left >= n || maxEnds[left] >= start) {
+                        stackNode[top] = left;
+                        stackLevel[top] = level - 1;
+                        stackLeftDone[top++] = false;
+                    }
+                } else if (node < n && starts[node] <= end) {
+                    if (ends[node] >= start) {
+                        hits.add(genes[node]);
+                    }
+                    stackNode[top] = node + (1 << (level - 1));
+                    stackLevel[top] = level - 1;
+                    stackLeftDone[top++] = false;
+                }
+            }
+            return hits;
+        }
+
+        OverlapGene nearestUpstream(int position, int boundary, Predicate<OverlapGene> exclude) {
+            // Last gene whose end is strictly below the position
+            int j = lowerBound(sortedEnds, position) - 1;
+            for (; j >= 0 && sortedEnds[j] >= boundary; j--) {
+                OverlapGene gene = genes[endOrder[j]];
+                if (!exclude.test(gene)) {
+                    return gene;
+                }
+            }
+            return null;
+        }
+
+        OverlapGene nearestDownstream(int position, int boundary, Predicate<OverlapGene> exclude) {
+            // First gene whose start is strictly above the position
+            for (int i = lowerBound(starts, position + 1); i < starts.length && starts[i] <= boundary; i++) {
+                if (!exclude.test(genes[i])) {
+                    return genes[i];
+                }
+            }
+            return null;
+        }
+
+        private static int lowerBound(int[] values, int key) {
+            int low = 0;
+            int high = values.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package uk.ac.ebi.spot.gwas.overlap_gene;
+
+import lombok.extern.slf4j.Slf4j;
+import uk.ac.ebi.spot.gwas.common.util.MappingUtil;
+import uk.ac.ebi.spot.gwas.exception.FileProcessingException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads gene records from a local GTF or GFF3 dump (plain or gzipped) into the same
+ * {@link OverlapGene} shape the Ensembl overlap/region endpoint returns.
+ * Ensembl GTF/GFF3 and the RefSeq GFF3 (otherfeatures set) are both supported.
+ */
+@Slf4j
+public class GeneAnnotationLoader {
+
+    private static final Set<String> GENE_FEATURES = new HashSet<>(Arrays.asList("gene", "ncRNA_gene", "pseudogene"));
+
+    private GeneAnnotationLoader() {
+        // Hide implicit public constructor
+    }
+
+    public static List<OverlapGene> load(String file, String source) {
+        long start = System.currentTimeMillis();
+        List<OverlapGene> genes = new ArrayList<>();
+        boolean gtf = file.endsWith(".gtf") || file.endsWith(".gtf.gz");
+        try (BufferedReader reader = open(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                String[] columns = line.split("\t", 9);
+                if (columns.length < 9 || !GENE_FEATURES.contains(columns[2])) {
+                    continue;
+                }
+                Map<String, String> attributes = gtf ? gtfAttributes(columns[8]) : gffAttributes(columns[8]);
+                genes.add(gtf ? fromGtf(columns, attributes, source) : fromGff(columns, attributes, source));
+            }
+        } catch (IOException e) {
+            throw new FileProcessingException(String.format("Could not read gene annotation file %s: %s", file, e.getMessage()));
+        }
+        log.info("Loaded {} {} genes from {} in {} ms", genes.size(), source, file, System.currentTimeMillis() - start);
+        return genes;
+    }
+
+    private static BufferedReader open(String file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static OverlapGene fromGtf(String[] columns, Map<String, String> attributes, String source) {
+        OverlapGene gene = base(columns, source);
+        gene.setId(attributes.get("gene_id"));
+        gene.setGeneId(attributes.get("gene_id"));
+        gene.setExternalName(attributes.get("gene_name"));
+        gene.setBiotype(attributes.get("gene_biotype"));
+        gene.setVersion(parseVersion(attributes.get("gene_version")));
+        return gene;
+    }
+
+    private static OverlapGene fromGff(String[] columns, Map<String, String> attributes, String source) {
+        OverlapGene gene = base(columns, source);
+        String ncbiGeneId = ncbiGeneId(attributes.get("Dbxref"));
+        if (ncbiGeneId != null) {
+            // RefSeq records: keep the description format that MappingUtil.parseNCBIid reads
+            String description = Optional.ofNullable(attributes.get("description")).orElse("");
+            gene.setId(ncbiGeneId);
+            gene.setGeneId(ncbiGeneId);
+            gene.setExternalName(Optional.ofNullable(attributes.get("gene")).orElse(attributes.get("Name")));
+            gene.setBiotype(attributes.get("gene_biotype"));
+            gene.setDescription(String.format("%s [Source:NCBI gene (formerly Entrezgene);Acc:%s]", description, ncbiGeneId));
+        } else {
+            String id = Optional.ofNullable(attributes.get("gene_id")).orElse(attributes.get("ID"));
+            if (id != null && id.startsWith("gene:")) {
+                id = id.substring("gene:".length());
+            }
+            gene.setId(id);
+            gene.setGeneId(id);
+            gene.setExternalName(attributes.get("Name"));
+            gene.setBiotype(attributes.get("biotype"));
+            gene.setDescription(attributes.get("description"));
+            gene.setLogicName(attributes.get("logic_name"));
+            gene.setVersion(parseVersion(attributes.get("version")));
+        }
+        return gene;
+    }
+
+    private static OverlapGene base(String[] columns, String source) {
+        OverlapGene gene = new OverlapGene();
+        gene.setSeqRegionName(MappingUtil.normaliseChromosome(columns[0]));
+        gene.setStart(Integer.parseInt(columns[3]));
+        gene.setEnd(Integer.parseInt(columns[4]));
+        gene.setStrand("-".equals(columns[6]) ? -1 : 1);
+        gene.setFeatureType("gene");
+        gene.setSource(source);
+        return gene;
+    }
+
+    private static String ncbiGeneId(String dbxref) {
+        if (dbxref == null) {
+            return null;
+        }
+        for (String xref : dbxref.split(",")) {
+            if (xref.startsWith("GeneID:")) {
+                return xref.substring("GeneID:".length());
+            }
+        }
+        return null;
+    }
+
+    private static Integer parseVersion(String version) {
+        try {
+            return version == null ? null : Integer.valueOf(version);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // gene_id "ENSG00000223972"; gene_version "5"; gene_name "DDX11L1";
+    private static Map<String, String> gtfAttributes(String column) {
+        Map<String, String> attributes = new HashMap<>();
+        for (String attribute : column.split(";")) {
+            String trimmed = attribute.trim();
+            int space = trimmed.indexOf(' ');
+            if (space > 0) {
+                attributes.put(trimmed.substring(0, space), trimmed.substring(space + 1).replace("\"", ""));
+            }
+        }
+        return attributes;
+    }
+
+    // ID=gene:ENSG00000223972;Name=DDX11L1;biotype=transcribed_unprocessed_pseudogene
+    private static Map<String, String> gffAttributes(String column) {
+        Map<String, String> attributes = new HashMap<>();
+        for (String attribute : column.split(";")) {
+            int equals = attribute.indexOf('=');
+            if (equals > 0) {
+                attributes.put(attribute.substring(0, equals).trim(), decode(attribute.substring(equals + 1)));
+            }
+        }
+        return attributes;
+    }
+
+    private static String decode(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        StringBuilder decoded = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' && i + 2 < value.length()) {
+                decoded.append((char) Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                decoded.append(c);
+            }
+        }
+        return decoded.toString();
+    }
+}
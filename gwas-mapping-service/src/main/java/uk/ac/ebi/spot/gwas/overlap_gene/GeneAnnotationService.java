@@ -0,0 +1,60 @@
+package uk.ac.ebi.spot.gwas.overlap_gene;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.exception.FileProcessingException;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Slf4j
+@Service
+public class GeneAnnotationService {
+
+    private final AppConfig config;
+    private final Map<String, GeneAnnotationIndex> indexes = new ConcurrentHashMap<>();
+
+    public GeneAnnotationService(AppConfig config) {
+        this.config = config;
+    }
+
+    public List<OverlapGene> getOverlappingGenes(String chromosome, int start, int end, String source) {
+        return this.getIndex(source).overlap(chromosome, start, end);
+    }
+
+    public List<OverlapGene> getNearestGene(String chromosome,
+                                            int position,
+                                            int boundary,
+                                            String type,
+                                            String source,
+                                            Set<String> overlappingGenes) {
+        GeneAnnotationIndex index = this.getIndex(source);
+        // Skip genes without a name and genes which also overlap the variant
+        OverlapGene nearest = type.equals("upstream")
+                ? index.nearestUpstream(chromosome, position, boundary, gene -> isExcluded(gene, overlappingGenes))
+                : index.nearestDownstream(chromosome, position, boundary, gene -> isExcluded(gene, overlappingGenes));
+        return nearest == null ? new ArrayList<>() : Collections.singletonList(nearest);
+    }
+
+    // Built once per source for the configured Ensembl release
+    private GeneAnnotationIndex getIndex(String source) {
+        return indexes.computeIfAbsent(source, this::buildIndex);
+    }
+
+    private GeneAnnotationIndex buildIndex(String source) {
+        String file = source.equals(config.getNcbiSource()) ? config.getNcbiAnnotationFile() : config.getEnsemblAnnotationFile();
+        if (file == null || file.isEmpty() || !Files.exists(Paths.get(file))) {
+            throw new FileProcessingException(String.format("Gene annotation file for %s not found: %s", source, file));
+        }
+        GeneAnnotationIndex index = GeneAnnotationIndex.build(GeneAnnotationLoader.load(file, source));
+        log.info("Gene annotation index for {} release {} holds {} genes", source, config.getERelease(), index.size());
+        return index;
+    }
+
+    private static boolean isExcluded(OverlapGene gene, Set<String> overlappingGenes) {
+        return gene.getExternalName() == null || overlappingGenes.contains(gene.getExternalName());
+    }
+}
@@ -0,0 +1,111 @@
+package uk.ac.ebi.spot.gwas.overlap_gene;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import uk.ac.ebi.spot.gwas.common.util.GenomicKey;
+
+import java.util.*;
+
+/**
+ * Coalesces the point, upstream and downstream overlap/region locations of many SNPs into as few
+ * requests as possible. Locations are sorted per chromosome and overlapping or adjacent ones are merged
+ * as long as the merged region stays within the maximum size the Ensembl endpoint accepts.
+ * The genes of a merged region are then sliced back into the original locations.
+ */
+public class OverlapWindowPlanner {
+
+    // Ensembl REST rejects overlap/region queries spanning more than 5Mb
+    public static final int MAX_REGION_SIZE = 5_000_000;
+
+    private OverlapWindowPlanner() {
+        // Hide implicit public constructor
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Window {
+
+        private String chromosome;
+
+        private int start;
+
+        private int end;
+
+        // chr:start-end keys answered by this window
+        private List<String> locations;
+
+        public String getLocation() {
+            return GenomicKey.location(chromosome, start, end);
+        }
+    }
+
+    public static List<Window> plan(Collection<String> locations) {
+        return plan(locations, MAX_REGION_SIZE);
+    }
+
+    public static List<Window> plan(Collection<String> locations, int maxRegionSize) {
+        Map<String, List<int[]>> byChromosome = new HashMap<>();
+        Map<String, List<String>> keysByChromosome = new HashMap<>();
+        for (String location : new LinkedHashSet<>(locations)) {
+            String chromosome = location.substring(0, location.lastIndexOf(':'));
+            int[] range = range(location);
+            List<String> keys = keysByChromosome.computeIfAbsent(chromosome, k -> new ArrayList<>());
+            byChromosome.computeIfAbsent(chromosome, k -> new ArrayList<>()).add(new int[]{range[0], range[1], keys.size()});
+            keys.add(location);
+        }
+
+        List<Window> windows = new ArrayList<>();
+        byChromosome.forEach((chromosome, intervals) -> {
+            List<String> keys = keysByChromosome.get(chromosome);
+            intervals.sort(Comparator.comparingInt((int[] interval) -> interval[0]).thenComparingInt(interval -> interval[1]));
+            Window current = null;
+            for (int[] interval : intervals) {
+                boolean joins = current != null
+                        && interval[0] <= current.getEnd() + 1
+                        && Math.max(current.getEnd(), interval[1]) - current.getStart() + 1 <= maxRegionSize;
+                if (joins) {
+                    current.setEnd(Math.max(current.getEnd(), interval[1]));
+                } else {
+                    current = new Window(chromosome, interval[0], interval[1], new ArrayList<>());
+                    windows.add(current);
+                }
+                current.getLocations().add(keys.get(interval[2]));
+            }
+        });
+        return windows;
+    }
+
+    /**
+     * Genes of the merged window overlapping the given location, in the order Ensembl returned them.
+     * An error response is handed to every location of the window unchanged.
+     */
+    public static List<OverlapGene> slice(List<OverlapGene> windowGenes, String location) {
+        if (!windowGenes.isEmpty() && windowGenes.get(0).getError() != null) {
+            return windowGenes;
+        }
+        int[] range = range(location);
+        int start = range[0];
+        int end = range[1];
+        List<OverlapGene> genes = new ArrayList<>();
+        for (OverlapGene gene : windowGenes) {
+            if (gene.getStart() != null && gene.getEnd() != null && gene.getStart() <= end && gene.getEnd() >= start) {
+                genes.add(gene);
+            }
+        }
+        return genes;
+    }
+
+    // Start and end of chr:start-end, the last colon separates the chromosome
+    private static int[] range(String location) {
+        int colon = location.lastIndexOf(':');
+        int dash = colon < 0 ? -1 : location.indexOf('-', colon);
+        if (colon <= 0 || dash < 0) {
+            throw new IllegalArgumentException("Not a chr:start-end location: " + location);
+        }
+        try {
+            return new int[]{Integer.parseInt(location.substring(colon + 1, dash)), Integer.parseInt(location.substring(dash + 1))};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a chr:start-end location: " + location, e);
+        }
+    }
+}
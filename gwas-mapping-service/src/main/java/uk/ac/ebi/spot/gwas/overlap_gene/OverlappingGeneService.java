@@ -5,7 +5,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.exc.MismatchedInputException;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.Cacheable;
+import org.apache.commons.collections4.ListUtils;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -13,6 +13,8 @@ import uk.ac.ebi.spot.gwas.common.config.AppConfig;
 import uk.ac.ebi.spot.gwas.common.constant.DataType;
 import uk.ac.ebi.spot.gwas.common.constant.Type;
 import uk.ac.ebi.spot.gwas.common.constant.Uri;
+import uk.ac.ebi.spot.gwas.common.lookup.TieredLookup;
+import uk.ac.ebi.spot.gwas.common.lookup.TieredLookupFactory;
 import uk.ac.ebi.spot.gwas.common.service.RestResponseResultBuilderService;
 import uk.ac.ebi.spot.gwas.mapping.dto.RestResponseResult;
 import uk.ac.ebi.spot.gwas.common.service.EnsemblRestcallHistoryService;
@@ -21,91 +23,184 @@ import uk.ac.ebi.spot.gwas.common.util.CacheUtil;
 import uk.ac.ebi.spot.gwas.common.util.MappingUtil;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class OverlappingGeneService {
 
+    private static final int WINDOW_PARTITION_SIZE = 500;
+
     private final ObjectMapper mapper = new ObjectMapper();
     private final AppConfig config;
     private final EnsemblRestcallHistoryService historyService;
     private final ApiService mappingApiService;
+    private final Map<String, TieredLookup<String, List<OverlapGene>>> lookups = new HashMap<>();
 
     RestResponseResultBuilderService restResponseResultBuilderService;
 
     public OverlappingGeneService(AppConfig config,
                                   EnsemblRestcallHistoryService historyService,
                                   ApiService mappingApiService,
-                                  RestResponseResultBuilderService restResponseResultBuilderService) {
+                                  RestResponseResultBuilderService restResponseResultBuilderService,
+                                  TieredLookupFactory lookupFactory) {
         this.config = config;
         this.historyService = historyService;
         this.mappingApiService = mappingApiService;
         this.restResponseResultBuilderService = restResponseResultBuilderService;
+        // Both sources share the overlapGene cache
+        String ensemblSource = config.getEnsemblSource();
+        String ncbiSource = config.getNcbiSource();
+        lookups.put(ensemblSource, lookupFactory.create(
+                "overlapGene", ensemblSource, () -> CacheUtil.overlappingGenes(DataType.ENSEMBL_OVERLAP_GENES, config.getCacheDir()),
+                Type.OVERLAP_REGION, location -> this.buildParam(location, ensemblSource), this::parseHistory,
+                locations -> this.restApiCall(locations, ensemblSource)));
+        lookups.put(ncbiSource, lookupFactory.create(
+                "overlapGene", ncbiSource, () -> CacheUtil.overlappingGenes(DataType.NCBI_OVERLAP_GENES, config.getCacheDir()),
+                Type.OVERLAP_REGION, location -> this.buildParam(location, ncbiSource), this::parseHistory,
+                locations -> this.restApiCall(locations, ncbiSource)));
     }
 
     public Map<String, List<OverlapGene>> getOverlappingGenes(DataType dataType,
                                                               String source,
                                                               List<String> locations) {
+        return this.getOverlappingGenes(source, Collections.singletonMap(dataType, locations)).get(dataType);
+    }
+
+    /**
+     * Fills the overlap, upstream and downstream caches of one source together, so the windows of
+     * neighbouring SNPs are fetched with a single overlap/region request and sliced back locally.
+     */
+    public Map<DataType, Map<String, List<OverlapGene>>> getOverlappingGenes(String source,
+                                                                             Map<DataType, List<String>> locationsByType) {
+        Map<DataType, Map<String, List<OverlapGene>>> cachedByType = new EnumMap<>(DataType.class);
+        Map<String, List<DataType>> missing = new LinkedHashMap<>();
+        int total = 0;
+        for (Map.Entry<DataType, List<String>> entry : locationsByType.entrySet()) {
+            Map<String, List<OverlapGene>> cached = CacheUtil.overlappingGenes(entry.getKey(), config.getCacheDir());
+            cachedByType.put(entry.getKey(), cached);
+            for (String location : entry.getValue()) {
+                if (!cached.containsKey(location)) {
+                    missing.computeIfAbsent(location, k -> new ArrayList<>()).add(entry.getKey());
+                }
+            }
+            total += entry.getValue().size();
+        }
+
+        List<OverlapWindowPlanner.Window> windows = OverlapWindowPlanner.plan(missing.keySet());
+        log.info("{} {} locations not cached out of {}, fetching them with {} overlap/region requests",
+                 missing.size(), source, total, windows.size());
+
         int count = 1;
-        Map<String, List<OverlapGene>> cached = CacheUtil.overlappingGenes(dataType, config.getCacheDir());
-        for (String location : locations) {
-            List<OverlapGene> genes = cached.get(location);
-            if (genes == null) {
-                //cached.putAll(this.restApiCall(location, source, ));
+        // The client paces the requests, partitions only bound how many responses are held at once
+        for (List<OverlapWindowPlanner.Window> partition : ListUtils.partition(windows, WINDOW_PARTITION_SIZE)) {
+            List<CompletableFuture<Optional<ResponseEntity<List<OverlapGene>>>>> futures = partition.stream()
+                    .map(window -> mappingApiService.getRequestOverlapGeneAsync(this.buildUri(window.getLocation(), source)))
+                    .collect(Collectors.toList());
+            for (int i = 0; i < partition.size(); i++) {
+                OverlapWindowPlanner.Window window = partition.get(i);
+                ResponseEntity<List<OverlapGene>> response = futures.get(i).join().get();
+                List<OverlapGene> windowGenes = this.toGenes(response);
+                for (String location : window.getLocations()) {
+                    List<OverlapGene> genes = OverlapWindowPlanner.slice(windowGenes, location);
+                    missing.get(location).forEach(dataType -> cachedByType.get(dataType).put(location, genes));
+                    // History is kept per location, the key of the per SNP lookups and of the release diff
+                    this.saveHistory(this.buildUri(location, source), this.buildParam(location, source),
+                                     new ResponseEntity<>(genes, response.getStatusCode()), genes);
+                }
+                MappingUtil.statusLog(String.format("%s overlap/region windows", source), count++, windows.size());
             }
-            MappingUtil.statusLog(dataType.name(), count++, locations.size());
         }
-        CacheUtil.saveToFile(dataType, config.getCacheDir(), cached);
-        return cached;
+        cachedByType.forEach((dataType, cached) -> CacheUtil.saveToFile(dataType, config.getCacheDir(), cached));
+        return cachedByType;
     }
 
-    @Cacheable(value = "overlapGene")
-    public List<OverlapGene> getOverlappingGeneFromDB(String location, String source) {
-        log.warn("Retrieving Overlapping Gene for {} @ location: {}", source, location);
-        String param = String.format("%s?feature=gene", location);
+    public String buildParam(String location, String source) {
         if (source.equals(config.getNcbiSource())) {
-            param = String.format("%s&logic_name=%s&db_type=%s", param, config.getNcbiLogicName(), config.getNcbiDbType());
+            return location + "?feature=gene&logic_name=" + config.getNcbiLogicName() + "&db_type=" + config.getNcbiDbType();
         }
-        log.debug("The overlapping gene param is {}",param);
-        RestResponseResult result = historyService.getHistoryByTypeParamAndVersion(Type.OVERLAP_REGION, param, config.getERelease());
-        List<OverlapGene> overlapGenes = new ArrayList<>();
-        if (result == null) {
-            overlapGenes = this.restApiCall(location, source, param).get(location);
-        } else {
-            try {
-                log.info("inside getting Genes from History block");
-                if(result.getRestResult() != null) {
-                    overlapGenes = Arrays.asList(mapper.readValue(result.getRestResult(), OverlapGene[].class));
-                }else {
-                    overlapGenes = Arrays.asList(mapper.readValue(result.getError(), OverlapGene[].class));
-                }
-            } catch (JsonProcessingException e) {
-                log.error(e.getMessage());
+        return location + "?feature=gene";
+    }
+
+    public List<OverlapGene> getOverlappingGeneFromDB(String location, String source) {
+        log.debug("Retrieving Overlapping Gene for {} @ location: {}", source, location);
+        return Optional.ofNullable(this.lookup(source).get(location)).orElseGet(ArrayList::new);
+    }
+
+    public Map<String, List<OverlapGene>> getOverlappingGenesFromDB(Collection<String> locations, String source) {
+        return this.lookup(source).getAll(locations);
+    }
+
+    private TieredLookup<String, List<OverlapGene>> lookup(String source) {
+        TieredLookup<String, List<OverlapGene>> lookup = lookups.get(source);
+        if (lookup == null) {
+            throw new IllegalArgumentException("Unknown gene source " + source);
+        }
+        return lookup;
+    }
+
+    private List<OverlapGene> parseHistory(RestResponseResult result) {
+        try {
+            if (result.getRestResult() != null) {
+                return Arrays.asList(mapper.readValue(result.getRestResult(), OverlapGene[].class));
+            } else {
+                return Arrays.asList(mapper.readValue(result.getError(), OverlapGene[].class));
             }
+        } catch (JsonProcessingException e) {
+            log.error(e.getMessage());
+            return null;
         }
+    }
+
+    private Map<String, List<OverlapGene>> restApiCall(Collection<String> locations, String source) {
+        List<CompletableFuture<Map<String, List<OverlapGene>>>> futureList = new ArrayList<>();
+        locations.forEach(location -> futureList.add(this.restApiCallAsync(location, source, this.buildParam(location, source))));
+        Map<String, List<OverlapGene>> overlapGenes = new HashMap<>();
+        futureList.forEach(future -> overlapGenes.putAll(future.join()));
         return overlapGenes;
     }
 
     public Map<String, List<OverlapGene>> restApiCall(String mappingLocation, String source, String param) { // Ensembl Overlapping Genes
+        return this.restApiCallAsync(mappingLocation, source, param).join();
+    }
+
+    public CompletableFuture<Map<String, List<OverlapGene>>> restApiCallAsync(String mappingLocation, String source, String param) {
+        String uri = this.buildUri(mappingLocation, source);
+        return mappingApiService.getRequestOverlapGeneAsync(uri)
+                .thenApply(optionalEntity -> this.buildResult(mappingLocation, uri, param, optionalEntity));
+    }
+
+    private String buildUri(String mappingLocation, String source) {
         String uri = String.format("%s/%s/%s?feature=gene", config.getServer(), Uri.OVERLAPPING_GENE_REGION, mappingLocation);
         if (source.equals(config.getNcbiSource())) {
             uri = String.format("%s&logic_name=%s&db_type=%s", uri, config.getNcbiLogicName(), config.getNcbiDbType());
         }
-        Optional<ResponseEntity<List<OverlapGene>>> optionalEntity = mappingApiService.getRequestOverlapGene(uri);
-        List<OverlapGene> geneOverlapList = optionalEntity.map(response -> {
-            if (response.getStatusCode().equals(HttpStatus.BAD_REQUEST)) {
-                return Collections.singletonList(mapper.convertValue(response.getBody(), OverlapGene.class));
-            } else {
-                return mapper.convertValue(response.getBody(), new TypeReference<List<OverlapGene>>() {});
-            }
-        }).orElseGet(ArrayList::new);
+        return uri;
+    }
+
+    private Map<String, List<OverlapGene>> buildResult(String mappingLocation, String uri, String param,
+                                                       Optional<ResponseEntity<List<OverlapGene>>> optionalEntity) {
+        List<OverlapGene> geneOverlapList = optionalEntity.map(this::toGenes).orElseGet(ArrayList::new);
+        this.saveHistory(uri, param, optionalEntity.get(), geneOverlapList);
+        return Collections.singletonMap(mappingLocation, geneOverlapList);
+    }
+
+    private List<OverlapGene> toGenes(ResponseEntity<List<OverlapGene>> response) {
+        if (response.getStatusCode().equals(HttpStatus.BAD_REQUEST)) {
+            return Collections.singletonList(mapper.convertValue(response.getBody(), OverlapGene.class));
+        } else {
+            return mapper.convertValue(response.getBody(), new TypeReference<List<OverlapGene>>() {});
+        }
+    }
+
+    private void saveHistory(String uri, String param, ResponseEntity<?> response, List<OverlapGene> genes) {
         String overlapRGeneResponse = "";
         try {
-            overlapRGeneResponse = mapper.writeValueAsString(geneOverlapList);
+            overlapRGeneResponse = mapper.writeValueAsString(genes);
         }catch(Exception ex) {
             log.error("Exception in writing object as string in OverlapRegionService"+ex.getMessage(),ex);
         }
-        restResponseResultBuilderService.buildResponseResult(uri, param, Type.OVERLAP_REGION, optionalEntity.get(), overlapRGeneResponse);
-        return Collections.singletonMap(mappingLocation, geneOverlapList);
+        restResponseResultBuilderService.buildResponseResult(uri, param, Type.OVERLAP_REGION, response, overlapRGeneResponse);
     }
 }
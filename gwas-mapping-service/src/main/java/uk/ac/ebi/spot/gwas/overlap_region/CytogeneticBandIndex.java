@@ -0,0 +1,157 @@
+package uk.ac.ebi.spot.gwas.overlap_region;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfoService;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Karyotype bands of the configured Ensembl release, loaded once per chromosome
+ * and kept as sorted boundary arrays so a position resolves to its band with a binary search.
+ * The first caller of a chromosome loads it outside the map, callers asking meanwhile wait for the same load.
+ */
+@Slf4j
+@Component
+public class CytogeneticBandIndex {
+
+    // A chromosome whose bands could not be loaded is not asked for again before this
+    private static final long RETRY_AFTER_MS = 10 * 60 * 1000L;
+
+    private final AppConfig config;
+    private final AssemblyInfoService assemblyInfoService;
+    private final long retryAfterMs;
+    private final Map<String, Map<String, CompletableFuture<ChromosomeBands>>> releases = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CytogeneticBandIndex(AppConfig config, AssemblyInfoService assemblyInfoService) {
+        this(config, assemblyInfoService, RETRY_AFTER_MS);
+    }
+
+    CytogeneticBandIndex(AppConfig config, AssemblyInfoService assemblyInfoService, long retryAfterMs) {
+        this.config = config;
+        this.assemblyInfoService = assemblyInfoService;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * False when the bands of the chromosome could not be loaded, callers should then fall back to the overlap lookup.
+     */
+    public boolean isLoaded(String chromosome) {
+        return this.getBands(chromosome) != null;
+    }
+
+    /**
+     * Band id (e.g. p36.33) containing the position, or null when it falls outside every band.
+     */
+    public String getBand(String chromosome, int position) {
+        ChromosomeBands bands = this.getBands(chromosome);
+        return bands == null ? null : bands.find(position);
+    }
+
+    // Null while a failed load waits for its retry
+    private ChromosomeBands getBands(String chromosome) {
+        Map<String, CompletableFuture<ChromosomeBands>> chromosomes = releases.computeIfAbsent(config.getERelease(), release -> new ConcurrentHashMap<>());
+        CompletableFuture<ChromosomeBands> bands = chromosomes.get(chromosome);
+        if (bands == null || (bands.isDone() && bands.join().isRetryDue())) {
+            CompletableFuture<ChromosomeBands> loading = new CompletableFuture<>();
+            boolean claimed = bands == null ? chromosomes.putIfAbsent(chromosome, loading) == null
+                                            : chromosomes.replace(chromosome, bands, loading);
+            if (claimed) {
+                loading.complete(this.load(chromosome));
+                bands = loading;
+            } else {
+                // Another caller is loading it
+                bands = chromosomes.get(chromosome);
+            }
+        }
+        ChromosomeBands loaded = bands.join();
+        return loaded.isFailed() ? null : loaded;
+    }
+
+    private ChromosomeBands load(String chromosome) {
+        AssemblyInfo assemblyInfo;
+        try {
+            assemblyInfo = assemblyInfoService.getBandsFromDB(chromosome);
+        } catch (RuntimeException e) {
+            log.warn("Cytogenetic bands for chromosome {} could not be loaded: {}", chromosome, e.getMessage());
+            return ChromosomeBands.failed(retryAfterMs);
+        }
+        if (assemblyInfo == null) {
+            log.warn("Cytogenetic bands for chromosome {} could not be loaded, retrying in {} s", chromosome, retryAfterMs / 1000);
+            return ChromosomeBands.failed(retryAfterMs);
+        }
+        List<OverlapRegion> bands = Optional.ofNullable(assemblyInfo.getBands()).orElseGet(ArrayList::new);
+        log.info("Loaded {} cytogenetic bands for chromosome {}", bands.size(), chromosome);
+        return new ChromosomeBands(bands);
+    }
+
+    private static final class ChromosomeBands {
+
+        private final int[] starts;
+        private final int[] ends;
+        private final String[] ids;
+        private final long retryAt;
+
+        private ChromosomeBands(long retryAt) {
+            this.starts = new int[0];
+            this.ends = new int[0];
+            this.ids = new String[0];
+            this.retryAt = retryAt;
+        }
+
+        static ChromosomeBands failed(long retryAfterMs) {
+            return new ChromosomeBands(System.currentTimeMillis() + retryAfterMs);
+        }
+
+        boolean isFailed() {
+            return retryAt > 0;
+        }
+
+        boolean isRetryDue() {
+            return isFailed() && System.currentTimeMillis() >= retryAt;
+        }
+
+        ChromosomeBands(List<OverlapRegion> bands) {
+            this.retryAt = 0;
+            List<OverlapRegion> sorted = new ArrayList<>();
+            for (OverlapRegion band : bands) {
+                if (band.getStart() != null && band.getEnd() != null && band.getId() != null) {
+                    sorted.add(band);
+                }
+            }
+            sorted.sort(Comparator.comparingInt(OverlapRegion::getStart));
+            int n = sorted.size();
+            starts = new int[n];
+            ends = new int[n];
+            ids = new String[n];
+            for (int i = 0; i < n; i++) {
+                starts[i] = sorted.get(i).getStart();
+                ends[i] = sorted.get(i).getEnd();
+                ids[i] = sorted.get(i).getId();
+            }
+        }
+
+        // Bands do not overlap, so the candidate is the last band starting at or before the position
+        String find(int position) {
+            int low = 0;
+            int high = starts.length - 1;
+            int candidate = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] <= position) {
+                    candidate = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return candidate >= 0 && ends[candidate] >= position ? ids[candidate] : null;
+        }
+    }
+}
@@ -5,13 +5,14 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import uk.ac.ebi.spot.gwas.common.config.AppConfig;
 import uk.ac.ebi.spot.gwas.common.constant.DataType;
 import uk.ac.ebi.spot.gwas.common.constant.Type;
 import uk.ac.ebi.spot.gwas.common.constant.Uri;
+import uk.ac.ebi.spot.gwas.common.lookup.TieredLookup;
+import uk.ac.ebi.spot.gwas.common.lookup.TieredLookupFactory;
 import uk.ac.ebi.spot.gwas.common.service.RestResponseResultBuilderService;
 import uk.ac.ebi.spot.gwas.mapping.dto.RestResponseResult;
 import uk.ac.ebi.spot.gwas.common.service.EnsemblRestcallHistoryService;
@@ -20,6 +21,7 @@ import uk.ac.ebi.spot.gwas.common.util.CacheUtil;
 import uk.ac.ebi.spot.gwas.common.util.MappingUtil;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Service
@@ -30,17 +32,21 @@ public class OverlapRegionService {
     private final AppConfig config;
     private final EnsemblRestcallHistoryService historyService;
     private final ApiService mappingApiService;
+    private final TieredLookup<String, List<OverlapRegion>> lookup;
 
     RestResponseResultBuilderService restResponseResultBuilderService;
 
     public OverlapRegionService(AppConfig config,
                                 EnsemblRestcallHistoryService historyService,
                                 ApiService mappingApiService,
-                                RestResponseResultBuilderService restResponseResultBuilderService) {
+                                RestResponseResultBuilderService restResponseResultBuilderService,
+                                TieredLookupFactory lookupFactory) {
         this.config = config;
         this.historyService = historyService;
         this.mappingApiService = mappingApiService;
         this.restResponseResultBuilderService =  restResponseResultBuilderService;
+        this.lookup = lookupFactory.create("cytogeneticBand", () -> CacheUtil.cytoGeneticBand(DataType.CYTOGENETIC_BAND, config.getCacheDir()),
+                                           Type.OVERLAP_REGION, OverlapRegionService::bandParam, this::parseHistory, this::restApiCall);
     }
 
     public Map<String, List<OverlapRegion>> getCytoGeneticBands(DataType dataType, List<String> locations) throws InterruptedException {
@@ -57,32 +63,53 @@ public class OverlapRegionService {
         return cached;
     }
 
-    @Cacheable(value = "cytogeneticBand")
     public List<OverlapRegion> getCytoGeneticBandsFromDB(String location) {
-        log.warn(":Retrieving Cytogenetic Band for location: {}", location);
-        String param = String.format("%s?feature=band", location);
-        RestResponseResult result = historyService.getHistoryByTypeParamAndVersion(Type.OVERLAP_REGION, param, config.getERelease());
-        log.debug("The overlapping region param is {}",param);
-        List<OverlapRegion> overlapRegions = new ArrayList<>();
-        if (result == null) {
-            overlapRegions = this.restApiCall(location, param).get(location);
-        } else {
-            try {
-                log.info("inside getting location from History block");
-                if(result.getRestResult() != null ) {
-                    overlapRegions = Arrays.asList(mapper.readValue(result.getRestResult(), OverlapRegion[].class));
-                } else {
-                    overlapRegions = Arrays.asList(mapper.readValue(result.getError(), OverlapRegion[].class));
-                }
-            } catch (JsonProcessingException e) { log.error("exception in getCytoGeneticBandsFromDB"+e.getMessage(),e); }
+        log.debug("Retrieving Cytogenetic Band for location: {}", location);
+        return Optional.ofNullable(lookup.get(location)).orElseGet(ArrayList::new);
+    }
+
+    public Map<String, List<OverlapRegion>> getCytoGeneticBandsFromDB(Collection<String> locations) {
+        return lookup.getAll(locations);
+    }
+
+    private static String bandParam(String location) {
+        return String.format("%s?feature=band", location);
+    }
+
+    private List<OverlapRegion> parseHistory(RestResponseResult result) {
+        try {
+            if (result.getRestResult() != null) {
+                return Arrays.asList(mapper.readValue(result.getRestResult(), OverlapRegion[].class));
+            } else {
+                return Arrays.asList(mapper.readValue(result.getError(), OverlapRegion[].class));
+            }
+        } catch (JsonProcessingException e) {
+            log.error("exception in getCytoGeneticBandsFromDB" + e.getMessage(), e);
+            return null;
         }
-        return overlapRegions;
+    }
+
+    private Map<String, List<OverlapRegion>> restApiCall(Collection<String> locations) {
+        List<CompletableFuture<Map<String, List<OverlapRegion>>>> futureList = new ArrayList<>();
+        locations.forEach(location -> futureList.add(this.restApiCallAsync(location, bandParam(location))));
+        Map<String, List<OverlapRegion>> bands = new HashMap<>();
+        futureList.forEach(future -> bands.putAll(future.join()));
+        return bands;
     }
 
     public Map<String, List<OverlapRegion>> restApiCall(String mappingLocation, String param) {
+        return this.restApiCallAsync(mappingLocation, param).join();
+    }
+
+    public CompletableFuture<Map<String, List<OverlapRegion>>> restApiCallAsync(String mappingLocation, String param) {
         mapper.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
         String uri = String.format("%s/%s/%s?feature=band", config.getServer(), Uri.OVERLAP_BAND_REGION, mappingLocation);
-        Optional<ResponseEntity<List<OverlapRegion>>> optionalEntity = mappingApiService.getRequestOverlapRegion(uri);
+        return mappingApiService.getRequestOverlapRegionAsync(uri)
+                .thenApply(optionalEntity -> this.buildResult(mappingLocation, uri, param, optionalEntity));
+    }
+
+    private Map<String, List<OverlapRegion>> buildResult(String mappingLocation, String uri, String param,
+                                                         Optional<ResponseEntity<List<OverlapRegion>>> optionalEntity) {
         List<OverlapRegion> overlapRegions = optionalEntity
                 .map(response ->  mapper.convertValue(response.getBody(), new TypeReference<List<OverlapRegion>>() {
                         })).orElseGet(ArrayList::new);
@@ -0,0 +1,54 @@
+package uk.ac.ebi.spot.gwas.variation;
+
+import java.util.*;
+
+/**
+ * Sequence Ontology consequence terms in the order VEP ranks them, most severe first, for picking the
+ * most_severe_consequence of a variant the way the Ensembl variation endpoint does.
+ */
+public class Consequences {
+
+    private static final List<String> TERMS = Collections.unmodifiableList(Arrays.asList(
+            "transcript_ablation", "splice_acceptor_variant", "splice_donor_variant", "stop_gained",
+            "frameshift_variant", "stop_lost", "start_lost", "transcript_amplification", "feature_elongation",
+            "feature_truncation", "inframe_insertion", "inframe_deletion", "missense_variant",
+            "protein_altering_variant", "splice_donor_5th_base_variant", "splice_region_variant",
+            "splice_donor_region_variant", "splice_polypyrimidine_tract_variant", "incomplete_terminal_codon_variant",
+            "start_retained_variant", "stop_retained_variant", "synonymous_variant", "coding_sequence_variant",
+            "mature_miRNA_variant", "5_prime_UTR_variant", "3_prime_UTR_variant", "non_coding_transcript_exon_variant",
+            "intron_variant", "NMD_transcript_variant", "non_coding_transcript_variant", "coding_transcript_variant",
+            "upstream_gene_variant", "downstream_gene_variant", "TFBS_ablation", "TFBS_amplification",
+            "TF_binding_site_variant", "regulatory_region_ablation", "regulatory_region_amplification",
+            "regulatory_region_variant", "intergenic_variant", "sequence_variant"));
+
+    private static final Map<String, Integer> RANKS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < TERMS.size(); i++) {
+            RANKS.put(TERMS.get(i), i);
+        }
+    }
+
+    private Consequences() {
+        // Hide implicit public constructor
+    }
+
+    public static List<String> terms() {
+        return TERMS;
+    }
+
+    // Unknown terms rank after all known ones
+    public static int rank(String term) {
+        return RANKS.getOrDefault(term, TERMS.size());
+    }
+
+    public static String mostSevere(Collection<String> terms) {
+        String mostSevere = null;
+        for (String term : terms) {
+            if (term != null && !term.isEmpty() && (mostSevere == null || rank(term) < rank(mostSevere))) {
+                mostSevere = term;
+            }
+        }
+        return mostSevere;
+    }
+}
@@ -0,0 +1,113 @@
+package uk.ac.ebi.spot.gwas.variation;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.repository.SingleNucleotidePolymorphismRepository;
+import uk.ac.ebi.spot.gwas.exception.FileProcessingException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Resolves rsIDs from the {@link VariantIndex} of the local variant VCF and merge history. The index
+ * covers the rsIDs of the catalog when it was loaded and is kept in the cache directory until either file
+ * changes or the catalog holds rsIDs it does not cover; rsIDs added to the catalog while the service runs
+ * are left to Ensembl.
+ */
+@Slf4j
+@Service
+public class LocalVariationService {
+
+    private static final String INDEX_FILE = "variant-index.bin";
+
+    private final AppConfig config;
+    private final SingleNucleotidePolymorphismRepository snpRepository;
+    private volatile VariantIndex index;
+
+    public LocalVariationService(AppConfig config, SingleNucleotidePolymorphismRepository snpRepository) {
+        this.config = config;
+        this.snpRepository = snpRepository;
+    }
+
+    public boolean covers(String snpRsId) {
+        return this.getIndex().covers(snpRsId);
+    }
+
+    public Variant getVariation(String snpRsId) {
+        return this.getIndex().get(snpRsId);
+    }
+
+    // Only the covered rsIDs, keyed as given
+    public Map<String, Variant> getVariations(Collection<String> snpRsIds) {
+        VariantIndex variantIndex = this.getIndex();
+        Map<String, Variant> variants = new HashMap<>();
+        for (String snpRsId : snpRsIds) {
+            String rsId = snpRsId.trim();
+            if (variantIndex.covers(rsId)) {
+                variants.put(rsId, variantIndex.get(rsId));
+            }
+        }
+        return variants;
+    }
+
+    private VariantIndex getIndex() {
+        VariantIndex variantIndex = index;
+        if (variantIndex == null) {
+            synchronized (this) {
+                if (index == null) {
+                    index = this.loadIndex();
+                }
+                variantIndex = index;
+            }
+        }
+        return variantIndex;
+    }
+
+    private VariantIndex loadIndex() {
+        String vcfFile = config.getVariationVcfFile();
+        if (vcfFile == null || vcfFile.isEmpty() || !Files.exists(Paths.get(vcfFile))) {
+            throw new FileProcessingException(String.format("Variant file not found: %s", vcfFile));
+        }
+        Path indexFile = Paths.get(config.getCacheDir(), INDEX_FILE);
+        String fingerprint = fingerprint(vcfFile) + ";" + fingerprint(config.getVariationMergeFile());
+        List<String> snpRsIds = snpRepository.findAllRsIds();
+        if (Files.exists(indexFile)) {
+            try {
+                VariantIndex variantIndex = VariantIndex.read(indexFile, fingerprint);
+                int uncovered = variantIndex == null ? 0 : variantIndex.countUncovered(snpRsIds);
+                if (variantIndex != null && uncovered == 0) {
+                    log.info("Read variant index of {} locations from {}", variantIndex.size(), indexFile);
+                    return variantIndex;
+                }
+                if (variantIndex == null) {
+                    log.info("Variant index {} was built from other files, building it again", indexFile);
+                } else {
+                    log.info("{} rsIDs were added to the catalog since variant index {} was built, building it again", uncovered, indexFile);
+                }
+            } catch (IOException e) {
+                log.warn("Could not read variant index {}, building it again: {}", indexFile, e.getMessage());
+            }
+        }
+        VariantIndex variantIndex = VariantVcfLoader.load(vcfFile, config.getVariationMergeFile(), snpRsIds);
+        try {
+            Files.createDirectories(indexFile.getParent());
+            variantIndex.write(indexFile, fingerprint);
+        } catch (IOException e) {
+            log.warn("Could not write variant index {}: {}", indexFile, e.getMessage());
+        }
+        return variantIndex;
+    }
+
+    private static String fingerprint(String file) {
+        if (file == null || file.isEmpty()) {
+            return "";
+        }
+        File source = new File(file);
+        return String.format("%s:%s:%s", source.getAbsolutePath(), source.length(), source.lastModified());
+    }
+}
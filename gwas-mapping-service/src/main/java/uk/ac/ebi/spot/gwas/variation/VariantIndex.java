@@ -0,0 +1,296 @@
+package uk.ac.ebi.spot.gwas.variation;
+
+import uk.ac.ebi.spot.gwas.mapping.dto.Mapping;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * rsID to location lookup over sorted primitive arrays, one row per location of a variant, plus the
+ * merge history as sorted rsHigh to rsCurrent pairs. Only the rsIDs it was built for are covered, for
+ * those it answers what the Ensembl variation endpoint would: the variant under its current rsID, or
+ * the "not found" error.
+ */
+public class VariantIndex {
+
+    private static final String MAGIC = "gwas-variant-index-1";
+    // Any 18 digit number fits a long, dbSNP is at 10 digits
+    private static final int MAX_RS_DIGITS = 18;
+    private static final String COORD_SYSTEM = "chromosome";
+
+    private final String assembly;
+    private final String[] chromosomeNames;
+    private final long[] covered;
+    private final long[] mergedFrom;
+    private final long[] mergedTo;
+    private final long[] rsNumbers;
+    private final short[] chromosomes;
+    private final int[] starts;
+    private final int[] ends;
+    private final byte[] consequences;
+
+    private VariantIndex(String assembly, String[] chromosomeNames, long[] covered, long[] mergedFrom, long[] mergedTo,
+                         long[] rsNumbers, short[] chromosomes, int[] starts, int[] ends, byte[] consequences) {
+        this.assembly = assembly;
+        this.chromosomeNames = chromosomeNames;
+        this.covered = covered;
+        this.mergedFrom = mergedFrom;
+        this.mergedTo = mergedTo;
+        this.rsNumbers = rsNumbers;
+        this.chromosomes = chromosomes;
+        this.starts = starts;
+        this.ends = ends;
+        this.consequences = consequences;
+    }
+
+    public int size() {
+        return rsNumbers.length;
+    }
+
+    public int merges() {
+        return mergedFrom.length;
+    }
+
+    public boolean covers(String rsId) {
+        long rsNumber = rsNumber(rsId);
+        return rsNumber >= 0 && Arrays.binarySearch(covered, rsNumber) >= 0;
+    }
+
+    // Number of the rsIDs which the index was not built for
+    public int countUncovered(Collection<String> rsIds) {
+        int uncovered = 0;
+        for (String rsId : rsIds) {
+            long rsNumber = rsNumber(rsId);
+            if (rsNumber >= 0 && Arrays.binarySearch(covered, rsNumber) < 0) {
+                uncovered++;
+            }
+        }
+        return uncovered;
+    }
+
+    // Only meaningful for covered rsIDs, anything else is reported as not found
+    public Variant get(String rsId) {
+        long rsNumber = rsNumber(rsId);
+        int merge = rsNumber < 0 ? -1 : Arrays.binarySearch(mergedFrom, rsNumber);
+        long current = merge >= 0 ? mergedTo[merge] : rsNumber;
+        int first = current < 0 ? -1 : firstRow(current);
+        if (first < 0) {
+            return new Variant(String.format("%s not found for homo_sapiens", rsId));
+        }
+        List<Mapping> mappings = new ArrayList<>();
+        int mostSevere = -1;
+        for (int row = first; row < rsNumbers.length && rsNumbers[row] == current; row++) {
+            mappings.add(this.mapping(row));
+            if (consequences[row] >= 0 && (mostSevere < 0 || consequences[row] < mostSevere)) {
+                mostSevere = consequences[row];
+            }
+        }
+        Variant variant = new Variant();
+        variant.setName("rs" + current);
+        variant.setSource("Variants (including SNPs and indels) imported from dbSNP");
+        variant.setMappings(mappings);
+        variant.setMostSevereConsequence(mostSevere < 0 ? null : Consequences.terms().get(mostSevere));
+        return variant;
+    }
+
+    private Mapping mapping(int row) {
+        Mapping mapping = new Mapping();
+        String chromosome = chromosomeNames[chromosomes[row]];
+        mapping.setSeqRegionName(chromosome);
+        mapping.setStart(starts[row]);
+        mapping.setEnd(ends[row]);
+        mapping.setStrand(1);
+        mapping.setCoordSystem(COORD_SYSTEM);
+        mapping.setAssemblyName(assembly);
+        mapping.setLocation(String.format("%s:%s-%s", chromosome, starts[row], ends[row]));
+        return mapping;
+    }
+
+    private int firstRow(long rsNumber) {
+        int row = Arrays.binarySearch(rsNumbers, rsNumber);
+        if (row < 0) {
+            return -1;
+        }
+        while (row > 0 && rsNumbers[row - 1] == rsNumber) {
+            row--;
+        }
+        return row;
+    }
+
+    // rs12345 is 12345, ids which are not rsIDs are -1
+    static long rsNumber(String rsId) {
+        String id = rsId == null ? "" : rsId.trim();
+        if (id.length() < 3 || id.length() > MAX_RS_DIGITS + 2 || !id.regionMatches(true, 0, "rs", 0, 2)) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = 2; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    // Written alongside the source files so the VCF is only scanned again when they change
+    public void write(Path file, String fingerprint) throws IOException {
+        Path partial = file.resolveSibling(file.getFileName() + ".partial");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial), 1 << 16))) {
+            out.writeUTF(MAGIC);
+            out.writeUTF(fingerprint);
+            out.writeUTF(assembly);
+            out.writeInt(chromosomeNames.length);
+            for (String name : chromosomeNames) {
+                out.writeUTF(name);
+            }
+            writeLongs(out, covered);
+            writeLongs(out, mergedFrom);
+            writeLongs(out, mergedTo);
+            writeLongs(out, rsNumbers);
+            for (int row = 0; row < rsNumbers.length; row++) {
+                out.writeShort(chromosomes[row]);
+                out.writeInt(starts[row]);
+                out.writeInt(ends[row]);
+                out.writeByte(consequences[row]);
+            }
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Null when the file was written for other source files or by another version
+    public static VariantIndex read(Path file, String fingerprint) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (!MAGIC.equals(in.readUTF()) || !fingerprint.equals(in.readUTF())) {
+                return null;
+            }
+            String assembly = in.readUTF();
+            String[] chromosomeNames = new String[in.readInt()];
+            for (int i = 0; i < chromosomeNames.length; i++) {
+                chromosomeNames[i] = in.readUTF();
+            }
+            long[] covered = readLongs(in);
+            long[] mergedFrom = readLongs(in);
+            long[] mergedTo = readLongs(in);
+            long[] rsNumbers = readLongs(in);
+            short[] chromosomes = new short[rsNumbers.length];
+            int[] starts = new int[rsNumbers.length];
+            int[] ends = new int[rsNumbers.length];
+            byte[] consequences = new byte[rsNumbers.length];
+            for (int row = 0; row < rsNumbers.length; row++) {
+                chromosomes[row] = in.readShort();
+                starts[row] = in.readInt();
+                ends[row] = in.readInt();
+                consequences[row] = in.readByte();
+            }
+            return new VariantIndex(assembly, chromosomeNames, covered, mergedFrom, mergedTo, rsNumbers, chromosomes, starts, ends, consequences);
+        }
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    private static long[] readLongs(DataInputStream in) throws IOException {
+        long[] values = new long[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+
+    /**
+     * Collects rows in file order, {@link #build} sorts them by rs number and drops repeated locations,
+     * e.g. the lines of a multi-allelic site, keeping the most severe consequence.
+     */
+    static class Builder {
+
+        private final String assembly;
+        private final long[] covered;
+        private final Map<String, Short> chromosomeCodes = new LinkedHashMap<>();
+        private final Map<Long, Long> merges = new HashMap<>();
+        private long[] rsNumbers = new long[1024];
+        private short[] chromosomes = new short[1024];
+        private int[] starts = new int[1024];
+        private int[] ends = new int[1024];
+        private byte[] consequences = new byte[1024];
+        private int size;
+
+        Builder(String assembly, long[] covered) {
+            this.assembly = assembly;
+            this.covered = covered;
+        }
+
+        void merge(long rsHigh, long rsCurrent) {
+            merges.put(rsHigh, rsCurrent);
+        }
+
+        void add(long rsNumber, String chromosome, int start, int end, String consequence) {
+            if (size == rsNumbers.length) {
+                int capacity = size * 2;
+                rsNumbers = Arrays.copyOf(rsNumbers, capacity);
+                chromosomes = Arrays.copyOf(chromosomes, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                consequences = Arrays.copyOf(consequences, capacity);
+            }
+            int rank = consequence == null ? -1 : Consequences.rank(consequence);
+            rsNumbers[size] = rsNumber;
+            chromosomes[size] = chromosomeCodes.computeIfAbsent(chromosome, name -> (short) chromosomeCodes.size());
+            starts[size] = start;
+            ends[size] = end;
+            consequences[size] = (byte) (rank >= Consequences.terms().size() ? -1 : rank);
+            size++;
+        }
+
+        VariantIndex build() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.<Integer>comparingLong(i -> rsNumbers[i])
+                    .thenComparingInt(i -> chromosomes[i]).thenComparingInt(i -> starts[i]).thenComparingInt(i -> ends[i]));
+
+            long[] sortedRsNumbers = new long[size];
+            short[] sortedChromosomes = new short[size];
+            int[] sortedStarts = new int[size];
+            int[] sortedEnds = new int[size];
+            byte[] sortedConsequences = new byte[size];
+            int rows = 0;
+            for (int i : order) {
+                boolean repeated = rows > 0 && sortedRsNumbers[rows - 1] == rsNumbers[i] && sortedChromosomes[rows - 1] == chromosomes[i]
+                        && sortedStarts[rows - 1] == starts[i] && sortedEnds[rows - 1] == ends[i];
+                if (repeated) {
+                    byte previous = sortedConsequences[rows - 1];
+                    if (consequences[i] >= 0 && (previous < 0 || consequences[i] < previous)) {
+                        sortedConsequences[rows - 1] = consequences[i];
+                    }
+                    continue;
+                }
+                sortedRsNumbers[rows] = rsNumbers[i];
+                sortedChromosomes[rows] = chromosomes[i];
+                sortedStarts[rows] = starts[i];
+                sortedEnds[rows] = ends[i];
+                sortedConsequences[rows] = consequences[i];
+                rows++;
+            }
+
+            long[] mergedFrom = merges.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+            long[] mergedTo = new long[mergedFrom.length];
+            for (int i = 0; i < mergedFrom.length; i++) {
+                mergedTo[i] = merges.get(mergedFrom[i]);
+            }
+            return new VariantIndex(assembly, chromosomeCodes.keySet().toArray(new String[0]), covered, mergedFrom, mergedTo,
+                                    Arrays.copyOf(sortedRsNumbers, rows), Arrays.copyOf(sortedChromosomes, rows),
+                                    Arrays.copyOf(sortedStarts, rows), Arrays.copyOf(sortedEnds, rows),
+                                    Arrays.copyOf(sortedConsequences, rows));
+        }
+    }
+}
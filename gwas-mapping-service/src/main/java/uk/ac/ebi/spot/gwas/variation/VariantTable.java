@@ -0,0 +1,325 @@
+package uk.ac.ebi.spot.gwas.variation;
+
+import uk.ac.ebi.spot.gwas.mapping.dto.Mapping;
+
+import java.util.*;
+
+/**
+ * Variants of a mapping run held column by column: an open addressing table from the number of the rsID
+ * to a row, per row the current rsID, consequence and range of mappings, per mapping the dictionary coded
+ * chromosome, coordinate system and assembly with the positions as ints. Only the fields the mapping reads
+ * are kept, location strings and alleles are not; {@link #get} returns a {@link Variant} view built from them. Errors, failures and keys which are
+ * not plain rsIDs are rare and kept in ordinary maps.
+ * <p>
+ * A key put again keeps its row, which is overwritten; its mappings are written over the old ones when they fit
+ * and appended otherwise.
+ */
+public class VariantTable extends AbstractMap<String, Variant> {
+
+    private static final long FREE = -1;
+    private static final int NO_START = Integer.MIN_VALUE;
+    private static final double MAX_LOAD = 0.6;
+
+    private long[] slotKeys;
+    private int[] slotRows;
+    private int mask;
+    private int keyCount;
+
+    private long[] names;
+    private short[] consequences;
+    private int[] firstMappings;
+    private int[] mappingCounts;
+    private int rows;
+
+    private short[] chromosomes;
+    private short[] coordSystems;
+    private short[] assemblies;
+    private int[] starts;
+    private int[] ends;
+    private byte[] strands;
+    private int mappings;
+
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Short> codes = new HashMap<>();
+    private final BitSet withoutMappings = new BitSet();
+    private final Map<Integer, String> otherNames = new HashMap<>();
+    private final Map<Integer, String> errors = new HashMap<>();
+    private final Map<Integer, String> failures = new HashMap<>();
+    private final Map<String, Variant> others = new HashMap<>();
+
+    public VariantTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / MAX_LOAD)) - 1) << 1;
+        this.slotKeys = new long[capacity];
+        this.slotRows = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(slotKeys, FREE);
+        int rowCapacity = Math.max(16, expectedSize);
+        this.names = new long[rowCapacity];
+        this.consequences = new short[rowCapacity];
+        this.firstMappings = new int[rowCapacity];
+        this.mappingCounts = new int[rowCapacity];
+        this.chromosomes = new short[rowCapacity];
+        this.coordSystems = new short[rowCapacity];
+        this.assemblies = new short[rowCapacity];
+        this.starts = new int[rowCapacity];
+        this.ends = new int[rowCapacity];
+        this.strands = new byte[rowCapacity];
+    }
+
+    // The given rsIDs which the source holds, e.g. out of the variation response store
+    public static VariantTable copyOf(Map<String, Variant> source, Collection<String> snpRsIds) {
+        VariantTable table = new VariantTable(snpRsIds.size());
+        for (String snpRsId : snpRsIds) {
+            String rsId = snpRsId.trim();
+            Variant variant = source.get(rsId);
+            if (variant != null) {
+                table.put(rsId, variant);
+            }
+        }
+        return table;
+    }
+
+    @Override
+    public Variant get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        long rsNumber = rsNumber((String) key);
+        if (rsNumber == FREE) {
+            return others.get(key);
+        }
+        int row = this.row(rsNumber);
+        return row < 0 ? null : this.view(row);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof String)) {
+            return false;
+        }
+        long rsNumber = rsNumber((String) key);
+        return rsNumber == FREE ? others.containsKey(key) : this.row(rsNumber) >= 0;
+    }
+
+    @Override
+    public Variant put(String key, Variant variant) {
+        long rsNumber = rsNumber(key);
+        if (rsNumber == FREE) {
+            return others.put(key, variant);
+        }
+        int slot = this.slot(rsNumber);
+        if (slotKeys[slot] != FREE) {
+            int row = slotRows[slot];
+            Variant previous = this.view(row);
+            this.writeRow(row, variant);
+            return previous;
+        }
+        slotKeys[slot] = rsNumber;
+        slotRows[slot] = this.addRow(variant);
+        if (++keyCount > slotKeys.length * MAX_LOAD) {
+            this.rehash();
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return keyCount + others.size();
+    }
+
+    @Override
+    public Set<Entry<String, Variant>> entrySet() {
+        return new AbstractSet<Entry<String, Variant>>() {
+            @Override
+            public Iterator<Entry<String, Variant>> iterator() {
+                Iterator<Entry<String, Variant>> otherEntries = others.entrySet().iterator();
+                return new Iterator<Entry<String, Variant>>() {
+                    private int slot = nextSlot(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return slot < slotKeys.length || otherEntries.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Variant> next() {
+                        if (slot >= slotKeys.length) {
+                            return otherEntries.next();
+                        }
+                        Entry<String, Variant> entry = new SimpleImmutableEntry<>("rs" + slotKeys[slot], view(slotRows[slot]));
+                        slot = nextSlot(slot + 1);
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return VariantTable.this.size();
+            }
+        };
+    }
+
+    private int nextSlot(int from) {
+        int slot = from;
+        while (slot < slotKeys.length && slotKeys[slot] == FREE) {
+            slot++;
+        }
+        return slot;
+    }
+
+    private int row(long rsNumber) {
+        int slot = this.slot(rsNumber);
+        return slotKeys[slot] == FREE ? -1 : slotRows[slot];
+    }
+
+    // Linear probing, the slot holding the key or the free one where it would go
+    private int slot(long rsNumber) {
+        long hash = rsNumber * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (slotKeys[slot] != FREE && slotKeys[slot] != rsNumber) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        long[] oldKeys = slotKeys;
+        int[] oldRows = slotRows;
+        slotKeys = new long[oldKeys.length * 2];
+        slotRows = new int[oldKeys.length * 2];
+        mask = slotKeys.length - 1;
+        Arrays.fill(slotKeys, FREE);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = this.slot(oldKeys[i]);
+                slotKeys[slot] = oldKeys[i];
+                slotRows[slot] = oldRows[i];
+            }
+        }
+    }
+
+    private int addRow(Variant variant) {
+        if (rows == names.length) {
+            int capacity = names.length * 2;
+            names = Arrays.copyOf(names, capacity);
+            consequences = Arrays.copyOf(consequences, capacity);
+            firstMappings = Arrays.copyOf(firstMappings, capacity);
+            mappingCounts = Arrays.copyOf(mappingCounts, capacity);
+        }
+        int row = rows++;
+        this.writeRow(row, variant);
+        return row;
+    }
+
+    private void writeRow(int row, Variant variant) {
+        names[row] = rsNumber(variant.getName());
+        otherNames.remove(row);
+        if (names[row] == FREE && variant.getName() != null) {
+            otherNames.put(row, variant.getName());
+        }
+        consequences[row] = this.code(variant.getMostSevereConsequence());
+        putOrRemove(errors, row, variant.getError());
+        putOrRemove(failures, row, variant.getFailed());
+        List<Mapping> variantMappings = variant.getMappings();
+        withoutMappings.set(row, variantMappings == null);
+        int count = variantMappings == null ? 0 : variantMappings.size();
+        if (count > mappingCounts[row]) {
+            firstMappings[row] = this.allocateMappings(count);
+        }
+        mappingCounts[row] = count;
+        for (int i = 0; i < count; i++) {
+            this.setMapping(firstMappings[row] + i, variantMappings.get(i));
+        }
+    }
+
+    private static void putOrRemove(Map<Integer, String> values, int row, String value) {
+        if (value == null) {
+            values.remove(row);
+        } else {
+            values.put(row, value);
+        }
+    }
+
+    // First of count mappings appended at the end
+    private int allocateMappings(int count) {
+        if (mappings + count > starts.length) {
+            int capacity = Math.max(starts.length * 2, mappings + count);
+            chromosomes = Arrays.copyOf(chromosomes, capacity);
+            coordSystems = Arrays.copyOf(coordSystems, capacity);
+            assemblies = Arrays.copyOf(assemblies, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            strands = Arrays.copyOf(strands, capacity);
+        }
+        int first = mappings;
+        mappings += count;
+        return first;
+    }
+
+    private void setMapping(int i, Mapping mapping) {
+        chromosomes[i] = this.code(mapping.getSeqRegionName());
+        coordSystems[i] = this.code(mapping.getCoordSystem());
+        assemblies[i] = this.code(mapping.getAssemblyName());
+        starts[i] = mapping.getStart() == null ? NO_START : mapping.getStart();
+        ends[i] = mapping.getEnd() == null ? NO_START : mapping.getEnd();
+        strands[i] = mapping.getStrand() == null ? 0 : mapping.getStrand().byteValue();
+    }
+
+    private Variant view(int row) {
+        Variant variant = new Variant();
+        variant.setName(names[row] == FREE ? otherNames.get(row) : "rs" + names[row]);
+        variant.setMostSevereConsequence(this.value(consequences[row]));
+        variant.setError(errors.get(row));
+        variant.setFailed(failures.get(row));
+        if (!withoutMappings.get(row)) {
+            List<Mapping> variantMappings = new ArrayList<>(mappingCounts[row]);
+            for (int i = firstMappings[row]; i < firstMappings[row] + mappingCounts[row]; i++) {
+                variantMappings.add(this.mapping(i));
+            }
+            variant.setMappings(variantMappings);
+        }
+        return variant;
+    }
+
+    private Mapping mapping(int i) {
+        Mapping mapping = new Mapping();
+        mapping.setSeqRegionName(this.value(chromosomes[i]));
+        mapping.setCoordSystem(this.value(coordSystems[i]));
+        mapping.setAssemblyName(this.value(assemblies[i]));
+        mapping.setStart(starts[i] == NO_START ? null : starts[i]);
+        mapping.setEnd(ends[i] == NO_START ? null : ends[i]);
+        mapping.setStrand(strands[i] == 0 ? null : (int) strands[i]);
+        return mapping;
+    }
+
+    private short code(String value) {
+        if (value == null) {
+            return -1;
+        }
+        return codes.computeIfAbsent(value, v -> {
+            dictionary.add(v);
+            return (short) (dictionary.size() - 1);
+        });
+    }
+
+    private String value(short code) {
+        return code < 0 ? null : dictionary.get(code);
+    }
+
+    // rs12345 is 12345; anything else, including rs0123, is kept under its own key
+    static long rsNumber(String key) {
+        if (key == null || key.length() < 3 || key.length() > 19 || !key.startsWith("rs") || key.charAt(2) == '0') {
+            return FREE;
+        }
+        long number = 0;
+        for (int i = 2; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                return FREE;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+}
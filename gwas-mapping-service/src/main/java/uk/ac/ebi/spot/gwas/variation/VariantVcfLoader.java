@@ -0,0 +1,225 @@
+package uk.ac.ebi.spot.gwas.variation;
+
+import lombok.extern.slf4j.Slf4j;
+import uk.ac.ebi.spot.gwas.common.util.MappingUtil;
+import uk.ac.ebi.spot.gwas.exception.FileProcessingException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.LongStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Builds a {@link VariantIndex} for a set of rsIDs from a variant VCF (plain or bgzipped) and the dbSNP
+ * RsMergeArch dump. The Ensembl VCF (consequences in CSQ or VE) and the dbSNP VCF (RefSeq accessions,
+ * consequence flags) are both supported. The VCF is read from start to end, the tabix index only helps
+ * lookups by position.
+ */
+@Slf4j
+public class VariantVcfLoader {
+
+    private static final String DEFAULT_ASSEMBLY = "GRCh38";
+
+    // dbSNP VCF function flags, for files without VEP consequences
+    private static final Map<String, String> DBSNP_FLAGS = new LinkedHashMap<>();
+
+    static {
+        DBSNP_FLAGS.put("ASS", "splice_acceptor_variant");
+        DBSNP_FLAGS.put("DSS", "splice_donor_variant");
+        DBSNP_FLAGS.put("NSN", "stop_gained");
+        DBSNP_FLAGS.put("NSF", "frameshift_variant");
+        DBSNP_FLAGS.put("NSM", "missense_variant");
+        DBSNP_FLAGS.put("SYN", "synonymous_variant");
+        DBSNP_FLAGS.put("U5", "5_prime_UTR_variant");
+        DBSNP_FLAGS.put("U3", "3_prime_UTR_variant");
+        DBSNP_FLAGS.put("INT", "intron_variant");
+        DBSNP_FLAGS.put("R5", "upstream_gene_variant");
+        DBSNP_FLAGS.put("R3", "downstream_gene_variant");
+    }
+
+    private VariantVcfLoader() {
+        // Hide implicit public constructor
+    }
+
+    public static VariantIndex load(String vcfFile, String mergeFile, Collection<String> snpRsIds) {
+        long start = System.currentTimeMillis();
+        long[] covered = snpRsIds.stream().mapToLong(VariantIndex::rsNumber).filter(rsNumber -> rsNumber >= 0)
+                .sorted().distinct().toArray();
+        Map<Long, Long> merges = readMerges(mergeFile, covered);
+        long[] wanted = merges.isEmpty() ? covered : mergeSorted(covered, merges.values());
+
+        VariantIndex.Builder builder;
+        try (BufferedReader reader = open(vcfFile)) {
+            builder = read(reader, covered, wanted);
+        } catch (IOException e) {
+            throw new FileProcessingException(String.format("Could not read variant file %s: %s", vcfFile, e.getMessage()));
+        }
+        merges.forEach(builder::merge);
+        VariantIndex index = builder.build();
+        log.info("Indexed {} locations and {} merges for {} rsIDs from {} in {} ms", index.size(), index.merges(), covered.length,
+                 vcfFile, System.currentTimeMillis() - start);
+        return index;
+    }
+
+    private static VariantIndex.Builder read(BufferedReader reader, long[] covered, long[] wanted) throws IOException {
+        VariantIndex.Builder builder = null;
+        String assembly = DEFAULT_ASSEMBLY;
+        String consequenceKey = null;
+        int consequenceField = -1;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("#")) {
+                if (line.startsWith("##reference=") || line.startsWith("##assembly=")) {
+                    assembly = assembly(line.substring(line.indexOf('=') + 1));
+                } else if (line.startsWith("##INFO=<ID=CSQ,") || line.startsWith("##INFO=<ID=VE,")) {
+                    consequenceKey = line.substring("##INFO=<ID=".length(), line.indexOf(',')) + "=";
+                    consequenceField = consequenceField(line);
+                }
+                continue;
+            }
+            if (builder == null) {
+                builder = new VariantIndex.Builder(assembly, covered);
+            }
+            // CHROM POS ID REF ALT QUAL FILTER INFO, only the id column is read unless the rsID is wanted
+            int chromosomeEnd = line.indexOf('\t');
+            int positionEnd = chromosomeEnd < 0 ? -1 : line.indexOf('\t', chromosomeEnd + 1);
+            int idEnd = positionEnd < 0 ? -1 : line.indexOf('\t', positionEnd + 1);
+            if (idEnd < 0) {
+                continue;
+            }
+            int[] tabs = null;
+            for (String id : line.substring(positionEnd + 1, idEnd).split(";")) {
+                long rsNumber = VariantIndex.rsNumber(id);
+                if (rsNumber < 0 || Arrays.binarySearch(wanted, rsNumber) < 0) {
+                    continue;
+                }
+                tabs = tabs == null ? tabs(line) : tabs;
+                if (tabs == null) {
+                    break;
+                }
+                String chromosome = MappingUtil.normaliseChromosome(line.substring(0, tabs[0]));
+                int position = Integer.parseInt(line.substring(tabs[0] + 1, tabs[1]));
+                String ref = line.substring(tabs[2] + 1, tabs[3]);
+                String[] alts = line.substring(tabs[3] + 1, tabs[4]).split(",");
+                String info = line.substring(tabs[6] + 1, tabs[7]);
+                int[] range = range(position, ref, alts);
+                builder.add(rsNumber, chromosome, range[0], range[1], consequence(info, consequenceKey, consequenceField));
+            }
+        }
+        return builder == null ? new VariantIndex.Builder(assembly, covered) : builder;
+    }
+
+    // Ensembl coordinates: the padding base of indels is dropped and insertions end before they start
+    private static int[] range(int position, String ref, String[] alts) {
+        boolean padded = Arrays.stream(alts).anyMatch(alt -> alt.length() != ref.length());
+        for (String alt : alts) {
+            padded = padded && !alt.isEmpty() && alt.charAt(0) == ref.charAt(0);
+        }
+        if (padded) {
+            return new int[]{position + 1, position + ref.length() - 1};
+        }
+        return new int[]{position, position + ref.length() - 1};
+    }
+
+    private static String consequence(String info, String consequenceKey, int consequenceField) {
+        List<String> terms = new ArrayList<>();
+        for (String entry : info.split(";")) {
+            if (consequenceKey != null && entry.startsWith(consequenceKey)) {
+                for (String annotation : entry.substring(consequenceKey.length()).split(",")) {
+                    String[] fields = annotation.split("\\|", -1);
+                    if (consequenceField < fields.length) {
+                        terms.addAll(Arrays.asList(fields[consequenceField].split("&")));
+                    }
+                }
+            } else if (DBSNP_FLAGS.containsKey(entry)) {
+                terms.add(DBSNP_FLAGS.get(entry));
+            }
+        }
+        return Consequences.mostSevere(terms);
+    }
+
+    // ##INFO=<ID=CSQ,...,Description="Consequence annotations from Ensembl VEP. Format: Allele|Consequence|IMPACT|...">
+    private static int consequenceField(String header) {
+        int format = header.indexOf("Format: ");
+        if (format < 0) {
+            return 0;
+        }
+        int end = header.indexOf('"', format);
+        String[] fields = header.substring(format + "Format: ".length(), end < 0 ? header.length() : end).split("\\|");
+        for (int i = 0; i < fields.length; i++) {
+            if ("Consequence".equals(fields[i].trim())) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    // GRCh38.p14, GCF_000001405.40 or a path to the fasta
+    private static String assembly(String reference) {
+        if (reference.contains("GRCh37") || reference.contains("GCF_000001405.25") || reference.contains("hg19")) {
+            return "GRCh37";
+        }
+        return DEFAULT_ASSEMBLY;
+    }
+
+    private static int[] tabs(String line) {
+        int[] tabs = new int[8];
+        int from = 0;
+        for (int i = 0; i < tabs.length; i++) {
+            int tab = line.indexOf('\t', from);
+            if (tab < 0) {
+                if (i < 7) {
+                    return null;
+                }
+                tab = line.length();
+            }
+            tabs[i] = tab;
+            from = tab + 1;
+        }
+        return tabs;
+    }
+
+    // rsHigh rsLow build_id orien create_time last_updated_time rsCurrent orien2Current comment
+    private static Map<Long, Long> readMerges(String mergeFile, long[] covered) {
+        Map<Long, Long> merges = new HashMap<>();
+        if (mergeFile == null || mergeFile.isEmpty() || !Files.exists(Paths.get(mergeFile))) {
+            log.warn("No rsID merge history at {}, merged rsIDs will not be found", mergeFile);
+            return merges;
+        }
+        try (BufferedReader reader = open(mergeFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split("\t", 8);
+                if (columns.length < 2 || columns[0].isEmpty() || !Character.isDigit(columns[0].charAt(0))) {
+                    continue;
+                }
+                long rsHigh = Long.parseLong(columns[0].trim());
+                if (Arrays.binarySearch(covered, rsHigh) < 0) {
+                    continue;
+                }
+                String current = columns.length > 6 && !columns[6].trim().isEmpty() ? columns[6] : columns[1];
+                merges.put(rsHigh, Long.parseLong(current.trim()));
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new FileProcessingException(String.format("Could not read rsID merge history %s: %s", mergeFile, e.getMessage()));
+        }
+        return merges;
+    }
+
+    private static long[] mergeSorted(long[] values, Collection<Long> more) {
+        return LongStream.concat(Arrays.stream(values), more.stream().mapToLong(Long::longValue))
+                .sorted().distinct().toArray();
+    }
+
+    // bgzip files are concatenated gzip members, which GZIPInputStream reads through
+    private static BufferedReader open(String file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.endsWith(".gz") || file.endsWith(".bgz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+}
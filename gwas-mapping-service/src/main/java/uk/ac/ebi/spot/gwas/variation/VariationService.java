@@ -4,7 +4,6 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.ListUtils;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -12,6 +11,9 @@ import uk.ac.ebi.spot.gwas.common.config.AppConfig;
 import uk.ac.ebi.spot.gwas.common.constant.DataType;
 import uk.ac.ebi.spot.gwas.common.constant.Type;
 import uk.ac.ebi.spot.gwas.common.constant.Uri;
+import uk.ac.ebi.spot.gwas.common.constant.VariationProvider;
+import uk.ac.ebi.spot.gwas.common.lookup.TieredLookup;
+import uk.ac.ebi.spot.gwas.common.lookup.TieredLookupFactory;
 import uk.ac.ebi.spot.gwas.common.service.RestResponseResultBuilderService;
 import uk.ac.ebi.spot.gwas.mapping.dto.RestResponseResult;
 import uk.ac.ebi.spot.gwas.common.service.EnsemblRestcallHistoryService;
@@ -28,21 +30,31 @@ import java.util.stream.Collectors;
 @Service
 public class VariationService {
 
+    // Ensembl limit on the ids of one POST request
+    private static final int POST_BATCH_SIZE = 200;
+
     private final ObjectMapper mapper = new ObjectMapper();
     private final AppConfig config;
     private final EnsemblRestcallHistoryService historyService;
     private final ApiService mappingApiService;
+    private final LocalVariationService localVariationService;
+    private final TieredLookup<String, Variant> lookup;
 
     RestResponseResultBuilderService restResponseResultBuilderService;
 
     public VariationService(AppConfig config,
                             EnsemblRestcallHistoryService historyService,
                             ApiService mappingApiService,
-                            RestResponseResultBuilderService restResponseResultBuilderService) {
+                            LocalVariationService localVariationService,
+                            RestResponseResultBuilderService restResponseResultBuilderService,
+                            TieredLookupFactory lookupFactory) {
         this.config = config;
         this.historyService = historyService;
         this.mappingApiService = mappingApiService;
+        this.localVariationService = localVariationService;
         this.restResponseResultBuilderService = restResponseResultBuilderService;
+        this.lookup = lookupFactory.create("variation", () -> CacheUtil.variation(DataType.VARIATION, config.getCacheDir()),
+                                           Type.SNP, snpRsId -> snpRsId, this::parseHistory, this::restApiCall);
     }
 
     public Map<String, Variant> getVariation(int threadSize,
@@ -53,9 +65,13 @@ public class VariationService {
         Map<String, Variant> cached = CacheUtil.variation(DataType.VARIATION, config.getCacheDir());
         int partitionSize = threadSize * batchSize;
 
+        // Covered rsIDs are answered by the index and not copied into the store
+        Map<String, Variant> local = this.isLocalProvider() ? localVariationService.getVariations(snpRsIds) : Collections.emptyMap();
+        log.info("Resolved {} from the local variant index out of {}", local.size(), snpRsIds.size());
+
         List<String> getFromApi = new ArrayList<>();
         for (String snpRsId : snpRsIds) {
-            Variant variant = cached.get(snpRsId.trim());
+            Variant variant = local.containsKey(snpRsId.trim()) ? local.get(snpRsId.trim()) : cached.get(snpRsId.trim());
             if (variant == null) {
                 log.info("{} not found in file cache", snpRsId);
                 getFromApi.add(snpRsId);
@@ -75,53 +91,129 @@ public class VariationService {
             CacheUtil.saveToFile(DataType.VARIATION, config.getCacheDir(), cached);
         }
         log.info("Total variation api call time {}", (System.currentTimeMillis() - start));
-        return cached;
+        return this.withLocal(local, cached, snpRsIds);
+    }
+
+    /**
+     * The variants of a finished run, from the local index and the store, without asking Ensembl.
+     */
+    public Map<String, Variant> getStoredVariation(List<String> snpRsIds) {
+        Map<String, Variant> cached = CacheUtil.variation(DataType.VARIATION, config.getCacheDir());
+        Map<String, Variant> local = this.isLocalProvider() ? localVariationService.getVariations(snpRsIds) : Collections.emptyMap();
+        return this.withLocal(local, cached, snpRsIds);
+    }
+
+    private Map<String, Variant> withLocal(Map<String, Variant> local, Map<String, Variant> cached, List<String> snpRsIds) {
+        if (local.isEmpty()) {
+            return cached;
+        }
+        Map<String, Variant> variants = new HashMap<>(local);
+        snpRsIds.stream().map(String::trim).filter(snpRsId -> !local.containsKey(snpRsId) && cached.containsKey(snpRsId))
+                .forEach(snpRsId -> variants.put(snpRsId, cached.get(snpRsId)));
+        return variants;
     }
 
     public Map<String, Variant> getVariationsWhoseRsidHasChanged(Map<String, Variant> variantMap, List<String> snpRsIds) throws InterruptedException {
         int count = 1;
+        // Only what Ensembl returned is cached, the map also holds the variants of the local index
+        Map<String, Variant> fetched = new HashMap<>();
         for (String snpRsId : snpRsIds) {
             Variant variant = variantMap.get(snpRsId.trim());
             if (variant == null) {
                 log.info("{} not found in batch or changed, now getting from Ensembl ...", snpRsId);
-                variantMap.putAll(this.restApiCall(snpRsId));
+                Map<String, Variant> response = this.restApiCall(snpRsId);
+                fetched.putAll(response);
+                variantMap.putAll(response);
             } else {
                 log.info("{} already retrieved in batch", snpRsId);
             }
             MappingUtil.statusLog(DataType.VARIATION.name(), count++, snpRsIds.size());
         }
-        CacheUtil.saveToFile(DataType.VARIATION, config.getCacheDir(), variantMap);
+        CacheUtil.saveToFile(DataType.VARIATION, config.getCacheDir(), fetched);
         return variantMap;
     }
 
-    @Cacheable(value = "variation")
     public Variant getVariationFromDB(String snpRsId) {
-        log.warn("Retrieving variation for snp: {}", snpRsId);
-        RestResponseResult result = historyService.getHistoryByTypeParamAndVersion(Type.SNP, snpRsId, config.getERelease());
-        Variant variant = new Variant();
-        if (result == null) {
-            variant = this.restApiCall(snpRsId).get(snpRsId);
-        } else {
-            try {
-                if(result.getRestResult() != null) {
-                    log.info("inside getting rsid from History block");
-                    variant = mapper.readValue(result.getRestResult(), Variant.class);
-                }else{
-                    variant = mapper.readValue(result.getError(), Variant.class);
-                }
-            } catch (JsonProcessingException e) {  log.error("Error in parsing Variant response"+e.getMessage(),e); }
+        log.debug("Retrieving variation for snp: {}", snpRsId);
+        if (this.isLocalProvider() && localVariationService.covers(snpRsId.trim())) {
+            return localVariationService.getVariation(snpRsId.trim());
         }
-        return variant;
+        return Optional.ofNullable(lookup.get(snpRsId)).orElseGet(Variant::new);
     }
 
+    public Map<String, Variant> getVariationsFromDB(Collection<String> snpRsIds) {
+        if (!this.isLocalProvider()) {
+            return lookup.getAll(snpRsIds);
+        }
+        Map<String, Variant> variants = localVariationService.getVariations(snpRsIds);
+        List<String> remaining = snpRsIds.stream().filter(snpRsId -> !variants.containsKey(snpRsId.trim())).collect(Collectors.toList());
+        if (!remaining.isEmpty()) {
+            variants.putAll(lookup.getAll(remaining));
+        }
+        return variants;
+    }
+
+    // Covered rsIDs never reach Ensembl, so nothing is recorded in the history for them
+    private boolean isLocalProvider() {
+        return VariationProvider.from(config.getVariationProvider()) == VariationProvider.LOCAL;
+    }
+
+    private Variant parseHistory(RestResponseResult result) {
+        try {
+            if (result.getRestResult() != null) {
+                return mapper.readValue(result.getRestResult(), Variant.class);
+            } else {
+                return mapper.readValue(result.getError(), Variant.class);
+            }
+        } catch (JsonProcessingException e) {
+            log.error("Error in parsing Variant response" + e.getMessage(), e);
+            return null;
+        }
+    }
 
+    // Batches go to the POST endpoint, ids it does not return are fetched one by one for their error
+    private Map<String, Variant> restApiCall(Collection<String> snpRsIds) {
+        Map<String, Variant> variants = new HashMap<>();
+        if (snpRsIds.size() > 1) {
+            List<CompletableFuture<Map<String, Variant>>> futureList = ListUtils.partition(new ArrayList<>(snpRsIds), POST_BATCH_SIZE)
+                    .stream().map(mappingApiService::variationPost).collect(Collectors.toList());
+            for (CompletableFuture<Map<String, Variant>> future : futureList) {
+                future.join().forEach((snpRsId, variant) -> {
+                    if (snpRsIds.contains(snpRsId)) {
+                        variants.put(snpRsId, variant);
+                        this.recordHistory(snpRsId, variant);
+                    }
+                });
+            }
+        }
+        List<CompletableFuture<Map<String, Variant>>> singles = snpRsIds.stream().filter(snpRsId -> !variants.containsKey(snpRsId))
+                .map(this::restApiCallAsync).collect(Collectors.toList());
+        singles.forEach(future -> variants.putAll(future.join()));
+        return variants;
+    }
 
+    private void recordHistory(String snpRsId, Variant variant) {
+        try {
+            String uri = String.format("%s/%s/%s", config.getServer(), Uri.VARIATION, snpRsId);
+            restResponseResultBuilderService.buildResponseResult(uri, snpRsId, Type.SNP, ResponseEntity.ok().build(),
+                                                                 mapper.writeValueAsString(variant));
+        } catch (JsonProcessingException e) {
+            log.error("Exception in writing object as string in VariationService" + e.getMessage(), e);
+        }
+    }
 
     public Map<String, Variant> restApiCall(String snpRsId) {
-        Map<String, Variant> variationMap = new HashMap<>();
+        return this.restApiCallAsync(snpRsId).join();
+    }
+
+    public CompletableFuture<Map<String, Variant>> restApiCallAsync(String snpRsId) {
         String uri = String.format("%s/%s/%s", config.getServer(), Uri.VARIATION, snpRsId);
         log.debug("Variation url is {}", uri);
-        Optional<ResponseEntity<Variant>> optionalEntity = mappingApiService.getRequestVariant(uri);
+        return mappingApiService.getRequestVariantAsync(uri).thenApply(optionalEntity -> this.buildResult(snpRsId, uri, optionalEntity));
+    }
+
+    private Map<String, Variant> buildResult(String snpRsId, String uri, Optional<ResponseEntity<Variant>> optionalEntity) {
+        Map<String, Variant> variationMap = new HashMap<>();
         String variantResponse = "";
         Variant variant = optionalEntity
                 .map(response -> mapper.convertValue(response.getBody(), Variant.class))
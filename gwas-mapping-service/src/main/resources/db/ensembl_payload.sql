@@ -0,0 +1,12 @@
+-- Content-addressed store of Ensembl responses, see EnsemblPayloadStore.
+-- Run before deploying. Then switch on mapping.payload_store.enabled and move the existing
+-- responses with: java -jar gwas-mapping-service.jar -m migrate-history-payloads
+CREATE TABLE ENSEMBL_PAYLOAD (
+    PAYLOAD_HASH VARCHAR2(64 CHAR) NOT NULL,
+    PAYLOAD      BLOB,
+    PAYLOAD_SIZE NUMBER(10),
+    CREATED      TIMESTAMP,
+    CONSTRAINT ENSEMBL_PAYLOAD_PK PRIMARY KEY (PAYLOAD_HASH)
+);
+
+ALTER TABLE ENSEMBL_RESTCALL_HISTORY ADD (PAYLOAD_HASH VARCHAR2(64 CHAR));
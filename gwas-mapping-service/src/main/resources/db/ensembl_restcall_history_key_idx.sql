@@ -0,0 +1,4 @@
+-- Composite index behind EnsemblRestcallHistoryService lookups.
+-- Single key lookups and the prefetch IN queries filter on type and release, then on the parameter.
+CREATE INDEX ENSEMBL_HISTORY_KEY_IDX
+    ON ENSEMBL_RESTCALL_HISTORY (REQUEST_TYPE, ENSEMBL_VERSION, ENSEMBL_PARAM);
@@ -0,0 +1,114 @@
+package uk.ac.ebi.spot.gwas.association;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.ac.ebi.spot.gwas.common.constant.OperationMode;
+import uk.ac.ebi.spot.gwas.common.projection.IdRangeProjection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AssociationServiceTest {
+
+    @Mock
+    private AssociationRepository associationRepository;
+
+    @InjectMocks
+    private AssociationService associationService;
+
+    private static IdRangeProjection bounds(Long minId, Long maxId, Long total) {
+        IdRangeProjection bounds = mock(IdRangeProjection.class);
+        lenient().when(bounds.getMinId()).thenReturn(minId);
+        lenient().when(bounds.getMaxId()).thenReturn(maxId);
+        when(bounds.getTotal()).thenReturn(total);
+        return bounds;
+    }
+
+    // Ranges are contiguous, from exclusive and to inclusive, and cover every id between the bounds
+    private static void assertCovers(List<IdRange> ranges, long minId, long maxId) {
+        assertEquals(minId - 1, ranges.get(0).getFromId());
+        assertEquals(maxId, ranges.get(ranges.size() - 1).getToId());
+        for (int i = 0; i < ranges.size(); i++) {
+            assertTrue(ranges.get(i).getFromId() < ranges.get(i).getToId(), ranges.get(i).toString());
+            if (i > 0) {
+                assertEquals(ranges.get(i - 1).getToId(), ranges.get(i).getFromId());
+            }
+        }
+    }
+
+    @Test
+    void noRangesWithoutAssociations() {
+        IdRangeProjection bounds = bounds(null, null, 0L);
+        when(associationRepository.findIdBounds()).thenReturn(bounds);
+
+        assertTrue(associationService.getIdRanges(4, OperationMode.MAP_ALL_SNPS_INDB).isEmpty());
+    }
+
+    @Test
+    void singleRangeCoversEverything() {
+        IdRangeProjection bounds = bounds(10L, 500L, 300L);
+        when(associationRepository.findUnmappedIdBounds()).thenReturn(bounds);
+
+        List<IdRange> ranges = associationService.getIdRanges(1, OperationMode.MAP_SOME_SNPS_INDB);
+
+        assertEquals(Collections.singletonList(new IdRange(9L, 500L)), ranges);
+        verify(associationRepository, never()).findUnmappedIdSample(anyLong());
+    }
+
+    @Test
+    void rangesFollowTheSampledIds() {
+        // Dense ids 1-1000 then a sparse tail to 100000, the sample follows the dense part
+        List<Long> ids = new ArrayList<>();
+        LongStream.rangeClosed(1, 1000).forEach(ids::add);
+        LongStream.rangeClosed(1, 10).forEach(i -> ids.add(1000 + i * 9900));
+        IdRangeProjection bounds = bounds(1L, 100000L, (long) ids.size());
+        when(associationRepository.findIdBounds()).thenReturn(bounds);
+        when(associationRepository.findIdSample(anyLong())).thenAnswer(invocation -> {
+            long step = invocation.getArgument(0);
+            return ids.stream().filter(id -> id % step == 0).collect(Collectors.toList());
+        });
+
+        List<IdRange> ranges = associationService.getIdRanges(4, OperationMode.MAP_ALL_SNPS_INDB);
+
+        assertEquals(4, ranges.size());
+        assertCovers(ranges, 1, 100000);
+        // Equal widths would leave all but one range nearly empty
+        assertTrue(ranges.get(2).getToId() <= 1000, ranges.toString());
+    }
+
+    @Test
+    void equalWidthsWhenSampleIsTooSmall() {
+        IdRangeProjection bounds = bounds(1L, 400L, 400L);
+        when(associationRepository.findIdBounds()).thenReturn(bounds);
+        when(associationRepository.findIdSample(anyLong())).thenReturn(Collections.singletonList(100L));
+
+        List<IdRange> ranges = associationService.getIdRanges(4, OperationMode.MAP_ALL_SNPS_INDB);
+
+        assertEquals(4, ranges.size());
+        assertCovers(ranges, 1, 400);
+        assertEquals(new IdRange(100L, 200L), ranges.get(1));
+    }
+
+    @Test
+    void neverMoreRangesThanAssociations() {
+        IdRangeProjection bounds = bounds(5L, 7L, 3L);
+        when(associationRepository.findIdBounds()).thenReturn(bounds);
+        when(associationRepository.findIdSample(anyLong())).thenReturn(LongStream.rangeClosed(5, 7).boxed().collect(Collectors.toList()));
+
+        List<IdRange> ranges = associationService.getIdRanges(16, OperationMode.MAP_ALL_SNPS_INDB);
+
+        assertTrue(ranges.size() <= 3, ranges.toString());
+        assertCovers(ranges, 5, 7);
+    }
+}
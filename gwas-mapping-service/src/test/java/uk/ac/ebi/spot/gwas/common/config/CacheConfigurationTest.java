@@ -0,0 +1,48 @@
+package uk.ac.ebi.spot.gwas.common.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.mock.env.MockEnvironment;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheConfigurationTest {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final CacheConfiguration configuration =
+            new CacheConfiguration(new MockEnvironment().withProperty("mapping.caches.variation", "maximumSize=10"));
+
+    @AfterEach
+    void tearDown() {
+        configuration.close();
+    }
+
+    @Test
+    void cacheStatisticsAreRegistered() throws Exception {
+        CacheManager cacheManager = configuration.cacheManager();
+        Cache cache = cacheManager.getCache("variation");
+        cache.put("rs1", "A");
+        cache.get("rs1");
+        cache.get("rs2");
+
+        ObjectName name = new ObjectName("uk.ac.ebi.spot.gwas:type=Cache,name=variation");
+        assertEquals(1L, server.getAttribute(name, "HitCount"));
+        assertEquals(1L, server.getAttribute(name, "MissCount"));
+        assertEquals(0.5, (Double) server.getAttribute(name, "HitRate"), 0.001);
+        assertTrue(server.isRegistered(new ObjectName("uk.ac.ebi.spot.gwas:type=Cache,name=geneSymbol")));
+    }
+
+    @Test
+    void statisticsAreUnregisteredOnClose() throws Exception {
+        configuration.cacheManager();
+        configuration.close();
+
+        assertFalse(server.isRegistered(new ObjectName("uk.ac.ebi.spot.gwas:type=Cache,name=variation")));
+    }
+}
@@ -0,0 +1,83 @@
+package uk.ac.ebi.spot.gwas.common.lookup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TieredLookupTest {
+
+    private static Tier<String, String> failingTier(String name) {
+        return new Tier<String, String>() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public Map<String, String> getAll(Collection<String> keys) {
+                throw new IllegalStateException(name + " unavailable");
+            }
+        };
+    }
+
+    @Test
+    void asksNextTierWhenStoreFails() {
+        List<Collection<String>> restCalls = new ArrayList<>();
+        TieredLookup<String, String> lookup = new TieredLookup<>("test", Arrays.asList(
+                failingTier("store"),
+                new RestTier<String, String>(keys -> {
+                    restCalls.add(new ArrayList<>(keys));
+                    Map<String, String> values = new HashMap<>();
+                    keys.forEach(key -> values.put(key, key.toUpperCase()));
+                    return values;
+                })));
+
+        Map<String, String> values = lookup.getAll(Arrays.asList("rs1", "rs2"));
+
+        assertEquals("RS1", values.get("rs1"));
+        assertEquals("RS2", values.get("rs2"));
+        assertEquals(1, restCalls.size());
+    }
+
+    @Test
+    void restFailureFailsTheLookup() {
+        TieredLookup<String, String> lookup = new TieredLookup<>("test", Collections.singletonList(
+                new RestTier<String, String>(keys -> {
+                    throw new CompletionException(new IllegalStateException("Ensembl unavailable"));
+                })));
+
+        assertThrows(CompletionException.class, () -> lookup.getAll(Collections.singletonList("rs1")));
+        assertThrows(CompletionException.class, () -> lookup.get("rs1"));
+    }
+
+    @Test
+    void promotesValuesToUpperTiers() {
+        Map<String, String> upper = new HashMap<>();
+        Tier<String, String> cache = new Tier<String, String>() {
+            @Override
+            public String getName() {
+                return "cache";
+            }
+
+            @Override
+            public Map<String, String> getAll(Collection<String> keys) {
+                Map<String, String> values = new HashMap<>(upper);
+                values.keySet().retainAll(keys);
+                return values;
+            }
+
+            @Override
+            public void putAll(Map<String, String> values) {
+                upper.putAll(values);
+            }
+        };
+        TieredLookup<String, String> lookup = new TieredLookup<>("test", Arrays.asList(
+                cache, new RestTier<String, String>(keys -> Collections.singletonMap("rs1", "A"))));
+
+        assertEquals("A", lookup.get("rs1"));
+        assertEquals(Collections.singletonMap("rs1", "A"), upper);
+    }
+}
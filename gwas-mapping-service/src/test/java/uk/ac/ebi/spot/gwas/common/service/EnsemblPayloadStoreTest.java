@@ -0,0 +1,88 @@
+package uk.ac.ebi.spot.gwas.common.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import uk.ac.ebi.spot.gwas.common.model.EnsemblRestcallHistory;
+import uk.ac.ebi.spot.gwas.common.repository.EnsemblPayloadRepository;
+import uk.ac.ebi.spot.gwas.common.repository.EnsemblRestcallHistoryRepository;
+
+import javax.persistence.EntityManager;
+import java.sql.SQLException;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.*;
+
+class EnsemblPayloadStoreTest {
+
+    private EnsemblPayloadRepository payloadRepository;
+    private EntityManager entityManager;
+    private JdbcTemplate jdbcTemplate;
+    private EnsemblPayloadStore store;
+
+    @BeforeEach
+    void setUp() {
+        payloadRepository = mock(EnsemblPayloadRepository.class);
+        entityManager = mock(EntityManager.class);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        store = new EnsemblPayloadStore(payloadRepository, mock(EnsemblRestcallHistoryRepository.class),
+                                        jdbcTemplate, transactionManager, true, 1000);
+        ReflectionTestUtils.setField(store, "entityManager", entityManager);
+    }
+
+    private static EnsemblRestcallHistory history(String response) {
+        EnsemblRestcallHistory history = new EnsemblRestcallHistory();
+        history.setEnsemblResponse(response);
+        return history;
+    }
+
+    @Test
+    void payloadStoredMeanwhileIsNotAnError() {
+        EnsemblRestcallHistory history = history("{\"id\":\"rs1\"}");
+        when(payloadRepository.findExistingHashes(anyCollection()))
+                .thenReturn(Collections.emptyList())
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        doThrow(new DataIntegrityViolationException("ENSEMBL_PAYLOAD_PK")).when(entityManager).flush();
+
+        store.externalise(Collections.singletonList(history));
+
+        assertNotNull(history.getPayloadHash());
+        assertNull(history.getEnsemblResponse());
+    }
+
+    @Test
+    void otherInsertFailuresArePassedOn() {
+        when(payloadRepository.findExistingHashes(anyCollection())).thenReturn(Collections.emptyList());
+        doThrow(new IllegalStateException("connection lost")).when(entityManager).flush();
+
+        assertThrows(IllegalStateException.class, () -> store.externalise(Collections.singletonList(history("{}"))));
+    }
+
+    @Test
+    void missingHashColumnStopsTheStart() {
+        when(jdbcTemplate.queryForList(contains("ENSEMBL_RESTCALL_HISTORY")))
+                .thenThrow(new BadSqlGrammarException("check", "SELECT PAYLOAD_HASH", new SQLException("ORA-00904")));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, store::checkSchema);
+        assertTrue(e.getMessage().contains("db/ensembl_payload.sql"), e.getMessage());
+    }
+
+    @Test
+    void schemaCheckPassesWithBothTables() {
+        store.checkSchema();
+
+        verify(jdbcTemplate).queryForList(contains("ENSEMBL_RESTCALL_HISTORY"));
+        verify(jdbcTemplate).queryForList(contains("ENSEMBL_PAYLOAD "));
+    }
+}
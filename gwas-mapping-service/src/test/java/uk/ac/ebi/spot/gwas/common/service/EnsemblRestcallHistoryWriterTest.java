@@ -0,0 +1,171 @@
+package uk.ac.ebi.spot.gwas.common.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import uk.ac.ebi.spot.gwas.common.model.EnsemblRestcallHistory;
+import uk.ac.ebi.spot.gwas.common.repository.EnsemblRestcallHistoryRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class EnsemblRestcallHistoryWriterTest {
+
+    private static final String RELEASE = "105";
+
+    @TempDir
+    Path directory;
+
+    private EnsemblRestcallHistoryRepository historyRepository;
+    private PlatformTransactionManager transactionManager;
+    private final List<String> saved = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void setUp() {
+        historyRepository = mock(EnsemblRestcallHistoryRepository.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(historyRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<EnsemblRestcallHistory> rows = invocation.getArgument(0);
+            rows.forEach(row -> saved.add(row.getEnsemblParam()));
+            return rows;
+        });
+    }
+
+    private EnsemblRestcallHistoryWriter writer(int queueCapacity) {
+        return new EnsemblRestcallHistoryWriter(historyRepository, mock(EnsemblPayloadStore.class), transactionManager,
+                                                true, queueCapacity, 10, 10, this.spillFile().toString());
+    }
+
+    private Path spillFile() {
+        return directory.resolve("history.spill");
+    }
+
+    private Path replayFile() {
+        return directory.resolve("history.spill.replay");
+    }
+
+    private static EnsemblRestcallHistory history(String rsId) {
+        EnsemblRestcallHistory history = new EnsemblRestcallHistory();
+        history.setRequestType("snp");
+        history.setEnsemblParam(rsId);
+        history.setEnsemblUrl("https://rest.ensembl.org/variation/homo_sapiens/" + rsId);
+        history.setEnsemblResponse("{\"name\":\"" + rsId + "\"}");
+        history.setEnsemblVersion(RELEASE);
+        return history;
+    }
+
+    private static String spilledLine(String rsId) {
+        return String.format("{\"requestType\":\"snp\",\"ensemblParam\":\"%1$s\",\"ensemblUrl\":\"u\"," +
+                             "\"ensemblResponse\":\"{}\",\"ensemblVersion\":\"%2$s\"}", rsId, RELEASE);
+    }
+
+    @Test
+    void queuedAndSpilledRowsArePendingUntilSaved() throws Exception {
+        EnsemblRestcallHistoryWriter writer = this.writer(1);
+        EnsemblRestcallHistory queued = history("rs1");
+        EnsemblRestcallHistory spilled = history("rs2");
+
+        writer.write(queued);
+        // The queue is full, the row goes to the spill file
+        writer.write(spilled);
+
+        assertSame(queued, writer.findPending("snp", "rs1", RELEASE));
+        assertSame(spilled, writer.findPending("snp", "rs2", RELEASE));
+        assertNull(writer.findPending("snp", "rs1", "104"));
+        assertEquals(1, Files.readAllLines(this.spillFile()).size());
+
+        writer.start();
+        writer.close();
+
+        assertEquals(new HashSet<>(Arrays.asList("rs1", "rs2")), new HashSet<>(saved));
+        assertNull(writer.findPending("snp", "rs1", RELEASE));
+        assertNull(writer.findPending("snp", "rs2", RELEASE));
+        assertFalse(Files.exists(this.spillFile()));
+        assertFalse(Files.exists(this.replayFile()));
+    }
+
+    @Test
+    void failedBatchIsSpilledAndReplayed() throws Exception {
+        when(historyRepository.saveAll(anyList()))
+                .thenThrow(new DataAccessResourceFailureException("ORA-12541"))
+                .thenAnswer(invocation -> {
+                    List<EnsemblRestcallHistory> rows = invocation.getArgument(0);
+                    rows.forEach(row -> saved.add(row.getEnsemblParam()));
+                    return rows;
+                });
+        EnsemblRestcallHistoryWriter writer = this.writer(10);
+        writer.write(history("rs1"));
+
+        writer.start();
+        writer.close();
+
+        assertEquals(Collections.singletonList("rs1"), saved);
+        assertNull(writer.findPending("snp", "rs1", RELEASE));
+        assertTrue(writer.getStats().contains("1 spilled"), writer.getStats());
+    }
+
+    @Test
+    void leftoverReplayFileIsSavedBeforeTheSpillFile() throws Exception {
+        // Left by a run which died while replaying
+        Files.write(this.replayFile(), Arrays.asList(spilledLine("rs8"), spilledLine("rs9")), StandardCharsets.UTF_8);
+        Files.write(this.spillFile(), Collections.singletonList(spilledLine("rs10")), StandardCharsets.UTF_8);
+        EnsemblRestcallHistoryWriter writer = this.writer(10);
+
+        writer.start();
+        writer.close();
+
+        assertEquals(Arrays.asList("rs8", "rs9", "rs10"), saved);
+        assertFalse(Files.exists(this.spillFile()));
+        assertFalse(Files.exists(this.replayFile()));
+    }
+
+    @Test
+    void unreadableSpilledRowIsDropped() throws Exception {
+        Files.write(this.spillFile(), Arrays.asList(spilledLine("rs1"), "{\"requestType\":\"sn"), StandardCharsets.UTF_8);
+        EnsemblRestcallHistoryWriter writer = this.writer(10);
+
+        writer.start();
+        writer.close();
+
+        assertEquals(Collections.singletonList("rs1"), saved.stream().distinct().collect(Collectors.toList()));
+        assertTrue(writer.getStats().contains("1 dropped"), writer.getStats());
+        assertFalse(Files.exists(this.replayFile()));
+    }
+
+    @Test
+    void withoutWriteBehindRowsAreSavedOffTheCallersThread() throws Exception {
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        when(historyRepository.save(any(EnsemblRestcallHistory.class))).thenAnswer(invocation -> {
+            EnsemblRestcallHistory row = invocation.getArgument(0);
+            saved.add(row.getEnsemblParam());
+            threads.add(Thread.currentThread().getName());
+            return row;
+        });
+        EnsemblRestcallHistoryWriter writer = new EnsemblRestcallHistoryWriter(historyRepository, mock(EnsemblPayloadStore.class),
+                                                                               transactionManager, false, 10, 10, 10,
+                                                                               this.spillFile().toString());
+        writer.start();
+
+        writer.write(history("rs1"));
+        writer.write(history("rs2"));
+        writer.close();
+
+        assertEquals(Arrays.asList("rs1", "rs2"), saved);
+        assertEquals(Collections.singleton("EnsemblHistoryWriter"), new HashSet<>(threads));
+        assertNull(writer.findPending("snp", "rs1", RELEASE));
+        verify(historyRepository, never()).saveAll(anyList());
+        assertFalse(Files.exists(this.spillFile()));
+    }
+}
@@ -0,0 +1,61 @@
+package uk.ac.ebi.spot.gwas.common.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private RunJournal journal;
+
+    @BeforeEach
+    void setUp() {
+        AppConfig config = new AppConfig();
+        config.setCacheDir(directory.toString());
+        journal = new RunJournal(config, true);
+    }
+
+    @Test
+    void resumesRunOfSameInput() {
+        RunJournal.Run run = journal.open("cache", "input-1");
+        run.done("variations");
+        run.mark("last", 42L);
+
+        RunJournal.Run resumed = journal.open("cache", "input-1");
+        assertTrue(resumed.isResumed());
+        assertTrue(resumed.isDone("variations"));
+        assertEquals(42L, resumed.mark("last"));
+    }
+
+    @Test
+    void discardsRunOfOtherInput() {
+        journal.open("cache", "input-1").done("variations");
+
+        RunJournal.Run run = journal.open("cache", "input-2");
+        assertFalse(run.isResumed());
+        assertFalse(run.isDone("variations"));
+
+        // The new input is recorded, a restart of it resumes
+        run.done("cytogenetic_bands");
+        RunJournal.Run resumed = journal.open("cache", "input-2");
+        assertTrue(resumed.isDone("cytogenetic_bands"));
+        assertFalse(resumed.isDone("variations"));
+    }
+
+    @Test
+    void finishedRunStartsFromTheBeginning() {
+        RunJournal.Run run = journal.open("cache", "input-1");
+        run.done("variations");
+        run.finish();
+
+        assertFalse(journal.open("cache", "input-1").isDone("variations"));
+    }
+}
@@ -0,0 +1,112 @@
+package uk.ac.ebi.spot.gwas.common.util;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.ebi.spot.gwas.common.model.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappingFingerprintTest {
+
+    private static Location location() {
+        return new Location("17", 43044295, new Region("17q21.31"));
+    }
+
+    private static GenomicContext context(Gene gene, String source) {
+        return new GenomicContext(false, false, false, 0L, null, gene, location(), source, "Ensembl_pipeline", true);
+    }
+
+    // As GenomicContextService builds it: one id of each kind, the one of the other source null
+    private static Gene freshGene(String name, String entrezId, String ensemblId) {
+        EntrezGene entrezGene = new EntrezGene();
+        entrezGene.setEntrezGeneId(entrezId);
+        EnsemblGene ensemblGene = new EnsemblGene();
+        ensemblGene.setEnsemblGeneId(ensemblId);
+        return new Gene(name, new ArrayList<>(Collections.singletonList(entrezGene)),
+                        new ArrayList<>(Collections.singletonList(ensemblGene)));
+    }
+
+    // As stored: one gene row shared by the contexts of both sources, with the ids of both
+    private static Gene storedGene(String name, String entrezId, String ensemblId) {
+        Gene gene = new Gene(name);
+        gene.setEntrezGeneIds(new ArrayList<>(Collections.singletonList(new EntrezGene(entrezId, gene))));
+        gene.setEnsemblGeneIds(new ArrayList<>(Collections.singletonList(new EnsemblGene(ensemblId, gene))));
+        return gene;
+    }
+
+    private static String fingerprint(Collection<GenomicContext> genomicContexts) {
+        return MappingFingerprint.of("intron_variant", 0L, null, Collections.singletonList(location()), genomicContexts);
+    }
+
+    private static boolean matches(Collection<GenomicContext> storedContexts, Collection<GenomicContext> freshContexts) {
+        SingleNucleotidePolymorphism stored = new SingleNucleotidePolymorphism();
+        stored.setFunctionalClass("intron_variant");
+        stored.setMerged(0L);
+        stored.setLocations(Collections.singletonList(location()));
+        stored.setGenomicContexts(storedContexts);
+        return MappingFingerprint.matches(stored, "intron_variant", 0L, null, Collections.singletonList(location()), freshContexts);
+    }
+
+    @Test
+    void storedContextsMatchFreshOnes() {
+        Gene stored = storedGene("BRCA1", "672", "ENSG00000012048");
+        List<GenomicContext> storedContexts = Arrays.asList(context(stored, "Ensembl"), context(stored, "NCBI"));
+        List<GenomicContext> freshContexts = Arrays.asList(
+                context(freshGene("BRCA1", null, "ENSG00000012048"), "Ensembl"),
+                context(freshGene("BRCA1", "672", null), "NCBI"));
+
+        assertEquals(fingerprint(storedContexts), fingerprint(freshContexts));
+        assertTrue(matches(storedContexts, freshContexts));
+    }
+
+    @Test
+    void changedGeneIdDoesNotMatch() {
+        Gene stored = storedGene("BRCA1", "672", "ENSG00000012048");
+        List<GenomicContext> freshContexts = Collections.singletonList(
+                context(freshGene("BRCA1", null, "ENSG00000099999"), "Ensembl"));
+
+        assertFalse(matches(Collections.singletonList(context(stored, "Ensembl")), freshContexts));
+    }
+
+    @Test
+    void storedGeneWithSeveralIdsMatchesFreshOne() {
+        // Stored with the ids every SNP mapped to the gene found, this one only maps to one of them
+        Gene stored = storedGene("BRCA1", "672", "ENSG00000012048");
+        stored.getEnsemblGeneIds().add(new EnsemblGene("ENSG00000099999", stored));
+        List<GenomicContext> freshContexts = Collections.singletonList(
+                context(freshGene("BRCA1", null, "ENSG00000099999"), "Ensembl"));
+
+        assertTrue(matches(Collections.singletonList(context(stored, "Ensembl")), freshContexts));
+    }
+
+    @Test
+    void changedContextDoesNotMatch() {
+        Gene stored = storedGene("BRCA1", "672", "ENSG00000012048");
+        GenomicContext fresh = context(freshGene("BRCA1", null, "ENSG00000012048"), "Ensembl");
+        fresh.setDistance(1000L);
+
+        assertFalse(matches(Collections.singletonList(context(stored, "Ensembl")), Collections.singletonList(fresh)));
+    }
+
+    @Test
+    void ignoresContextsWhichAreNeverStored() {
+        Gene stored = storedGene("BRCA1", "672", "ENSG00000012048");
+        List<GenomicContext> freshContexts = Arrays.asList(
+                context(freshGene("BRCA1", null, "ENSG00000012048"), "Ensembl"),
+                context(freshGene("undefined", null, "ENSG00000099999"), "Ensembl"));
+
+        assertEquals(fingerprint(Collections.singletonList(context(stored, "Ensembl"))), fingerprint(freshContexts));
+    }
+
+    @Test
+    void doesNotDependOnOrder() {
+        List<GenomicContext> contexts = Arrays.asList(
+                context(freshGene("BRCA1", null, "ENSG00000012048"), "Ensembl"),
+                context(freshGene("NBR2", null, "ENSG00000198496"), "Ensembl"));
+        List<GenomicContext> reversed = new ArrayList<>(contexts);
+        Collections.reverse(reversed);
+
+        assertEquals(fingerprint(contexts), fingerprint(reversed));
+    }
+}
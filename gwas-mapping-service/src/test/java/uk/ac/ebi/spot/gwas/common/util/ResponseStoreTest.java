@@ -0,0 +1,138 @@
+package uk.ac.ebi.spot.gwas.common.util;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseStoreTest {
+
+    private static final JavaType STRING = TypeFactory.defaultInstance().constructType(String.class);
+
+    @TempDir
+    Path directory;
+
+    private String basePath() {
+        return directory.resolve("store").toString();
+    }
+
+    private Path logPath() {
+        return directory.resolve("store.log");
+    }
+
+    @Test
+    void keepsValuesAcrossReopen() {
+        ResponseStore<String> store = new ResponseStore<>(basePath(), STRING);
+        store.put("rs1", "a");
+        store.put("rs2", "b");
+        store.put("rs1", "c");
+        store.close();
+
+        ResponseStore<String> reopened = new ResponseStore<>(basePath(), STRING);
+        assertEquals(2, reopened.size());
+        assertEquals("c", reopened.get("rs1"));
+        assertEquals("b", reopened.get("rs2"));
+        assertNull(reopened.get("rs3"));
+        reopened.close();
+    }
+
+    @Test
+    void putIfChangedSkipsEqualValues() throws IOException {
+        ResponseStore<String> store = new ResponseStore<>(basePath(), STRING);
+        assertTrue(store.putIfChanged("rs1", "a"));
+        store.flush();
+        long length = Files.size(logPath());
+
+        assertFalse(store.putIfChanged("rs1", "a"));
+        store.flush();
+        assertEquals(length, Files.size(logPath()));
+
+        assertTrue(store.putIfChanged("rs1", "b"));
+        assertEquals("b", store.get("rs1"));
+        store.close();
+    }
+
+    @Test
+    void compactionKeepsLiveRecords() throws IOException {
+        ResponseStore<String> store = new ResponseStore<>(basePath(), STRING);
+        for (int i = 0; i < 100; i++) {
+            store.put("rs" + (i % 10), "value" + i);
+        }
+        store.flush();
+        long before = Files.size(logPath());
+
+        store.compact();
+        assertTrue(Files.size(logPath()) < before);
+        assertEquals(10, store.size());
+        assertEquals("value95", store.get("rs5"));
+        store.close();
+
+        ResponseStore<String> reopened = new ResponseStore<>(basePath(), STRING);
+        assertEquals(10, reopened.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("value" + (90 + i), reopened.get("rs" + i));
+        }
+        reopened.close();
+    }
+
+    @Test
+    void truncatesTornRecord() throws IOException {
+        ResponseStore<String> store = new ResponseStore<>(basePath(), STRING);
+        store.put("rs1", "a");
+        store.put("rs2", "b");
+        store.close();
+        long length = Files.size(logPath());
+        try (FileChannel channel = FileChannel.open(logPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(length - 2);
+        }
+
+        ResponseStore<String> reopened = new ResponseStore<>(basePath(), STRING);
+        assertEquals("a", reopened.get("rs1"));
+        assertNull(reopened.get("rs2"));
+        assertEquals(1, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    void rebuildsIndexNotClosedCleanly() throws IOException {
+        ResponseStore<String> store = new ResponseStore<>(basePath(), STRING);
+        store.put("rs1", "a");
+        store.flush();
+        long flushed = Files.size(logPath());
+        // Crash: the index pages of rs2 reached the disk, its record in the log did not
+        store.put("rs2", "b");
+        try (FileChannel channel = FileChannel.open(logPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(flushed);
+        }
+
+        ResponseStore<String> reopened = new ResponseStore<>(basePath(), STRING);
+        assertEquals("a", reopened.get("rs1"));
+        assertNull(reopened.get("rs2"));
+        assertEquals(1, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    void ignoresRecordFailingItsCrc() throws IOException {
+        ResponseStore<String> store = new ResponseStore<>(basePath(), STRING);
+        store.put("rs1", "abcdef");
+        store.close();
+        try (FileChannel channel = FileChannel.open(logPath(), StandardOpenOption.WRITE)) {
+            // Inside the value of the only record, past its header and key
+            channel.write(ByteBuffer.wrap(new byte[]{'x'}), 12 + 3 + 2);
+        }
+
+        ResponseStore<String> reopened = new ResponseStore<>(basePath(), STRING);
+        assertNull(reopened.get("rs1"));
+        reopened.close();
+    }
+}
@@ -0,0 +1,129 @@
+package uk.ac.ebi.spot.gwas.ensembl_database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.overlap_gene.OverlapGene;
+import uk.ac.ebi.spot.gwas.overlap_region.OverlapRegion;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EnsemblDatabaseServiceTest {
+
+    private static final String[] CORE = {
+            "CREATE SCHEMA core",
+            "CREATE TABLE core.coord_system (coord_system_id INT PRIMARY KEY, name VARCHAR(40), version VARCHAR(40))",
+            "CREATE TABLE core.seq_region (seq_region_id INT PRIMARY KEY, name VARCHAR(40), coord_system_id INT, length INT)",
+            "CREATE TABLE core.attrib_type (attrib_type_id INT PRIMARY KEY, code VARCHAR(20))",
+            "CREATE TABLE core.seq_region_attrib (seq_region_id INT, attrib_type_id INT, value VARCHAR(40))",
+            "CREATE TABLE core.assembly_exception (seq_region_id INT, exc_type VARCHAR(20))",
+            "CREATE TABLE core.karyotype (seq_region_id INT, seq_region_start INT, seq_region_end INT, band VARCHAR(40), stain VARCHAR(40))",
+            "CREATE TABLE core.analysis (analysis_id INT PRIMARY KEY, logic_name VARCHAR(40))",
+            "CREATE TABLE core.xref (xref_id INT PRIMARY KEY, display_label VARCHAR(40))",
+            "CREATE TABLE core.meta_coord (table_name VARCHAR(40), max_length INT)",
+            "CREATE TABLE core.gene (gene_id INT PRIMARY KEY, stable_id VARCHAR(40), version INT, biotype VARCHAR(40), source VARCHAR(40), " +
+                    "description VARCHAR(200), seq_region_id INT, seq_region_start INT, seq_region_end INT, seq_region_strand INT, " +
+                    "analysis_id INT, display_xref_id INT, is_current INT)",
+            "INSERT INTO core.coord_system VALUES (1, 'chromosome', 'GRCh38'), (2, 'contig', NULL)",
+            "INSERT INTO core.attrib_type VALUES (1, 'toplevel'), (2, 'karyotype_rank'), (3, 'circular_seq')",
+            "INSERT INTO core.seq_region VALUES (10, '1', 1, 248956422), (11, 'MT', 1, 16569), (12, 'AC000001', 2, 5000)",
+            "INSERT INTO core.seq_region_attrib VALUES (10, 1, '1'), (10, 2, '1'), (11, 1, '1'), (11, 3, '1')",
+            "INSERT INTO core.karyotype VALUES (10, 1, 2300000, 'p36.33', 'gneg'), (10, 2300001, 5300000, 'p36.32', 'gpos25')",
+            "INSERT INTO core.analysis VALUES (1, 'ensembl'), (2, 'havana')",
+            "INSERT INTO core.xref VALUES (1, 'DDX11L2'), (2, 'WASH7P')",
+            "INSERT INTO core.meta_coord VALUES ('gene', 100000)",
+            "INSERT INTO core.gene VALUES " +
+                    "(1, 'ENSG00000290825', 1, 'lncRNA', 'havana', NULL, 10, 11869, 14409, 1, 2, 1, 1), " +
+                    "(2, 'ENSG00000227232', 5, 'unprocessed_pseudogene', 'havana', NULL, 10, 14404, 29570, -1, 1, 2, 1), " +
+                    "(3, 'ENSG00000000001', 1, 'protein_coding', 'ensembl', NULL, 10, 900000, 910000, 1, 1, NULL, 1)"
+    };
+
+    private Connection connection;
+    private EnsemblDatabaseService service;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        String url = String.format("jdbc:h2:mem:ensembl-%s;MODE=MySQL;DB_CLOSE_DELAY=-1", UUID.randomUUID());
+        connection = DriverManager.getConnection(url);
+        this.execute(CORE);
+        AppConfig config = new AppConfig();
+        config.setEnsemblDbUrl(url);
+        config.setEnsemblDbPoolSize(2);
+        config.setEnsemblCoreSchema("core");
+        config.setEnsemblOtherfeaturesSchema("otherfeatures");
+        config.setEnsemblVariationSchema("variation");
+        service = new EnsemblDatabaseService(config);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        service.close();
+        connection.close();
+    }
+
+    private void execute(String... statements) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    @Test
+    void assemblyInfoOfTopLevelRegions() {
+        AssemblyInfo chromosome = service.getAssemblyInfo("1", true);
+        assertEquals(248956422, chromosome.getLength());
+        assertEquals("GRCh38", chromosome.getAssemblyName());
+        assertEquals("REF", chromosome.getAssemblyExceptionType());
+        assertEquals(1, chromosome.getIsChromosome());
+        assertEquals(0, chromosome.getIsCircular());
+        assertEquals(Arrays.asList("p36.33", "p36.32"),
+                     chromosome.getBands().stream().map(OverlapRegion::getId).collect(Collectors.toList()));
+
+        AssemblyInfo mitochondrion = service.getAssemblyInfo("MT", false);
+        assertEquals(1, mitochondrion.getIsCircular());
+        assertNull(mitochondrion.getBands());
+    }
+
+    @Test
+    void regionsWhichAreNotTopLevelAreUnknown() {
+        assertNull(service.getAssemblyInfo("AC000001", false));
+        assertNull(service.getAssemblyInfo("Y", false));
+        assertTrue(service.getOverlapGenes("AC000001", 1, 5000, null, "core").isEmpty());
+        assertTrue(service.getOverlapBands("Y", 1, 1000).isEmpty());
+    }
+
+    @Test
+    void overlapGenesOfTheWindow() {
+        List<OverlapGene> genes = service.getOverlapGenes("1", 10000, 20000, null, "core");
+        assertEquals(Arrays.asList("ENSG00000290825", "ENSG00000227232"),
+                     genes.stream().map(OverlapGene::getId).collect(Collectors.toList()));
+        assertEquals("DDX11L2", genes.get(0).getExternalName());
+        assertEquals("1", genes.get(0).getSeqRegionName());
+
+        List<OverlapGene> ensemblGenes = service.getOverlapGenes("1", 10000, 20000, "ensembl", "core");
+        assertEquals(Collections.singletonList("ENSG00000227232"),
+                     ensemblGenes.stream().map(OverlapGene::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void regionsAreReadOncePerSchema() throws SQLException {
+        assertNotNull(service.getAssemblyInfo("1", false));
+
+        // Added after the regions of the schema were read
+        this.execute("INSERT INTO core.seq_region VALUES (13, 'X', 1, 156040895)",
+                     "INSERT INTO core.seq_region_attrib VALUES (13, 1, '1')");
+
+        assertNull(service.getAssemblyInfo("X", false));
+        assertNotNull(service.getAssemblyInfo("MT", false));
+    }
+}
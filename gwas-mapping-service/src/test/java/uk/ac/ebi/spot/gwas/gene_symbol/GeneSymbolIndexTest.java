@@ -0,0 +1,113 @@
+package uk.ac.ebi.spot.gwas.gene_symbol;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeneSymbolIndexTest {
+
+    private static GeneSymbolIndex.Builder builder(boolean complete) {
+        GeneSymbolIndex.Builder builder = new GeneSymbolIndex.Builder(complete);
+        builder.add("BRCA2", "ENSG00000139618", "13", "protein_coding", 32315508, 32400268, 1);
+        builder.add("TP53", "ENSG00000141510", "17", "protein_coding", 7661779, 7687538, -1);
+        builder.synonym("ENSG00000139618", "FANCD1");
+        return builder;
+    }
+
+    @Test
+    void symbolsAreFoundRegardlessOfCaseAndSpaces() {
+        GeneSymbolIndex index = builder(true).build();
+
+        GeneSymbol gene = index.get(" brca2 ");
+        assertEquals("ENSG00000139618", gene.getId());
+        assertEquals("BRCA2", gene.getDisplayName());
+        assertEquals("13", gene.getSeqRegionName());
+        assertEquals(32315508, gene.getStart());
+        assertEquals(1, gene.getStrand());
+        assertEquals("homo_sapiens", gene.getSpecies());
+        assertNull(gene.getError());
+        assertEquals(-1, index.get("Tp53").getStrand());
+        assertEquals("ENSG00000139618", index.get("fancd1").getId());
+        assertEquals("17", index.chromosome("tp53"));
+        assertEquals(2, index.size());
+        assertEquals(3, index.symbols());
+    }
+
+    @Test
+    void symbolIsPreferredOverSynonym() {
+        GeneSymbolIndex.Builder builder = builder(true);
+        // A synonym does not take a symbol, a symbol takes the name from a synonym
+        builder.add("OTHER", "ENSG00000000001", "1", "protein_coding", 100, 200, 1);
+        builder.synonym("ENSG00000000001", "brca2");
+        builder.add("FANCD1", "ENSG00000000002", "2", "protein_coding", 100, 200, 1);
+        GeneSymbolIndex index = builder.build();
+
+        assertEquals("ENSG00000139618", index.get("BRCA2").getId());
+        assertEquals("ENSG00000000002", index.get("FANCD1").getId());
+    }
+
+    @Test
+    void chromosomeGeneIsPreferredOverPatchGene() {
+        GeneSymbolIndex.Builder builder = new GeneSymbolIndex.Builder(true);
+        builder.add("HLA-A", "ENSG00000229215", "CHR_HSCHR6_MHC_COX_CTG1", "protein_coding", 29941260, 29949572, 1);
+        builder.add("HLA-A", "ENSG00000206503", "6", "protein_coding", 29941260, 29945884, 1);
+        builder.add("HLA-A", "ENSG00000235657", "CHR_HSCHR6_MHC_APD_CTG1", "protein_coding", 29941260, 29949572, 1);
+        GeneSymbolIndex index = builder.build();
+
+        assertEquals("ENSG00000206503", index.get("HLA-A").getId());
+        assertEquals("6", index.chromosome("hla-a"));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    void completeIndexAnswersMissesWithTheEnsemblError() {
+        GeneSymbolIndex index = builder(true).build();
+
+        assertTrue(index.isComplete());
+        assertTrue(index.covers("NOTAGENE"));
+        assertEquals("No valid lookup found for symbol NOTAGENE", index.get("NOTAGENE").getError());
+        assertNull(index.get("NOTAGENE").getId());
+        assertNull(index.chromosome("NOTAGENE"));
+    }
+
+    @Test
+    void incompleteIndexCoversOnlyWhatItHolds() {
+        GeneSymbolIndex.Builder builder = builder(false);
+        builder.error("lost1", "No valid lookup found for symbol lost1");
+        GeneSymbolIndex index = builder.build();
+
+        assertFalse(index.isComplete());
+        assertTrue(index.covers("brca2"));
+        assertTrue(index.covers("LOST1"));
+        assertEquals("No valid lookup found for symbol lost1", index.get("Lost1").getError());
+        assertFalse(index.covers("NOTAGENE"));
+        assertFalse(index.covers(null));
+    }
+
+    @Test
+    void errorIsDroppedOnceTheSymbolIsFound() {
+        GeneSymbolIndex.Builder builder = new GeneSymbolIndex.Builder(false);
+        builder.error("BRCA2", "No valid lookup found for symbol BRCA2");
+        builder.add("BRCA2", "ENSG00000139618", "13", "protein_coding", 32315508, 32400268, 1);
+        // An error for a symbol already found is ignored
+        builder.error("brca2", "No valid lookup found for symbol brca2");
+        GeneSymbolIndex index = builder.build();
+
+        assertNull(index.get("BRCA2").getError());
+        assertEquals("ENSG00000139618", index.get("BRCA2").getId());
+    }
+
+    @Test
+    void genesWithoutIdOrChromosomeAreSkipped() {
+        GeneSymbolIndex.Builder builder = new GeneSymbolIndex.Builder(false);
+        builder.add("NOID", null, "1", "protein_coding", 100, 200, 1);
+        builder.add("NOCHR", "ENSG00000000003", null, "protein_coding", 100, 200, 1);
+        builder.synonym("ENSG00000000003", "ALIAS");
+        GeneSymbolIndex index = builder.build();
+
+        assertEquals(0, index.size());
+        assertEquals(0, index.symbols());
+        assertFalse(index.covers("NOID"));
+        assertFalse(index.covers("ALIAS"));
+    }
+}
@@ -0,0 +1,104 @@
+package uk.ac.ebi.spot.gwas.gene_symbol;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.constant.Type;
+import uk.ac.ebi.spot.gwas.common.service.EnsemblRestcallHistoryService;
+import uk.ac.ebi.spot.gwas.mapping.dto.RestResponseResult;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LocalGeneSymbolServiceTest {
+
+    private static final String BRCA2 = "{\"id\":\"ENSG00000139618\",\"display_name\":\"BRCA2\",\"seq_region_name\":\"13\"," +
+            "\"biotype\":\"protein_coding\",\"start\":32315508,\"end\":32400268,\"strand\":1}";
+
+    @TempDir
+    Path directory;
+
+    private AppConfig config;
+    private EnsemblRestcallHistoryService historyService;
+
+    @BeforeEach
+    void setUp() {
+        config = new AppConfig();
+        config.setERelease("110");
+        config.setEnsemblSource("ensembl");
+        config.setEnsemblAnnotationFile(directory.resolve("missing.gtf").toString());
+        historyService = mock(EnsemblRestcallHistoryService.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void history(Map<String, RestResponseResult> results) {
+        doAnswer(invocation -> {
+            BiConsumer<String, RestResponseResult> consumer = invocation.getArgument(3);
+            results.forEach(consumer);
+            return null;
+        }).when(historyService).forEachResult(eq(Type.LOOKUP_SYMBOL), eq("110"), anyInt(), any(BiConsumer.class));
+    }
+
+    @Test
+    void withoutGeneDumpTheHistoryOfTheReleaseIsIndexed() {
+        Map<String, RestResponseResult> results = new LinkedHashMap<>();
+        results.put("fancd1", RestResponseResult.builder().restResult(BRCA2).status(200).build());
+        results.put("LOST1", RestResponseResult.builder().error("{\"error\":\"No valid lookup found for symbol LOST1\"}").status(400).build());
+        results.put("broken", RestResponseResult.builder().restResult("not json").status(200).build());
+        this.history(results);
+        LocalGeneSymbolService service = new LocalGeneSymbolService(config, historyService);
+
+        // Found under the symbol Ensembl returned and the one it was looked up by
+        assertEquals("ENSG00000139618", service.getReportedGene("brca2").getId());
+        assertEquals("ENSG00000139618", service.getReportedGene("FANCD1").getId());
+        assertEquals("No valid lookup found for symbol LOST1", service.getReportedGene("lost1").getError());
+        assertFalse(service.covers("broken"));
+        assertFalse(service.covers("TP53"));
+    }
+
+    @Test
+    void reportedGenesAreTheCoveredOnesKeyedAsGiven() {
+        this.history(Collections.singletonMap("BRCA2", RestResponseResult.builder().restResult(BRCA2).status(200).build()));
+        LocalGeneSymbolService service = new LocalGeneSymbolService(config, historyService);
+
+        Map<String, GeneSymbol> genes = service.getReportedGenes(Arrays.asList(" brca2", "TP53"));
+
+        assertEquals(Collections.singleton(" brca2"), genes.keySet());
+        assertEquals("BRCA2", genes.get(" brca2").getDisplayName());
+        // Built once for every lookup
+        verify(historyService, times(1)).forEachResult(anyString(), anyString(), anyInt(), any());
+    }
+
+    @Test
+    void geneDumpAndSynonymsMakeACompleteIndex() throws IOException {
+        Path annotation = Files.write(directory.resolve("genes.gtf"), Arrays.asList(
+                "#!genome-build GRCh38.p14",
+                "13\tensembl_havana\tgene\t32315508\t32400268\t.\t+\t.\tgene_id \"ENSG00000139618\"; gene_version \"19\"; " +
+                        "gene_name \"BRCA2\"; gene_source \"ensembl_havana\"; gene_biotype \"protein_coding\";",
+                "17\tensembl_havana\tgene\t7661779\t7687538\t.\t-\t.\tgene_id \"ENSG00000141510\"; gene_version \"19\"; " +
+                        "gene_name \"TP53\"; gene_source \"ensembl_havana\"; gene_biotype \"protein_coding\";"), StandardCharsets.UTF_8);
+        Path synonyms = Files.write(directory.resolve("hgnc_complete_set.txt"), Arrays.asList(
+                "hgnc_id\tsymbol\talias_symbol\tprev_symbol\tensembl_gene_id",
+                "HGNC:1101\tBRCA2\tFAD|FAD1\t\"FANCD1\"\tENSG00000139618",
+                "HGNC:11998\tTP53\tLFS1\t\tENSG00000141510"), StandardCharsets.UTF_8);
+        config.setEnsemblAnnotationFile(annotation.toString());
+        config.setGeneSymbolSynonymsFile(synonyms.toString());
+        LocalGeneSymbolService service = new LocalGeneSymbolService(config, historyService);
+
+        assertEquals("ENSG00000139618", service.getReportedGene("fancd1").getId());
+        assertEquals("ENSG00000139618", service.getReportedGene("FAD1").getId());
+        assertEquals(-1, service.getReportedGene("lfs1").getStrand());
+        assertTrue(service.covers("NOTAGENE"));
+        assertEquals("No valid lookup found for symbol NOTAGENE", service.getReportedGene("NOTAGENE").getError());
+        verifyNoInteractions(historyService);
+    }
+}
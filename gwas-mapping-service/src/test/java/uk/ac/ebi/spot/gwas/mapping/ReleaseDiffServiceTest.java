@@ -0,0 +1,142 @@
+package uk.ac.ebi.spot.gwas.mapping;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfoService;
+import uk.ac.ebi.spot.gwas.association.AssociationRepository;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.constant.Type;
+import uk.ac.ebi.spot.gwas.common.projection.HistoryEntryProjection;
+import uk.ac.ebi.spot.gwas.common.repository.EnsemblRestcallHistoryRepository;
+import uk.ac.ebi.spot.gwas.gene_symbol.GeneSymbolService;
+import uk.ac.ebi.spot.gwas.overlap_gene.OverlapGene;
+import uk.ac.ebi.spot.gwas.overlap_gene.OverlappingGeneService;
+import uk.ac.ebi.spot.gwas.overlap_region.OverlapRegionService;
+import uk.ac.ebi.spot.gwas.variation.Variant;
+import uk.ac.ebi.spot.gwas.variation.VariationService;
+
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReleaseDiffServiceTest {
+
+    private static final String ENSEMBL = "Ensembl";
+
+    @Mock
+    private EnsemblRestcallHistoryRepository historyRepository;
+    @Mock
+    private AssociationRepository associationRepository;
+    @Mock
+    private VariationService variationService;
+    @Mock
+    private OverlappingGeneService overlappingGeneService;
+    @Mock
+    private AssemblyInfoService assemblyInfoService;
+
+    private ReleaseDiffService releaseDiffService;
+
+    @BeforeEach
+    void setUp(@TempDir Path cacheRoot) {
+        AppConfig config = new AppConfig();
+        config.setERelease("105");
+        config.setReleaseDiffBatchSize(1000);
+        config.setGenomicDistance(100_000);
+        config.setEnsemblSource(ENSEMBL);
+        config.setNcbiSource("NCBI");
+        config.setCacheRoot(cacheRoot.toString());
+        releaseDiffService = new ReleaseDiffService(config, historyRepository, associationRepository, variationService,
+                                                    mock(OverlapRegionService.class), overlappingGeneService,
+                                                    assemblyInfoService, mock(GeneSymbolService.class));
+    }
+
+    private static HistoryEntryProjection entry(long id, String type, String param, String response) {
+        HistoryEntryProjection entry = mock(HistoryEntryProjection.class);
+        lenient().when(entry.getId()).thenReturn(id);
+        when(entry.getRequestType()).thenReturn(type);
+        when(entry.getEnsemblParam()).thenReturn(param);
+        when(entry.getEnsemblResponse()).thenReturn(response);
+        return entry;
+    }
+
+    private static OverlapGene gene(int start, int end) {
+        return OverlapGene.builder().id("ENSG" + start).seqRegionName("1").start(start).end(end).build();
+    }
+
+    @SafeVarargs
+    private final void history(List<HistoryEntryProjection>... pages) {
+        List<List<HistoryEntryProjection>> answers = new ArrayList<>(Arrays.asList(pages));
+        answers.add(Collections.emptyList());
+        when(historyRepository.findByVersionAfter(eq("104"), anyLong(), any()))
+                .thenReturn(answers.get(0), answers.subList(1, answers.size()).toArray(new List[0]));
+    }
+
+    @Test
+    void unchangedPayloadsRemapNothing() {
+        history(Collections.singletonList(entry(1, Type.SNP, "rs1", "{\"name\":\"rs1\"}")));
+        when(variationService.getVariationsFromDB(any())).thenReturn(
+                Collections.singletonMap("rs1", Variant.builder().name("rs1").build()));
+
+        assertTrue(releaseDiffService.findChangedAssociations().isEmpty());
+        verifyNoInteractions(associationRepository);
+    }
+
+    @Test
+    void changedVariationRemapsItsAssociations() {
+        history(Collections.singletonList(entry(1, Type.SNP, "rs1", "{\"name\":\"rs1\"}")));
+        when(variationService.getVariationsFromDB(any())).thenReturn(Collections.emptyMap());
+        when(associationRepository.findIdsBySnpRsIdIn(Collections.singletonList("rs1"))).thenReturn(Arrays.asList(7L, 3L));
+
+        assertEquals(new TreeSet<>(Arrays.asList(3L, 7L)), releaseDiffService.findChangedAssociations());
+    }
+
+    @Test
+    void keysAreComparedOnce() {
+        history(Collections.singletonList(entry(1, Type.SNP, "rs1", "{\"name\":\"rs1\"}")),
+                Collections.singletonList(entry(2, Type.SNP, "rs1", "{\"name\":\"rs1\"}")));
+        when(variationService.getVariationsFromDB(any())).thenReturn(
+                Collections.singletonMap("rs1", Variant.builder().name("rs1").build()));
+
+        releaseDiffService.findChangedAssociations();
+
+        verify(variationService, times(1)).getVariationsFromDB(any());
+    }
+
+    @Test
+    void changedGeneWindowReachesSnpsWalkingIntoIt() {
+        String window = "1:1000000-1100000";
+        history(Collections.singletonList(entry(1, Type.OVERLAP_REGION, window + "?feature=gene", "[]")));
+        when(overlappingGeneService.getOverlappingGenesFromDB(any(), eq(ENSEMBL))).thenReturn(
+                Collections.singletonMap(window, Collections.singletonList(gene(1050000, 1060000))));
+        AssemblyInfo chromosome = new AssemblyInfo();
+        chromosome.setLength(5_000_000);
+        when(assemblyInfoService.getAssemblyInfoFromDB("1")).thenReturn(chromosome);
+        // No gene for 100kb before and after the window, the nearest gene walks of SNPs beyond cross it
+        when(overlappingGeneService.getOverlappingGeneFromDB(anyString(), eq(ENSEMBL))).thenReturn(Collections.emptyList());
+        when(overlappingGeneService.getOverlappingGeneFromDB("1:800000-900000", ENSEMBL)).thenReturn(Collections.singletonList(gene(850000, 860000)));
+        when(overlappingGeneService.getOverlappingGeneFromDB("1:1200000-1300000", ENSEMBL)).thenReturn(Collections.singletonList(gene(1250000, 1350000)));
+        when(associationRepository.findIdsBySnpLocationBetween("1", 800000, 1350000)).thenReturn(Collections.singletonList(11L));
+
+        assertEquals(Collections.singleton(11L), releaseDiffService.findChangedAssociations());
+    }
+
+    @Test
+    void unknownChromosomeEndRemapsTheChromosome() {
+        String window = "2:1000000-1100000";
+        history(Collections.singletonList(entry(1, Type.OVERLAP_REGION, window + "?feature=gene", "[]")));
+        when(overlappingGeneService.getOverlappingGenesFromDB(any(), eq(ENSEMBL))).thenReturn(Collections.emptyMap());
+        when(associationRepository.findIdsBySnpChromosome("2")).thenReturn(Collections.singletonList(5L));
+
+        assertEquals(Collections.singleton(5L), releaseDiffService.findChangedAssociations());
+        verify(associationRepository, never()).findIdsBySnpLocationBetween(anyString(), anyInt(), anyInt());
+    }
+}
@@ -0,0 +1,157 @@
+package uk.ac.ebi.spot.gwas.overlap_gene;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeneAnnotationIndexTest {
+
+    private static final int CHROMOSOME_END = 1_000_000;
+
+    private static OverlapGene gene(String id, String chromosome, int start, int end, int strand) {
+        return OverlapGene.builder().id(id).seqRegionName(chromosome).start(start).end(end).strand(strand).build();
+    }
+
+    private static OverlapGene gene(String id, int start, int end) {
+        return gene(id, "1", start, end, 1);
+    }
+
+    private static List<String> ids(List<OverlapGene> genes) {
+        return genes.stream().map(OverlapGene::getId).collect(Collectors.toList());
+    }
+
+    private static List<OverlapGene> randomGenes(Random random, int count) {
+        List<OverlapGene> genes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int start = 1 + random.nextInt(CHROMOSOME_END);
+            int length = random.nextInt(10) == 0 ? random.nextInt(200_000) : random.nextInt(5_000);
+            genes.add(gene("G" + i, start, Math.min(CHROMOSOME_END, start + length)));
+        }
+        return genes;
+    }
+
+    @Test
+    void overlapMatchesLinearScan() {
+        Random random = new Random(42);
+        // Sizes around powers of two exercise the incomplete right edge of the implicit tree
+        for (int count : new int[]{1, 2, 7, 15, 16, 17, 100, 1023, 1024, 1025, 5000}) {
+            List<OverlapGene> genes = randomGenes(random, count);
+            GeneAnnotationIndex index = GeneAnnotationIndex.build(new ArrayList<>(genes));
+            for (int query = 0; query < 200; query++) {
+                int start = 1 + random.nextInt(CHROMOSOME_END);
+                int end = Math.min(CHROMOSOME_END, start + random.nextInt(100_000));
+                Set<String> expected = genes.stream().filter(gene -> gene.getStart() <= end && gene.getEnd() >= start)
+                        .map(OverlapGene::getId).collect(Collectors.toSet());
+
+                List<OverlapGene> hits = index.overlap("1", start, end);
+
+                assertEquals(expected, new HashSet<>(ids(hits)), count + " genes, " + start + "-" + end);
+                assertEquals(expected.size(), hits.size());
+            }
+        }
+    }
+
+    @Test
+    void overlapBoundsAreInclusive() {
+        GeneAnnotationIndex index = GeneAnnotationIndex.build(Arrays.asList(gene("A", 100, 200), gene("B", 201, 300)));
+
+        assertEquals(Collections.singletonList("A"), ids(index.overlap("1", 200, 200)));
+        assertEquals(Collections.singletonList("B"), ids(index.overlap("1", 201, 201)));
+        assertEquals(Arrays.asList("A", "B"), ids(index.overlap("1", 200, 201)));
+        assertTrue(index.overlap("1", 1, 99).isEmpty());
+        assertTrue(index.overlap("1", 301, 400).isEmpty());
+    }
+
+    @Test
+    void overlapIsPerChromosome() {
+        GeneAnnotationIndex index = GeneAnnotationIndex.build(Arrays.asList(
+                gene("A", "1", 100, 200, 1), gene("B", "X", 100, 200, 1), gene("C", null, 100, 200, 1)));
+
+        assertEquals(Collections.singletonList("B"), ids(index.overlap("X", 150, 150)));
+        assertTrue(index.overlap("2", 150, 150).isEmpty());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void nearestGenesSkipOverlappingOnes() {
+        GeneAnnotationIndex index = GeneAnnotationIndex.build(Arrays.asList(
+                gene("UP", 100, 400), gene("OVER", 450, 550), gene("DOWN", 600, 900)));
+
+        assertEquals("UP", index.nearestUpstream("1", 500, 1, gene -> false).getId());
+        assertEquals("DOWN", index.nearestDownstream("1", 500, CHROMOSOME_END, gene -> false).getId());
+    }
+
+    @Test
+    void nearestGenesIgnoreStrand() {
+        // Upstream and downstream are positions on the chromosome, as the REST window walk finds them
+        GeneAnnotationIndex index = GeneAnnotationIndex.build(Arrays.asList(
+                gene("MINUS", "1", 100, 200, -1), gene("PLUS", "1", 800, 900, 1)));
+
+        assertEquals("MINUS", index.nearestUpstream("1", 500, 1, gene -> false).getId());
+        assertEquals("PLUS", index.nearestDownstream("1", 500, CHROMOSOME_END, gene -> false).getId());
+    }
+
+    @Test
+    void tiesAreBrokenByExclusion() {
+        GeneAnnotationIndex index = GeneAnnotationIndex.build(Arrays.asList(
+                gene("LONG_UP", 100, 300), gene("SHORT_UP", 250, 300),
+                gene("SHORT_DOWN", 700, 750), gene("LONG_DOWN", 700, 900)));
+
+        OverlapGene upstream = index.nearestUpstream("1", 500, 1, gene -> false);
+        assertEquals(300, upstream.getEnd().intValue());
+        String otherUpstream = upstream.getId().equals("LONG_UP") ? "SHORT_UP" : "LONG_UP";
+        assertEquals(otherUpstream, index.nearestUpstream("1", 500, 1, gene -> gene == upstream).getId());
+
+        OverlapGene downstream = index.nearestDownstream("1", 500, CHROMOSOME_END, gene -> false);
+        assertEquals(700, downstream.getStart().intValue());
+        String otherDownstream = downstream.getId().equals("SHORT_DOWN") ? "LONG_DOWN" : "SHORT_DOWN";
+        assertEquals(otherDownstream, index.nearestDownstream("1", 500, CHROMOSOME_END, gene -> gene == downstream).getId());
+    }
+
+    @Test
+    void nearestGenesStopAtTheBoundary() {
+        GeneAnnotationIndex index = GeneAnnotationIndex.build(Arrays.asList(gene("UP", 100, 200), gene("DOWN", 800, 900)));
+
+        assertNull(index.nearestUpstream("1", 500, 201, gene -> false));
+        assertEquals("UP", index.nearestUpstream("1", 500, 200, gene -> false).getId());
+        assertNull(index.nearestDownstream("1", 500, 799, gene -> false));
+        assertEquals("DOWN", index.nearestDownstream("1", 500, 800, gene -> false).getId());
+    }
+
+    @Test
+    void nearestGenesAtChromosomeEnds() {
+        GeneAnnotationIndex index = GeneAnnotationIndex.build(Arrays.asList(
+                gene("FIRST", 1, 1), gene("MIDDLE", 500, 600), gene("LAST", CHROMOSOME_END, CHROMOSOME_END)));
+
+        assertEquals("FIRST", index.nearestUpstream("1", 2, 1, gene -> false).getId());
+        assertNull(index.nearestUpstream("1", 1, 1, gene -> false));
+        assertEquals("LAST", index.nearestDownstream("1", CHROMOSOME_END - 1, CHROMOSOME_END, gene -> false).getId());
+        assertNull(index.nearestDownstream("1", CHROMOSOME_END, CHROMOSOME_END, gene -> false));
+        assertNull(index.nearestUpstream("2", 500, 1, gene -> false));
+    }
+
+    @Test
+    void nearestGenesMatchLinearScan() {
+        Random random = new Random(7);
+        List<OverlapGene> genes = randomGenes(random, 2000);
+        GeneAnnotationIndex index = GeneAnnotationIndex.build(new ArrayList<>(genes));
+        for (int query = 0; query < 500; query++) {
+            int position = 1 + random.nextInt(CHROMOSOME_END);
+            int upBoundary = Math.max(1, position - 100_000);
+            int downBoundary = Math.min(CHROMOSOME_END, position + 100_000);
+
+            OptionalInt expectedEnd = genes.stream().filter(gene -> gene.getEnd() < position && gene.getEnd() >= upBoundary)
+                    .mapToInt(OverlapGene::getEnd).max();
+            OverlapGene upstream = index.nearestUpstream("1", position, upBoundary, gene -> false);
+            assertEquals(expectedEnd.isPresent() ? expectedEnd.getAsInt() : null, upstream == null ? null : upstream.getEnd());
+
+            OptionalInt expectedStart = genes.stream().filter(gene -> gene.getStart() > position && gene.getStart() <= downBoundary)
+                    .mapToInt(OverlapGene::getStart).min();
+            OverlapGene downstream = index.nearestDownstream("1", position, downBoundary, gene -> false);
+            assertEquals(expectedStart.isPresent() ? expectedStart.getAsInt() : null, downstream == null ? null : downstream.getStart());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package uk.ac.ebi.spot.gwas.overlap_gene;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OverlapWindowPlannerTest {
+
+    private static OverlapGene gene(String id, int start, int end) {
+        return OverlapGene.builder().id(id).start(start).end(end).build();
+    }
+
+    @Test
+    void mergesOverlappingAndAdjacentLocations() {
+        List<OverlapWindowPlanner.Window> windows = OverlapWindowPlanner.plan(
+                Arrays.asList("1:100-200", "1:150-300", "1:301-400", "1:500-600", "2:100-200"), 1000);
+
+        windows.sort(Comparator.comparing(OverlapWindowPlanner.Window::getLocation));
+        assertEquals(3, windows.size());
+        assertEquals("1:100-400", windows.get(0).getLocation());
+        assertEquals(Arrays.asList("1:100-200", "1:150-300", "1:301-400"), windows.get(0).getLocations());
+        assertEquals("1:500-600", windows.get(1).getLocation());
+        assertEquals("2:100-200", windows.get(2).getLocation());
+    }
+
+    @Test
+    void keepsWindowsWithinMaximumSize() {
+        List<OverlapWindowPlanner.Window> windows = OverlapWindowPlanner.plan(
+                Arrays.asList("1:1-60", "1:50-120", "1:110-150"), 100);
+
+        for (OverlapWindowPlanner.Window window : windows) {
+            assertTrue(window.getEnd() - window.getStart() + 1 <= 100, window.getLocation());
+        }
+        assertEquals(3, windows.stream().mapToInt(window -> window.getLocations().size()).sum());
+    }
+
+    @Test
+    void slicesGenesOverlappingTheLocation() {
+        List<OverlapGene> windowGenes = Arrays.asList(gene("A", 90, 100), gene("B", 150, 160), gene("C", 201, 300));
+
+        List<OverlapGene> genes = OverlapWindowPlanner.slice(windowGenes, "1:100-200");
+
+        assertEquals(Arrays.asList("A", "B"), Arrays.asList(genes.get(0).getId(), genes.get(1).getId()));
+    }
+
+    @Test
+    void slicesAnyNumberOfSequenceRegions() {
+        // Patch and haplotype regions are not limited to a fixed set of names
+        for (int i = 0; i < 500; i++) {
+            String location = "HSCHR6_MHC_" + i + ":100-200";
+            assertEquals(1, OverlapWindowPlanner.slice(Collections.singletonList(gene("A", 150, 160)), location).size());
+        }
+        assertEquals(1, OverlapWindowPlanner.slice(Collections.singletonList(gene("A", 150, 160)), "CHR_HG1:A:100-200").size());
+    }
+
+    @Test
+    void handsErrorToEveryLocation() {
+        List<OverlapGene> error = Collections.singletonList(new OverlapGene("Region too large"));
+
+        assertSame(error, OverlapWindowPlanner.slice(error, "1:100-200"));
+    }
+
+    @Test
+    void rejectsMalformedLocation() {
+        assertThrows(IllegalArgumentException.class, () -> OverlapWindowPlanner.slice(Collections.emptyList(), "1:100"));
+        assertThrows(IllegalArgumentException.class, () -> OverlapWindowPlanner.slice(Collections.emptyList(), "1:a-b"));
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.ebi.spot.gwas.overlap_region;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfo;
+import uk.ac.ebi.spot.gwas.assembly_info.AssemblyInfoService;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class CytogeneticBandIndexTest {
+
+    private static final long NEVER = Long.MAX_VALUE / 2;
+
+    private AppConfig config;
+    private AssemblyInfoService assemblyInfoService;
+
+    @BeforeEach
+    void setUp() {
+        config = new AppConfig();
+        config.setERelease("105");
+        assemblyInfoService = mock(AssemblyInfoService.class);
+    }
+
+    private static OverlapRegion band(String id, int start, int end) {
+        return OverlapRegion.builder().id(id).start(start).end(end).build();
+    }
+
+    private static AssemblyInfo karyotype(OverlapRegion... bands) {
+        AssemblyInfo assemblyInfo = new AssemblyInfo();
+        assemblyInfo.setBands(new ArrayList<>(Arrays.asList(bands)));
+        return assemblyInfo;
+    }
+
+    @Test
+    void positionResolvesToItsBand() {
+        // Out of order as Ensembl may list them, with a gap and a band without coordinates
+        when(assemblyInfoService.getBandsFromDB("1")).thenReturn(karyotype(
+                band("p36.32", 2300001, 5300000), band("p36.33", 1, 2300000),
+                band("p36.31", 5400001, 7100000), OverlapRegion.builder().id("p36.2").build()));
+        CytogeneticBandIndex index = new CytogeneticBandIndex(config, assemblyInfoService, NEVER);
+
+        assertEquals("p36.33", index.getBand("1", 1));
+        assertEquals("p36.33", index.getBand("1", 2300000));
+        assertEquals("p36.32", index.getBand("1", 2300001));
+        assertEquals("p36.31", index.getBand("1", 7100000));
+        assertNull(index.getBand("1", 5350000));
+        assertNull(index.getBand("1", 7100001));
+        assertTrue(index.isLoaded("1"));
+        verify(assemblyInfoService, times(1)).getBandsFromDB("1");
+    }
+
+    @Test
+    void chromosomeWithoutBandsIsLoaded() {
+        when(assemblyInfoService.getBandsFromDB("MT")).thenReturn(new AssemblyInfo());
+        CytogeneticBandIndex index = new CytogeneticBandIndex(config, assemblyInfoService, NEVER);
+
+        assertTrue(index.isLoaded("MT"));
+        assertNull(index.getBand("MT", 100));
+    }
+
+    @Test
+    void failedLoadIsNotRetriedBeforeItIsDue() {
+        when(assemblyInfoService.getBandsFromDB("2")).thenThrow(new IllegalStateException("503"));
+        CytogeneticBandIndex index = new CytogeneticBandIndex(config, assemblyInfoService, NEVER);
+
+        assertFalse(index.isLoaded("2"));
+        assertNull(index.getBand("2", 100));
+        verify(assemblyInfoService, times(1)).getBandsFromDB("2");
+    }
+
+    @Test
+    void failedLoadIsRetriedOnceDue() {
+        when(assemblyInfoService.getBandsFromDB("2"))
+                .thenReturn(null)
+                .thenReturn(karyotype(band("p25.3", 1, 4400000)));
+        CytogeneticBandIndex index = new CytogeneticBandIndex(config, assemblyInfoService, 0);
+
+        assertFalse(index.isLoaded("2"));
+        assertEquals("p25.3", index.getBand("2", 100));
+        assertTrue(index.isLoaded("2"));
+        verify(assemblyInfoService, times(2)).getBandsFromDB("2");
+    }
+
+    @Test
+    void bandsAreKeptPerRelease() {
+        when(assemblyInfoService.getBandsFromDB("1")).thenReturn(karyotype(band("p36.33", 1, 2300000)));
+        CytogeneticBandIndex index = new CytogeneticBandIndex(config, assemblyInfoService, NEVER);
+
+        index.getBand("1", 100);
+        config.setERelease("106");
+        index.getBand("1", 100);
+
+        verify(assemblyInfoService, times(2)).getBandsFromDB("1");
+    }
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        when(assemblyInfoService.getBandsFromDB("1")).thenAnswer(invocation -> {
+            loading.await(5, TimeUnit.SECONDS);
+            return karyotype(band("p36.33", 1, 2300000));
+        });
+        CytogeneticBandIndex index = new CytogeneticBandIndex(config, assemblyInfoService, NEVER);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> bands = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                bands.add(executor.submit(() -> index.getBand("1", 100)));
+            }
+            loading.countDown();
+            for (Future<String> band : bands) {
+                assertEquals("p36.33", band.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(assemblyInfoService, times(1)).getBandsFromDB("1");
+    }
+}
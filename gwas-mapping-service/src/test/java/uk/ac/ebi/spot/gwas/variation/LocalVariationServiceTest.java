@@ -0,0 +1,69 @@
+package uk.ac.ebi.spot.gwas.variation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.spot.gwas.common.config.AppConfig;
+import uk.ac.ebi.spot.gwas.common.repository.SingleNucleotidePolymorphismRepository;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class LocalVariationServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private AppConfig config;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        config = new AppConfig();
+        config.setCacheDir(directory.resolve("cache").toString());
+        config.setVariationVcfFile(Files.write(directory.resolve("variants.vcf"), VariantVcfLoaderTest.vcf(), StandardCharsets.UTF_8).toString());
+        config.setVariationMergeFile(Files.write(directory.resolve("RsMergeArch.bcp"), VariantVcfLoaderTest.merges(), StandardCharsets.UTF_8).toString());
+    }
+
+    private LocalVariationService service(String... catalogRsIds) {
+        SingleNucleotidePolymorphismRepository snpRepository = mock(SingleNucleotidePolymorphismRepository.class);
+        when(snpRepository.findAllRsIds()).thenReturn(Arrays.asList(catalogRsIds));
+        return new LocalVariationService(config, snpRepository);
+    }
+
+    @Test
+    void variationsAreResolvedForCoveredRsIdsOnly() {
+        LocalVariationService service = this.service("rs1", "rs4");
+
+        Map<String, Variant> variants = service.getVariations(Arrays.asList(" rs1", "rs4", "rs9"));
+
+        assertEquals(new HashSet<>(Arrays.asList("rs1", "rs4")), variants.keySet());
+        assertEquals("rs2", variants.get("rs4").getName());
+        assertTrue(Files.exists(directory.resolve("cache").resolve("variant-index.bin")));
+    }
+
+    @Test
+    void storedIndexIsReusedWhileItCoversTheCatalog() {
+        this.service("rs1", "rs2").covers("rs1");
+
+        // Read back rather than built for the smaller catalog, rs2 stays covered
+        LocalVariationService service = this.service("rs1");
+
+        assertTrue(service.covers("rs2"));
+    }
+
+    @Test
+    void indexIsBuiltAgainForRsIdsAddedToTheCatalog() {
+        this.service("rs1").covers("rs1");
+
+        LocalVariationService service = this.service("rs1", "rs2");
+
+        assertTrue(service.covers("rs2"));
+        assertEquals("rs2", service.getVariation("rs2").getName());
+    }
+}
@@ -0,0 +1,107 @@
+package uk.ac.ebi.spot.gwas.variation;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.ebi.spot.gwas.mapping.dto.Mapping;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VariantTableTest {
+
+    private static Mapping mapping(String chromosome, int start) {
+        Mapping mapping = new Mapping();
+        mapping.setSeqRegionName(chromosome);
+        mapping.setCoordSystem("chromosome");
+        mapping.setAssemblyName("GRCh38");
+        mapping.setStart(start);
+        mapping.setEnd(start);
+        mapping.setStrand(1);
+        return mapping;
+    }
+
+    private static Variant variant(String name, Mapping... mappings) {
+        return Variant.builder().name(name).mostSevereConsequence("intron_variant")
+                .mappings(new ArrayList<>(Arrays.asList(mappings))).build();
+    }
+
+    @Test
+    void roundTrip() {
+        VariantTable table = new VariantTable(4);
+        Variant variant = variant("rs123", mapping("1", 100), mapping("X", 200));
+
+        assertNull(table.put("rs123", variant));
+
+        assertEquals(variant, table.get("rs123"));
+        assertTrue(table.containsKey("rs123"));
+        assertNull(table.get("rs124"));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void putAgainOverwritesAndReturnsPrevious() {
+        VariantTable table = new VariantTable(4);
+        Variant first = variant("rs123", mapping("1", 100));
+        Variant bigger = variant("rs123", mapping("2", 300), mapping("3", 400));
+        Variant smaller = Variant.builder().name("rs456").error("merged").build();
+        table.put("rs123", first);
+        table.put("rs999", variant("rs999", mapping("5", 500)));
+
+        assertEquals(first, table.put("rs123", bigger));
+        assertEquals(bigger, table.get("rs123"));
+        assertEquals(bigger, table.put("rs123", smaller));
+        assertEquals(smaller, table.get("rs123"));
+
+        assertEquals(2, table.size());
+        assertEquals(variant("rs999", mapping("5", 500)), table.get("rs999"));
+    }
+
+    @Test
+    void keysWhichAreNotPlainRsIds() {
+        VariantTable table = new VariantTable(4);
+        Variant first = variant("rs0123");
+        Variant second = variant("esv3647175");
+
+        assertNull(table.put("rs0123", first));
+        assertEquals(first, table.put("rs0123", second));
+        assertEquals(second, table.get("rs0123"));
+        assertNull(table.get("rs123"));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void growsPastExpectedSize() {
+        VariantTable table = new VariantTable(1);
+        Map<String, Variant> expected = new HashMap<>();
+        for (int i = 1; i <= 5000; i++) {
+            Variant variant = variant("rs" + i, mapping(String.valueOf(i % 22 + 1), i));
+            table.put("rs" + i, variant);
+            expected.put("rs" + i, variant);
+        }
+
+        assertEquals(expected.size(), table.size());
+        expected.forEach((key, variant) -> assertEquals(variant, table.get(key), key));
+        assertEquals(expected, new HashMap<>(table));
+    }
+
+    @Test
+    void copyOfKeepsOnlyHeldRsIds() {
+        Map<String, Variant> source = new HashMap<>();
+        source.put("rs1", variant("rs1", mapping("1", 1)));
+        source.put("rs2", variant("rs2", mapping("2", 2)));
+
+        VariantTable table = VariantTable.copyOf(source, Arrays.asList(" rs1 ", "rs3"));
+
+        assertEquals(Collections.singleton("rs1"), table.keySet());
+    }
+
+    @Test
+    void rsNumber() {
+        assertEquals(12345L, VariantTable.rsNumber("rs12345"));
+        assertEquals(-1L, VariantTable.rsNumber("rs"));
+        assertEquals(-1L, VariantTable.rsNumber("rs01"));
+        assertEquals(-1L, VariantTable.rsNumber("rs12a"));
+        assertEquals(-1L, VariantTable.rsNumber("RS12"));
+        assertEquals(-1L, VariantTable.rsNumber("rs123456789012345678"));
+    }
+}
@@ -0,0 +1,118 @@
+package uk.ac.ebi.spot.gwas.variation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.spot.gwas.mapping.dto.Mapping;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VariantVcfLoaderTest {
+
+    @TempDir
+    Path directory;
+
+    private Path vcfFile;
+    private Path mergeFile;
+
+    static List<String> vcf() {
+        return Arrays.asList(
+                "##fileformat=VCFv4.1",
+                "##reference=GRCh38",
+                "##INFO=<ID=CSQ,Number=.,Type=String,Description=\"Consequence annotations from Ensembl VEP. Format: Allele|Consequence|IMPACT\">",
+                "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO",
+                "1\t100\trs1\tA\tG\t.\t.\tCSQ=G|intron_variant&missense_variant|MODERATE",
+                // Deletion, Ensembl drops the padding base
+                "1\t200\trs2;rs3\tAT\tA\t.\t.\tCSQ=-|intron_variant|MODIFIER",
+                "chr2\t300\trs1\tA\tC\t.\t.\tCSQ=C|upstream_gene_variant|MODIFIER",
+                "X\t400\trs9\tC\tT\t.\t.\tCSQ=T|intron_variant|MODIFIER");
+    }
+
+    // rsHigh rsLow build_id orien create_time last_updated_time rsCurrent orien2Current comment
+    static List<String> merges() {
+        return Collections.singletonList("4\t2\t150\t0\t2017-01-01\t2017-01-01\t2\t0\t");
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        vcfFile = Files.write(directory.resolve("variants.vcf"), vcf(), StandardCharsets.UTF_8);
+        mergeFile = Files.write(directory.resolve("RsMergeArch.bcp"), merges(), StandardCharsets.UTF_8);
+    }
+
+    private VariantIndex load(String... rsIds) {
+        return VariantVcfLoader.load(vcfFile.toString(), mergeFile.toString(), Arrays.asList(rsIds));
+    }
+
+    @Test
+    void variantHasEveryLocationAndTheMostSevereConsequence() {
+        VariantIndex index = this.load("rs1", "rs2");
+
+        Variant variant = index.get("rs1");
+        assertEquals("rs1", variant.getName());
+        assertEquals("missense_variant", variant.getMostSevereConsequence());
+        List<String> locations = new ArrayList<>();
+        variant.getMappings().forEach(mapping -> locations.add(mapping.getLocation()));
+        assertEquals(Arrays.asList("1:100-100", "2:300-300"), locations);
+        assertEquals("GRCh38", variant.getMappings().get(0).getAssemblyName());
+    }
+
+    @Test
+    void deletionIsLocatedWithoutItsPaddingBase() {
+        Mapping mapping = this.load("rs2").get("rs2").getMappings().get(0);
+
+        assertEquals(201, mapping.getStart());
+        assertEquals(201, mapping.getEnd());
+    }
+
+    @Test
+    void mergedRsIdIsAnsweredUnderItsCurrentOne() {
+        VariantIndex index = this.load("rs4");
+
+        assertTrue(index.covers("rs4"));
+        assertEquals("rs2", index.get("rs4").getName());
+        assertEquals(1, index.merges());
+    }
+
+    @Test
+    void onlyTheRequestedRsIdsAreCovered() {
+        VariantIndex index = this.load("rs1", "RS5", "esv123");
+
+        assertTrue(index.covers("rs1"));
+        assertTrue(index.covers("rs5"));
+        assertFalse(index.covers("rs9"));
+        assertFalse(index.covers("esv123"));
+        // Covered but missing from the file, as Ensembl reports it
+        assertEquals("rs5 not found for homo_sapiens", index.get("rs5").getError());
+        assertEquals(2, index.countUncovered(Arrays.asList("rs1", "rs9", "rs10", "esv123")));
+    }
+
+    @Test
+    void rsNumbersAreCappedAtEighteenDigits() {
+        assertEquals(12345L, VariantIndex.rsNumber(" rs12345 "));
+        assertEquals(999999999999999999L, VariantIndex.rsNumber("rs999999999999999999"));
+        assertEquals(-1L, VariantIndex.rsNumber("rs9999999999999999999"));
+        assertEquals(-1L, VariantIndex.rsNumber("rs12a"));
+        assertEquals(-1L, VariantIndex.rsNumber("rs"));
+        assertEquals(-1L, VariantIndex.rsNumber(null));
+    }
+
+    @Test
+    void writtenIndexIsReadBackForTheSameFingerprintOnly() throws IOException {
+        Path indexFile = directory.resolve("variant-index.bin");
+        this.load("rs1", "rs4").write(indexFile, "files-1");
+
+        VariantIndex read = VariantIndex.read(indexFile, "files-1");
+        assertNotNull(read);
+        // Two locations of rs1 and the one of rs2, which rs4 was merged into
+        assertEquals(3, read.size());
+        assertEquals("rs2", read.get("rs4").getName());
+        assertEquals("missense_variant", read.get("rs1").getMostSevereConsequence());
+        assertNull(VariantIndex.read(indexFile, "files-2"));
+    }
+}